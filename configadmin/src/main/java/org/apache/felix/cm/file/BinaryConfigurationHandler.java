@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.file;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+
+
+/**
+ * The <code>BinaryConfigurationHandler</code> class implements a compact
+ * binary encoding of configuration dictionaries used by the
+ * {@link JournalPersistenceManager}. It supports the same value types as the
+ * text based {@link ConfigurationHandler}: the simple types, arrays of simple
+ * and primitive types and collections of simple types.
+ * <p>
+ * A dictionary is encoded as the number of entries followed by each key
+ * (as a string) and value. A value starts with a kind byte (simple, array of
+ * wrappers, array of primitives or collection) and a type byte, followed by
+ * the value itself, or the number of elements and the elements for arrays
+ * and collections. Elements of a collection each carry their own type byte.
+ * Strings are encoded as the length of their UTF-8 representation followed by
+ * the bytes, so that strings are not limited in length as with
+ * <code>writeUTF</code>.
+ */
+class BinaryConfigurationHandler
+{
+
+    // the character encoding of strings
+    private static final String ENCODING = "UTF-8";
+
+    private static final int KIND_SIMPLE = 0;
+
+    private static final int KIND_ARRAY = 1;
+
+    private static final int KIND_PRIMITIVE_ARRAY = 2;
+
+    private static final int KIND_COLLECTION = 3;
+
+    private static final int TYPE_STRING = 0;
+
+    private static final int TYPE_INTEGER = 1;
+
+    private static final int TYPE_LONG = 2;
+
+    private static final int TYPE_FLOAT = 3;
+
+    private static final int TYPE_DOUBLE = 4;
+
+    private static final int TYPE_BYTE = 5;
+
+    private static final int TYPE_SHORT = 6;
+
+    private static final int TYPE_CHARACTER = 7;
+
+    private static final int TYPE_BOOLEAN = 8;
+
+    // wrapper classes indexed by type code
+    private static final Class[] WRAPPER_TYPES =
+        { String.class, Integer.class, Long.class, Float.class, Double.class, Byte.class, Short.class,
+            Character.class, Boolean.class };
+
+    // primitive classes indexed by type code, null for String
+    private static final Class[] PRIMITIVE_TYPES =
+        { null, Integer.TYPE, Long.TYPE, Float.TYPE, Double.TYPE, Byte.TYPE, Short.TYPE, Character.TYPE,
+            Boolean.TYPE };
+
+
+    // private constructor, this class is not to be instantiated from the
+    // outside
+    private BinaryConfigurationHandler()
+    {
+    }
+
+
+    /**
+     * Writes the configuration data from the <code>Dictionary</code> to the
+     * given output.
+     *
+     * @param out The output to write the configuration data to.
+     * @param properties The <code>Dictionary</code> to write.
+     *
+     * @throws IOException If an error occurrs writing the data or if the
+     *      dictionary contains a value of an unsupported type.
+     */
+    static void write( DataOutput out, Dictionary properties ) throws IOException
+    {
+        out.writeInt( properties.size() );
+        for ( Enumeration ce = properties.keys(); ce.hasMoreElements(); )
+        {
+            String key = ( String ) ce.nextElement();
+            writeString( out, key );
+            writeValue( out, properties.get( key ) );
+        }
+    }
+
+
+    /**
+     * Reads configuration data from the given input and returns a new
+     * <code>Dictionary</code> object containing the data.
+     *
+     * @param in The input from which to read the configuration data.
+     *
+     * @return A <code>Dictionary</code> object containing the configuration
+     *      data.
+     *
+     * @throws IOException If an error occurrs reading from the input or if
+     *      the data is not a valid encoding.
+     */
+    static Dictionary read( DataInput in ) throws IOException
+    {
+        int size = in.readInt();
+        if ( size < 0 )
+        {
+            throw new IOException( "Invalid number of properties " + size );
+        }
+
+        Hashtable properties = new Hashtable( Math.max( 2 * size, 11 ) );
+        for ( int i = 0; i < size; i++ )
+        {
+            String key = readString( in );
+            properties.put( key, readValue( in ) );
+        }
+        return properties;
+    }
+
+
+    private static void writeValue( DataOutput out, Object value ) throws IOException
+    {
+        Class clazz = value.getClass();
+        if ( clazz.isArray() )
+        {
+            Class componentType = clazz.getComponentType();
+            int type = getType( componentType, componentType.isPrimitive() ? PRIMITIVE_TYPES : WRAPPER_TYPES );
+            int size = Array.getLength( value );
+            out.writeByte( componentType.isPrimitive() ? KIND_PRIMITIVE_ARRAY : KIND_ARRAY );
+            out.writeByte( type );
+            out.writeInt( size );
+            for ( int i = 0; i < size; i++ )
+            {
+                writeSimple( out, type, Array.get( value, i ) );
+            }
+        }
+        else if ( value instanceof Collection )
+        {
+            Collection collection = ( Collection ) value;
+            out.writeByte( KIND_COLLECTION );
+            out.writeByte( 0 );
+            out.writeInt( collection.size() );
+            for ( Iterator ci = collection.iterator(); ci.hasNext(); )
+            {
+                Object element = ci.next();
+                int type = getType( element.getClass(), WRAPPER_TYPES );
+                out.writeByte( type );
+                writeSimple( out, type, element );
+            }
+        }
+        else
+        {
+            int type = getType( clazz, WRAPPER_TYPES );
+            out.writeByte( KIND_SIMPLE );
+            out.writeByte( type );
+            writeSimple( out, type, value );
+        }
+    }
+
+
+    private static Object readValue( DataInput in ) throws IOException
+    {
+        int kind = in.readByte();
+        int type = in.readByte();
+        switch ( kind )
+        {
+            case KIND_SIMPLE:
+                return readSimple( in, checkType( type ) );
+
+            case KIND_ARRAY:
+            case KIND_PRIMITIVE_ARRAY:
+                Class componentType = ( kind == KIND_ARRAY ) ? WRAPPER_TYPES[checkType( type )]
+                    : PRIMITIVE_TYPES[checkType( type )];
+                if ( componentType == null )
+                {
+                    throw new IOException( "Invalid primitive array type " + type );
+                }
+                int size = readSize( in );
+                Object array = Array.newInstance( componentType, size );
+                for ( int i = 0; i < size; i++ )
+                {
+                    Array.set( array, i, readSimple( in, type ) );
+                }
+                return array;
+
+            case KIND_COLLECTION:
+                int count = readSize( in );
+                Collection collection = new ArrayList( count );
+                for ( int i = 0; i < count; i++ )
+                {
+                    collection.add( readSimple( in, checkType( in.readByte() ) ) );
+                }
+                return collection;
+
+            default:
+                throw new IOException( "Invalid value kind " + kind );
+        }
+    }
+
+
+    private static void writeSimple( DataOutput out, int type, Object value ) throws IOException
+    {
+        switch ( type )
+        {
+            case TYPE_STRING:
+                writeString( out, ( String ) value );
+                break;
+            case TYPE_INTEGER:
+                out.writeInt( ( ( Integer ) value ).intValue() );
+                break;
+            case TYPE_LONG:
+                out.writeLong( ( ( Long ) value ).longValue() );
+                break;
+            case TYPE_FLOAT:
+                out.writeFloat( ( ( Float ) value ).floatValue() );
+                break;
+            case TYPE_DOUBLE:
+                out.writeDouble( ( ( Double ) value ).doubleValue() );
+                break;
+            case TYPE_BYTE:
+                out.writeByte( ( ( Byte ) value ).byteValue() );
+                break;
+            case TYPE_SHORT:
+                out.writeShort( ( ( Short ) value ).shortValue() );
+                break;
+            case TYPE_CHARACTER:
+                out.writeChar( ( ( Character ) value ).charValue() );
+                break;
+            case TYPE_BOOLEAN:
+                out.writeBoolean( ( ( Boolean ) value ).booleanValue() );
+                break;
+        }
+    }
+
+
+    private static Object readSimple( DataInput in, int type ) throws IOException
+    {
+        switch ( type )
+        {
+            case TYPE_STRING:
+                return readString( in );
+            case TYPE_INTEGER:
+                return new Integer( in.readInt() );
+            case TYPE_LONG:
+                return new Long( in.readLong() );
+            case TYPE_FLOAT:
+                return new Float( in.readFloat() );
+            case TYPE_DOUBLE:
+                return new Double( in.readDouble() );
+            case TYPE_BYTE:
+                return new Byte( in.readByte() );
+            case TYPE_SHORT:
+                return new Short( in.readShort() );
+            case TYPE_CHARACTER:
+                return new Character( in.readChar() );
+            case TYPE_BOOLEAN:
+                return in.readBoolean() ? Boolean.TRUE : Boolean.FALSE;
+            default:
+                throw new IOException( "Invalid value type " + type );
+        }
+    }
+
+
+    static void writeString( DataOutput out, String value ) throws IOException
+    {
+        byte[] bytes = value.getBytes( ENCODING );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    static String readString( DataInput in ) throws IOException
+    {
+        byte[] bytes = new byte[readSize( in )];
+        in.readFully( bytes );
+        return new String( bytes, ENCODING );
+    }
+
+
+    private static int readSize( DataInput in ) throws IOException
+    {
+        int size = in.readInt();
+        if ( size < 0 )
+        {
+            throw new IOException( "Invalid size " + size );
+        }
+        return size;
+    }
+
+
+    private static int getType( Class clazz, Class[] types ) throws IOException
+    {
+        for ( int i = 0; i < types.length; i++ )
+        {
+            if ( types[i] == clazz )
+            {
+                return i;
+            }
+        }
+        throw new IOException( "Unsupported configuration value type " + clazz.getName() );
+    }
+
+
+    private static int checkType( int type ) throws IOException
+    {
+        if ( type < 0 || type >= WRAPPER_TYPES.length )
+        {
+            throw new IOException( "Invalid value type " + type );
+        }
+        return type;
+    }
+}
@@ -303,6 +303,29 @@ public class FilePersistenceManager implements PersistenceManager
             acc = null;
         }
 
+        this.location = resolveLocation( bundleContext, location );
+    }
+
+
+    /**
+     * Resolves the configuration directory as described for the
+     * {@link #FilePersistenceManager(BundleContext, String)} constructor and
+     * ensures it exists.
+     * <p>
+     * This method is not part of the API of this class and is declared package
+     * private to be shared with the {@link JournalPersistenceManager}.
+     *
+     * @param bundleContext The <code>BundleContext</code> to optionally get
+     *      the data location from. This may be <code>null</code>.
+     * @param location The configured location or <code>null</code>.
+     *
+     * @return The absolute configuration directory.
+     *
+     * @throws IllegalArgumentException If the location exists but is not a
+     *      directory or does not exist and cannot be created.
+     */
+    static File resolveLocation( BundleContext bundleContext, String location )
+    {
         // no configured location, use the config dir in the bundle persistent
         // area
         if ( location == null && bundleContext != null )
@@ -352,7 +375,7 @@ public class FilePersistenceManager implements PersistenceManager
             }
         }
 
-        this.location = locationFile;
+        return locationFile;
     }
 
 
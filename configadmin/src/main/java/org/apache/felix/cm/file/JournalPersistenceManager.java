@@ -0,0 +1,922 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.file;
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+import org.apache.felix.cm.PersistenceManager;
+import org.osgi.framework.BundleContext;
+
+
+/**
+ * The <code>JournalPersistenceManager</code> class stores all configuration
+ * data in a single log-structured file, the <i>journal</i>, instead of one
+ * file per configuration as the {@link FilePersistenceManager} does.
+ * <p>
+ * The journal is the file <code>configurations.journal</code> inside the
+ * configuration directory, which is resolved exactly as for the
+ * {@link FilePersistenceManager}. Each store or delete operation appends a
+ * record to the journal, which consists of the length of the record, a
+ * CRC-32 checksum, the operation, the PID and, for store operations, the
+ * configuration encoded by the {@link BinaryConfigurationHandler}. An
+ * in-memory index maps each PID to its most recent record, such that
+ * {@link #exists(String)} does not access the file and {@link #load(String)}
+ * reads a single record.
+ * <p>
+ * When the journal is opened, it is scanned once to rebuild the index. An
+ * incomplete or corrupt record at the end of the journal, as may be left
+ * behind by a crash during a write, is discarded. When more than half of a
+ * sufficiently large journal is occupied by replaced or deleted records, the
+ * live records are copied to a new journal which then replaces the old one.
+ * A replacement interrupted by a crash is completed when the journal is next
+ * opened.
+ * <p>
+ * <b>Durability and Batching</b>
+ * <p>
+ * A store or delete operation only returns after the journal has been synced
+ * to the storage device. Concurrent operations share a single sync: a thread
+ * finding its record already synced by another thread returns immediately.
+ * Many configurations can be stored with a single write and sync by calling
+ * {@link #store(Map)}.
+ * <p>
+ * <b>Startup Loading</b>
+ * <p>
+ * The {@link #getDictionaries()} method reads the journal with a single
+ * sequential read and decodes the live records in parallel on a few threads,
+ * returning an enumeration over the decoded dictionaries.
+ * <p>
+ * Configurations stored in <code>.config</code> files by the
+ * {@link FilePersistenceManager} are not imported into the journal.
+ */
+public class JournalPersistenceManager implements PersistenceManager
+{
+
+    /**
+     * The name of the journal file in the configuration directory (value is
+     * "configurations.journal").
+     */
+    public static final String JOURNAL_FILE = "configurations.journal";
+
+    // the extension of the journal being written during compaction
+    private static final String COMPACT_EXT = ".compact";
+
+    // the magic number at the start of the journal ("FCMJ")
+    private static final int MAGIC = 0x46434d4a;
+
+    // the version of the journal format
+    private static final int VERSION = 1;
+
+    // the size of the journal header: magic and version
+    private static final int HEADER_SIZE = 8;
+
+    // the size of the record header: length and checksum
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final byte OP_STORE = 1;
+
+    private static final byte OP_DELETE = 2;
+
+    // the minimum journal size before compaction is considered
+    private static final long COMPACT_MIN_SIZE = 1024 * 1024;
+
+    // the minimum number of records decoded per loader thread
+    private static final int RECORDS_PER_LOADER = 256;
+
+    /**
+     * The access control context we use in the presence of a security manager.
+     */
+    private final AccessControlContext acc;
+
+    /**
+     * The configuration directory.
+     */
+    private final File location;
+
+    /**
+     * The journal file.
+     */
+    private final File journalFile;
+
+    // the open journal, replaced on compaction
+    private RandomAccessFile journal;
+
+    // the position at which the next record is written
+    private long end;
+
+    // the index mapping PIDs to the Record of their most recent store
+    private final Hashtable index = new Hashtable();
+
+    // the number of bytes used by the records in the index
+    private long liveBytes;
+
+    // lock serializing syncs of the journal; must be acquired before this
+    private final Object syncLock = new Object();
+
+    // the position up to which the journal is known to be synced
+    private long syncedTo;
+
+
+    /**
+     * Creates an instance of this persistence manager using the given location
+     * as the directory of the journal.
+     *
+     * @param location The configuration directory. If this is
+     *      <code>null</code> the <code>config</code> directory below the current
+     *      working directory is used.
+     *
+     * @throws IllegalArgumentException If the <code>location</code> exists but
+     *      is not a directory or does not exist and cannot be created.
+     * @throws IOException If the journal cannot be opened.
+     *
+     * @see #JournalPersistenceManager(BundleContext, String)
+     */
+    public JournalPersistenceManager( String location ) throws IOException
+    {
+        this( null, location );
+    }
+
+
+    /**
+     * Creates an instance of this persistence manager using the given location
+     * as the directory of the journal. The location is resolved as described
+     * for the {@link FilePersistenceManager#FilePersistenceManager(BundleContext, String)}
+     * constructor.
+     *
+     * @param bundleContext The <code>BundleContext</code> to optionally get
+     *      the data location for the journal. This may be <code>null</code>.
+     * @param location The configuration directory. If this is
+     *      <code>null</code> the <code>config</code> directory in the
+     *      persistent storage area of the bundle is used.
+     *
+     * @throws IllegalArgumentException If the location exists but is not a
+     *      directory or does not exist and cannot be created.
+     * @throws IOException If the journal cannot be opened.
+     */
+    public JournalPersistenceManager( BundleContext bundleContext, String location ) throws IOException
+    {
+        // setup the access control context from the calling setup
+        if ( System.getSecurityManager() != null )
+        {
+            acc = AccessController.getContext();
+        }
+        else
+        {
+            acc = null;
+        }
+
+        this.location = FilePersistenceManager.resolveLocation( bundleContext, location );
+        this.journalFile = new File( this.location, JOURNAL_FILE );
+
+        open();
+    }
+
+
+    /**
+     * Returns the directory in which the journal is written as a
+     * <code>File</code> object.
+     *
+     * @return The configuration directory.
+     */
+    public File getLocation()
+    {
+        return location;
+    }
+
+
+    /**
+     * Closes the journal. This persistence manager must not be used after
+     * calling this method.
+     */
+    public void close()
+    {
+        synchronized ( syncLock )
+        {
+            synchronized ( this )
+            {
+                try
+                {
+                    journal.close();
+                }
+                catch ( IOException ioe )
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns <code>true</code> if a configuration is stored for the given
+     * identifier.
+     *
+     * @param pid The identifier of the configuration to check.
+     *
+     * @return <code>true</code> if the configuration exists
+     */
+    public boolean exists( String pid )
+    {
+        return index.containsKey( pid );
+    }
+
+
+    /**
+     * Reads the configuration for the given identifier from the journal.
+     *
+     * @param pid The identifier of the configuration to load.
+     *
+     * @return The configuration read from the journal.
+     *
+     * @throws IOException If the configuration does not exist or cannot be
+     *      read.
+     */
+    public Dictionary load( final String pid ) throws IOException
+    {
+        byte[] record = ( byte[] ) doPrivileged( new PrivilegedExceptionAction()
+        {
+            public Object run() throws IOException
+            {
+                return _read( pid );
+            }
+        } );
+
+        return decode( record, RECORD_HEADER_SIZE );
+    }
+
+
+    /**
+     * Returns an enumeration of all configurations stored in the journal.
+     * The journal is read at once and the records are decoded in parallel, so
+     * the returned enumeration is not lazy but is stable against concurrent
+     * modifications.
+     *
+     * @return an enumeration of configuration data returned as instances of
+     *      the <code>Dictionary</code> class.
+     */
+    public Enumeration getDictionaries()
+    {
+        try
+        {
+            return ( Enumeration ) doPrivileged( new PrivilegedExceptionAction()
+            {
+                public Object run() throws IOException
+                {
+                    return _getDictionaries();
+                }
+            } );
+        }
+        catch ( IOException ioe )
+        {
+            // cannot read the journal, nothing to return
+            return new Vector().elements();
+        }
+    }
+
+
+    /**
+     * Removes the configuration for the given identifier.
+     *
+     * @param pid The identifier of the configuration to delete.
+     *
+     * @throws IOException If an error occurrs writing to the journal.
+     */
+    public void delete( final String pid ) throws IOException
+    {
+        if ( !index.containsKey( pid ) )
+        {
+            return;
+        }
+
+        final byte[] record = encode( OP_DELETE, pid, null );
+        doPrivileged( new PrivilegedExceptionAction()
+        {
+            public Object run() throws IOException
+            {
+                _append( new String[]
+                    { pid }, new byte[][]
+                    { record }, new boolean[]
+                    { false } );
+                return null;
+            }
+        } );
+    }
+
+
+    /**
+     * Stores the configuration for the given identifier.
+     *
+     * @param pid The identifier of the configuration.
+     * @param properties The configuration data to write.
+     *
+     * @throws IOException If an error occurrs writing to the journal.
+     */
+    public void store( final String pid, final Dictionary properties ) throws IOException
+    {
+        final byte[] record = encode( OP_STORE, pid, properties );
+        doPrivileged( new PrivilegedExceptionAction()
+        {
+            public Object run() throws IOException
+            {
+                _append( new String[]
+                    { pid }, new byte[][]
+                    { record }, new boolean[]
+                    { true } );
+                return null;
+            }
+        } );
+    }
+
+
+    /**
+     * Stores a batch of configurations with a single write to and sync of the
+     * journal.
+     *
+     * @param configurations Map of configuration PIDs to the
+     *      <code>Dictionary</code> objects to store.
+     *
+     * @throws IOException If an error occurrs writing to the journal.
+     */
+    public void store( Map configurations ) throws IOException
+    {
+        final String[] pids = new String[configurations.size()];
+        final byte[][] records = new byte[pids.length][];
+        final boolean[] stores = new boolean[pids.length];
+        Iterator ci = configurations.entrySet().iterator();
+        for ( int i = 0; i < pids.length; i++ )
+        {
+            Map.Entry entry = ( Map.Entry ) ci.next();
+            pids[i] = ( String ) entry.getKey();
+            records[i] = encode( OP_STORE, pids[i], ( Dictionary ) entry.getValue() );
+            stores[i] = true;
+        }
+
+        doPrivileged( new PrivilegedExceptionAction()
+        {
+            public Object run() throws IOException
+            {
+                _append( pids, records, stores );
+                return null;
+            }
+        } );
+    }
+
+
+    private Object doPrivileged( PrivilegedExceptionAction action ) throws IOException
+    {
+        if ( System.getSecurityManager() == null )
+        {
+            try
+            {
+                return action.run();
+            }
+            catch ( IOException ioe )
+            {
+                throw ioe;
+            }
+            catch ( Exception e )
+            {
+                // not expected, the actions only throw IOException
+                throw new IOException( e.toString() );
+            }
+        }
+
+        try
+        {
+            return AccessController.doPrivileged( action, acc );
+        }
+        catch ( PrivilegedActionException pae )
+        {
+            // FELIX-2771: getCause() is not available in Foundation
+            throw ( IOException ) pae.getException();
+        }
+    }
+
+
+    // ---------- journal access -----------------------------------------------
+
+    /**
+     * Opens the journal, creating it if required, and rebuilds the index.
+     */
+    private void open() throws IOException
+    {
+        recoverCompaction();
+
+        journal = new RandomAccessFile( journalFile, "rw" );
+        if ( journal.length() < HEADER_SIZE )
+        {
+            journal.setLength( 0 );
+            journal.writeInt( MAGIC );
+            journal.writeInt( VERSION );
+            journal.getFD().sync();
+            end = HEADER_SIZE;
+        }
+        else
+        {
+            end = scan();
+            if ( end < journal.length() )
+            {
+                // discard the incomplete or corrupt tail
+                journal.setLength( end );
+            }
+        }
+        syncedTo = end;
+    }
+
+
+    /**
+     * Completes or discards a compaction interrupted by a crash. The journal
+     * is only deleted once the compacted journal has been synced, so a
+     * compacted journal without a journal replaces it. If the journal still
+     * exists, the compacted journal may be incomplete and is discarded.
+     */
+    private void recoverCompaction() throws IOException
+    {
+        File compactFile = new File( location, JOURNAL_FILE + COMPACT_EXT );
+        if ( !compactFile.exists() )
+        {
+            return;
+        }
+
+        if ( journalFile.exists() )
+        {
+            compactFile.delete();
+        }
+        else if ( !compactFile.renameTo( journalFile ) )
+        {
+            throw new IOException( "Failed to rename compacted journal " + compactFile );
+        }
+    }
+
+
+    /**
+     * Reads the journal sequentially to rebuild the index. A record whose
+     * length does not fit in the rest of the journal is treated as the end of
+     * the valid journal, like a record with a wrong checksum.
+     *
+     * @return the position following the last valid record
+     */
+    private long scan() throws IOException
+    {
+        long fileLength = journalFile.length();
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( journalFile ),
+            64 * 1024 ) );
+        try
+        {
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+            {
+                throw new IOException( journalFile + " is not a configuration journal" );
+            }
+
+            long position = HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            while ( true )
+            {
+                int length;
+                int checksum;
+                byte[] payload;
+                try
+                {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if ( length <= 0 || length > fileLength - position - RECORD_HEADER_SIZE )
+                    {
+                        return position;
+                    }
+                    payload = new byte[length];
+                    in.readFully( payload );
+                }
+                catch ( EOFException eofe )
+                {
+                    return position;
+                }
+
+                crc.reset();
+                crc.update( payload );
+                if ( ( int ) crc.getValue() != checksum )
+                {
+                    return position;
+                }
+
+                DataInputStream record = new DataInputStream( new ByteArrayInputStream( payload ) );
+                byte op = record.readByte();
+                String pid = BinaryConfigurationHandler.readString( record );
+                int size = RECORD_HEADER_SIZE + length;
+                if ( op == OP_STORE )
+                {
+                    index( pid, new Record( position, size ) );
+                }
+                else
+                {
+                    index( pid, null );
+                }
+                position += size;
+            }
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            catch ( IOException ioe )
+            {
+                // ignore
+            }
+        }
+    }
+
+
+    /**
+     * Updates the index entry of a PID, maintaining the live byte count.
+     */
+    private void index( String pid, Record record )
+    {
+        Record old = ( Record ) ( ( record == null ) ? index.remove( pid ) : index.put( pid, record ) );
+        if ( old != null )
+        {
+            liveBytes -= old.size;
+        }
+        if ( record != null )
+        {
+            liveBytes += record.size;
+        }
+    }
+
+
+    /**
+     * Reads the most recent record for the PID.
+     */
+    byte[] _read( String pid ) throws IOException
+    {
+        // this method is not part of the API of this class but is made
+        // package private to prevent the creation of a synthetic method
+
+        synchronized ( this )
+        {
+            Record record = ( Record ) index.get( pid );
+            if ( record == null )
+            {
+                throw new IOException( "No configuration stored for " + pid );
+            }
+
+            byte[] data = new byte[record.size];
+            journal.seek( record.position );
+            journal.readFully( data );
+            return data;
+        }
+    }
+
+
+    /**
+     * Appends the records with a single write, updates the index and syncs
+     * the journal.
+     */
+    void _append( String[] pids, byte[][] records, boolean[] stores ) throws IOException
+    {
+        // this method is not part of the API of this class but is made
+        // package private to prevent the creation of a synthetic method
+
+        int total = 0;
+        for ( int i = 0; i < records.length; i++ )
+        {
+            total += records[i].length;
+        }
+        byte[] data = new byte[total];
+        int offset = 0;
+        for ( int i = 0; i < records.length; i++ )
+        {
+            System.arraycopy( records[i], 0, data, offset, records[i].length );
+            offset += records[i].length;
+        }
+
+        long written;
+        synchronized ( this )
+        {
+            journal.seek( end );
+            journal.write( data );
+
+            long position = end;
+            for ( int i = 0; i < records.length; i++ )
+            {
+                index( pids[i], stores[i] ? new Record( position, records[i].length ) : null );
+                position += records[i].length;
+            }
+            end = position;
+            written = end;
+        }
+
+        sync( written );
+    }
+
+
+    /**
+     * Syncs the journal up to at least the given position. Threads waiting
+     * for the sync lock may find their records already synced by the thread
+     * before them, such that concurrent writes share a single sync.
+     */
+    private void sync( long position ) throws IOException
+    {
+        synchronized ( syncLock )
+        {
+            if ( syncedTo >= position )
+            {
+                return;
+            }
+
+            long target;
+            RandomAccessFile current;
+            synchronized ( this )
+            {
+                target = end;
+                current = journal;
+            }
+
+            current.getFD().sync();
+            syncedTo = target;
+
+            compactIfNeeded();
+        }
+    }
+
+
+    /**
+     * Rewrites the journal with only the live records if more than half of
+     * it is garbage. Must be called with the sync lock held.
+     */
+    private void compactIfNeeded() throws IOException
+    {
+        synchronized ( this )
+        {
+            if ( end < COMPACT_MIN_SIZE || liveBytes * 2 > end )
+            {
+                return;
+            }
+
+            File compactFile = new File( location, JOURNAL_FILE + COMPACT_EXT );
+            RandomAccessFile compact = new RandomAccessFile( compactFile, "rw" );
+            Hashtable newIndex = new Hashtable();
+            long position = HEADER_SIZE;
+            try
+            {
+                compact.setLength( 0 );
+                compact.writeInt( MAGIC );
+                compact.writeInt( VERSION );
+                for ( Iterator ii = index.entrySet().iterator(); ii.hasNext(); )
+                {
+                    Map.Entry entry = ( Map.Entry ) ii.next();
+                    Record record = ( Record ) entry.getValue();
+                    byte[] data = new byte[record.size];
+                    journal.seek( record.position );
+                    journal.readFully( data );
+                    compact.write( data );
+                    newIndex.put( entry.getKey(), new Record( position, record.size ) );
+                    position += record.size;
+                }
+                compact.getFD().sync();
+                compact.close();
+            }
+            catch ( IOException ioe )
+            {
+                compact.close();
+                compactFile.delete();
+                throw ioe;
+            }
+
+            journal.close();
+            if ( !compactFile.renameTo( journalFile ) )
+            {
+                // some platforms cannot replace an existing file by renaming;
+                // a crash before the rename is recovered by open()
+                journalFile.delete();
+                if ( !compactFile.renameTo( journalFile ) )
+                {
+                    throw new IOException( "Failed to rename compacted journal " + compactFile );
+                }
+            }
+
+            journal = new RandomAccessFile( journalFile, "rw" );
+
+            // replace the records one by one so exists() never misses a PID
+            index.putAll( newIndex );
+            end = position;
+            syncedTo = position;
+        }
+    }
+
+
+    /**
+     * Reads all live records and decodes them in parallel.
+     */
+    Enumeration _getDictionaries() throws IOException
+    {
+        // this method is not part of the API of this class but is made
+        // package private to prevent the creation of a synthetic method
+
+        final byte[] data;
+        final int[] offsets;
+        synchronized ( this )
+        {
+            data = new byte[( int ) end];
+            journal.seek( 0 );
+            journal.readFully( data );
+
+            offsets = new int[index.size()];
+            int i = 0;
+            for ( Iterator ri = index.values().iterator(); ri.hasNext(); )
+            {
+                offsets[i++] = ( int ) ( ( Record ) ri.next() ).position;
+            }
+        }
+
+        final Dictionary[] dictionaries = new Dictionary[offsets.length];
+        int loaders = Math.min( Runtime.getRuntime().availableProcessors(), offsets.length / RECORDS_PER_LOADER );
+        if ( loaders <= 1 )
+        {
+            decode( data, offsets, dictionaries, 0, offsets.length );
+        }
+        else
+        {
+            Thread[] threads = new Thread[loaders - 1];
+            int chunk = ( offsets.length + loaders - 1 ) / loaders;
+            for ( int t = 0; t < threads.length; t++ )
+            {
+                final int from = t * chunk;
+                final int to = Math.min( offsets.length, from + chunk );
+                threads[t] = new Thread( "CM Journal Loader " + t )
+                {
+                    public void run()
+                    {
+                        decode( data, offsets, dictionaries, from, to );
+                    }
+                };
+                threads[t].setDaemon( true );
+                threads[t].start();
+            }
+
+            // decode the last chunk in this thread
+            decode( data, offsets, dictionaries, threads.length * chunk, offsets.length );
+
+            for ( int t = 0; t < threads.length; t++ )
+            {
+                try
+                {
+                    threads[t].join();
+                }
+                catch ( InterruptedException ie )
+                {
+                    // the chunk of this thread may be incomplete
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        Vector result = new Vector( dictionaries.length );
+        for ( int i = 0; i < dictionaries.length; i++ )
+        {
+            if ( dictionaries[i] != null )
+            {
+                result.add( dictionaries[i] );
+            }
+        }
+        return result.elements();
+    }
+
+
+    /**
+     * Decodes the records at the offsets in the given range, leaving the
+     * dictionary of a record which cannot be decoded <code>null</code>.
+     */
+    static void decode( byte[] data, int[] offsets, Dictionary[] dictionaries, int from, int to )
+    {
+        for ( int i = from; i < to; i++ )
+        {
+            try
+            {
+                dictionaries[i] = decode( data, offsets[i] + RECORD_HEADER_SIZE );
+            }
+            catch ( IOException ioe )
+            {
+                // ignore, as permitted for getDictionaries
+            }
+        }
+    }
+
+
+    // ---------- record encoding ----------------------------------------------
+
+    /**
+     * Encodes a complete record including the length and checksum.
+     */
+    private static byte[] encode( byte op, String pid, Dictionary properties ) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( 256 );
+        DataOutputStream out = new DataOutputStream( bos );
+
+        // placeholder for the length and checksum
+        out.writeInt( 0 );
+        out.writeInt( 0 );
+
+        out.writeByte( op );
+        BinaryConfigurationHandler.writeString( out, pid );
+        if ( properties != null )
+        {
+            BinaryConfigurationHandler.write( out, properties );
+        }
+        out.close();
+
+        byte[] record = bos.toByteArray();
+        int length = record.length - RECORD_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update( record, RECORD_HEADER_SIZE, length );
+        putInt( record, 0, length );
+        putInt( record, 4, ( int ) crc.getValue() );
+        return record;
+    }
+
+
+    /**
+     * Decodes the configuration of the store record whose payload starts at
+     * the given offset.
+     */
+    private static Dictionary decode( byte[] data, int offset ) throws IOException
+    {
+        int length = getInt( data, offset - RECORD_HEADER_SIZE );
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( data, offset, length ) );
+        if ( in.readByte() != OP_STORE )
+        {
+            throw new IOException( "Not a configuration record" );
+        }
+        BinaryConfigurationHandler.readString( in );
+        return BinaryConfigurationHandler.read( in );
+    }
+
+
+    private static void putInt( byte[] data, int offset, int value )
+    {
+        data[offset] = ( byte ) ( value >>> 24 );
+        data[offset + 1] = ( byte ) ( value >>> 16 );
+        data[offset + 2] = ( byte ) ( value >>> 8 );
+        data[offset + 3] = ( byte ) value;
+    }
+
+
+    private static int getInt( byte[] data, int offset )
+    {
+        return ( ( data[offset] & 0xff ) << 24 ) | ( ( data[offset + 1] & 0xff ) << 16 )
+            | ( ( data[offset + 2] & 0xff ) << 8 ) | ( data[offset + 3] & 0xff );
+    }
+
+    /**
+     * The location of the most recent store record of a PID.
+     */
+    private static class Record
+    {
+        final long position;
+
+        final int size;
+
+
+        Record( long position, int size )
+        {
+            this.position = position;
+            this.size = size;
+        }
+    }
+}
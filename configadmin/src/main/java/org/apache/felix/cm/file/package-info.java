@@ -17,7 +17,7 @@
  * under the License.
  */
 
-@Version("1.0")
+@Version("1.1")
 @Export(optional = "provide:=true")
 package org.apache.felix.cm.file;
 
@@ -20,10 +20,18 @@ package org.apache.felix.cm.impl;
 
 
 import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.apache.felix.cm.PersistenceManager;
 import org.osgi.framework.Constants;
@@ -34,6 +42,12 @@ import org.osgi.framework.Constants;
  * underlying actual {@link PersistenceManager} implementation. All API calls
  * are also (or primarily) routed through a local cache of dictionaries indexed
  * by the <code>service.pid</code>.
+ * <p>
+ * In addition an index may be maintained for a configurable set of property
+ * names. This index maps the <code>String</code> values of these properties to
+ * the PIDs of the configurations containing them and is used by the
+ * {@link #getDictionaries(FilterPlanner.Plan)} method to only return the
+ * dictionaries possibly matching a filter.
  */
 class CachingPersistenceManagerProxy implements PersistenceManager
 {
@@ -49,7 +63,23 @@ class CachingPersistenceManagerProxy implements PersistenceManager
      * and the cache is complete with respect to the contents of the underlying
      * persistence manager.
      */
-    private boolean fullyLoaded;
+    private volatile boolean fullyLoaded;
+
+    /**
+     * The property index. This maps lower case property names to maps of
+     * property values to sets of PIDs. Property names are case insensitive
+     * as they are for filter matching.
+     */
+    private final Map index;
+
+    /**
+     * Maps the lower case indexed property names to the sets of PIDs of the
+     * configurations having a non-<code>String</code> value for the property.
+     * Since filter matching of such values involves type conversions these
+     * configurations are always considered candidates when looking up the
+     * property.
+     */
+    private final Map unindexed;
 
 
     /**
@@ -57,9 +87,37 @@ class CachingPersistenceManagerProxy implements PersistenceManager
      * @param pm The actual {@link PersistenceManager}
      */
     public CachingPersistenceManagerProxy( final PersistenceManager pm )
+    {
+        this( pm, null );
+    }
+
+
+    /**
+     * Creates a new caching layer for the given actual {@link PersistenceManager}
+     * indexing the values of the given properties.
+     * @param pm The actual {@link PersistenceManager}
+     * @param indexedProperties The names of the properties to index. May be
+     *      <code>null</code> or empty to not index any properties.
+     */
+    public CachingPersistenceManagerProxy( final PersistenceManager pm, final String[] indexedProperties )
     {
         this.pm = pm;
         this.cache = new Hashtable();
+        this.index = new HashMap();
+        this.unindexed = new HashMap();
+
+        if ( indexedProperties != null )
+        {
+            for ( int i = 0; i < indexedProperties.length; i++ )
+            {
+                final String key = indexedProperties[i].trim().toLowerCase();
+                if ( key.length() > 0 )
+                {
+                    index.put( key, new HashMap() );
+                    unindexed.put( key, new HashSet() );
+                }
+            }
+        }
     }
 
 
@@ -70,7 +128,7 @@ class CachingPersistenceManagerProxy implements PersistenceManager
      */
     public void delete( String pid ) throws IOException
     {
-        cache.remove( pid );
+        uncacheDictionary( pid );
         pm.delete( pid );
     }
 
@@ -109,7 +167,7 @@ class CachingPersistenceManagerProxy implements PersistenceManager
                 String pid = ( String ) next.get( Constants.SERVICE_PID );
                 if ( pid != null )
                 {
-                    cache.put( pid, next );
+                    cacheDictionary( pid, next );
                 }
             }
             fullyLoaded = true;
@@ -152,7 +210,7 @@ class CachingPersistenceManagerProxy implements PersistenceManager
             loaded = pm.load( pid );
             if ( loaded != null )
             {
-                cache.put( pid, loaded );
+                cacheDictionary( pid, loaded );
             }
         }
         return copy( loaded );
@@ -171,7 +229,256 @@ class CachingPersistenceManagerProxy implements PersistenceManager
     public void store( String pid, Dictionary properties ) throws IOException
     {
         pm.store( pid, properties );
-        cache.put( pid, copy( properties ) );
+        cacheDictionary( pid, copy( properties ) );
+    }
+
+
+    /**
+     * Returns an <code>Enumeration</code> of <code>Dictionary</code> objects
+     * representing the configurations possibly matching the filter from
+     * which the given plan has been created. If the plan cannot be resolved
+     * from the index all configurations are returned as if calling the
+     * {@link #getDictionaries()} method.
+     * <p>
+     * Note, that the caller still has to match the filter against the
+     * returned dictionaries.
+     */
+    public Enumeration getDictionaries( final FilterPlanner.Plan plan ) throws IOException
+    {
+        if ( plan == null || index.isEmpty() )
+        {
+            return getDictionaries();
+        }
+
+        // the index is only complete once all dictionaries have been loaded
+        if ( !fullyLoaded )
+        {
+            getDictionaries();
+        }
+
+        final Set pids = plan.candidates( this );
+        if ( pids == null )
+        {
+            return getDictionaries();
+        }
+
+        final Iterator pi = pids.iterator();
+        return new Enumeration()
+        {
+            private Dictionary next = seek();
+
+
+            private Dictionary seek()
+            {
+                while ( pi.hasNext() )
+                {
+                    final Dictionary dict = ( Dictionary ) cache.get( pi.next() );
+                    if ( dict != null )
+                    {
+                        return dict;
+                    }
+                }
+                return null;
+            }
+
+
+            public boolean hasMoreElements()
+            {
+                return next != null;
+            }
+
+
+            public Object nextElement()
+            {
+                if ( next == null )
+                {
+                    throw new NoSuchElementException();
+                }
+                final Dictionary result = next;
+                next = seek();
+                return copy( result );
+            }
+        };
+    }
+
+
+    /**
+     * Returns the PIDs of the configurations whose property <code>key</code>
+     * may be equal to the given <code>value</code> or <code>null</code> if the
+     * property is not indexed.
+     */
+    Set lookup( final String key, final String value )
+    {
+        final String lcKey = key.toLowerCase();
+        synchronized ( index )
+        {
+            final Map values = ( Map ) index.get( lcKey );
+            if ( values == null )
+            {
+                return null;
+            }
+
+            final Set result = new HashSet( ( Set ) unindexed.get( lcKey ) );
+            final Set pids = ( Set ) values.get( value );
+            if ( pids != null )
+            {
+                result.addAll( pids );
+            }
+            return result;
+        }
+    }
+
+
+    /**
+     * Puts the dictionary into the cache and updates the index replacing the
+     * entries of the dictionary previously cached for the PID. The cache and
+     * the index are updated under the index lock, such that concurrent
+     * updates of the same PID cannot leave index entries of a dictionary
+     * which is no longer cached.
+     */
+    private void cacheDictionary( final String pid, final Dictionary properties )
+    {
+        if ( index.isEmpty() )
+        {
+            cache.put( pid, properties );
+            return;
+        }
+
+        synchronized ( index )
+        {
+            final Dictionary old = ( Dictionary ) cache.put( pid, properties );
+            update( pid, old, false );
+            update( pid, properties, true );
+        }
+    }
+
+
+    /**
+     * Removes the dictionary from the cache and its entries from the index.
+     */
+    private void uncacheDictionary( final String pid )
+    {
+        if ( index.isEmpty() )
+        {
+            cache.remove( pid );
+            return;
+        }
+
+        synchronized ( index )
+        {
+            update( pid, ( Dictionary ) cache.remove( pid ), false );
+        }
+    }
+
+
+    /**
+     * Adds (or removes) the PID to (or from) the index entries for the
+     * indexed properties contained in the dictionary. Must be called while
+     * synchronized on the index.
+     */
+    private void update( final String pid, final Dictionary properties, final boolean add )
+    {
+        if ( properties == null )
+        {
+            return;
+        }
+
+        final Enumeration keys = properties.keys();
+        while ( keys.hasMoreElements() )
+        {
+            final Object key = keys.nextElement();
+            if ( !( key instanceof String ) )
+            {
+                continue;
+            }
+
+            final String lcKey = ( ( String ) key ).toLowerCase();
+            final Map values = ( Map ) index.get( lcKey );
+            if ( values == null )
+            {
+                continue;
+            }
+
+            final Collection strings = getStringValues( properties.get( key ) );
+            if ( strings == null )
+            {
+                update( ( Set ) unindexed.get( lcKey ), pid, add );
+            }
+            else
+            {
+                for ( Iterator si = strings.iterator(); si.hasNext(); )
+                {
+                    final Object value = si.next();
+                    Set pids = ( Set ) values.get( value );
+                    if ( pids == null && add )
+                    {
+                        pids = new HashSet();
+                        values.put( value, pids );
+                    }
+                    if ( pids != null )
+                    {
+                        update( pids, pid, add );
+                        if ( pids.isEmpty() )
+                        {
+                            values.remove( value );
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+
+    private static void update( final Set pids, final String pid, final boolean add )
+    {
+        if ( add )
+        {
+            pids.add( pid );
+        }
+        else
+        {
+            pids.remove( pid );
+        }
+    }
+
+
+    /**
+     * Returns the <code>String</code> values of the given property value or
+     * <code>null</code> if the value is or contains non-<code>String</code>
+     * values, which cannot be looked up by <code>String</code> equality.
+     */
+    private static Collection getStringValues( final Object value )
+    {
+        if ( value instanceof String )
+        {
+            return Collections.singleton( value );
+        }
+
+        final Collection values = new HashSet();
+        if ( value instanceof Collection )
+        {
+            values.addAll( ( Collection ) value );
+        }
+        else if ( value != null && value.getClass().isArray() )
+        {
+            for ( int i = 0; i < Array.getLength( value ); i++ )
+            {
+                values.add( Array.get( value, i ) );
+            }
+        }
+        else
+        {
+            return null;
+        }
+
+        for ( Iterator vi = values.iterator(); vi.hasNext(); )
+        {
+            if ( !( vi.next() instanceof String ) )
+            {
+                return null;
+            }
+        }
+        return values;
     }
 
 
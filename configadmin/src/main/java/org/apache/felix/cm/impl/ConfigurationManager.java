@@ -35,6 +35,7 @@ import java.util.Random;
 
 import org.apache.felix.cm.PersistenceManager;
 import org.apache.felix.cm.file.FilePersistenceManager;
+import org.apache.felix.cm.file.JournalPersistenceManager;
 import org.apache.felix.cm.impl.helper.BaseTracker;
 import org.apache.felix.cm.impl.helper.ConfigurationMap;
 import org.apache.felix.cm.impl.helper.ManagedServiceFactoryTracker;
@@ -90,6 +91,11 @@ import org.osgi.util.tracker.ServiceTracker;
  * this property is not set the <code>config</code> directory in the current
  * working directory as specified in the <code>user.dir</code> system property
  * is used.
+ * <p>
+ * If the <code>felix.cm.pm</code> framework property is set to
+ * <code>journal</code>, a {@link JournalPersistenceManager} keeping all
+ * configurations in a single journal file in that location is registered as
+ * the default {@link PersistenceManager} instead.
  */
 public class ConfigurationManager implements BundleActivator, BundleListener
 {
@@ -102,6 +108,48 @@ public class ConfigurationManager implements BundleActivator, BundleListener
      */
     public static final String CM_CONFIG_DIR = "felix.cm.dir";
 
+    /**
+     * The name of the bundle context property selecting the default
+     * persistence manager (value is "felix.cm.pm"). If the value is
+     * {@link #CM_CONFIG_PM_JOURNAL} the {@link JournalPersistenceManager} is
+     * used, otherwise the {@link FilePersistenceManager}.
+     */
+    public static final String CM_CONFIG_PM = "felix.cm.pm";
+
+    /**
+     * The value of the {@link #CM_CONFIG_PM} property selecting the
+     * {@link JournalPersistenceManager} (value is "journal").
+     */
+    public static final String CM_CONFIG_PM_JOURNAL = "journal";
+
+    /**
+     * The name of the bundle context property defining the number of threads
+     * calling <code>ManagedService</code> and <code>ManagedServiceFactory</code>
+     * services (value is "felix.cm.update.threads"). With more than one thread
+     * updates for different PIDs and services are dispatched in parallel while
+     * updates for the same PID or service remain strictly ordered. The default
+     * value is 1.
+     */
+    public static final String CM_UPDATE_THREADS = "felix.cm.update.threads";
+
+    /**
+     * The name of the bundle context property defining a comma separated
+     * list of configuration property names to index (value is
+     * "felix.cm.index"). Filters given to
+     * <code>ConfigurationAdmin.listConfigurations</code> with equality terms
+     * on indexed properties are resolved from the index instead of matching
+     * every configuration. The default value is
+     * {@link #CM_INDEX_DEFAULT}. Setting the property to an empty value
+     * disables the index.
+     */
+    public static final String CM_INDEX = "felix.cm.index";
+
+    /**
+     * The default value of the {@link #CM_INDEX} property indexing the
+     * <code>service.pid</code> and <code>service.factoryPid</code> properties.
+     */
+    public static final String CM_INDEX_DEFAULT = Constants.SERVICE_PID + "," + ConfigurationAdmin.SERVICE_FACTORYPID;
+
     /**
      * The name of the bundle context property defining the maximum log level
      * (value is "felix.cm.loglevel"). The log level setting is only used if
@@ -130,9 +178,18 @@ public class ConfigurationManager implements BundleActivator, BundleListener
     // the service registration of the default file persistence manager
     private volatile ServiceRegistration filepmRegistration;
 
+    // the default persistence manager, closed when stopping
+    private volatile PersistenceManager filepm;
+
     // the service registration of the configuration admin
     private volatile ServiceRegistration configurationAdminRegistration;
 
+    // the service registration of the update statistics printer
+    private volatile ServiceRegistration updateStatisticsRegistration;
+
+    // the statistics on update dispatching and callbacks
+    private UpdateStatistics updateStatistics;
+
     // the ServiceTracker to emit log services (see log(int, String, Throwable))
     private ServiceTracker logTracker;
 
@@ -169,6 +226,9 @@ public class ConfigurationManager implements BundleActivator, BundleListener
     // persistenceManagers were last got
     private int pmtCount;
 
+    // the configuration properties indexed by the persistence manager proxies
+    private String[] indexedProperties;
+
     // the cache of Factory instances mapped by their factory PID
     private final HashMap<String, Factory> factories = new HashMap<String, Factory>();
 
@@ -235,19 +295,43 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         // initialize the asynchonous updater thread
         ThreadGroup tg = new ThreadGroup( "Configuration Admin Service" );
         tg.setDaemon( true );
-        this.updateThread = new UpdateThread( this, tg, "CM Configuration Updater" );
+        int updateThreads = 1;
+        String updateThreadsProp = bundleContext.getProperty( CM_UPDATE_THREADS );
+        if ( updateThreadsProp != null )
+        {
+            try
+            {
+                updateThreads = Integer.parseInt( updateThreadsProp );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                log( LogService.LOG_WARNING, "Ignoring invalid number of update threads {0}", new Object[]
+                    { updateThreadsProp } );
+            }
+        }
+        this.updateThread = new UpdateThread( this, tg, "CM Configuration Updater", updateThreads );
         this.eventThread = new UpdateThread( this, tg, "CM Event Dispatcher" );
+        this.updateStatistics = new UpdateStatistics( new UpdateThread[]
+            { this.updateThread, this.eventThread } );
 
         // set up the location (might throw IllegalArgumentException)
         try
         {
-            FilePersistenceManager fpm = new FilePersistenceManager( bundleContext, bundleContext
-                .getProperty( CM_CONFIG_DIR ) );
+            final PersistenceManager fpm;
+            if ( CM_CONFIG_PM_JOURNAL.equals( bundleContext.getProperty( CM_CONFIG_PM ) ) )
+            {
+                fpm = new JournalPersistenceManager( bundleContext, bundleContext.getProperty( CM_CONFIG_DIR ) );
+            }
+            else
+            {
+                fpm = new FilePersistenceManager( bundleContext, bundleContext.getProperty( CM_CONFIG_DIR ) );
+            }
             Hashtable props = new Hashtable();
             props.put( Constants.SERVICE_PID, fpm.getClass().getName() );
             props.put( Constants.SERVICE_DESCRIPTION, "Platform Filesystem Persistence Manager" );
             props.put( Constants.SERVICE_VENDOR, "Apache Software Foundation" );
             props.put( Constants.SERVICE_RANKING, new Integer( Integer.MIN_VALUE ) );
+            filepm = fpm;
             filepmRegistration = bundleContext.registerService( PersistenceManager.class.getName(), fpm, props );
 
             // setup dynamic configuration bindings
@@ -266,6 +350,14 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         handleBundleEvents = true;
         bundleContext.addBundleListener( this );
 
+        // the configuration properties to index
+        String indexProp = bundleContext.getProperty( CM_INDEX );
+        if ( indexProp == null )
+        {
+            indexProp = CM_INDEX_DEFAULT;
+        }
+        indexedProperties = indexProp.split( "," );
+
         // get all persistence managers to begin with
         pmtCount = 1; // make sure to get the persistence managers at least once
         persistenceManagerTracker = new ServiceTracker( bundleContext, PersistenceManager.class.getName(), null );
@@ -283,6 +375,10 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         props.put( Constants.SERVICE_VENDOR, "Apache Software Foundation" );
         configurationAdminRegistration = bundleContext.registerService( ConfigurationAdmin.class.getName(), caf, props );
 
+        // expose the update statistics as a web console configuration printer
+        updateStatisticsRegistration = bundleContext.registerService( Object.class.getName(), updateStatistics,
+            updateStatistics.getServiceProperties() );
+
         // start handling ManagedService[Factory] services
         managedServiceTracker = new ManagedServiceTracker(this);
         managedServiceFactoryTracker = new ManagedServiceFactoryTracker(this);
@@ -326,6 +422,13 @@ public class ConfigurationManager implements BundleActivator, BundleListener
             caReg.unregister();
         }
 
+        final ServiceRegistration statsReg = updateStatisticsRegistration;
+        updateStatisticsRegistration = null;
+        if ( statsReg != null )
+        {
+            statsReg.unregister();
+        }
+
         // consider inactive after unregistering such that during
         // unregistration the manager is still alive and can react
         isActive = false;
@@ -340,6 +443,12 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         {
             filePmReg.unregister();
         }
+        final PersistenceManager filePm = filepm;
+        filepm = null;
+        if ( filePm instanceof JournalPersistenceManager )
+        {
+            ( ( JournalPersistenceManager ) filePm ).close();
+        }
 
         // stop listening for events
         bundleContext.removeBundleListener( this );
@@ -651,12 +760,24 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         log( LogService.LOG_DEBUG, "Listing configurations matching {0}", new Object[]
             { filterString } );
 
+        // use the property index to only consider configurations possibly
+        // matching; the filter is still matched against each of them below
+        final FilterPlanner.Plan plan = FilterPlanner.plan( filterString );
+
         List configList = new ArrayList();
 
         PersistenceManager[] pmList = getPersistenceManagers();
         for ( int i = 0; i < pmList.length; i++ )
         {
-            Enumeration configs = pmList[i].getDictionaries();
+            final Enumeration configs;
+            if ( plan != null && pmList[i] instanceof CachingPersistenceManagerProxy )
+            {
+                configs = ( ( CachingPersistenceManagerProxy ) pmList[i] ).getDictionaries( plan );
+            }
+            else
+            {
+                configs = pmList[i].getDictionaries();
+            }
             while ( configs.hasMoreElements() )
             {
                 final Dictionary config = ( Dictionary ) configs.nextElement();
@@ -841,7 +962,8 @@ public class ConfigurationManager implements BundleActivator, BundleListener
                     Object service = persistenceManagerTracker.getService( refs[i] );
                     if ( service != null )
                     {
-                        pmList.add( new CachingPersistenceManagerProxy( ( PersistenceManager ) service ) );
+                        pmList.add( new CachingPersistenceManagerProxy( ( PersistenceManager ) service,
+                            indexedProperties ) );
                     }
                 }
 
@@ -1371,13 +1493,69 @@ public class ConfigurationManager implements BundleActivator, BundleListener
 
     // ---------- inner classes
 
+    /**
+     * Returns the key ordering update tasks for the given (service) PID.
+     * Targeted PIDs share the key of their service PID such that updates for
+     * all their variants remain ordered.
+     */
+    private static String getPidOrderingKey( final String servicePid )
+    {
+        return "pid:" + servicePid;
+    }
+
+
+    /**
+     * Returns the keys ordering update tasks of a ManagedService[Factory]
+     * service for the given PIDs.
+     */
+    private static Object[] getServiceOrderingKeys( final String[] pids, final ServiceReference sr )
+    {
+        final int count = ( pids == null ) ? 0 : pids.length;
+        final Object[] keys = new Object[count + 1];
+        for ( int i = 0; i < count; i++ )
+        {
+            keys[i] = getPidOrderingKey( pids[i] );
+        }
+        keys[count] = getServiceOrderingKey( sr );
+        return keys;
+    }
+
+
+    /**
+     * Returns the key ordering update tasks calling the given
+     * ManagedService[Factory] service. Since all tasks calling a service
+     * hold its key, the callbacks into a service are never concurrent.
+     */
+    private static String getServiceOrderingKey( final ServiceReference sr )
+    {
+        return "service:" + sr.getProperty( Constants.SERVICE_ID );
+    }
+
+
+    /**
+     * Records the duration of a ManagedService[Factory] callback.
+     *
+     * @param sr The service called
+     * @param pid The PID of the configuration provided
+     * @param duration The duration of the callback in nanoseconds
+     */
+    public void callbackCompleted( final ServiceReference sr, final TargetedPID pid, final long duration )
+    {
+        final UpdateStatistics stats = this.updateStatistics;
+        if ( stats != null )
+        {
+            stats.callbackCompleted( sr, pid, duration );
+        }
+    }
+
+
     /**
      * The <code>ManagedServiceUpdate</code> updates a freshly registered
      * <code>ManagedService</code> with a specific configuration. If a
      * ManagedService is registered with multiple PIDs an instance of this
      * class is used for each registered PID.
      */
-    private class ManagedServiceUpdate implements Runnable
+    private class ManagedServiceUpdate implements UpdateThread.OrderedTask
     {
         private final String[] pids;
 
@@ -1394,6 +1572,12 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         }
 
 
+        public Object[] getOrderingKeys()
+        {
+            return getServiceOrderingKeys( this.pids, this.sr );
+        }
+
+
         public void run()
         {
             for ( String pid : this.pids )
@@ -1461,7 +1645,7 @@ public class ConfigurationManager implements BundleActivator, BundleListener
      * multiple PIDs an instance of this class is used for each registered
      * PID.
      */
-    private class ManagedServiceFactoryUpdate implements Runnable
+    private class ManagedServiceFactoryUpdate implements UpdateThread.OrderedTask
     {
         private final String[] factoryPids;
 
@@ -1478,6 +1662,12 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         }
 
 
+        public Object[] getOrderingKeys()
+        {
+            return getServiceOrderingKeys( this.factoryPids, this.sr );
+        }
+
+
         public void run()
         {
             for ( String factoryPid : this.factoryPids )
@@ -1614,7 +1804,7 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         }
     }
 
-    private abstract class ConfigurationProvider<T> implements Runnable
+    private abstract class ConfigurationProvider<T> implements UpdateThread.OrderedTask
     {
 
         protected final ConfigurationImpl config;
@@ -1622,6 +1812,12 @@ public class ConfigurationManager implements BundleActivator, BundleListener
         protected final Dictionary<String, ?> properties;
         private BaseTracker<T> helper;
 
+        // the services to call, determined when the task is scheduled such
+        // that the task holds their ordering keys; services registered later
+        // are provided with the current configuration by their own
+        // ManagedService[Factory]Update task
+        protected final List<ServiceReference<T>> targets;
+
 
         protected ConfigurationProvider( final ConfigurationImpl config )
         {
@@ -1631,6 +1827,25 @@ public class ConfigurationManager implements BundleActivator, BundleListener
                 this.revision = config.getRevision();
                 this.properties = config.getProperties( true );
             }
+            this.targets = this.getHelper().getServices( getTargetedServicePid() );
+        }
+
+
+        public Object[] getOrderingKeys()
+        {
+            final TargetedPID factoryPid = this.config.getFactoryPid();
+            final int pidKeys = ( factoryPid != null ) ? 2 : 1;
+            final Object[] keys = new Object[pidKeys + this.targets.size()];
+            keys[0] = getPidOrderingKey( this.config.getPid().getServicePid() );
+            if ( factoryPid != null )
+            {
+                keys[1] = getPidOrderingKey( factoryPid.getServicePid() );
+            }
+            for ( int i = 0; i < this.targets.size(); i++ )
+            {
+                keys[pidKeys + i] = getServiceOrderingKey( this.targets.get( i ) );
+            }
+            return keys;
         }
 
 
@@ -1719,11 +1934,21 @@ public class ConfigurationManager implements BundleActivator, BundleListener
             log( LogService.LOG_DEBUG, "Updating configuration {0} to revision #{1}", new Object[]
                 { config.getPid(), new Long( revision ) } );
 
-            final List<ServiceReference<?>> srList = this.getHelper().getServices( getTargetedServicePid() );
+            final List<ServiceReference<?>> srList = this.targets;
             if ( !srList.isEmpty() )
             {
-                // optionally bind dynamically to the first service
-                config.tryBindLocation( srList.get( 0 ).getBundle().getLocation() );
+                // optionally bind dynamically to the first service still
+                // registered, as targets may be unregistered before the
+                // task runs
+                for ( ServiceReference<?> ref : srList )
+                {
+                    final Bundle refBundle = ref.getBundle();
+                    if ( refBundle != null )
+                    {
+                        config.tryBindLocation( refBundle.getLocation() );
+                        break;
+                    }
+                }
 
                 final String configBundleLocation = config.getBundleLocation();
 
@@ -1796,7 +2021,7 @@ public class ConfigurationManager implements BundleActivator, BundleListener
 
         public void run()
         {
-            List<ServiceReference<?>> srList = this.getHelper().getServices( getTargetedServicePid() );
+            List<ServiceReference<?>> srList = this.targets;
             if ( !srList.isEmpty() )
             {
                 for (ServiceReference<?> sr : srList)
@@ -1868,7 +2093,7 @@ public class ConfigurationManager implements BundleActivator, BundleListener
 
         public void run()
         {
-            List<ServiceReference<?>> srList = this.getHelper().getServices( getTargetedServicePid() );
+            List<ServiceReference<?>> srList = this.targets;
             if ( !srList.isEmpty() )
             {
                 for (final ServiceReference<?> sr : srList)
@@ -0,0 +1,349 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.impl;
+
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * The <code>FilterPlanner</code> translates an LDAP filter string into a
+ * {@link Plan} which can be evaluated against the property index of a
+ * {@link CachingPersistenceManagerProxy} to find the PIDs of configurations
+ * possibly matching the filter.
+ * <p>
+ * Only equality terms (<code>(key=value)</code> without wildcards) and their
+ * conjunctions and disjunctions are supported by the index. Other terms are
+ * not indexable and cause the enclosing disjunction to be not indexable as
+ * well. Conjunctions are indexable as long as at least one of their terms is.
+ * <p>
+ * The set of PIDs returned by a plan is a superset of the configurations
+ * actually matching the filter. Callers must still match the filter against
+ * each candidate configuration.
+ */
+class FilterPlanner
+{
+
+    /**
+     * The plan for terms which cannot be resolved from the index. Evaluating
+     * this plan always returns <code>null</code>.
+     */
+    private static final Plan NOT_INDEXABLE = new Plan()
+    {
+        Set<String> candidates( CachingPersistenceManagerProxy pm )
+        {
+            return null;
+        }
+    };
+
+    private final String filter;
+
+    private int pos;
+
+
+    private FilterPlanner( final String filter )
+    {
+        this.filter = filter;
+        this.pos = 0;
+    }
+
+
+    /**
+     * Returns a plan for the given filter string or <code>null</code> if
+     * no part of the filter can be resolved from an index. The filter is
+     * expected to have already been validated by the framework; any syntax
+     * error encountered just causes <code>null</code> to be returned.
+     */
+    static Plan plan( final String filter )
+    {
+        if ( filter == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            final FilterPlanner planner = new FilterPlanner( filter );
+            final Plan plan = planner.parseFilter();
+            planner.skipWhitespace();
+            if ( planner.pos != filter.length() || plan == NOT_INDEXABLE )
+            {
+                return null;
+            }
+            return plan;
+        }
+        catch ( IllegalArgumentException iae )
+        {
+            return null;
+        }
+    }
+
+
+    private Plan parseFilter()
+    {
+        skipWhitespace();
+        expect( '(' );
+        skipWhitespace();
+
+        final Plan plan;
+        switch ( peek() )
+        {
+            case '&':
+                pos++;
+                plan = new And( parseFilterList() );
+                break;
+
+            case '|':
+                pos++;
+                plan = new Or( parseFilterList() );
+                break;
+
+            case '!':
+                pos++;
+                parseFilter();
+                plan = NOT_INDEXABLE;
+                break;
+
+            default:
+                plan = parseItem();
+                break;
+        }
+
+        skipWhitespace();
+        expect( ')' );
+        return plan;
+    }
+
+
+    private List<Plan> parseFilterList()
+    {
+        final List<Plan> plans = new ArrayList<Plan>();
+        skipWhitespace();
+        while ( peek() == '(' )
+        {
+            plans.add( parseFilter() );
+            skipWhitespace();
+        }
+        if ( plans.isEmpty() )
+        {
+            throw new IllegalArgumentException( "Empty filter list" );
+        }
+        return plans;
+    }
+
+
+    private Plan parseItem()
+    {
+        final int keyStart = pos;
+        while ( "=<>~()".indexOf( peek() ) < 0 )
+        {
+            pos++;
+        }
+        final String key = filter.substring( keyStart, pos ).trim();
+        if ( key.length() == 0 )
+        {
+            throw new IllegalArgumentException( "Missing attribute name" );
+        }
+
+        final boolean equality = peek() == '=';
+        if ( !equality )
+        {
+            // ~=, <=, >=
+            pos++;
+            expect( '=' );
+        }
+        else
+        {
+            pos++;
+        }
+
+        boolean wildcard = false;
+        final StringBuffer value = new StringBuffer();
+        for ( char c = peek(); c != ')'; c = peek() )
+        {
+            pos++;
+            if ( c == '\\' )
+            {
+                value.append( peek() );
+                pos++;
+            }
+            else if ( c == '(' )
+            {
+                throw new IllegalArgumentException( "Unescaped ( in value" );
+            }
+            else
+            {
+                wildcard |= c == '*';
+                value.append( c );
+            }
+        }
+
+        if ( !equality || wildcard )
+        {
+            return NOT_INDEXABLE;
+        }
+
+        return new Equals( key, value.toString() );
+    }
+
+
+    private void skipWhitespace()
+    {
+        while ( pos < filter.length() && Character.isWhitespace( filter.charAt( pos ) ) )
+        {
+            pos++;
+        }
+    }
+
+
+    private char peek()
+    {
+        if ( pos >= filter.length() )
+        {
+            throw new IllegalArgumentException( "Unexpected end of filter" );
+        }
+        return filter.charAt( pos );
+    }
+
+
+    private void expect( final char c )
+    {
+        if ( peek() != c )
+        {
+            throw new IllegalArgumentException( "Expected " + c + " at " + pos );
+        }
+        pos++;
+    }
+
+    //---------- plans
+
+    /**
+     * A <code>Plan</code> resolves (part of) a filter against the index
+     * of a {@link CachingPersistenceManagerProxy}.
+     */
+    static abstract class Plan
+    {
+        /**
+         * Returns the PIDs of the configurations which may match the filter
+         * term represented by this plan or <code>null</code> if the term
+         * cannot be resolved from the index of the given persistence manager.
+         */
+        abstract Set<String> candidates( CachingPersistenceManagerProxy pm );
+    }
+
+
+    private static class Equals extends Plan
+    {
+        private final String key;
+        private final String value;
+
+
+        Equals( final String key, final String value )
+        {
+            this.key = key;
+            this.value = value;
+        }
+
+
+        Set<String> candidates( final CachingPersistenceManagerProxy pm )
+        {
+            return pm.lookup( key, value );
+        }
+
+
+        public String toString()
+        {
+            return "(" + key + "=" + value + ")";
+        }
+    }
+
+
+    private static class And extends Plan
+    {
+        private final List<Plan> terms;
+
+
+        And( final List<Plan> terms )
+        {
+            this.terms = terms;
+        }
+
+
+        Set<String> candidates( final CachingPersistenceManagerProxy pm )
+        {
+            Set<String> result = null;
+            for ( Iterator<Plan> ti = terms.iterator(); ti.hasNext(); )
+            {
+                final Set<String> candidates = ti.next().candidates( pm );
+                if ( candidates == null )
+                {
+                    // term not indexed, rely on the other terms
+                    continue;
+                }
+                else if ( result == null )
+                {
+                    result = new HashSet<String>( candidates );
+                }
+                else
+                {
+                    result.retainAll( candidates );
+                }
+
+                if ( result.isEmpty() )
+                {
+                    break;
+                }
+            }
+            return result;
+        }
+    }
+
+
+    private static class Or extends Plan
+    {
+        private final List<Plan> terms;
+
+
+        Or( final List<Plan> terms )
+        {
+            this.terms = terms;
+        }
+
+
+        Set<String> candidates( final CachingPersistenceManagerProxy pm )
+        {
+            final Set<String> result = new HashSet<String>();
+            for ( Iterator<Plan> ti = terms.iterator(); ti.hasNext(); )
+            {
+                final Set<String> candidates = ti.next().candidates( pm );
+                if ( candidates == null )
+                {
+                    // any term not indexed requires a full scan
+                    return null;
+                }
+                result.addAll( candidates );
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.impl;
+
+
+import java.io.PrintWriter;
+import java.util.Hashtable;
+
+import org.apache.felix.cm.impl.helper.TargetedPID;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+
+/**
+ * The <code>UpdateStatistics</code> class collects statistics on the
+ * dispatching of configuration updates: the queue length and task timing of
+ * the {@link UpdateThread}s and the time spent in the
+ * <code>ManagedService</code> and <code>ManagedServiceFactory</code>
+ * callbacks.
+ * <p>
+ * An instance is registered as an Apache Felix Web Console configuration
+ * printer, which is found by its service properties and the
+ * {@link #printConfiguration(PrintWriter)} method without requiring the Web
+ * Console API.
+ */
+public class UpdateStatistics
+{
+
+    // the update threads whose queues are reported
+    private final UpdateThread[] threads;
+
+    // the number of callbacks and their total and longest duration in
+    // nanoseconds
+    private long callbacks;
+    private long totalCallbackTime;
+    private long maxCallbackTime;
+
+    // description of the slowest callback
+    private String slowestCallback;
+
+
+    UpdateStatistics( final UpdateThread[] threads )
+    {
+        this.threads = threads;
+    }
+
+
+    Hashtable getServiceProperties()
+    {
+        Hashtable props = new Hashtable();
+        props.put( Constants.SERVICE_DESCRIPTION, "Configuration Admin Update Statistics" );
+        props.put( Constants.SERVICE_VENDOR, "Apache Software Foundation" );
+        props.put( "felix.webconsole.label", "configadminstats" );
+        props.put( "felix.webconsole.title", "Configuration Admin Updates" );
+        props.put( "felix.webconsole.configprinter.modes", "always" );
+        return props;
+    }
+
+
+    synchronized void callbackCompleted( final ServiceReference sr, final TargetedPID pid, final long duration )
+    {
+        callbacks++;
+        totalCallbackTime += duration;
+        if ( duration > maxCallbackTime )
+        {
+            maxCallbackTime = duration;
+            slowestCallback = "pid=" + pid + ", service=" + ConfigurationManager.toString( sr );
+        }
+    }
+
+
+    public void printConfiguration( final PrintWriter pw )
+    {
+        pw.println( "*** Configuration Admin Update Statistics:" );
+        pw.println();
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i].printStatistics( pw );
+            pw.println();
+        }
+
+        synchronized ( this )
+        {
+            pw.println( "ManagedService[Factory] callbacks" );
+            pw.println( "  Completed callbacks:   " + callbacks );
+            pw.println( "  Average callback time: " + ( ( callbacks == 0 ) ? 0 : totalCallbackTime / callbacks / 1000 )
+                + " us" );
+            pw.println( "  Max callback time:     " + maxCallbackTime / 1000 + " us" );
+            if ( slowestCallback != null )
+            {
+                pw.println( "  Slowest callback:      " + slowestCallback );
+            }
+        }
+    }
+}
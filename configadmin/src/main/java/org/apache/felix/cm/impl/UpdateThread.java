@@ -19,7 +19,11 @@
 package org.apache.felix.cm.impl;
 
 
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Set;
 
 import org.osgi.service.log.LogService;
 
@@ -27,10 +31,31 @@ import org.osgi.service.log.LogService;
 /**
  * The <code>UpdateThread</code> is the thread used to update managed services
  * and managed service factories as well as to send configuration events.
+ * <p>
+ * By default a single worker thread runs the tasks in the order they have
+ * been scheduled. If more than one worker thread is configured, tasks are run
+ * in parallel as long as their {@link OrderedTask#getOrderingKeys() ordering
+ * keys} are disjoint: a task is only started once all earlier tasks sharing
+ * one of its keys have finished. Tasks which are not {@link OrderedTask}s
+ * act as barriers: they only start once all earlier tasks have finished and
+ * no later task starts before they have finished.
  */
 public class UpdateThread implements Runnable
 {
 
+    /**
+     * A task declaring which other tasks it must remain ordered with.
+     */
+    interface OrderedTask extends Runnable
+    {
+        /**
+         * Returns the keys of the task. Tasks sharing at least one key are
+         * run in the order they have been scheduled. The keys must not change
+         * while the task is scheduled.
+         */
+        Object[] getOrderingKeys();
+    }
+
     // the configuration manager on whose behalf this thread is started
     // (this is mainly used for logging)
     private final ConfigurationManager configurationManager;
@@ -41,20 +66,50 @@ public class UpdateThread implements Runnable
     // the thread's base name
     private final String workerBaseName;
 
+    // the number of worker threads
+    private final int workerCount;
+
     // the queue of Runnable instances  to be run
     private final LinkedList updateTasks;
 
-    // the actual thread
-    private Thread worker;
+    // the ordering keys of the tasks currently running (guarded by updateTasks)
+    private final Set runningKeys;
+
+    // the number of tasks currently running (guarded by updateTasks)
+    private int runningTasks;
+
+    // whether a task without ordering keys is running (guarded by updateTasks)
+    private boolean barrierRunning;
+
+    // the largest number of queued tasks seen (guarded by updateTasks)
+    private int maxQueueLength;
+
+    // the number of tasks run and their total and longest duration in
+    // nanoseconds (guarded by updateTasks)
+    private long completedTasks;
+    private long totalTaskTime;
+    private long maxTaskTime;
+
+    // the actual threads
+    private Thread[] workers;
 
 
     public UpdateThread( final ConfigurationManager configurationManager, final ThreadGroup tg, final String name )
+    {
+        this( configurationManager, tg, name, 1 );
+    }
+
+
+    public UpdateThread( final ConfigurationManager configurationManager, final ThreadGroup tg, final String name,
+        final int workerCount )
     {
         this.configurationManager = configurationManager;
         this.workerThreadGroup = tg;
         this.workerBaseName = name;
+        this.workerCount = Math.max( 1, workerCount );
 
         this.updateTasks = new LinkedList();
+        this.runningKeys = new HashSet();
     }
 
 
@@ -65,12 +120,13 @@ public class UpdateThread implements Runnable
     // terminates.
     public void run()
     {
+        final String baseName = Thread.currentThread().getName();
         for ( ;; )
         {
             Runnable task;
             synchronized ( updateTasks )
             {
-                while ( updateTasks.isEmpty() )
+                while ( ( task = nextTask() ) == null )
                 {
                     try
                     {
@@ -81,8 +137,6 @@ public class UpdateThread implements Runnable
                         // don't care
                     }
                 }
-
-                task = ( Runnable ) updateTasks.removeFirst();
             }
 
             // return if the task is this thread itself
@@ -92,10 +146,11 @@ public class UpdateThread implements Runnable
             }
 
             // otherwise execute the task, log any issues
+            final long start = System.nanoTime();
             try
             {
                 // set the thread name indicating the current task
-                Thread.currentThread().setName( workerBaseName + " (" + task + ")" );
+                Thread.currentThread().setName( baseName + " (" + task + ")" );
 
                 configurationManager.log( LogService.LOG_DEBUG, "Running task {0}", new Object[]
                     { task } );
@@ -109,35 +164,141 @@ public class UpdateThread implements Runnable
             finally
             {
                 // reset the thread name to "idle"
-                Thread.currentThread().setName( workerBaseName );
+                Thread.currentThread().setName( baseName );
+
+                taskDone( task, System.nanoTime() - start );
             }
         }
     }
 
+
+    // returns the next task which may be run, removing it from the queue, or
+    // null if no task can be run yet. The termination marker (this) is not
+    // removed such that all workers see it. Must be called with the
+    // updateTasks lock held
+    private Runnable nextTask()
+    {
+        if ( barrierRunning )
+        {
+            return null;
+        }
+
+        Set blockedKeys = null;
+        for ( Iterator ti = updateTasks.iterator(); ti.hasNext(); )
+        {
+            final Runnable task = ( Runnable ) ti.next();
+            final Object[] keys = ( task instanceof OrderedTask ) ? ( ( OrderedTask ) task ).getOrderingKeys() : null;
+
+            if ( keys == null )
+            {
+                // barrier: only runs once it is first and nothing runs
+                if ( blockedKeys == null && runningTasks == 0 )
+                {
+                    if ( task != this )
+                    {
+                        ti.remove();
+                        runningTasks++;
+                        barrierRunning = true;
+                    }
+                    return task;
+                }
+                return null;
+            }
+
+            if ( !containsAny( runningKeys, keys ) && ( blockedKeys == null || !containsAny( blockedKeys, keys ) ) )
+            {
+                ti.remove();
+                runningTasks++;
+                for ( int i = 0; i < keys.length; i++ )
+                {
+                    runningKeys.add( keys[i] );
+                }
+                return task;
+            }
+
+            // later tasks sharing a key with this one must wait for it
+            if ( blockedKeys == null )
+            {
+                blockedKeys = new HashSet();
+            }
+            for ( int i = 0; i < keys.length; i++ )
+            {
+                blockedKeys.add( keys[i] );
+            }
+        }
+        return null;
+    }
+
+
+    // releases the keys of the finished task and wakes up waiting workers
+    private void taskDone( final Runnable task, final long duration )
+    {
+        synchronized ( updateTasks )
+        {
+            runningTasks--;
+            if ( task instanceof OrderedTask )
+            {
+                final Object[] keys = ( ( OrderedTask ) task ).getOrderingKeys();
+                for ( int i = 0; i < keys.length; i++ )
+                {
+                    runningKeys.remove( keys[i] );
+                }
+            }
+            else
+            {
+                barrierRunning = false;
+            }
+
+            completedTasks++;
+            totalTaskTime += duration;
+            maxTaskTime = Math.max( maxTaskTime, duration );
+
+            updateTasks.notifyAll();
+        }
+    }
+
+
+    private static boolean containsAny( final Set set, final Object[] keys )
+    {
+        for ( int i = 0; i < keys.length; i++ )
+        {
+            if ( set.contains( keys[i] ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Starts processing the queued tasks. This method does nothing if the
      * worker has already been started.
      */
     synchronized void start()
     {
-        if ( this.worker == null )
+        if ( this.workers == null )
         {
-            Thread workerThread = new Thread( workerThreadGroup, this, workerBaseName );
-            workerThread.setDaemon( true );
-            workerThread.start();
-            this.worker = workerThread;
+            Thread[] workerThreads = new Thread[workerCount];
+            for ( int i = 0; i < workerThreads.length; i++ )
+            {
+                String name = ( workerCount == 1 ) ? workerBaseName : workerBaseName + " #" + ( i + 1 );
+                workerThreads[i] = new Thread( workerThreadGroup, this, name );
+                workerThreads[i].setDaemon( true );
+                workerThreads[i].start();
+            }
+            this.workers = workerThreads;
         }
     }
 
 
     /**
-     * Terminates the worker thread and waits for the thread to have processed
+     * Terminates the worker threads and waits for the threads to have processed
      * all outstanding events up to and including the termination job. All
      * jobs {@link #schedule(Runnable) scheduled} after termination has been
      * initiated will not be processed any more. This method does nothing if
-     * the worker thread is not currently active.
+     * the worker threads are not currently active.
      * <p>
-     * If the worker thread does not terminate within 5 seconds it is killed
+     * If a worker thread does not terminate within 5 seconds it is killed
      * by calling the (deprecated) <code>Thread.stop()</code> method. It may
      * be that the worker thread may be blocked by a deadlock (it should not,
      * though). In this case hope is that <code>Thread.stop()</code> will be
@@ -147,29 +308,39 @@ public class UpdateThread implements Runnable
      */
     synchronized void terminate()
     {
-        if ( this.worker != null )
+        if ( this.workers != null )
         {
-            Thread workerThread = this.worker;
-            this.worker = null;
+            Thread[] workerThreads = this.workers;
+            this.workers = null;
 
             schedule( this );
 
-            // wait for all updates to terminate (<= 10 seconds !)
-            try
+            // wait for all updates to terminate (<= 5 seconds !)
+            final long deadline = System.currentTimeMillis() + 5000;
+            for ( int i = 0; i < workerThreads.length; i++ )
             {
-                workerThread.join( 5000 );
-            }
-            catch ( InterruptedException ie )
-            {
-                // don't really care
+                try
+                {
+                    workerThreads[i].join( Math.max( 1, deadline - System.currentTimeMillis() ) );
+                }
+                catch ( InterruptedException ie )
+                {
+                    // don't really care
+                }
+
+                if ( workerThreads[i].isAlive() )
+                {
+                    this.configurationManager.log( LogService.LOG_ERROR,
+                        "Worker thread {0} did not terminate within 5 seconds; trying to kill", new Object[]
+                            { workerThreads[i].getName() } );
+                    workerThreads[i].stop();
+                }
             }
 
-            if ( workerThread.isAlive() )
+            // remove the termination marker
+            synchronized ( updateTasks )
             {
-                this.configurationManager.log( LogService.LOG_ERROR,
-                    "Worker thread {0} did not terminate within 5 seconds; trying to kill", new Object[]
-                        { workerBaseName } );
-                workerThread.stop();
+                updateTasks.remove( this );
             }
         }
     }
@@ -185,9 +356,30 @@ public class UpdateThread implements Runnable
 
             // append to the task queue
             updateTasks.add( update );
+            maxQueueLength = Math.max( maxQueueLength, updateTasks.size() );
 
             // notify the waiting thread
             updateTasks.notifyAll();
         }
     }
+
+
+    /**
+     * Writes the queue length and task timing of this thread to the given
+     * writer.
+     */
+    void printStatistics( final PrintWriter pw )
+    {
+        synchronized ( updateTasks )
+        {
+            pw.println( workerBaseName + " (" + workerCount + " worker threads)" );
+            pw.println( "  Queued tasks:       " + updateTasks.size() );
+            pw.println( "  Running tasks:      " + runningTasks );
+            pw.println( "  Max queue length:   " + maxQueueLength );
+            pw.println( "  Completed tasks:    " + completedTasks );
+            pw.println( "  Average task time:  "
+                + ( ( completedTasks == 0 ) ? 0 : totalTaskTime / completedTasks / 1000 ) + " us" );
+            pw.println( "  Max task time:      " + maxTaskTime / 1000 + " us" );
+        }
+    }
 }
@@ -79,14 +79,29 @@ public class ManagedServiceFactoryTracker extends BaseTracker<ManagedServiceFact
         // are available, so the service can be updated with the
         // configuration (which may be null)
 
-        if ( configs.shallTake( configPid, factoryPid, revision ) )
+        // The update thread never runs two tasks calling the same service
+        // concurrently, so the decision taken here still holds when the
+        // service is called. The configuration map is only locked while it
+        // is accessed, never while calling out to the service or plugins
+        final boolean doUpdate;
+        synchronized ( configs )
+        {
+            doUpdate = configs.shallTake( configPid, factoryPid, revision );
+        }
+
+        if ( doUpdate )
         {
             try
             {
                 Dictionary props = getProperties( properties, reference, configPid.toString(),
                     factoryPid.toString() );
+                final long start = System.nanoTime();
                 service.updated( configPid.toString(), props );
-                configs.record( configPid, factoryPid, revision );
+                this.cm.callbackCompleted( reference, configPid, System.nanoTime() - start );
+                synchronized ( configs )
+                {
+                    configs.record( configPid, factoryPid, revision );
+                }
             }
             catch ( Throwable t )
             {
@@ -108,12 +123,23 @@ public class ManagedServiceFactoryTracker extends BaseTracker<ManagedServiceFact
         final ConfigurationMap configs = this.getService( reference );
         if ( service != null && configs != null)
         {
-            if ( configs.removeConfiguration( configPid, factoryPid ) )
+            final boolean doRemove;
+            synchronized ( configs )
+            {
+                doRemove = configs.removeConfiguration( configPid, factoryPid );
+            }
+
+            if ( doRemove )
             {
                 try
                 {
+                    final long start = System.nanoTime();
                     service.deleted( configPid.toString() );
-                    configs.record( configPid, factoryPid, -1 );
+                    this.cm.callbackCompleted( reference, configPid, System.nanoTime() - start );
+                    synchronized ( configs )
+                    {
+                        configs.record( configPid, factoryPid, -1 );
+                    }
                 }
                 catch ( Throwable t )
                 {
@@ -116,37 +116,51 @@ public class ManagedServiceTracker extends BaseTracker<ManagedService>
         // are available, so the service can be updated with the
         // configuration (which may be null)
 
+        // The update thread never runs two tasks calling the same service
+        // concurrently, so the decision taken here still holds when the
+        // service is called. The configuration map is only locked while it
+        // is accessed, never while calling out to the service or plugins
         boolean doUpdate = false;
-        if ( properties == null )
+        synchronized ( configs )
         {
-            doUpdate = configs.removeConfiguration( configPid, null );
+            if ( properties == null )
+            {
+                doUpdate = configs.removeConfiguration( configPid, null );
+            }
+            else if ( properties == INITIAL_MARKER )
+            {
+                doUpdate = true;
+            }
+            else if ( revision < 0 || configs.shallTake( configPid, null, revision ) )
+            {
+                doUpdate = true;
+            }
         }
-        else if ( properties == INITIAL_MARKER )
+
+        if ( properties == INITIAL_MARKER )
         {
             // initial call to ManagedService may supply null properties
             properties = null;
             revision = -1;
-            doUpdate = true;
         }
-        else if ( revision < 0 || configs.shallTake( configPid, null, revision ) )
+        else if ( doUpdate && properties != null )
         {
             // run the plugins and cause the update
             properties = getProperties( properties, service, configPid.toString(), null );
-            doUpdate = true;
             revision = Math.abs( revision );
         }
-        else
-        {
-            // new configuration is not a better match, don't update
-            doUpdate = false;
-        }
 
         if ( doUpdate )
         {
             try
             {
+                final long start = System.nanoTime();
                 srv.updated( properties );
-                configs.record( configPid, null, revision );
+                this.cm.callbackCompleted( service, configPid, System.nanoTime() - start );
+                synchronized ( configs )
+                {
+                    configs.record( configPid, null, revision );
+                }
             }
             catch ( Throwable t )
             {
@@ -0,0 +1,334 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.file;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+
+public class JournalPersistenceManagerTest extends TestCase
+{
+    private File file = new File( System.getProperty( "java.io.tmpdir" ), "config.journal" );
+
+    private JournalPersistenceManager jpm;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        jpm = new JournalPersistenceManager( file.getAbsolutePath() );
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        jpm.close();
+
+        File[] children = file.listFiles();
+        for ( int i = 0; children != null && i < children.length; i++ )
+        {
+            children[i].delete();
+        }
+        file.delete();
+
+        super.tearDown();
+    }
+
+
+    public void testCreateJournal()
+    {
+        assertTrue( file.isDirectory() );
+        assertTrue( new File( file, JournalPersistenceManager.JOURNAL_FILE ).isFile() );
+    }
+
+
+    public void testSimple() throws IOException
+    {
+        check( "String", "String Value" );
+        check( "Integer", new Integer( 2 ) );
+        check( "Long", new Long( 2 ) );
+        check( "Float", new Float( 2 ) );
+        check( "Double", new Double( 2 ) );
+        check( "Byte", new Byte( ( byte ) 2 ) );
+        check( "Short", new Short( ( short ) 2 ) );
+        check( "Character", new Character( 'a' ) );
+        check( "Boolean", Boolean.TRUE );
+        check( "Unicode", "fl\u00E4che \u1234" );
+    }
+
+
+    public void testArray() throws IOException
+    {
+        check( "StringArray", new String[]
+            { "one", "two", "three" } );
+        check( "IntArray", new int[]
+            { 0, 1, 2 } );
+        check( "IntegerArray", new Integer[]
+            { new Integer( 0 ), new Integer( 1 ), new Integer( 2 ) } );
+        check( "EmptyCharArray", new char[0] );
+    }
+
+
+    public void testVector() throws IOException
+    {
+        check( "StringVector", new Vector( Arrays.asList( new String[]
+            { "one", "two", "three" } ) ) );
+        check( "EmptyVector", new Vector() );
+    }
+
+
+    public void testUnsupportedType()
+    {
+        Dictionary props = new Hashtable();
+        props.put( "Object", new Object() );
+        try
+        {
+            jpm.store( "unsupported", props );
+            fail( "Expected IOException for unsupported value type" );
+        }
+        catch ( IOException ioe )
+        {
+            // expected
+        }
+        assertFalse( jpm.exists( "unsupported" ) );
+    }
+
+
+    public void testDelete() throws IOException
+    {
+        check( "deleted", "value" );
+        jpm.delete( "deleted" );
+        assertFalse( jpm.exists( "deleted" ) );
+
+        try
+        {
+            jpm.load( "deleted" );
+            fail( "Expected IOException loading a deleted configuration" );
+        }
+        catch ( IOException ioe )
+        {
+            // expected
+        }
+
+        reopen();
+        assertFalse( jpm.exists( "deleted" ) );
+    }
+
+
+    public void testReopen() throws IOException
+    {
+        check( "first", "one" );
+        check( "second", "two" );
+        check( "first", "replaced" );
+
+        reopen();
+
+        assertTrue( jpm.exists( "first" ) );
+        assertEquals( "replaced", jpm.load( "first" ).get( "first" ) );
+        assertEquals( "two", jpm.load( "second" ).get( "second" ) );
+    }
+
+
+    public void testTruncatedTail() throws IOException
+    {
+        check( "kept", "value" );
+        check( "truncated", "value" );
+        jpm.close();
+
+        // simulate a crash while writing the last record
+        File journal = new File( file, JournalPersistenceManager.JOURNAL_FILE );
+        RandomAccessFile raf = new RandomAccessFile( journal, "rw" );
+        raf.setLength( raf.length() - 3 );
+        raf.close();
+
+        jpm = new JournalPersistenceManager( file.getAbsolutePath() );
+        assertTrue( jpm.exists( "kept" ) );
+        assertFalse( jpm.exists( "truncated" ) );
+
+        // the journal is usable after discarding the tail
+        check( "appended", "value" );
+        reopen();
+        assertTrue( jpm.exists( "appended" ) );
+    }
+
+
+    public void testCorruptLength() throws IOException
+    {
+        check( "kept", "value" );
+        jpm.close();
+
+        // a garbage record header claiming a huge record
+        File journal = new File( file, JournalPersistenceManager.JOURNAL_FILE );
+        RandomAccessFile raf = new RandomAccessFile( journal, "rw" );
+        long end = raf.length();
+        raf.seek( end );
+        raf.writeInt( Integer.MAX_VALUE - 1 );
+        raf.writeInt( 0 );
+        raf.write( new byte[16] );
+        raf.close();
+
+        jpm = new JournalPersistenceManager( file.getAbsolutePath() );
+        assertTrue( jpm.exists( "kept" ) );
+        assertEquals( end, journal.length() );
+
+        check( "appended", "value" );
+        reopen();
+        assertTrue( jpm.exists( "appended" ) );
+    }
+
+
+    public void testInterruptedCompaction() throws IOException
+    {
+        check( "compacted", "value" );
+        jpm.close();
+
+        // crash after deleting the journal, before renaming the compacted one
+        File journal = new File( file, JournalPersistenceManager.JOURNAL_FILE );
+        File compact = new File( file, JournalPersistenceManager.JOURNAL_FILE + ".compact" );
+        assertTrue( journal.renameTo( compact ) );
+
+        jpm = new JournalPersistenceManager( file.getAbsolutePath() );
+        assertTrue( jpm.exists( "compacted" ) );
+        assertFalse( compact.exists() );
+    }
+
+
+    public void testIncompleteCompaction() throws IOException
+    {
+        check( "kept", "value" );
+        jpm.close();
+
+        // crash while writing the compacted journal
+        File compact = new File( file, JournalPersistenceManager.JOURNAL_FILE + ".compact" );
+        RandomAccessFile raf = new RandomAccessFile( compact, "rw" );
+        raf.writeInt( 0x46434d4a );
+        raf.close();
+
+        jpm = new JournalPersistenceManager( file.getAbsolutePath() );
+        assertTrue( jpm.exists( "kept" ) );
+        assertFalse( compact.exists() );
+    }
+
+
+    public void testBatchStoreAndGetDictionaries() throws IOException
+    {
+        // enough configurations to load them in parallel
+        Map batch = new HashMap();
+        for ( int i = 0; i < 2000; i++ )
+        {
+            Dictionary props = new Hashtable();
+            props.put( "service.pid", "pid." + i );
+            props.put( "index", new Integer( i ) );
+            batch.put( "pid." + i, props );
+        }
+        jpm.store( batch );
+        jpm.delete( "pid.0" );
+
+        reopen();
+
+        Set pids = new HashSet();
+        for ( Enumeration de = jpm.getDictionaries(); de.hasMoreElements(); )
+        {
+            Dictionary props = ( Dictionary ) de.nextElement();
+            assertTrue( pids.add( props.get( "service.pid" ) ) );
+        }
+        assertEquals( 1999, pids.size() );
+        assertFalse( pids.contains( "pid.0" ) );
+        assertEquals( new Integer( 1999 ), jpm.load( "pid.1999" ).get( "index" ) );
+    }
+
+
+    public void testCompaction() throws IOException
+    {
+        Dictionary props = new Hashtable();
+        props.put( "value", new byte[4096] );
+
+        // replace the same configuration until the journal is compacted
+        File journal = new File( file, JournalPersistenceManager.JOURNAL_FILE );
+        for ( int i = 0; i < 600; i++ )
+        {
+            jpm.store( "compacted", props );
+        }
+        assertTrue( journal.length() < 1024 * 1024 );
+
+        reopen();
+        assertEquals( 4096, ( ( byte[] ) jpm.load( "compacted" ).get( "value" ) ).length );
+    }
+
+
+    private void reopen() throws IOException
+    {
+        jpm.close();
+        jpm = new JournalPersistenceManager( file.getAbsolutePath() );
+    }
+
+
+    private void check( String name, Object value ) throws IOException
+    {
+        Dictionary props = new Hashtable();
+        props.put( name, value );
+
+        jpm.store( name, props );
+        assertTrue( jpm.exists( name ) );
+
+        Dictionary loaded = jpm.load( name );
+        assertNotNull( loaded );
+        assertEquals( props.size(), loaded.size() );
+        checkValues( value, loaded.get( name ) );
+    }
+
+
+    private void checkValues( Object value1, Object value2 )
+    {
+        assertNotNull( value2 );
+        if ( value1.getClass().isArray() )
+        {
+            assertTrue( value2.getClass().isArray() );
+            assertEquals( value1.getClass().getComponentType(), value2.getClass().getComponentType() );
+            assertEquals( Array.getLength( value1 ), Array.getLength( value2 ) );
+            for ( int i = 0; i < Array.getLength( value1 ); i++ )
+            {
+                assertEquals( Array.get( value1, i ), Array.get( value2, i ) );
+            }
+        }
+        else if ( value1 instanceof Vector )
+        {
+            assertEquals( new Vector( ( Vector ) value1 ), new Vector( ( java.util.Collection ) value2 ) );
+        }
+        else
+        {
+            assertEquals( value1, value2 );
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.impl;
+
+
+import java.io.IOException;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.cm.MockPersistenceManager;
+import org.apache.felix.cm.PersistenceManager;
+import org.osgi.framework.Constants;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+
+public class CachingPersistenceManagerProxyTest extends TestCase
+{
+
+    private CachingPersistenceManagerProxy cpm;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        PersistenceManager pm = new MockPersistenceManager();
+        pm.store( "a", config( "a", "f1", "x" ) );
+        pm.store( "b", config( "b", "f1", "y" ) );
+        pm.store( "c", config( "c", "f2", "x" ) );
+        pm.store( "d", config( "d", null, new String[]
+            { "x", "z" } ) );
+        pm.store( "e", config( "e", null, new Integer( 1 ) ) );
+
+        cpm = new CachingPersistenceManagerProxy( pm, new String[]
+            { Constants.SERVICE_PID, ConfigurationAdmin.SERVICE_FACTORYPID, "Prop" } );
+    }
+
+
+    public void test_plan_not_indexable()
+    {
+        assertNull( FilterPlanner.plan( null ) );
+        assertNull( FilterPlanner.plan( "(prop=x*)" ) );
+        assertNull( FilterPlanner.plan( "(prop>=x)" ) );
+        assertNull( FilterPlanner.plan( "(!(prop=x))" ) );
+        assertNull( FilterPlanner.plan( "(prop=x" ) );
+    }
+
+
+    public void test_equality() throws IOException
+    {
+        assertPids( "(service.factoryPid=f1)", new String[]
+            { "a", "b" } );
+        assertPids( "(SERVICE.FACTORYPID=f2)", new String[]
+            { "c" } );
+        assertPids( "(service.pid=d)", new String[]
+            { "d" } );
+        assertPids( "(service.factoryPid=none)", new String[0] );
+    }
+
+
+    public void test_multi_value_and_non_string() throws IOException
+    {
+        // e has a non-String value and is always a candidate
+        assertPids( "(prop=x)", new String[]
+            { "a", "c", "d", "e" } );
+        assertPids( "(prop=z)", new String[]
+            { "d", "e" } );
+    }
+
+
+    public void test_conjunction_disjunction() throws IOException
+    {
+        assertPids( "(&(service.factoryPid=f1)(prop=x))", new String[]
+            { "a" } );
+        assertPids( "(&(service.factoryPid=f1)(other=x))", new String[]
+            { "a", "b" } );
+        assertPids( "(|(service.factoryPid=f2)(service.pid=b))", new String[]
+            { "b", "c" } );
+
+        // disjunction with a not indexed term falls back to all configurations
+        assertPids( "(|(service.factoryPid=f2)(other=x))", new String[]
+            { "a", "b", "c", "d", "e" } );
+    }
+
+
+    public void test_index_maintained() throws IOException
+    {
+        cpm.getDictionaries();
+
+        cpm.store( "b", config( "b", "f2", "y" ) );
+        cpm.store( "f", config( "f", "f1", "y" ) );
+        cpm.delete( "a" );
+
+        assertPids( "(service.factoryPid=f1)", new String[]
+            { "f" } );
+        assertPids( "(service.factoryPid=f2)", new String[]
+            { "b", "c" } );
+    }
+
+
+    public void test_index_concurrent_updates() throws Exception
+    {
+        cpm.getDictionaries();
+
+        // concurrently replace b with different values of the property
+        final Thread[] threads = new Thread[8];
+        final Exception[] failure = new Exception[1];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final String value = "v" + t;
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; i < 500; i++ )
+                        {
+                            cpm.store( "b", config( "b", "f1", value ) );
+                        }
+                    }
+                    catch ( IOException ioe )
+                    {
+                        failure[0] = ioe;
+                    }
+                }
+            };
+        }
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            threads[t].start();
+        }
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            threads[t].join();
+        }
+        assertNull( failure[0] );
+
+        // only the value of the cached dictionary is indexed
+        final Object cached = cpm.load( "b" ).get( "prop" );
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final String value = "v" + t;
+            assertEquals( value, value.equals( cached ), cpm.lookup( "prop", value ).contains( "b" ) );
+        }
+    }
+
+
+    private void assertPids( String filter, String[] expected ) throws IOException
+    {
+        Set pids = new HashSet();
+        Enumeration dicts = cpm.getDictionaries( FilterPlanner.plan( filter ) );
+        while ( dicts.hasMoreElements() )
+        {
+            pids.add( ( ( Dictionary ) dicts.nextElement() ).get( Constants.SERVICE_PID ) );
+        }
+
+        Set exp = new HashSet();
+        for ( int i = 0; i < expected.length; i++ )
+        {
+            exp.add( expected[i] );
+        }
+        assertEquals( filter, exp, pids );
+    }
+
+
+    private static Dictionary config( String pid, String factoryPid, Object prop )
+    {
+        Dictionary config = new Hashtable();
+        config.put( Constants.SERVICE_PID, pid );
+        if ( factoryPid != null )
+        {
+            config.put( ConfigurationAdmin.SERVICE_FACTORYPID, factoryPid );
+        }
+        config.put( "prop", prop );
+        return config;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.impl;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+
+public class UpdateThreadTest extends TestCase
+{
+
+    private UpdateThread updateThread;
+
+    // the tasks run so far in the order they started
+    private final List started = Collections.synchronizedList( new ArrayList() );
+
+    // the number of tasks currently running per ordering key
+    private final Map running = new HashMap();
+
+    // set if two tasks sharing a key ran concurrently
+    private volatile String overlap;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        updateThread = new UpdateThread( new MockConfigurationManager(), Thread.currentThread().getThreadGroup(),
+            "Test Updater", 4 );
+        updateThread.start();
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        updateThread.terminate();
+
+        super.tearDown();
+    }
+
+
+    public void testSamePidOrdered() throws InterruptedException
+    {
+        final CountDownLatch done = new CountDownLatch( 200 );
+        for ( int i = 0; i < 200; i++ )
+        {
+            final String pid = ( i % 2 == 0 ) ? "pid:a" : "pid:b";
+            updateThread.schedule( new Task( pid + "/" + i, new Object[]
+                { pid }, done ) );
+        }
+
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertNull( overlap, overlap );
+        assertOrdered( "pid:a", 198 );
+        assertOrdered( "pid:b", 199 );
+    }
+
+
+    public void testSameServiceSerialized() throws InterruptedException
+    {
+        // different PIDs provided to the same service
+        final CountDownLatch done = new CountDownLatch( 100 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            updateThread.schedule( new Task( "pid:" + i, new Object[]
+                { "pid:" + i, "service:1" }, done ) );
+        }
+
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertNull( overlap, overlap );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( "pid:" + i, started.get( i ) );
+        }
+    }
+
+
+    public void testDisjointKeysParallel() throws InterruptedException
+    {
+        // the first task can only complete while the second one runs
+        final CountDownLatch second = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( 2 );
+        updateThread.schedule( new Task( "first", new Object[]
+            { "pid:a", "service:1" }, done )
+        {
+            protected void work() throws InterruptedException
+            {
+                if ( !second.await( 5, TimeUnit.SECONDS ) )
+                {
+                    overlap = "second task did not run in parallel";
+                }
+            }
+        } );
+        updateThread.schedule( new Task( "second", new Object[]
+            { "pid:b", "service:2" }, done )
+        {
+            protected void work()
+            {
+                second.countDown();
+            }
+        } );
+
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertNull( overlap, overlap );
+    }
+
+
+    public void testLaterTaskWaitsForEarlierSharedKey() throws InterruptedException
+    {
+        // the third task shares a key with the blocked first task, so it must
+        // not overtake it even though the second task is free to run
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( 3 );
+        updateThread.schedule( new Task( "first", new Object[]
+            { "pid:a" }, done )
+        {
+            protected void work() throws InterruptedException
+            {
+                release.await( 5, TimeUnit.SECONDS );
+            }
+        } );
+        updateThread.schedule( new Task( "second", new Object[]
+            { "pid:b" }, done ) );
+        updateThread.schedule( new Task( "third", new Object[]
+            { "pid:b", "pid:a" }, done ) );
+
+        Thread.sleep( 200 );
+        assertEquals( 2, started.size() );
+        assertFalse( started.contains( "third" ) );
+
+        release.countDown();
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( "third", started.get( 2 ) );
+        assertNull( overlap, overlap );
+    }
+
+
+    public void testBarrier() throws InterruptedException
+    {
+        final CountDownLatch done = new CountDownLatch( 41 );
+        for ( int i = 0; i < 20; i++ )
+        {
+            updateThread.schedule( new Task( "before" + i, new Object[]
+                { "pid:" + i }, done ) );
+        }
+        updateThread.schedule( new Runnable()
+        {
+            public void run()
+            {
+                synchronized ( running )
+                {
+                    if ( !running.isEmpty() )
+                    {
+                        overlap = "barrier ran with " + running.keySet();
+                    }
+                }
+                if ( started.size() != 20 )
+                {
+                    overlap = "barrier ran after " + started.size() + " tasks";
+                }
+                started.add( "barrier" );
+                done.countDown();
+            }
+        } );
+        for ( int i = 0; i < 20; i++ )
+        {
+            updateThread.schedule( new Task( "after" + i, new Object[]
+                { "pid:" + i }, done ) );
+        }
+
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertNull( overlap, overlap );
+        assertEquals( "barrier", started.get( 20 ) );
+    }
+
+
+    private void assertOrdered( final String pid, final int lastIndex )
+    {
+        int last = -1;
+        synchronized ( started )
+        {
+            for ( int i = 0; i < started.size(); i++ )
+            {
+                final String name = ( String ) started.get( i );
+                if ( name.startsWith( pid + "/" ) )
+                {
+                    final int index = Integer.parseInt( name.substring( pid.length() + 1 ) );
+                    assertTrue( name + " ran after " + last, index > last );
+                    last = index;
+                }
+            }
+        }
+        assertEquals( lastIndex, last );
+    }
+
+    private class Task implements UpdateThread.OrderedTask
+    {
+        private final String name;
+
+        private final Object[] keys;
+
+        private final CountDownLatch done;
+
+
+        Task( final String name, final Object[] keys, final CountDownLatch done )
+        {
+            this.name = name;
+            this.keys = keys;
+            this.done = done;
+        }
+
+
+        public Object[] getOrderingKeys()
+        {
+            return keys;
+        }
+
+
+        public void run()
+        {
+            synchronized ( running )
+            {
+                for ( int i = 0; i < keys.length; i++ )
+                {
+                    if ( running.containsKey( keys[i] ) )
+                    {
+                        overlap = name + " overlapped on " + keys[i];
+                    }
+                    running.put( keys[i], name );
+                }
+                started.add( name );
+            }
+
+            try
+            {
+                work();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                synchronized ( running )
+                {
+                    for ( int i = 0; i < keys.length; i++ )
+                    {
+                        running.remove( keys[i] );
+                    }
+                }
+                done.countDown();
+            }
+        }
+
+
+        protected void work() throws InterruptedException
+        {
+            Thread.sleep( 1 );
+        }
+
+
+        public String toString()
+        {
+            return name;
+        }
+    }
+}
@@ -41,6 +41,7 @@ import org.apache.felix.dm.impl.dependencies.TemporalServiceDependencyImpl;
 import org.apache.felix.dm.impl.index.AspectFilterIndex;
 import org.apache.felix.dm.impl.index.AdapterFilterIndex;
 import org.apache.felix.dm.impl.index.ServiceRegistryCache;
+import org.apache.felix.dm.impl.index.multiproperty.AdaptiveFilterIndex;
 import org.apache.felix.dm.impl.index.multiproperty.MultiPropertyFilterIndex;
 import org.apache.felix.dm.impl.metatype.PropertyMetaDataImpl;
 import org.osgi.framework.Bundle;
@@ -62,6 +63,7 @@ public class DependencyManager {
     public static final String ASPECT = "org.apache.felix.dependencymanager.aspect";
     public static final String SERVICEREGISTRY_CACHE_INDICES = "org.apache.felix.dependencymanager.filterindex";
     public static final String METHOD_CACHE_SIZE = "org.apache.felix.dependencymanager.methodcache";
+    public static final String BATCH_EVENTS = "org.apache.felix.dependencymanager.batchevents";
     private final BundleContext m_context;
     private final Logger m_logger;
     private List m_components = Collections.synchronizedList(new ArrayList());
@@ -109,6 +111,9 @@ public class DependencyManager {
                     else if (props[i].equals("*adapter*")) {
                     	m_serviceRegistryCache.addFilterIndex(new AdapterFilterIndex());
                     }
+                    else if (props[i].equals("*adaptive*")) {
+                        m_serviceRegistryCache.addFilterIndex(new AdaptiveFilterIndex());
+                    }
                     else {
                     	m_serviceRegistryCache.addFilterIndex(new MultiPropertyFilterIndex(props[i]));
                     }
@@ -31,6 +31,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.felix.dm.Component;
 import org.apache.felix.dm.ComponentDeclaration;
@@ -54,6 +56,7 @@ public class ComponentImpl implements Component, DependencyService, ComponentDec
 	private static final ServiceRegistration NULL_REGISTRATION;
     private static final ComponentStateListener[] SERVICE_STATE_LISTENER_TYPE = new ComponentStateListener[] {};
     private static long HIGHEST_ID = 0;
+    private static final boolean BATCH_EVENTS = Boolean.valueOf(System.getProperty(DependencyManager.BATCH_EVENTS, "false")).booleanValue();
 
     private final Object SYNC = new Object();
     private final BundleContext m_context;
@@ -89,6 +92,11 @@ public class ComponentImpl implements Component, DependencyService, ComponentDec
 
     // work queue
     private final SerialExecutor m_executor = new SerialExecutor();
+    
+    // event batching
+    private volatile boolean m_batchEvents = BATCH_EVENTS;
+    private final ConcurrentLinkedQueue m_pendingDependencies = new ConcurrentLinkedQueue();
+    private final AtomicBoolean m_recalculationPending = new AtomicBoolean(false);
 
     // instance factory
 	private Object m_instanceFactory;
@@ -346,6 +354,10 @@ public class ComponentImpl implements Component, DependencyService, ComponentDec
     }
 
     public void dependencyAvailable(final Dependency dependency) {
+        if (m_batchEvents) {
+            scheduleRecalculation(dependency, true);
+            return;
+        }
     	State oldState, newState;
         synchronized (m_dependencies) {
         	oldState = m_state;
@@ -369,6 +381,10 @@ public class ComponentImpl implements Component, DependencyService, ComponentDec
     }
 
     public void dependencyUnavailable(final Dependency dependency) {
+        if (m_batchEvents) {
+            scheduleRecalculation(dependency, false);
+            return;
+        }
     	State oldState, newState;
         synchronized (m_dependencies) {
         	oldState = m_state;
@@ -381,6 +397,66 @@ public class ComponentImpl implements Component, DependencyService, ComponentDec
         calculateStateChanges(oldState, newState);
     }
 
+    /**
+     * Enables or disables event batching for this component. When enabled,
+     * dependency events that arrive while the component is still processing
+     * earlier events are coalesced into a single state recalculation instead
+     * of one recalculation per event. The default is taken from the
+     * <code>org.apache.felix.dependencymanager.batchevents</code> system property.
+     * 
+     * @param batchEvents <code>true</code> to batch dependency events
+     */
+    public void setEventBatching(boolean batchEvents) {
+        m_batchEvents = batchEvents;
+    }
+    
+    /**
+     * Records a dependency event and makes sure a state recalculation is
+     * scheduled on the executor. All events recorded before that recalculation
+     * runs are handled by it, based on a single new state.
+     */
+    private void scheduleRecalculation(Dependency dependency, boolean available) {
+        m_pendingDependencies.offer(new Object[] { dependency, available ? Boolean.TRUE : Boolean.FALSE });
+        if (m_recalculationPending.compareAndSet(false, true)) {
+            m_executor.enqueue(new Runnable() {
+                public void run() {
+                    // clear the flag before draining, so events that arrive
+                    // after the drain schedule a new recalculation
+                    m_recalculationPending.set(false);
+                    recalculate();
+                }
+            });
+        }
+        m_executor.execute();
+    }
+
+    /**
+     * Applies the recorded dependency events. Must run on the executor. The
+     * events are drained before the new state is computed, so that the state
+     * reflects every event that is applied.
+     */
+    private void recalculate() {
+        List events = new ArrayList();
+        Object event;
+        while ((event = m_pendingDependencies.poll()) != null) {
+            events.add(event);
+        }
+        State oldState, newState;
+        synchronized (m_dependencies) {
+            oldState = m_state;
+            newState = new State((List) m_dependencies.clone(), !oldState.isInactive(), m_isInstantiated, m_isBound);
+            m_state = newState;
+        }
+        for (int i = 0; i < events.size(); i++) {
+            Object[] pending = (Object[]) events.get(i);
+            boolean available = ((Boolean) pending[1]).booleanValue();
+            if (newState.isAllRequiredAvailable() || (available && newState.isWaitingForRequiredInstantiated())) {
+                updateInstance((Dependency) pending[0]);
+            }
+        }
+        calculateStateChanges(oldState, newState);
+    }
+
     public void start() {
         boolean needsStarting = false;
         synchronized (this) {
@@ -409,16 +485,36 @@ public class ComponentImpl implements Component, DependencyService, ComponentDec
             }
         }
         if (needsStopping) {
-	        State oldState, newState;
-	        synchronized (m_dependencies) {
-	            oldState = m_state;
-	            newState = new State((List) m_dependencies.clone(), false, m_isInstantiated, m_isBound);
-	            m_state = newState;
-	        }
-	        calculateStateChanges(oldState, newState);
+            if (m_batchEvents) {
+                // apply the batched dependency events before stopping, like
+                // they would have been without batching; this runs on the
+                // executor, so it never overlaps a batched recalculation
+                m_executor.enqueue(new Runnable() {
+                    public void run() {
+                        if (!m_pendingDependencies.isEmpty()) {
+                            recalculate();
+                        }
+                        stopState();
+                    }
+                });
+                m_executor.execute();
+            }
+            else {
+                stopState();
+            }
     	}
     }
 
+    private void stopState() {
+        State oldState, newState;
+        synchronized (m_dependencies) {
+            oldState = m_state;
+            newState = new State((List) m_dependencies.clone(), false, m_isInstantiated, m_isBound);
+            m_state = newState;
+        }
+        calculateStateChanges(oldState, newState);
+    }
+
     public synchronized Component setInterface(String serviceName, Dictionary properties) {
 	    ensureNotActive();
 	    m_serviceName = serviceName;
@@ -18,8 +18,8 @@
  */
 package org.apache.felix.dm.impl;
 
-import java.util.LinkedList;
-import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Allows you to enqueue tasks from multiple threads and then execute
@@ -27,13 +27,17 @@ import java.util.NoSuchElementException;
  * try to execute the tasks and it will make an effort to pick the first
  * task that comes along whilst making sure subsequent tasks return
  * without waiting.
+ * <p>
+ * The executor does not use any locks: producers append to a non blocking
+ * queue and the right to execute is handed over through a single atomic
+ * flag, so threads delivering events for the same component never block
+ * each other.
  * 
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public final class SerialExecutor {
-	private static final Runnable DUMMY_RUNNABLE = new Runnable() { public void run() {}; };
-    private final LinkedList m_workQueue = new LinkedList();
-    private Runnable m_active;
+    private final ConcurrentLinkedQueue m_workQueue = new ConcurrentLinkedQueue();
+    private final AtomicBoolean m_executing = new AtomicBoolean(false);
     
     /**
      * Enqueue a new task for later execution. This method is
@@ -41,17 +45,8 @@ public final class SerialExecutor {
      * 
      * @param runnable the runnable containing the actual task
      */
-    public synchronized void enqueue(final Runnable runnable) {
-    	m_workQueue.addLast(new Runnable() {
-			public void run() {
-				try {
-					runnable.run();
-				}
-				finally {
-					scheduleNext();
-				}
-			}
-		});
+    public void enqueue(final Runnable runnable) {
+        m_workQueue.offer(runnable);
     }
     
     /**
@@ -61,32 +56,33 @@ public final class SerialExecutor {
      * so. Other threads will return immediately.
      */
     public void execute() {
-    	Runnable active;
-    	synchronized (this) {
-    		active = m_active;
-    		// for now just put some non-null value in there so we can never
-    		// get a race condition when two threads enter this section after
-    		// one another (causing sheduleNext() to be invoked twice below)
-    		m_active = DUMMY_RUNNABLE;
-    	}
-    	if (active == null) {
-    		scheduleNext();
-    	}
-    }
-
-    private void scheduleNext() {
-    	Runnable active;
-    	synchronized (this) {
-    		try {
-    			m_active = (Runnable) m_workQueue.removeFirst();
-    		}
-    		catch (NoSuchElementException e) {
-    			m_active = null;
-    		}
-    		active = m_active;
-    	}
-    	if (active != null) {
-            active.run();
+        Throwable failure = null;
+        // after releasing the flag we have to look at the queue again, because
+        // another thread might have enqueued a task after our last poll but
+        // before we released the flag, in which case it returned immediately
+        while (!m_workQueue.isEmpty() && m_executing.compareAndSet(false, true)) {
+            try {
+                Runnable task;
+                while ((task = (Runnable) m_workQueue.poll()) != null) {
+                    try {
+                        task.run();
+                    }
+                    catch (Throwable t) {
+                        if (failure == null) {
+                            failure = t;
+                        }
+                    }
+                }
+            }
+            finally {
+                m_executing.set(false);
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
         }
     }
 }
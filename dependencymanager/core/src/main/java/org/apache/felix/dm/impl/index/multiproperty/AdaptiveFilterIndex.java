@@ -0,0 +1,480 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.impl.index.multiproperty;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.dm.FilterIndex;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Filter index that watches the filters that are actually used and automatically
+ * creates a {@link MultiPropertyFilterIndex} for every combination of properties
+ * (the "shape" of a filter) that is requested often enough. Indices that have no
+ * listeners and have not been used for a while are closed again.
+ * <p>
+ * It is enabled by adding <code>*adaptive*</code> to the
+ * <code>org.apache.felix.dependencymanager.filterindex</code> system property, and
+ * can be tuned through the following system properties:
+ * <ul>
+ * <li><code>org.apache.felix.dependencymanager.index.adaptive.threshold</code>: number
+ * of requests for a shape before an index is created (default 5)</li>
+ * <li><code>org.apache.felix.dependencymanager.index.adaptive.maxindices</code>: maximum
+ * number of indices that are kept open (default 32)</li>
+ * <li><code>org.apache.felix.dependencymanager.index.adaptive.idletimeout</code>: time in
+ * milliseconds after which an unused index without listeners is evicted (default 60000)</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class AdaptiveFilterIndex implements FilterIndex {
+    public static final String THRESHOLD = "org.apache.felix.dependencymanager.index.adaptive.threshold";
+    public static final String MAX_INDICES = "org.apache.felix.dependencymanager.index.adaptive.maxindices";
+    public static final String IDLE_TIMEOUT = "org.apache.felix.dependencymanager.index.adaptive.idletimeout";
+    private static final int MAX_CACHED_FILTERS = 1024;
+    private static final String NOT_APPLICABLE = "";
+
+    private final Object m_lock = new Object();
+    private final int m_threshold;
+    private final int m_maxIndices;
+    private final long m_idleTimeout;
+    private BundleContext m_context;
+    private final Map /* <String, Shape> */ m_shapes = new HashMap();
+    private final List /* <Shape> */ m_indexedShapes = new CopyOnWriteArrayList();
+    private final Map /* <ServiceListener, Shape> */ m_listenerToShapeMap = new HashMap();
+    private final Map /* <String, String> */ m_filterToShapeMap = new LinkedHashMap(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > MAX_CACHED_FILTERS;
+        }
+    };
+    private int m_openingIndices;
+    private long m_lastEvictionCheck = System.currentTimeMillis();
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+    private final AtomicLong m_evictions = new AtomicLong();
+
+    public AdaptiveFilterIndex() {
+        this(Integer.getInteger(THRESHOLD, 5).intValue(), Integer.getInteger(MAX_INDICES, 32).intValue(), Long.getLong(IDLE_TIMEOUT, 60000L).longValue());
+    }
+
+    public AdaptiveFilterIndex(int threshold, int maxIndices, long idleTimeout) {
+        m_threshold = Math.max(1, threshold);
+        m_maxIndices = Math.max(1, maxIndices);
+        m_idleTimeout = idleTimeout;
+    }
+
+    public void open(BundleContext context) {
+        synchronized (m_lock) {
+            if (m_context != null) {
+                throw new IllegalStateException("Filter already open.");
+            }
+            m_context = context;
+        }
+    }
+
+    public void close() {
+        List shapes;
+        synchronized (m_lock) {
+            if (m_context == null) {
+                throw new IllegalStateException("Filter already closed.");
+            }
+            m_context = null;
+            shapes = new ArrayList(m_indexedShapes);
+            // indices being opened are closed by the threads opening them
+            Iterator iterator = m_shapes.values().iterator();
+            while (iterator.hasNext()) {
+                ((Shape) iterator.next()).m_openingIndex = null;
+            }
+            m_openingIndices = 0;
+            m_indexedShapes.clear();
+            m_shapes.clear();
+            m_listenerToShapeMap.clear();
+            m_filterToShapeMap.clear();
+        }
+        for (int i = 0; i < shapes.size(); i++) {
+            MultiPropertyFilterIndex index = ((Shape) shapes.get(i)).m_index;
+            ((Shape) shapes.get(i)).m_index = null;
+            index.close();
+        }
+    }
+
+    public boolean isApplicable(String clazz, String filter) {
+        List /* <MultiPropertyFilterIndex> */ evicted = new ArrayList();
+        Shape shape = null;
+        MultiPropertyFilterIndex index = null;
+        boolean applicable = false;
+        BundleContext context;
+        synchronized (m_lock) {
+            context = m_context;
+            if (context == null) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            evictIdleIndices(now, evicted);
+            String key = getShapeKey(clazz, filter);
+            if (key != NOT_APPLICABLE) {
+                shape = (Shape) m_shapes.get(key);
+                if (shape == null) {
+                    shape = new Shape(key);
+                    m_shapes.put(key, shape);
+                }
+                shape.m_lastUsed = now;
+                if (shape.m_index != null) {
+                    shape.m_hits++;
+                    m_hits.incrementAndGet();
+                    applicable = true;
+                }
+                else {
+                    m_misses.incrementAndGet();
+                    // another thread may be opening the index already
+                    if (++shape.m_requests >= m_threshold && shape.m_openingIndex == null) {
+                        index = createIndex(shape, evicted);
+                    }
+                }
+            }
+        }
+        // the indices track services, so they are opened and closed without holding the lock
+        closeIndices(evicted);
+        if (index != null) {
+            applicable = openIndex(shape, index, context);
+        }
+        return applicable;
+    }
+
+    public List /* <ServiceReference> */ getAllServiceReferences(String clazz, String filter) {
+        MultiPropertyFilterIndex index;
+        BundleContext context;
+        synchronized (m_lock) {
+            index = getIndex(clazz, filter);
+            context = m_context;
+        }
+        if (index != null) {
+            return index.getAllServiceReferences(clazz, filter);
+        }
+        // the index was evicted after we claimed to be applicable, so ask the framework
+        List /* <ServiceReference> */ result = new ArrayList();
+        if (context != null) {
+            try {
+                ServiceReference[] references = context.getAllServiceReferences(clazz, filter);
+                if (references != null) {
+                    for (int i = 0; i < references.length; i++) {
+                        result.add(references[i]);
+                    }
+                }
+            }
+            catch (InvalidSyntaxException e) {
+                // cannot happen, the filter was parsed before
+            }
+        }
+        return result;
+    }
+
+    public void serviceChanged(ServiceEvent event) {
+        Iterator iterator = m_indexedShapes.iterator();
+        while (iterator.hasNext()) {
+            // the index might be evicted concurrently
+            MultiPropertyFilterIndex index = ((Shape) iterator.next()).m_index;
+            if (index != null) {
+                index.serviceChanged(event);
+            }
+        }
+    }
+
+    public void addServiceListener(ServiceListener listener, String filter) {
+        List /* <MultiPropertyFilterIndex> */ evicted = new ArrayList();
+        Shape shape;
+        MultiPropertyFilterIndex index;
+        BundleContext context;
+        synchronized (m_lock) {
+            String key = getShapeKey(null, filter);
+            shape = (Shape) m_shapes.get(key);
+            if (shape == null) {
+                shape = new Shape(key);
+                m_shapes.put(key, shape);
+            }
+            shape.m_lastUsed = System.currentTimeMillis();
+            shape.m_listeners++;
+            m_listenerToShapeMap.put(listener, shape);
+            if (shape.m_index != null) {
+                shape.m_index.addServiceListener(listener, filter);
+                return;
+            }
+            if (shape.m_openingIndex != null) {
+                // published by the thread opening it
+                shape.m_openingIndex.addServiceListener(listener, filter);
+                return;
+            }
+            // make sure an index exists, even if it was evicted in the mean time, because
+            // a listener cannot fall back to the framework from here
+            index = forceCreateIndex(shape, evicted);
+            index.addServiceListener(listener, filter);
+            context = m_context;
+        }
+        closeIndices(evicted);
+        openIndex(shape, index, context);
+    }
+
+    public void removeServiceListener(ServiceListener listener) {
+        synchronized (m_lock) {
+            Shape shape = (Shape) m_listenerToShapeMap.remove(listener);
+            if (shape != null) {
+                shape.m_listeners--;
+                shape.m_lastUsed = System.currentTimeMillis();
+                if (shape.m_index != null) {
+                    shape.m_index.removeServiceListener(listener);
+                }
+                else if (shape.m_openingIndex != null) {
+                    shape.m_openingIndex.removeServiceListener(listener);
+                }
+            }
+        }
+    }
+
+    /** Returns the number of requests that were answered by one of the indices. */
+    public long getHitCount() {
+        return m_hits.get();
+    }
+
+    /** Returns the number of requests for which no index existed yet. */
+    public long getMissCount() {
+        return m_misses.get();
+    }
+
+    /** Returns the number of indices that were evicted because they were no longer used. */
+    public long getEvictionCount() {
+        return m_evictions.get();
+    }
+
+    /** Returns the property combinations that currently have an index. */
+    public List /* <String> */ getIndexedShapes() {
+        List /* <String> */ result = new ArrayList();
+        Iterator iterator = m_indexedShapes.iterator();
+        while (iterator.hasNext()) {
+            result.add(((Shape) iterator.next()).m_key);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the shape of the filter: the sorted list of property keys, where negated
+     * keys are prefixed with an exclamation mark, separated by commas. This is the
+     * configuration string of a <code>MultiPropertyFilterIndex</code> for the filter.
+     */
+    private String getShapeKey(String clazz, String filter) {
+        if (clazz == null && filter == null) {
+            return NOT_APPLICABLE;
+        }
+        String cacheKey = clazz + ":" + filter;
+        String key = (String) m_filterToShapeMap.get(cacheKey);
+        if (key == null) {
+            key = createShapeKey(clazz, filter);
+            m_filterToShapeMap.put(cacheKey, key);
+        }
+        return key;
+    }
+
+    private String createShapeKey(String clazz, String filterString) {
+        String filterStringWithObjectClass = filterString;
+        if (clazz != null) {
+            if (filterString != null) {
+                if (!filterStringWithObjectClass.startsWith("(&(objectClass=")) {
+                    filterStringWithObjectClass = "(&(objectClass=" + clazz + ")" + filterString + ")";
+                }
+            }
+            else {
+                filterStringWithObjectClass = "(objectClass=" + clazz + ")";
+            }
+        }
+        Filter filter = Filter.parse(filterStringWithObjectClass);
+        if (!filter.isValid() || filter.getPropertyKeys().isEmpty()) {
+            return NOT_APPLICABLE;
+        }
+        StringBuffer sb = new StringBuffer();
+        // sort the property keys, so equal shapes get equal keys
+        Iterator iterator = new TreeSet(filter.getPropertyKeys()).iterator();
+        while (iterator.hasNext()) {
+            String key = (String) iterator.next();
+            Property property = filter.getProperty(key);
+            if (!property.isNegate() && "*".equals(property.getValue())) {
+                // no wildcards without negation allowed
+                return NOT_APPLICABLE;
+            }
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            if (property.isNegate()) {
+                sb.append('!');
+            }
+            sb.append(key);
+        }
+        return sb.toString();
+    }
+
+    private MultiPropertyFilterIndex getIndex(String clazz, String filter) {
+        String key = getShapeKey(clazz, filter);
+        Shape shape = (Shape) m_shapes.get(key);
+        return shape == null ? null : shape.m_index;
+    }
+
+    /**
+     * Creates an index for the shape, if there is room for it, which must be opened
+     * with {@link #openIndex} after releasing the lock. Must be called with the lock held.
+     */
+    private MultiPropertyFilterIndex createIndex(Shape shape, List evicted) {
+        if (m_indexedShapes.size() + m_openingIndices >= m_maxIndices && !evictLeastRecentlyUsed(evicted)) {
+            return null;
+        }
+        return newIndex(shape);
+    }
+
+    /**
+     * Creates an index for the shape, evicting another one if needed, which must be
+     * opened with {@link #openIndex} after releasing the lock. Must be called with the
+     * lock held.
+     */
+    private MultiPropertyFilterIndex forceCreateIndex(Shape shape, List evicted) {
+        if (m_indexedShapes.size() + m_openingIndices >= m_maxIndices) {
+            evictLeastRecentlyUsed(evicted);
+        }
+        return newIndex(shape);
+    }
+
+    private MultiPropertyFilterIndex newIndex(Shape shape) {
+        MultiPropertyFilterIndex index = new MultiPropertyFilterIndex(shape.m_key);
+        shape.m_openingIndex = index;
+        m_openingIndices++;
+        return index;
+    }
+
+    /**
+     * Opens an index created for the shape and publishes it, unless this filter index
+     * was closed in the mean time. Must be called without holding the lock, as opening
+     * the index calls into the framework.
+     */
+    private boolean openIndex(Shape shape, MultiPropertyFilterIndex index, BundleContext context) {
+        index.open(context);
+        synchronized (m_lock) {
+            if (shape.m_openingIndex == index) {
+                shape.m_openingIndex = null;
+                m_openingIndices--;
+                shape.m_index = index;
+                m_indexedShapes.add(shape);
+                return true;
+            }
+        }
+        index.close();
+        return false;
+    }
+
+    private void closeIndices(List evicted) {
+        for (int i = 0; i < evicted.size(); i++) {
+            ((MultiPropertyFilterIndex) evicted.get(i)).close();
+        }
+    }
+
+    private void evictIdleIndices(long now, List evicted) {
+        if (now - m_lastEvictionCheck < m_idleTimeout) {
+            return;
+        }
+        m_lastEvictionCheck = now;
+        Iterator iterator = m_shapes.values().iterator();
+        while (iterator.hasNext()) {
+            Shape shape = (Shape) iterator.next();
+            if (shape.m_listeners == 0 && now - shape.m_lastUsed >= m_idleTimeout) {
+                if (shape.m_openingIndex != null) {
+                    continue;
+                }
+                if (shape.m_index != null) {
+                    evict(shape, evicted);
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    private boolean evictLeastRecentlyUsed(List evicted) {
+        Shape candidate = null;
+        Iterator iterator = m_indexedShapes.iterator();
+        while (iterator.hasNext()) {
+            Shape shape = (Shape) iterator.next();
+            if (shape.m_listeners == 0 && (candidate == null || shape.m_lastUsed < candidate.m_lastUsed)) {
+                candidate = shape;
+            }
+        }
+        if (candidate == null) {
+            return false;
+        }
+        evict(candidate, evicted);
+        return true;
+    }
+
+    private void evict(Shape shape, List evicted) {
+        m_indexedShapes.remove(shape);
+        evicted.add(shape.m_index);
+        shape.m_index = null;
+        shape.m_requests = 0;
+        m_evictions.incrementAndGet();
+    }
+
+    public String toString() {
+        StringBuffer sb = new StringBuffer();
+        sb.append(" dAdaptiveFilterIndex[");
+        sb.append("Hits: " + m_hits.get());
+        sb.append(", Misses: " + m_misses.get());
+        sb.append(", Evictions: " + m_evictions.get());
+        sb.append(", Indices: {");
+        Iterator iterator = m_indexedShapes.iterator();
+        while (iterator.hasNext()) {
+            Shape shape = (Shape) iterator.next();
+            sb.append(shape.m_key + "=" + shape.m_hits);
+            if (iterator.hasNext()) {
+                sb.append(", ");
+            }
+        }
+        sb.append("}]");
+        return sb.toString();
+    }
+
+    /** Usage information about one combination of filter properties. */
+    private static class Shape {
+        final String m_key;
+        volatile MultiPropertyFilterIndex m_index;
+        MultiPropertyFilterIndex m_openingIndex;
+        long m_requests;
+        long m_hits;
+        long m_lastUsed;
+        int m_listeners;
+
+        Shape(String key) {
+            m_key = key;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Dictionary;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.dm.Dependency;
+import org.apache.felix.dm.DependencyActivation;
+import org.apache.felix.dm.DependencyService;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Tests the event batching mode of {@link ComponentImpl}.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class ComponentImplBatchingTest extends TestCase {
+    private Impl m_impl;
+    private TestDependency m_dependency;
+    private ComponentImpl m_component;
+
+    protected void setUp() {
+        BundleContext context = (BundleContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] { BundleContext.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return null;
+                }
+            });
+        m_impl = new Impl();
+        m_dependency = new TestDependency();
+        m_component = new ComponentImpl(context, null, new Logger(context));
+        m_component.setEventBatching(true);
+        m_component.setImplementation(m_impl);
+        m_component.add(m_dependency);
+    }
+
+    /**
+     * Events fired concurrently are all applied, once each.
+     */
+    public void testConcurrentEvents() throws Exception {
+        m_component.start();
+        assertEquals(1, m_impl.m_starts);
+        m_dependency.m_reads.set(0);
+
+        final int events = 500;
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < events; j++) {
+                        m_component.dependencyAvailable(m_dependency);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join(10000);
+        }
+
+        assertEquals(threads.length * events, m_dependency.m_reads.get());
+        assertEquals(1, m_impl.m_starts);
+        m_component.stop();
+    }
+
+    /**
+     * Events recorded while the component is busy are applied before it
+     * stops, so the stop callback sees them.
+     */
+    public void testBatchFlushedOnStop() throws Exception {
+        final CountDownLatch starting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        m_impl.m_starting = starting;
+        m_impl.m_release = release;
+
+        // the start callback blocks the thread executing the component tasks
+        Thread starter = new Thread() {
+            public void run() {
+                m_component.start();
+            }
+        };
+        starter.start();
+        assertTrue(starting.await(10, TimeUnit.SECONDS));
+        assertSame(m_dependency.m_first, m_impl.m_service);
+
+        m_dependency.m_service = m_dependency.m_second;
+        m_component.dependencyAvailable(m_dependency);
+        m_component.stop();
+
+        release.countDown();
+        starter.join(10000);
+        assertEquals(1, m_impl.m_stops);
+        assertSame(m_dependency.m_second, m_impl.m_stoppedWith);
+    }
+
+    public static class Impl {
+        volatile Runnable m_service;
+        volatile Runnable m_stoppedWith;
+        volatile int m_starts;
+        volatile int m_stops;
+        CountDownLatch m_starting;
+        CountDownLatch m_release;
+
+        public void start() throws InterruptedException {
+            m_starts++;
+            if (m_starting != null) {
+                m_starting.countDown();
+                m_release.await(10, TimeUnit.SECONDS);
+            }
+        }
+
+        public void stop() {
+            m_stops++;
+            m_stoppedWith = m_service;
+        }
+    }
+
+    /**
+     * A required dependency, always available, injecting its current service.
+     */
+    private static class TestDependency implements Dependency, DependencyActivation {
+        final Runnable m_first = new Service();
+        final Runnable m_second = new Service();
+        volatile Runnable m_service = m_first;
+        final AtomicInteger m_reads = new AtomicInteger();
+
+        public boolean isRequired() {
+            return true;
+        }
+
+        public boolean isAvailable() {
+            return true;
+        }
+
+        public boolean isInstanceBound() {
+            return false;
+        }
+
+        public boolean isAutoConfig() {
+            return true;
+        }
+
+        public Class getAutoConfigType() {
+            return Runnable.class;
+        }
+
+        public Object getAutoConfigInstance() {
+            m_reads.incrementAndGet();
+            return m_service;
+        }
+
+        public String getAutoConfigName() {
+            return null;
+        }
+
+        public void invokeAdded(DependencyService service) {
+        }
+
+        public void invokeRemoved(DependencyService service) {
+        }
+
+        public boolean isPropagated() {
+            return false;
+        }
+
+        public Dictionary getProperties() {
+            return null;
+        }
+
+        public Dependency createCopy() {
+            return this;
+        }
+
+        public void start(DependencyService service) {
+        }
+
+        public void stop(DependencyService service) {
+        }
+    }
+
+    private static class Service implements Runnable {
+        public void run() {
+        }
+    }
+}
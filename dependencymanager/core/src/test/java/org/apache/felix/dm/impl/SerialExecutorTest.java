@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link SerialExecutor} when used from several threads.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class SerialExecutorTest extends TestCase {
+    private static final int THREADS = 8;
+    private static final int TASKS = 2000;
+
+    private final SerialExecutor m_executor = new SerialExecutor();
+    private final AtomicInteger m_running = new AtomicInteger();
+    private volatile String m_failure;
+
+    /**
+     * Tasks enqueued by a thread run in the order they were enqueued, never
+     * concurrently, and none of them is lost even though every producer
+     * only calls execute once after its last enqueue.
+     */
+    public void testConcurrentProducers() throws Exception {
+        final List[] runs = new List[THREADS];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final List run = Collections.synchronizedList(new ArrayList());
+            runs[i] = run;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < TASKS; j++) {
+                        m_executor.enqueue(new Task(run, new Integer(j)));
+                        if (j % 10 == 0) {
+                            m_executor.execute();
+                        }
+                    }
+                    m_executor.execute();
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join(10000);
+        }
+
+        assertNull(m_failure, m_failure);
+        for (int i = 0; i < THREADS; i++) {
+            assertEquals(TASKS, runs[i].size());
+            for (int j = 0; j < TASKS; j++) {
+                assertEquals(new Integer(j), runs[i].get(j));
+            }
+        }
+    }
+
+    /**
+     * A task calling execute does not run tasks nested in its own call,
+     * the tasks it enqueues run after it on the same thread.
+     */
+    public void testReentrantExecute() {
+        final List run = new ArrayList();
+        m_executor.enqueue(new Runnable() {
+            public void run() {
+                run.add("outer start");
+                m_executor.enqueue(new Runnable() {
+                    public void run() {
+                        run.add("inner");
+                    }
+                });
+                m_executor.execute();
+                run.add("outer end");
+            }
+        });
+        m_executor.execute();
+
+        assertEquals(3, run.size());
+        assertEquals("outer start", run.get(0));
+        assertEquals("outer end", run.get(1));
+        assertEquals("inner", run.get(2));
+    }
+
+    /**
+     * A task enqueued while another thread executes is run by that thread,
+     * the execute call of the producer returning immediately.
+     */
+    public void testExecuteWhileBusy() throws Exception {
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List run = Collections.synchronizedList(new ArrayList());
+        Thread executing = new Thread() {
+            public void run() {
+                m_executor.enqueue(new Runnable() {
+                    public void run() {
+                        busy.countDown();
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        }
+                        catch (InterruptedException e) {
+                            // ignore
+                        }
+                        run.add("first");
+                    }
+                });
+                m_executor.execute();
+            }
+        };
+        executing.start();
+        assertTrue(busy.await(10, TimeUnit.SECONDS));
+
+        m_executor.enqueue(new Runnable() {
+            public void run() {
+                run.add(Thread.currentThread().getName());
+            }
+        });
+        m_executor.execute();
+        assertTrue(run.isEmpty());
+
+        release.countDown();
+        executing.join(10000);
+        assertEquals(2, run.size());
+        assertEquals("first", run.get(0));
+        assertEquals(executing.getName(), run.get(1));
+    }
+
+    /**
+     * A failing task does not prevent the following tasks from running, its
+     * exception is thrown once the queue is empty.
+     */
+    public void testFailingTask() {
+        final List run = new ArrayList();
+        m_executor.enqueue(new Runnable() {
+            public void run() {
+                throw new IllegalStateException("failure");
+            }
+        });
+        m_executor.enqueue(new Runnable() {
+            public void run() {
+                run.add("second");
+            }
+        });
+        try {
+            m_executor.execute();
+            fail("The failure of the first task must be thrown");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("failure", e.getMessage());
+        }
+        assertEquals(1, run.size());
+    }
+
+    private class Task implements Runnable {
+        private final List m_run;
+        private final Object m_value;
+
+        Task(List run, Object value) {
+            m_run = run;
+            m_value = value;
+        }
+
+        public void run() {
+            if (m_running.incrementAndGet() != 1) {
+                m_failure = "tasks ran concurrently";
+            }
+            m_run.add(m_value);
+            m_running.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.test;
+
+import static org.ops4j.pax.exam.CoreOptions.mavenBundle;
+import static org.ops4j.pax.exam.CoreOptions.options;
+import static org.ops4j.pax.exam.CoreOptions.provision;
+
+import java.util.Properties;
+
+import org.apache.felix.dm.Component;
+import org.apache.felix.dm.DependencyManager;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.Configuration;
+import org.ops4j.pax.exam.junit.JUnit4TestRunner;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Checks that components still resolve their dependencies when the adaptive filter index
+ * builds an index for the filters they use.
+ */
+@RunWith(JUnit4TestRunner.class)
+public class AdaptiveFilterIndexTest extends Base {
+    private static final int CONSUMERS = 10;
+
+    @Configuration
+    public static Option[] configuration() {
+        return options(
+            provision(
+                mavenBundle().groupId("org.osgi").artifactId("org.osgi.compendium").version(Base.OSGI_SPEC_VERSION),
+                mavenBundle().groupId("org.apache.felix").artifactId("org.apache.felix.dependencymanager").versionAsInProject().noStart()
+            )
+        );
+    }
+    
+    @Test
+    public void testConsumersWithIndexedFilter(BundleContext context) throws Exception {
+        System.setProperty("org.apache.felix.dependencymanager.filterindex", "*adaptive*");
+        System.setProperty("org.apache.felix.dependencymanager.index.adaptive.threshold", "2");
+        DependencyManager m = new DependencyManager(context);
+        // helper class that ensures certain steps get executed in sequence
+        Ensure e = new Ensure();
+        Properties props = new Properties();
+        props.put("type", "a");
+        Component p = m.createComponent()
+            .setInterface(Service.class.getName(), props)
+            .setImplementation(new Provider());
+        Component[] consumers = new Component[CONSUMERS];
+        for (int i = 0; i < CONSUMERS; i++) {
+            consumers[i] = m.createComponent()
+                .setImplementation(new Consumer(e))
+                .add(m.createServiceDependency()
+                    .setService(Service.class, "(type=a)")
+                    .setRequired(true)
+                    );
+        }
+        m.add(p);
+        for (int i = 0; i < CONSUMERS; i++) {
+            m.add(consumers[i]);
+        }
+        // all consumers should be started
+        e.waitForStep(CONSUMERS, 5000);
+        m.remove(p);
+        // and all of them should be stopped again
+        e.waitForStep(CONSUMERS * 2, 5000);
+        for (int i = 0; i < CONSUMERS; i++) {
+            m.remove(consumers[i]);
+        }
+    }
+
+    public static class Consumer {
+        volatile Service m_service;
+        private final Ensure m_ensure;
+        
+        public Consumer(Ensure e) {
+            m_ensure = e;
+        }
+
+        public void start() {
+            m_ensure.step();
+        }
+        
+        public void stop() {
+            m_ensure.step();
+        }
+    }
+    
+    public static interface Service {
+    }
+    
+    public static class Provider implements Service {
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.api;
+
+/**
+ * Suspends the processing of a request without occupying a thread, for
+ * example to answer a long-poll request when an event arrives.
+ * <p>
+ * The request of every servlet and filter invoked by the HTTP service has
+ * an attribute named {@link #NAME} holding its <code>AsyncRequest</code>.
+ * A servlet calls {@link #suspend()} and returns; the response stays open
+ * until another thread calls {@link #resume()} to have the request
+ * dispatched again, or writes the response and calls {@link #complete()}.
+ * If neither happens within the timeout the request is dispatched again
+ * with {@link #isExpired()} returning <code>true</code>.
+ * <p>
+ * Whether the container thread is released depends on the container: it is
+ * with Jetty and with Servlet 3 containers when the bridge servlet is
+ * registered with async support. Otherwise the dispatching thread waits
+ * for the request to be resumed, so the API can be used anywhere.
+ */
+public interface AsyncRequest
+{
+    /**
+     * Name of the request attribute holding the <code>AsyncRequest</code>.
+     */
+    String NAME = AsyncRequest.class.getName();
+
+    /**
+     * Sets the time in milliseconds after which a suspended request expires.
+     * Must be called before {@link #suspend()}.
+     */
+    void setTimeout(long timeout);
+
+    /**
+     * Suspends the request when the current dispatch returns.
+     * 
+     * @throws IllegalStateException if the request is already suspended
+     */
+    void suspend();
+
+    /**
+     * Dispatches the suspended request again.
+     * 
+     * @throws IllegalStateException if the request is not suspended
+     */
+    void resume();
+
+    /**
+     * Completes the suspended request; the response written so far is
+     * sent and the request is not dispatched again.
+     * 
+     * @throws IllegalStateException if the request is not suspended
+     */
+    void complete();
+
+    /**
+     * Returns whether this is the first dispatch of the request.
+     */
+    boolean isInitial();
+
+    /**
+     * Returns whether the request has been suspended and has neither been
+     * resumed, completed nor expired.
+     */
+    boolean isSuspended();
+
+    /**
+     * Returns whether the request is dispatched again because of
+     * {@link #resume()}.
+     */
+    boolean isResumed();
+
+    /**
+     * Returns whether the request is dispatched again because it expired.
+     */
+    boolean isExpired();
+
+    /**
+     * Adds a listener notified when the request completes or expires.
+     */
+    void addListener(AsyncRequestListener listener);
+}
@@ -26,6 +26,7 @@ import javax.servlet.ServletConfig;
 import javax.servlet.ServletRequestAttributeEvent;
 import javax.servlet.ServletRequestEvent;
 
+import org.apache.felix.http.base.internal.async.AbstractAsyncRequest;
 import org.apache.felix.http.base.internal.listener.ServletRequestAttributeListenerManager;
 
 import java.io.IOException;
@@ -58,6 +59,19 @@ public final class DispatcherServlet
     @Override
     protected void service(HttpServletRequest req, HttpServletResponse res)
         throws ServletException, IOException
+    {
+        // dispatched again by this thread if the container cannot suspend requests
+        final AbstractAsyncRequest async = AbstractAsyncRequest.get(req, this.controller.getAsyncRequestProvider());
+        do
+        {
+            async.dispatching();
+            dispatch(req, res);
+        }
+        while (async.dispatched());
+    }
+
+    private void dispatch(HttpServletRequest req, HttpServletResponse res)
+        throws ServletException, IOException
     {
         final ServletRequestEvent sre = new ServletRequestEvent(getServletContext(), req);
         this.controller.getRequestListener().requestInitialized(sre);
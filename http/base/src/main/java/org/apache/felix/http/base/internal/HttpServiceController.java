@@ -18,10 +18,14 @@ package org.apache.felix.http.base.internal;
 
 import java.util.Hashtable;
 
+import javax.servlet.Filter;
 import javax.servlet.ServletContext;
 
 import org.apache.felix.http.api.ExtHttpService;
+import org.apache.felix.http.base.internal.async.AsyncRequestProvider;
+import org.apache.felix.http.base.internal.async.DefaultAsyncRequestProvider;
 import org.apache.felix.http.base.internal.dispatch.Dispatcher;
+import org.apache.felix.http.base.internal.filter.CompressionFilter;
 import org.apache.felix.http.base.internal.handler.HandlerRegistry;
 import org.apache.felix.http.base.internal.handler.HttpServicePlugin;
 import org.apache.felix.http.base.internal.listener.HttpSessionAttributeListenerManager;
@@ -30,7 +34,9 @@ import org.apache.felix.http.base.internal.listener.ServletContextAttributeListe
 import org.apache.felix.http.base.internal.listener.ServletRequestAttributeListenerManager;
 import org.apache.felix.http.base.internal.listener.ServletRequestListenerManager;
 import org.apache.felix.http.base.internal.service.HttpServiceFactory;
+import org.apache.felix.http.base.internal.service.ResourceCache;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.http.HttpService;
 
@@ -56,6 +62,45 @@ public final class HttpServiceController
      */
     private static final String FELIX_HTTP_SHARED_SERVLET_CONTEXT_ATTRIBUTES = "org.apache.felix.http.shared_servlet_context_attributes";
 
+    /**
+     * Name of the Framework property setting the maximum number of bytes of
+     * small resources kept in memory by resource registrations. The default
+     * is 1048576; setting it to 0 disables the cache.
+     */
+    private static final String FELIX_HTTP_RESOURCE_CACHE_SIZE = "org.apache.felix.http.resource.cache.size";
+
+    /**
+     * Name of the Framework property enabling gzip and deflate compression
+     * of responses whose content type is text, JavaScript, JSON or XML. The
+     * default is <code>false</code>. The compression filter is registered as
+     * a whiteboard filter service, so it requires the whiteboard bundle.
+     * Compression by the container, such as the gzip handler of Jetty, is
+     * disabled when this property is set.
+     */
+    private static final String FELIX_HTTP_COMPRESSION = "org.apache.felix.http.compression";
+
+    /**
+     * Name of the Framework property setting the size in bytes below which
+     * responses are not compressed. The default is 256.
+     */
+    private static final String FELIX_HTTP_COMPRESSION_MIN_SIZE = "org.apache.felix.http.compression.minSize";
+
+    /**
+     * Name of the Framework property enabling strong entity tags computed
+     * from the body of responses to GET requests, answering matching
+     * <code>If-None-Match</code> headers with 304. The default is
+     * <code>false</code>. Responses that set their own entity tag are left
+     * unchanged.
+     */
+    private static final String FELIX_HTTP_ETAG = "org.apache.felix.http.etag";
+
+    /**
+     * Name of the Framework property setting the size in bytes up to which
+     * responses are buffered to compute their entity tag. The default is
+     * 65536.
+     */
+    private static final String FELIX_HTTP_ETAG_MAX_SIZE = "org.apache.felix.http.etag.maxSize";
+
     private final BundleContext bundleContext;
     private final HandlerRegistry registry;
     private final Dispatcher dispatcher;
@@ -67,7 +112,11 @@ public final class HttpServiceController
     private final HttpSessionAttributeListenerManager sessionAttributeListener;
     private final boolean sharedContextAttributes;
     private final HttpServicePlugin plugin;
+    private final ResourceCache resourceCache;
+    private final CompressionFilter compressionFilter;
+    private volatile AsyncRequestProvider asyncRequestProvider;
     private ServiceRegistration serviceReg;
+    private ServiceRegistration filterReg;
 
     public HttpServiceController(BundleContext bundleContext)
     {
@@ -82,6 +131,13 @@ public final class HttpServiceController
         this.sessionAttributeListener = new HttpSessionAttributeListenerManager(bundleContext);
         this.sharedContextAttributes = getBoolean(FELIX_HTTP_SHARED_SERVLET_CONTEXT_ATTRIBUTES);
         this.plugin = new HttpServicePlugin(bundleContext,registry);
+        this.resourceCache = new ResourceCache(getInt(FELIX_HTTP_RESOURCE_CACHE_SIZE, ResourceCache.DEFAULT_SIZE));
+        this.asyncRequestProvider = new DefaultAsyncRequestProvider();
+
+        boolean compress = getBoolean(FELIX_HTTP_COMPRESSION);
+        boolean etag = getBoolean(FELIX_HTTP_ETAG);
+        this.compressionFilter = (compress || etag) ? new CompressionFilter(compress,
+            getInt(FELIX_HTTP_COMPRESSION_MIN_SIZE, 256), etag, getInt(FELIX_HTTP_ETAG_MAX_SIZE, 65536)) : null;
     }
 
     public Dispatcher getDispatcher()
@@ -89,6 +145,30 @@ public final class HttpServiceController
         return this.dispatcher;
     }
 
+    /**
+     * Returns <code>true</code> if responses are compressed by the
+     * compression filter, in which case the container must not compress
+     * them again.
+     */
+    public boolean isCompressionEnabled()
+    {
+        return this.compressionFilter != null && this.compressionFilter.isCompressing();
+    }
+
+    public AsyncRequestProvider getAsyncRequestProvider()
+    {
+        return this.asyncRequestProvider;
+    }
+
+    /**
+     * Sets the provider of async requests for containers with their own
+     * support for suspending requests.
+     */
+    public void setAsyncRequestProvider(AsyncRequestProvider asyncRequestProvider)
+    {
+        this.asyncRequestProvider = asyncRequestProvider;
+    }
+
     public ServletContextAttributeListenerManager getContextAttributeListener()
     {
         return contextAttributeListener;
@@ -134,9 +214,18 @@ public final class HttpServiceController
         this.plugin.register();
 
         HttpServiceFactory factory = new HttpServiceFactory(servletContext, this.registry,
-            this.contextAttributeListener, this.sharedContextAttributes);
+            this.contextAttributeListener, this.sharedContextAttributes, this.resourceCache);
         String[] ifaces = new String[] { HttpService.class.getName(), ExtHttpService.class.getName() };
         this.serviceReg = this.bundleContext.registerService(ifaces, factory, this.serviceProps);
+
+        if (this.compressionFilter != null) {
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            props.put("pattern", "/.*");
+            // outermost filter, so the output of all other filters is encoded
+            props.put(Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+            props.put(Constants.SERVICE_DESCRIPTION, "HTTP Service Compression Filter");
+            this.filterReg = this.bundleContext.registerService(Filter.class.getName(), this.compressionFilter, props);
+        }
     }
 
     public void unregister()
@@ -152,9 +241,15 @@ public final class HttpServiceController
         this.requestAttributeListener.close();
         this.plugin.unregister();
 
+        if (this.filterReg != null) {
+            this.filterReg.unregister();
+            this.filterReg = null;
+        }
+
         try {
             this.serviceReg.unregister();
             this.registry.removeAll();
+            this.resourceCache.clear();
         } finally {
             this.serviceReg = null;
         }
@@ -165,4 +260,17 @@ public final class HttpServiceController
         String prop = this.bundleContext.getProperty(property);
         return (prop != null) ? Boolean.valueOf(prop).booleanValue() : false;
     }
+
+    private int getInt(final String property, final int defValue)
+    {
+        String prop = this.bundleContext.getProperty(property);
+        if (prop != null) {
+            try {
+                return Integer.parseInt(prop);
+            } catch (NumberFormatException e) {
+                // use the default
+            }
+        }
+        return defValue;
+    }
 }
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.async;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.felix.http.api.AsyncRequest;
+import org.apache.felix.http.api.AsyncRequestListener;
+import org.apache.felix.http.base.internal.logger.SystemLogger;
+
+/**
+ * State of an {@link AsyncRequest}, shared by the container specific
+ * implementations. A request is created on its first dispatch and kept in
+ * the request attribute {@link AsyncRequest#NAME} for later dispatches.
+ */
+public abstract class AbstractAsyncRequest
+    implements AsyncRequest
+{
+    public static final long DEFAULT_TIMEOUT = 30000;
+
+    private final List<AsyncRequestListener> listeners = new CopyOnWriteArrayList<AsyncRequestListener>();
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private volatile long timeout = DEFAULT_TIMEOUT;
+    private int dispatches;
+    private boolean suspending;
+    private boolean suspended;
+    private boolean resumed;
+    private boolean expired;
+
+    /**
+     * Returns the request of a dispatch, creating it with the provider on
+     * the first dispatch.
+     */
+    public static AbstractAsyncRequest get(HttpServletRequest req, AsyncRequestProvider provider)
+    {
+        Object async = req.getAttribute(NAME);
+        if (async instanceof AbstractAsyncRequest) {
+            return (AbstractAsyncRequest) async;
+        }
+
+        AbstractAsyncRequest created = provider.create(req);
+        req.setAttribute(NAME, created);
+        return created;
+    }
+
+    public void setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the timeout in milliseconds; zero or less means the request
+     * does not expire.
+     */
+    public long getTimeout()
+    {
+        return this.timeout;
+    }
+
+    public void suspend()
+    {
+        synchronized (this) {
+            if (this.suspended) {
+                throw new IllegalStateException("Request is already suspended");
+            }
+
+            this.suspending = true;
+            this.suspended = true;
+            this.resumed = false;
+            this.expired = false;
+        }
+
+        doSuspend();
+    }
+
+    public void resume()
+    {
+        synchronized (this) {
+            if (!this.suspended) {
+                throw new IllegalStateException("Request is not suspended");
+            }
+
+            this.suspended = false;
+            this.resumed = true;
+        }
+
+        doResume();
+    }
+
+    public void complete()
+    {
+        synchronized (this) {
+            if (!this.suspended) {
+                throw new IllegalStateException("Request is not suspended");
+            }
+
+            this.suspended = false;
+        }
+
+        doComplete();
+    }
+
+    public synchronized boolean isInitial()
+    {
+        return this.dispatches <= 1;
+    }
+
+    public synchronized boolean isSuspended()
+    {
+        return this.suspended;
+    }
+
+    public synchronized boolean isResumed()
+    {
+        return this.resumed;
+    }
+
+    public synchronized boolean isExpired()
+    {
+        return this.expired;
+    }
+
+    /**
+     * Returns whether the request has been suspended during the current
+     * dispatch, in which case the response must stay open when the dispatch
+     * returns.
+     */
+    public synchronized boolean isSuspending()
+    {
+        return this.suspending;
+    }
+
+    public void addListener(AsyncRequestListener listener)
+    {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Called before each dispatch of the request.
+     */
+    public synchronized void dispatching()
+    {
+        this.dispatches++;
+        this.suspending = false;
+    }
+
+    /**
+     * Called when a dispatch of the request returned.
+     * 
+     * @return whether the request is to be dispatched again by the calling
+     *         thread
+     */
+    public boolean dispatched()
+    {
+        if (!isSuspending()) {
+            fireComplete();
+        }
+
+        return false;
+    }
+
+    /**
+     * Expires the suspended request and notifies the listeners.
+     * 
+     * @return whether the request is to be dispatched again, that is whether
+     *         no listener resumed or completed it
+     */
+    protected final boolean expire()
+    {
+        synchronized (this) {
+            if (!this.suspended) {
+                return false;
+            }
+
+            this.expired = true;
+        }
+
+        for (AsyncRequestListener listener : this.listeners) {
+            try {
+                listener.onTimeout(this);
+            } catch (RuntimeException e) {
+                SystemLogger.error("Async request listener failed", e);
+            }
+        }
+
+        synchronized (this) {
+            if (!this.suspended) {
+                return false;
+            }
+
+            this.suspended = false;
+            return true;
+        }
+    }
+
+    /**
+     * Notifies the listeners that the response has been completed; only the
+     * first call has an effect.
+     */
+    protected final void fireComplete()
+    {
+        if (!this.completed.compareAndSet(false, true)) {
+            return;
+        }
+
+        for (AsyncRequestListener listener : this.listeners) {
+            try {
+                listener.onComplete(this);
+            } catch (RuntimeException e) {
+                SystemLogger.error("Async request listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Keeps the response open after the current dispatch returns.
+     */
+    protected abstract void doSuspend();
+
+    /**
+     * Dispatches the request again.
+     */
+    protected abstract void doResume();
+
+    /**
+     * Completes the response.
+     */
+    protected abstract void doComplete();
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.async;
+
+/**
+ * Async request for containers without support for suspending requests: the
+ * dispatching thread waits until the request is resumed, completed or
+ * expires, and dispatches it again itself.
+ */
+final class BlockingAsyncRequest
+    extends AbstractAsyncRequest
+{
+    @Override
+    public boolean dispatched()
+    {
+        if (!isSuspending()) {
+            fireComplete();
+            return false;
+        }
+
+        try {
+            await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (expire() || isResumed()) {
+            return true;
+        }
+
+        fireComplete();
+        return false;
+    }
+
+    private synchronized void await()
+        throws InterruptedException
+    {
+        long timeout = getTimeout();
+        long deadline = System.currentTimeMillis() + timeout;
+        while (isSuspended()) {
+            if (timeout <= 0) {
+                wait();
+            } else {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+        }
+    }
+
+    @Override
+    protected void doSuspend()
+    {
+    }
+
+    @Override
+    protected synchronized void doResume()
+    {
+        notifyAll();
+    }
+
+    @Override
+    protected synchronized void doComplete()
+    {
+        notifyAll();
+    }
+}
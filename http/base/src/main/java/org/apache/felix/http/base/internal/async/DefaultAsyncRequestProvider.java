@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.async;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.felix.http.base.internal.logger.SystemLogger;
+
+/**
+ * Uses Servlet 3 async requests where the container supports them for the
+ * dispatched request and falls back to blocking the dispatching thread.
+ */
+public final class DefaultAsyncRequestProvider
+    implements AsyncRequestProvider
+{
+    private volatile boolean warned;
+
+    public AbstractAsyncRequest create(HttpServletRequest req)
+    {
+        if (Servlet3AsyncRequest.isSupported(req)) {
+            return new Servlet3AsyncRequest(req);
+        }
+
+        if (!this.warned) {
+            this.warned = true;
+            SystemLogger.info("Async requests are not supported by the servlet container, "
+                + "suspended requests keep their thread");
+        }
+
+        return new BlockingAsyncRequest();
+    }
+}
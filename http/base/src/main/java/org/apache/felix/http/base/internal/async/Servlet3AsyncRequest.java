@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.async;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletRequest;
+
+/**
+ * Async request on a Servlet 3 container, used by the bridge. The module
+ * is compiled against Servlet 2.5, so the <code>AsyncContext</code> API is
+ * called reflectively.
+ */
+final class Servlet3AsyncRequest
+    extends AbstractAsyncRequest
+    implements InvocationHandler
+{
+    private static final Method IS_ASYNC_SUPPORTED;
+    private static final Method START_ASYNC;
+    private static final Method SET_TIMEOUT;
+    private static final Method ADD_LISTENER;
+    private static final Method DISPATCH;
+    private static final Method COMPLETE;
+    private static final Class<?> ASYNC_LISTENER;
+
+    static {
+        Method isAsyncSupported = null;
+        Method startAsync = null;
+        Method setTimeout = null;
+        Method addListener = null;
+        Method dispatch = null;
+        Method complete = null;
+        Class<?> asyncListener = null;
+        try {
+            ClassLoader loader = ServletRequest.class.getClassLoader();
+            Class<?> asyncContext = Class.forName("javax.servlet.AsyncContext", false, loader);
+            asyncListener = Class.forName("javax.servlet.AsyncListener", false, loader);
+            isAsyncSupported = ServletRequest.class.getMethod("isAsyncSupported");
+            startAsync = ServletRequest.class.getMethod("startAsync");
+            setTimeout = asyncContext.getMethod("setTimeout", long.class);
+            addListener = asyncContext.getMethod("addListener", asyncListener);
+            dispatch = asyncContext.getMethod("dispatch");
+            complete = asyncContext.getMethod("complete");
+        } catch (Exception e) {
+            // Servlet 2.5 container
+            startAsync = null;
+        }
+
+        IS_ASYNC_SUPPORTED = isAsyncSupported;
+        START_ASYNC = startAsync;
+        SET_TIMEOUT = setTimeout;
+        ADD_LISTENER = addListener;
+        DISPATCH = dispatch;
+        COMPLETE = complete;
+        ASYNC_LISTENER = asyncListener;
+    }
+
+    private final ServletRequest request;
+    private volatile Object asyncContext;
+
+    public Servlet3AsyncRequest(ServletRequest request)
+    {
+        this.request = request;
+    }
+
+    /**
+     * Returns whether the container and the servlet the request was
+     * dispatched to support async requests.
+     */
+    public static boolean isSupported(ServletRequest request)
+    {
+        return START_ASYNC != null && Boolean.TRUE.equals(invoke(IS_ASYNC_SUPPORTED, request));
+    }
+
+    @Override
+    protected void doSuspend()
+    {
+        Object context = invoke(START_ASYNC, this.request);
+        long timeout = getTimeout();
+        invoke(SET_TIMEOUT, context, Long.valueOf(timeout > 0 ? timeout : 0));
+
+        // listeners are registered per async cycle
+        Object listener = Proxy.newProxyInstance(ASYNC_LISTENER.getClassLoader(), new Class[] { ASYNC_LISTENER },
+            this);
+        invoke(ADD_LISTENER, context, listener);
+        this.asyncContext = context;
+    }
+
+    @Override
+    protected void doResume()
+    {
+        invoke(DISPATCH, this.asyncContext);
+    }
+
+    @Override
+    protected void doComplete()
+    {
+        invoke(COMPLETE, this.asyncContext);
+    }
+
+    /**
+     * Implements the <code>AsyncListener</code> registered with each
+     * async cycle.
+     */
+    public Object invoke(Object proxy, Method method, Object[] args)
+    {
+        String name = method.getName();
+        if (name.equals("onTimeout")) {
+            // expired requests are dispatched again, as with continuations
+            if (expire()) {
+                invoke(DISPATCH, this.asyncContext);
+            }
+        } else if (name.equals("onComplete")) {
+            fireComplete();
+        } else if (name.equals("equals")) {
+            return Boolean.valueOf(proxy == args[0]);
+        } else if (name.equals("hashCode")) {
+            return Integer.valueOf(System.identityHashCode(proxy));
+        } else if (name.equals("toString")) {
+            return "AsyncListener for " + this.request;
+        }
+
+        return null;
+    }
+
+    private static Object invoke(Method method, Object target, Object... args)
+    {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
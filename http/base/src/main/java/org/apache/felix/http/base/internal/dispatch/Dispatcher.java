@@ -16,6 +16,7 @@
  */
 package org.apache.felix.http.base.internal.dispatch;
 
+import org.apache.felix.http.base.internal.handler.HandlerMapping;
 import org.apache.felix.http.base.internal.handler.HandlerRegistry;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -34,8 +35,9 @@ public final class Dispatcher
     public void dispatch(HttpServletRequest req, HttpServletResponse res)
         throws ServletException, IOException
     {
-        ServletPipeline servletPipeline = new ServletPipeline(this.handlerRegistry.getServlets());
-        FilterPipeline filterPipeline = new FilterPipeline(this.handlerRegistry.getFilters(), servletPipeline);
+        HandlerMapping mapping = this.handlerRegistry.getMapping();
+        ServletPipeline servletPipeline = new ServletPipeline(mapping);
+        FilterPipeline filterPipeline = new FilterPipeline(mapping, servletPipeline);
         filterPipeline.dispatch(req, res, new NotFoundFilterChain());
     }
 }
@@ -23,23 +23,25 @@ import javax.servlet.ServletException;
 import javax.servlet.FilterChain;
 import javax.servlet.RequestDispatcher;
 import java.io.IOException;
-import org.apache.felix.http.base.internal.handler.FilterHandler;
+import org.apache.felix.http.base.internal.handler.HandlerMapping;
 
 public final class FilterPipeline
 {
-    private final FilterHandler[] handlers;
+    private final HandlerMapping mapping;
     private final ServletPipeline servletPipeline;
 
-    public FilterPipeline(FilterHandler[] handlers, ServletPipeline servletPipeline)
+    public FilterPipeline(HandlerMapping mapping, ServletPipeline servletPipeline)
     {
-        this.handlers = handlers;
+        this.mapping = mapping;
         this.servletPipeline = servletPipeline;
     }
 
     public void dispatch(HttpServletRequest req, HttpServletResponse res, FilterChain proceedingChain)
         throws ServletException, IOException
     {
-        FilterChain chain = new InvocationFilterChain(this.handlers, this.servletPipeline, proceedingChain);
+        // the filters are selected by the path the request was dispatched with
+        FilterChain chain = new InvocationFilterChain(this.mapping.getFilterHandlers(req.getPathInfo()),
+            this.servletPipeline, proceedingChain);
 
         if (this.servletPipeline.hasServletsMapped()) {
             req = new RequestWrapper(req);
@@ -44,7 +44,7 @@ public final class InvocationFilterChain
         this.index++;
 
         if (this.index < this.handlers.length) {
-            this.handlers[this.index].handle(req, res, this);
+            this.handlers[this.index].doHandle(req, res, this);
         } else {
             if (!this.servletPipeline.handle(req, res)) {
                 this.proceedingChain.doFilter(req, res);
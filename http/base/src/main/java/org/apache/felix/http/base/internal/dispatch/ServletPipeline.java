@@ -24,43 +24,34 @@ import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import java.io.IOException;
+import org.apache.felix.http.base.internal.handler.HandlerMapping;
 import org.apache.felix.http.base.internal.handler.ServletHandler;
 
 public final class ServletPipeline
 {
-    private final ServletHandler[] handlers;
+    private final HandlerMapping mapping;
 
-    public ServletPipeline(ServletHandler[] handlers)
+    public ServletPipeline(HandlerMapping mapping)
     {
-        this.handlers = handlers;
+        this.mapping = mapping;
     }
 
     public boolean handle(HttpServletRequest req, HttpServletResponse res)
         throws ServletException, IOException
     {
-        for (ServletHandler handler : this.handlers) {
-            if (handler.handle(req, res)) {
-                return true;
-            }
-        }
-
-        return false;
+        ServletHandler handler = this.mapping.getServletHandler(req.getPathInfo());
+        return (handler != null) && handler.handle(req, res);
     }
 
     public boolean hasServletsMapped()
     {
-        return this.handlers.length > 0;
+        return this.mapping.hasServletsMapped();
     }
 
     public RequestDispatcher getRequestDispatcher(String path)
     {
-        for (ServletHandler handler : this.handlers) {
-            if (handler.matches(path)) {
-                return new Dispatcher(path, handler);
-            }
-        }
-        
-        return null;
+        ServletHandler handler = this.mapping.getServletHandler(path);
+        return (handler != null) ? new Dispatcher(path, handler) : null;
     }
 
     private final class Dispatcher
@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.filter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.http.api.AsyncRequest;
+import org.apache.felix.http.base.internal.async.AbstractAsyncRequest;
+
+/**
+ * Compresses responses with the content coding preferred by the client and
+ * optionally adds a strong entity tag to responses of GET requests.
+ * <p>
+ * The body is held back only until it is known whether it is worth
+ * compressing, after that it is streamed through the deflater. To generate
+ * an entity tag the body has to be complete, so when entity tags are enabled
+ * bodies up to a configurable size are buffered; larger bodies, and bodies
+ * flushed explicitly before they are complete, are sent without entity tag.
+ * The body of a request suspended with {@link AsyncRequest} is written by
+ * another thread after the filter returned, so it is sent unencoded.
+ */
+public final class CompressionFilter
+    implements Filter
+{
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    /**
+     * Content types other than <code>text/*</code> that are compressed.
+     */
+    private static final Set<String> COMPRESSIBLE_TYPES = new HashSet<String>(Arrays.asList(
+        "application/javascript", "application/x-javascript", "application/json", "application/xml",
+        "application/xhtml+xml", "image/svg+xml"));
+
+    private final boolean compress;
+    private final int minSize;
+    private final boolean etag;
+    private final int etagMaxSize;
+
+    /**
+     * @param compress whether responses are compressed
+     * @param minSize size in bytes below which responses are not compressed
+     * @param etag whether entity tags are added to responses of GET requests
+     * @param etagMaxSize size in bytes up to which responses are buffered
+     *            to create their entity tag
+     */
+    public CompressionFilter(boolean compress, int minSize, boolean etag, int etagMaxSize)
+    {
+        this.compress = compress;
+        this.minSize = Math.max(0, minSize);
+        this.etag = etag;
+        this.etagMaxSize = Math.max(0, etagMaxSize);
+    }
+
+    /**
+     * Returns <code>true</code> if responses are compressed, and not only
+     * tagged.
+     */
+    public boolean isCompressing()
+    {
+        return this.compress;
+    }
+
+    public void init(FilterConfig config)
+    {
+    }
+
+    public void destroy()
+    {
+    }
+
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+        throws IOException, ServletException
+    {
+        if (!(req instanceof HttpServletRequest) || !(res instanceof HttpServletResponse)) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        HttpServletRequest request = (HttpServletRequest) req;
+        boolean etagCandidate = this.etag && "GET".equals(request.getMethod());
+        if (!this.compress && !etagCandidate) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        String encoding = this.compress ? negotiate(request.getHeader("Accept-Encoding")) : null;
+        String ifNoneMatch = etagCandidate ? request.getHeader("If-None-Match") : null;
+        CompressionResponse response = new CompressionResponse(this, (HttpServletResponse) res, encoding,
+            etagCandidate, ifNoneMatch);
+
+        chain.doFilter(req, response);
+
+        Object async = req.getAttribute(AsyncRequest.NAME);
+        if (async instanceof AbstractAsyncRequest && ((AbstractAsyncRequest) async).isSuspending()) {
+            // the body is written later by the thread completing the request
+            response.release();
+        } else {
+            response.finish();
+        }
+    }
+
+    int getMinSize()
+    {
+        return this.minSize;
+    }
+
+    int getETagMaxSize()
+    {
+        return this.etagMaxSize;
+    }
+
+    /**
+     * Returns whether responses of the given content type are compressed.
+     */
+    static boolean isCompressible(String contentType)
+    {
+        if (contentType == null) {
+            return false;
+        }
+
+        int semicolon = contentType.indexOf(';');
+        String type = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim()
+            .toLowerCase(Locale.ENGLISH);
+        return type.startsWith("text/") || type.endsWith("+json") || COMPRESSIBLE_TYPES.contains(type);
+    }
+
+    /**
+     * Returns the content coding to use for an <code>Accept-Encoding</code>
+     * header, or <code>null</code> if the response is not to be compressed.
+     * gzip is preferred over deflate if both have the same quality.
+     */
+    static String negotiate(String acceptEncoding)
+    {
+        float gzip = getQuality(acceptEncoding, GZIP);
+        float deflate = getQuality(acceptEncoding, DEFLATE);
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+
+        return (deflate > 0) ? DEFLATE : null;
+    }
+
+    /**
+     * Returns <code>true</code> if an <code>Accept-Encoding</code> header
+     * accepts gzip, by name or through <code>*</code>, with a quality above
+     * zero.
+     */
+    public static boolean acceptsGzip(String acceptEncoding)
+    {
+        return getQuality(acceptEncoding, GZIP) > 0;
+    }
+
+    /**
+     * Returns <code>true</code> if an <code>If-None-Match</code> header lists
+     * the given entity tag, or <code>*</code>. Weak tags are compared as if
+     * they were strong.
+     */
+    public static boolean matches(String ifNoneMatch, String etag)
+    {
+        for (String token : ifNoneMatch.split(",")) {
+            token = token.trim();
+            if (token.startsWith("W/")) {
+                token = token.substring(2);
+            }
+            if (token.equals("*") || token.equals(etag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the quality an <code>Accept-Encoding</code> header gives to a
+     * content coding, by name or through <code>*</code>, or -1 if the
+     * coding is not listed. x-gzip is taken as gzip.
+     */
+    private static float getQuality(String acceptEncoding, String coding)
+    {
+        if (acceptEncoding == null) {
+            return -1;
+        }
+
+        float named = -1;
+        float any = -1;
+        for (String token : acceptEncoding.split(",")) {
+            int semicolon = token.indexOf(';');
+            String name = (semicolon < 0 ? token : token.substring(0, semicolon)).trim()
+                .toLowerCase(Locale.ENGLISH);
+            float quality = (semicolon < 0) ? 1 : getQuality(token.substring(semicolon + 1));
+
+            if (name.equals(coding) || (GZIP.equals(coding) && name.equals("x-gzip"))) {
+                named = Math.max(named, quality);
+            } else if (name.equals("*")) {
+                any = quality;
+            }
+        }
+
+        return (named < 0) ? any : named;
+    }
+
+    private static float getQuality(String params)
+    {
+        for (String param : params.split(";")) {
+            param = param.trim();
+            if (param.startsWith("q=") || param.startsWith("Q=")) {
+                try {
+                    return Float.parseFloat(param.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+
+        return 1;
+    }
+}
@@ -0,0 +1,604 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response of the {@link CompressionFilter}. The headers which depend on the
+ * encoding of the body are held back until the first bytes of the body are
+ * sent, the encoding is decided at that point.
+ */
+final class CompressionResponse
+    extends HttpServletResponseWrapper
+{
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final CompressionFilter filter;
+    private final String encoding;
+    private final boolean etagCandidate;
+    private final String ifNoneMatch;
+
+    private int status = SC_OK;
+    private long contentLength = -1;
+    private boolean encoded;
+    private boolean hasETag;
+    private boolean committed;
+    private boolean unencoded;
+
+    private CompressionStream stream;
+    private PrintWriter writer;
+
+    /**
+     * @param encoding content coding accepted by the client or
+     *            <code>null</code>
+     * @param etagCandidate whether an entity tag may be added
+     * @param ifNoneMatch the <code>If-None-Match</code> header of the request
+     */
+    public CompressionResponse(CompressionFilter filter, HttpServletResponse response, String encoding,
+        boolean etagCandidate, String ifNoneMatch)
+    {
+        super(response);
+        this.filter = filter;
+        this.encoding = encoding;
+        this.etagCandidate = etagCandidate;
+        this.ifNoneMatch = ifNoneMatch;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream()
+        throws IOException
+    {
+        if (this.writer != null) {
+            throw new IllegalStateException("getWriter() has already been called");
+        }
+
+        return getStream();
+    }
+
+    @Override
+    public PrintWriter getWriter()
+        throws IOException
+    {
+        if (this.writer == null) {
+            if (this.stream != null) {
+                throw new IllegalStateException("getOutputStream() has already been called");
+            }
+
+            this.writer = new PrintWriter(new OutputStreamWriter(getStream(), getCharacterEncoding()));
+        }
+
+        return this.writer;
+    }
+
+    @Override
+    public void setContentLength(int len)
+    {
+        setContentLength((long) len);
+    }
+
+    @Override
+    public void setHeader(String name, String value)
+    {
+        if (interceptHeader(name, value)) {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value)
+    {
+        if (interceptHeader(name, value)) {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value)
+    {
+        if (interceptHeader(name, String.valueOf(value))) {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addIntHeader(String name, int value)
+    {
+        if (interceptHeader(name, String.valueOf(value))) {
+            super.addIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setStatus(int sc)
+    {
+        this.status = sc;
+        super.setStatus(sc);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(int sc, String sm)
+    {
+        this.status = sc;
+        super.setStatus(sc, sm);
+    }
+
+    @Override
+    public void sendError(int sc)
+        throws IOException
+    {
+        this.committed = true;
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg)
+        throws IOException
+    {
+        this.committed = true;
+        super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendRedirect(String location)
+        throws IOException
+    {
+        this.committed = true;
+        super.sendRedirect(location);
+    }
+
+    @Override
+    public void flushBuffer()
+        throws IOException
+    {
+        if (this.writer != null) {
+            this.writer.flush();
+        }
+
+        if (this.stream != null) {
+            this.stream.flush();
+        } else {
+            super.flushBuffer();
+        }
+    }
+
+    @Override
+    public void resetBuffer()
+    {
+        if (this.stream != null && this.stream.isBuffering()) {
+            this.stream.discard();
+        } else {
+            super.resetBuffer();
+        }
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        this.status = SC_OK;
+        this.contentLength = -1;
+        this.encoded = false;
+        this.hasETag = false;
+        if (this.stream != null && this.stream.isBuffering()) {
+            this.stream.discard();
+        }
+    }
+
+    /**
+     * Completes the body, called after the filter chain returned.
+     */
+    void finish()
+        throws IOException
+    {
+        if (this.committed) {
+            return;
+        }
+
+        if (this.writer != null) {
+            this.writer.flush();
+        }
+
+        if (this.stream != null) {
+            this.stream.close();
+        } else {
+            new CompressionStream(0).close();
+        }
+    }
+
+    /**
+     * Sends the body unencoded from now on, called when the request has
+     * been suspended and the body is written by another thread.
+     */
+    void release()
+        throws IOException
+    {
+        this.unencoded = true;
+        if (this.writer != null) {
+            this.writer.flush();
+        } else if (this.stream != null) {
+            this.stream.release();
+        }
+    }
+
+    private ServletOutputStream getStream()
+    {
+        if (this.stream == null) {
+            int bufferSize = this.filter.getMinSize();
+            if (this.etagCandidate) {
+                bufferSize = Math.max(bufferSize, this.filter.getETagMaxSize());
+            }
+
+            this.stream = new CompressionStream(bufferSize);
+        }
+
+        return this.stream;
+    }
+
+    private void setContentLength(long len)
+    {
+        if (this.stream == null || this.stream.isBuffering()) {
+            this.contentLength = len;
+        } else if (!this.stream.isCompressing()) {
+            super.setHeader("Content-Length", String.valueOf(len));
+        }
+    }
+
+    /**
+     * Records the headers which influence the encoding of the body.
+     * 
+     * @return whether the header is to be passed to the response
+     */
+    private boolean interceptHeader(String name, String value)
+    {
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            try {
+                setContentLength(Long.parseLong(value.trim()));
+            } catch (NumberFormatException e) {
+                return true;
+            }
+            return false;
+        } else if ("Content-Encoding".equalsIgnoreCase(name)) {
+            this.encoded = true;
+        } else if ("ETag".equalsIgnoreCase(name)) {
+            this.hasETag = true;
+        }
+
+        return true;
+    }
+
+    /**
+     * Sets the headers for the body and returns the stream to write it to,
+     * or <code>null</code> if no body is to be sent.
+     * 
+     * @param body the body or its beginning
+     * @param length number of bytes in body
+     * @param size number of bytes of the body known to be written
+     * @param complete whether the body is complete
+     */
+    private OutputStream commit(byte[] body, int length, long size, boolean complete)
+        throws IOException
+    {
+        HttpServletResponse res = (HttpServletResponse) getResponse();
+        boolean compressible = this.filter.isCompressing() && this.status == SC_OK && !this.encoded && !this.unencoded
+            && CompressionFilter.isCompressible(getContentType());
+        if (compressible) {
+            res.addHeader("Vary", "Accept-Encoding");
+        }
+
+        int minSize = this.filter.getMinSize();
+        String coding = null;
+        if (compressible && this.encoding != null && (this.contentLength < 0 ? size : this.contentLength) >= minSize) {
+            coding = this.encoding;
+        }
+
+        if (complete && this.etagCandidate && !this.hasETag && !this.unencoded && this.status == SC_OK) {
+            String etag = createETag(body, length, coding);
+            res.setHeader("ETag", etag);
+            if (this.ifNoneMatch != null && CompressionFilter.matches(this.ifNoneMatch, etag)) {
+                res.setStatus(SC_NOT_MODIFIED);
+                return null;
+            }
+        }
+
+        if (coding == null) {
+            if (this.contentLength >= 0) {
+                res.setHeader("Content-Length", String.valueOf(this.contentLength));
+            } else if (complete && this.status == SC_OK) {
+                res.setContentLength(length);
+            }
+
+            return (length > 0 || !complete) ? res.getOutputStream() : null;
+        }
+
+        res.setHeader("Content-Encoding", coding);
+        if (complete) {
+            // compress the whole body to send it with a content length
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 4));
+            DeflaterOutputStream deflater = createDeflater(out, coding);
+            deflater.write(body, 0, length);
+            deflater.close();
+
+            res.setContentLength(out.size());
+            out.writeTo(res.getOutputStream());
+            return null;
+        }
+
+        return createDeflater(res.getOutputStream(), coding);
+    }
+
+    private static DeflaterOutputStream createDeflater(OutputStream out, String coding)
+        throws IOException
+    {
+        if (CompressionFilter.GZIP.equals(coding)) {
+            return new GzipStream(out);
+        }
+
+        return new DeflateStream(out);
+    }
+
+    /**
+     * Returns a strong entity tag from the digest of the unencoded body,
+     * tagged with the content coding since each coding is a different
+     * representation.
+     */
+    static String createETag(byte[] body, int length, String coding)
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not supported");
+        }
+
+        digest.update(body, 0, length);
+        byte[] hash = digest.digest();
+
+        StringBuilder sb = new StringBuilder(hash.length * 2 + 6).append('"');
+        for (byte b : hash) {
+            sb.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+        }
+        if (CompressionFilter.GZIP.equals(coding)) {
+            sb.append("-gz");
+        } else if (CompressionFilter.DEFLATE.equals(coding)) {
+            sb.append("-df");
+        }
+
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Holds back the body until the encoding can be decided, then streams it
+     * to the response.
+     */
+    private final class CompressionStream
+        extends ServletOutputStream
+    {
+        private final int bufferSize;
+        private byte[] buffer;
+        private int count;
+        private OutputStream out;
+        private boolean decided;
+        private boolean closed;
+
+        public CompressionStream(int bufferSize)
+        {
+            this.bufferSize = bufferSize;
+        }
+
+        public boolean isBuffering()
+        {
+            return !this.decided;
+        }
+
+        public boolean isCompressing()
+        {
+            return this.out instanceof DeflaterOutputStream;
+        }
+
+        public void discard()
+        {
+            this.count = 0;
+        }
+
+        @Override
+        public void write(int b)
+            throws IOException
+        {
+            if (!this.decided && this.count < this.bufferSize && !unencoded) {
+                ensureCapacity(this.count + 1);
+                this.buffer[this.count++] = (byte) b;
+            } else {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+            throws IOException
+        {
+            if (this.closed) {
+                throw new IOException("Stream closed");
+            }
+
+            if (!this.decided) {
+                if (this.count + len <= this.bufferSize && !unencoded) {
+                    ensureCapacity(this.count + len);
+                    System.arraycopy(b, off, this.buffer, this.count, len);
+                    this.count += len;
+                    return;
+                }
+
+                decide(this.count + len, false);
+            }
+
+            if (this.out != null) {
+                this.out.write(b, off, len);
+            }
+        }
+
+        /**
+         * Sends what has been written so far; a body flushed before it is
+         * complete gets no entity tag.
+         */
+        @Override
+        public void flush()
+            throws IOException
+        {
+            if (this.closed) {
+                return;
+            }
+
+            if (!this.decided) {
+                decide(this.count, false);
+            }
+
+            if (this.out != null) {
+                this.out.flush();
+            }
+        }
+
+        /**
+         * Sends what has been buffered without flushing the response.
+         */
+        public void release()
+            throws IOException
+        {
+            if (!this.decided && this.count > 0) {
+                decide(this.count, false);
+            }
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            if (this.closed) {
+                return;
+            }
+
+            if (!this.decided) {
+                decide(this.count, true);
+            }
+
+            this.closed = true;
+            if (this.out instanceof DeflaterOutputStream) {
+                // finishes the deflater without closing the response
+                ((DeflaterOutputStream) this.out).finish();
+                end(this.out);
+            }
+        }
+
+        private void decide(long size, boolean complete)
+            throws IOException
+        {
+            if (this.buffer == null) {
+                this.buffer = new byte[0];
+            }
+
+            this.decided = true;
+            this.out = commit(this.buffer, this.count, size, complete);
+            if (this.out != null && this.count > 0) {
+                this.out.write(this.buffer, 0, this.count);
+            }
+            this.buffer = null;
+        }
+
+        private void ensureCapacity(int capacity)
+        {
+            if (this.buffer == null) {
+                this.buffer = new byte[Math.min(this.bufferSize, Math.max(INITIAL_BUFFER_SIZE, capacity))];
+            } else if (capacity > this.buffer.length) {
+                byte[] grown = new byte[Math.min(this.bufferSize, Math.max(this.buffer.length * 2, capacity))];
+                System.arraycopy(this.buffer, 0, grown, 0, this.count);
+                this.buffer = grown;
+            }
+        }
+    }
+
+    private static void end(OutputStream out)
+    {
+        if (out instanceof GzipStream) {
+            ((GzipStream) out).end();
+        } else if (out instanceof DeflateStream) {
+            ((DeflateStream) out).end();
+        }
+    }
+
+    /**
+     * Releases the native memory of its deflater when done.
+     */
+    private static final class GzipStream
+        extends GZIPOutputStream
+    {
+        public GzipStream(OutputStream out)
+            throws IOException
+        {
+            super(out);
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            finish();
+            end();
+        }
+
+        public void end()
+        {
+            this.def.end();
+        }
+    }
+
+    private static final class DeflateStream
+        extends DeflaterOutputStream
+    {
+        public DeflateStream(OutputStream out)
+        {
+            super(out, new Deflater());
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            finish();
+            end();
+        }
+
+        public void end()
+        {
+            this.def.end();
+        }
+    }
+}
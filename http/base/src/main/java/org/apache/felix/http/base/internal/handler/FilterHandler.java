@@ -79,7 +79,10 @@ public final class FilterHandler
         }
     }
 
-    private void doHandle(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
+    /**
+     * Invokes the filter for a request that is known to match its pattern.
+     */
+    public void doHandle(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
         throws ServletException, IOException
     {
         if (!getContext().handleSecurity(req, res)) {
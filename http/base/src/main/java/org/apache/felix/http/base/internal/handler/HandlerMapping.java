@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable dispatch table compiled from the registered handlers. Servlet
+ * aliases are kept in a trie of path segments, so the servlet for a request is
+ * found by walking the segments of its path instead of trying every alias.
+ * The filters matching a path are computed once and cached; the cache belongs
+ * to this table and is discarded with it when the registry changes.
+ */
+public final class HandlerMapping
+{
+    static final HandlerMapping EMPTY = new HandlerMapping(new ServletHandler[0], new FilterHandler[0]);
+
+    /**
+     * Maximum number of paths whose matching filters are cached.
+     */
+    private static final int MAX_CACHED_PATHS = 1024;
+
+    private static final FilterHandler[] NO_FILTERS = new FilterHandler[0];
+
+    private final ServletHandler[] servlets;
+    private final FilterHandler[] filters;
+    private final Node root;
+    private final Map<String, FilterHandler[]> filterCache;
+
+    /**
+     * @param servlets servlets in the order of {@link ServletHandler#compareTo(ServletHandler)}
+     * @param filters filters in the order of {@link FilterHandler#compareTo(FilterHandler)}
+     */
+    HandlerMapping(ServletHandler[] servlets, FilterHandler[] filters)
+    {
+        this.servlets = servlets;
+        this.filters = filters;
+        this.root = new Node();
+        this.filterCache = new ConcurrentHashMap<String, FilterHandler[]>();
+
+        for (ServletHandler servlet : servlets) {
+            add(servlet);
+        }
+    }
+
+    public ServletHandler[] getServlets()
+    {
+        return this.servlets;
+    }
+
+    public FilterHandler[] getFilters()
+    {
+        return this.filters;
+    }
+
+    public boolean hasServletsMapped()
+    {
+        return this.servlets.length > 0;
+    }
+
+    /**
+     * Returns the servlet with the longest alias matching the path, or
+     * <code>null</code>. This is the first servlet whose
+     * {@link ServletHandler#matches(String)} accepts the path.
+     */
+    public ServletHandler getServletHandler(String path)
+    {
+        if (path == null) {
+            return this.root.handler;
+        }
+
+        // aliases are validated to start with a slash
+        if (!path.startsWith("/")) {
+            return null;
+        }
+
+        Node node = this.root;
+        ServletHandler handler = node.handler;
+        int start = 1;
+        while (node.children != null) {
+            int end = path.indexOf('/', start);
+            String segment = (end < 0) ? path.substring(start) : path.substring(start, end);
+
+            node = node.children.get(segment);
+            if (node == null) {
+                break;
+            }
+
+            if (node.handler != null) {
+                handler = node.handler;
+            }
+
+            if (end < 0) {
+                break;
+            }
+
+            start = end + 1;
+        }
+
+        return handler;
+    }
+
+    /**
+     * Returns the filters whose pattern matches the path, in ranking order.
+     */
+    public FilterHandler[] getFilterHandlers(String path)
+    {
+        if (this.filters.length == 0) {
+            return NO_FILTERS;
+        }
+
+        String key = (path == null) ? "/" : path;
+        FilterHandler[] result = this.filterCache.get(key);
+        if (result == null) {
+            List<FilterHandler> matching = new ArrayList<FilterHandler>();
+            for (FilterHandler filter : this.filters) {
+                if (filter.matches(key)) {
+                    matching.add(filter);
+                }
+            }
+
+            result = matching.isEmpty() ? NO_FILTERS : matching.toArray(new FilterHandler[matching.size()]);
+
+            // arbitrary request paths must not grow the cache without bounds
+            if (this.filterCache.size() < MAX_CACHED_PATHS) {
+                this.filterCache.put(key, result);
+            }
+        }
+
+        return result;
+    }
+
+    private void add(ServletHandler servlet)
+    {
+        String alias = servlet.getAlias();
+        Node node = this.root;
+        if (!alias.equals("/")) {
+            int start = 1;
+            while (true) {
+                int end = alias.indexOf('/', start);
+                String segment = (end < 0) ? alias.substring(start) : alias.substring(start, end);
+                node = node.getOrAddChild(segment);
+
+                if (end < 0) {
+                    break;
+                }
+
+                start = end + 1;
+            }
+        }
+
+        // servlets are sorted, so the first servlet for an alias wins as before
+        if (node.handler == null) {
+            node.handler = servlet;
+        }
+    }
+
+    private static final class Node
+    {
+        private Map<String, Node> children;
+        private ServletHandler handler;
+
+        public Node getOrAddChild(String segment)
+        {
+            if (this.children == null) {
+                this.children = new HashMap<String, Node>();
+            }
+
+            Node child = this.children.get(segment);
+            if (child == null) {
+                child = new Node();
+                this.children.put(segment, child);
+            }
+
+            return child;
+        }
+    }
+}
@@ -20,73 +20,139 @@ import org.osgi.service.http.NamespaceException;
 import javax.servlet.ServletException;
 import javax.servlet.Servlet;
 import javax.servlet.Filter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Arrays;
 
+/**
+ * Registry of the servlets and filters of the HTTP service. Handlers are
+ * initialized outside of the registry lock, so servlets registered from
+ * different threads initialize concurrently; a handler only becomes visible
+ * once its initialization completed. A handler removed while it initializes
+ * is removed once its initialization completed, or at once if the remover is
+ * itself initializing a handler. The dispatch table is rebuilt lazily on
+ * the first lookup after a change, so registering many handlers in a row
+ * sorts them only once.
+ */
 public final class HandlerRegistry
 {
     private final Map<Servlet, ServletHandler> servletMap;
     private final Map<Filter, FilterHandler> filterMap;
     private final Map<String, Servlet> aliasMap;
-    private ServletHandler[] servlets;
-    private FilterHandler[] filters;
+    private final Map<AbstractHandler, Thread> initializing;
+    private final Map<AbstractHandler, Boolean> removed;
+    private volatile HandlerMapping mapping;
 
     public HandlerRegistry()
     {
         this.servletMap = new HashMap<Servlet, ServletHandler>();
         this.filterMap = new HashMap<Filter, FilterHandler>();
         this.aliasMap = new HashMap<String, Servlet>();
-        this.servlets = new ServletHandler[0];
-        this.filters = new FilterHandler[0];
+        this.initializing = new HashMap<AbstractHandler, Thread>();
+        this.removed = new HashMap<AbstractHandler, Boolean>();
+        this.mapping = HandlerMapping.EMPTY;
     }
 
     public ServletHandler[] getServlets()
     {
-        return this.servlets;
+        return getMapping().getServlets();
     }
 
     public FilterHandler[] getFilters()
     {
-        return this.filters;
+        return getMapping().getFilters();
+    }
+
+    /**
+     * Returns the dispatch table for the currently registered handlers. The
+     * table is replaced, not modified, when handlers are added or removed.
+     */
+    public HandlerMapping getMapping()
+    {
+        HandlerMapping mapping = this.mapping;
+        return (mapping != null) ? mapping : buildMapping();
     }
 
-    public synchronized void addServlet(ServletHandler handler)
+    public void addServlet(ServletHandler handler)
         throws ServletException, NamespaceException
     {
-        if (this.servletMap.containsKey(handler.getServlet())) {
-            throw new ServletException("Servlet instance already registered");
-        }
+        synchronized (this) {
+            if (this.servletMap.containsKey(handler.getServlet())) {
+                throw new ServletException("Servlet instance already registered");
+            }
 
-        if (this.aliasMap.containsKey(handler.getAlias())) {
-            throw new NamespaceException("Servlet with alias already registered");
+            if (this.aliasMap.containsKey(handler.getAlias())) {
+                throw new NamespaceException("Servlet with alias already registered");
+            }
+
+            // reserve the servlet and alias while it is initialized
+            this.servletMap.put(handler.getServlet(), handler);
+            this.aliasMap.put(handler.getAlias(), handler.getServlet());
+            this.initializing.put(handler, Thread.currentThread());
         }
 
-        handler.init();
-        this.servletMap.put(handler.getServlet(), handler);
-        this.aliasMap.put(handler.getAlias(), handler.getServlet());
-        updateServletArray();
+        boolean initialized = false;
+        try {
+            handler.init();
+            initialized = true;
+        } finally {
+            synchronized (this) {
+                this.initializing.remove(handler);
+                if (!completeRemoval(handler, initialized) && !initialized) {
+                    this.servletMap.remove(handler.getServlet());
+                    this.aliasMap.remove(handler.getAlias());
+                }
+
+                this.mapping = null;
+                notifyAll();
+            }
+        }
     }
 
-    public synchronized void addFilter(FilterHandler handler)
+    public void addFilter(FilterHandler handler)
         throws ServletException
     {
-        if (this.filterMap.containsKey(handler.getFilter())) {
-            throw new ServletException("Filter instance already registered");
+        synchronized (this) {
+            if (this.filterMap.containsKey(handler.getFilter())) {
+                throw new ServletException("Filter instance already registered");
+            }
+
+            this.filterMap.put(handler.getFilter(), handler);
+            this.initializing.put(handler, Thread.currentThread());
         }
 
-        handler.init();
-        this.filterMap.put(handler.getFilter(), handler);
-        updateFilterArray();
+        boolean initialized = false;
+        try {
+            handler.init();
+            initialized = true;
+        } finally {
+            synchronized (this) {
+                this.initializing.remove(handler);
+                if (!completeRemoval(handler, initialized) && !initialized) {
+                    this.filterMap.remove(handler.getFilter());
+                }
+
+                this.mapping = null;
+                notifyAll();
+            }
+        }
     }
 
     public synchronized void removeServlet(Servlet servlet, final boolean destroy)
     {
+        ServletHandler pending = this.servletMap.get(servlet);
+        boolean initialized = (pending == null) || awaitInitialized(pending);
         ServletHandler handler = this.servletMap.remove(servlet);
         if (handler != null) {
-            updateServletArray();
             this.aliasMap.remove(handler.getAlias());
-            if (destroy)
+            this.mapping = null;
+            if (!initialized)
+            {
+                this.removed.put(handler, destroy);
+            }
+            else if (destroy)
             {
                 handler.destroy();
             }
@@ -95,10 +161,16 @@ public final class HandlerRegistry
 
     public synchronized void removeFilter(Filter filter, final boolean destroy)
     {
+        FilterHandler pending = this.filterMap.get(filter);
+        boolean initialized = (pending == null) || awaitInitialized(pending);
         FilterHandler handler = this.filterMap.remove(filter);
         if (handler != null) {
-            updateFilterArray();
-            if (destroy)
+            this.mapping = null;
+            if (!initialized)
+            {
+                this.removed.put(handler, destroy);
+            }
+            else if (destroy)
             {
                 handler.destroy();
             }
@@ -112,33 +184,108 @@ public final class HandlerRegistry
 
     public synchronized void removeAll()
     {
+        awaitInitialized(null);
         for (ServletHandler handler : this.servletMap.values()) {
-            handler.destroy();
+            removeAll(handler);
         }
 
         for (FilterHandler handler : this.filterMap.values()) {
-            handler.destroy();
+            removeAll(handler);
         }
 
         this.servletMap.clear();
         this.filterMap.clear();
         this.aliasMap.clear();
+        this.mapping = null;
+    }
 
-        updateServletArray();
-        updateFilterArray();
+    private void removeAll(AbstractHandler handler)
+    {
+        if (this.initializing.containsKey(handler)) {
+            this.removed.put(handler, Boolean.TRUE);
+        } else {
+            handler.destroy();
+        }
+    }
+
+    /**
+     * Completes the removal of a handler removed while it initialized. Must be
+     * called holding the lock.
+     *
+     * @return <code>true</code> if the handler had been removed
+     */
+    private boolean completeRemoval(AbstractHandler handler, boolean initialized)
+    {
+        Boolean destroy = this.removed.remove(handler);
+        if (destroy == null) {
+            return false;
+        }
+
+        if (initialized && destroy.booleanValue()) {
+            handler.destroy();
+        }
+
+        return true;
     }
 
-    private void updateServletArray()
+    /**
+     * Waits until a handler, or all handlers if it is <code>null</code>, have
+     * completed their initialization, so that a handler is never destroyed
+     * while it is initialized. A thread initializing a handler does not wait,
+     * as the handler it would wait for may be removed from its own
+     * <code>init</code> method. Must be called holding the lock.
+     *
+     * @return <code>false</code> if the handler is still initializing, and
+     *         must be removed by the initializing thread
+     */
+    private boolean awaitInitialized(AbstractHandler handler)
     {
-        ServletHandler[] tmp = this.servletMap.values().toArray(new ServletHandler[this.servletMap.size()]);
-        Arrays.sort(tmp);
-        this.servlets = tmp;
+        boolean interrupted = false;
+        try {
+            while ((handler == null) ? !this.initializing.isEmpty() : this.initializing.containsKey(handler)) {
+                if (this.initializing.containsValue(Thread.currentThread())) {
+                    return false;
+                }
+
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            return true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
-    private void updateFilterArray()
+    private synchronized HandlerMapping buildMapping()
     {
-        FilterHandler[] tmp = this.filterMap.values().toArray(new FilterHandler[this.filterMap.size()]);
-        Arrays.sort(tmp);
-        this.filters = tmp;
+        if (this.mapping == null) {
+            List<ServletHandler> servlets = new ArrayList<ServletHandler>(this.servletMap.size());
+            for (ServletHandler handler : this.servletMap.values()) {
+                if (!this.initializing.containsKey(handler)) {
+                    servlets.add(handler);
+                }
+            }
+
+            List<FilterHandler> filters = new ArrayList<FilterHandler>(this.filterMap.size());
+            for (FilterHandler handler : this.filterMap.values()) {
+                if (!this.initializing.containsKey(handler)) {
+                    filters.add(handler);
+                }
+            }
+
+            ServletHandler[] servletArray = servlets.toArray(new ServletHandler[servlets.size()]);
+            FilterHandler[] filterArray = filters.toArray(new FilterHandler[filters.size()]);
+            Arrays.sort(servletArray);
+            Arrays.sort(filterArray);
+            this.mapping = new HandlerMapping(servletArray, filterArray);
+        }
+
+        return this.mapping;
     }
 }
@@ -31,20 +31,23 @@ public final class HttpServiceFactory
     private final ServletContextAttributeListener attributeListener;
     private final HandlerRegistry handlerRegistry;
     private final boolean sharedContextAttributes;
+    private final ResourceCache resourceCache;
 
     public HttpServiceFactory(ServletContext context, HandlerRegistry handlerRegistry,
-        ServletContextAttributeListener attributeListener, boolean sharedContextAttributes)
+        ServletContextAttributeListener attributeListener, boolean sharedContextAttributes,
+        ResourceCache resourceCache)
     {
         this.context = context;
         this.attributeListener = attributeListener;
         this.handlerRegistry = handlerRegistry;
         this.sharedContextAttributes = sharedContextAttributes;
+        this.resourceCache = resourceCache;
     }
 
     public Object getService(Bundle bundle, ServiceRegistration reg)
     {
         return new HttpServiceImpl(bundle, this.context, this.handlerRegistry, this.attributeListener,
-            this.sharedContextAttributes);
+            this.sharedContextAttributes, this.resourceCache);
     }
 
     public void ungetService(Bundle bundle, ServiceRegistration reg, Object service)
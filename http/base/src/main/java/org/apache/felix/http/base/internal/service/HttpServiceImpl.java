@@ -38,12 +38,15 @@ public final class HttpServiceImpl
     private final HashSet<Servlet> localServlets;
     private final HashSet<Filter> localFilters;
     private final ServletContextManager contextManager;
+    private final ResourceCache resourceCache;
 
     public HttpServiceImpl(Bundle bundle, ServletContext context, HandlerRegistry handlerRegistry,
-        ServletContextAttributeListener servletAttributeListener, boolean sharedContextAttributes)
+        ServletContextAttributeListener servletAttributeListener, boolean sharedContextAttributes,
+        ResourceCache resourceCache)
     {
         this.bundle = bundle;
         this.handlerRegistry = handlerRegistry;
+        this.resourceCache = resourceCache;
         this.localServlets = new HashSet<Servlet>();
         this.localFilters = new HashSet<Filter>();
         this.contextManager = new ServletContextManager(this.bundle, context, servletAttributeListener,
@@ -68,7 +71,9 @@ public final class HttpServiceImpl
         FilterHandler handler = new FilterHandler(getServletContext(context), filter, pattern, ranking);
         handler.setInitParams(initParams);
         this.handlerRegistry.addFilter(handler);
-        this.localFilters.add(filter);
+        synchronized (this.localFilters) {
+            this.localFilters.add(filter);
+        }
     }
 
     public void unregisterFilter(Filter filter)
@@ -93,7 +98,9 @@ public final class HttpServiceImpl
         ServletHandler handler = new ServletHandler(getServletContext(context), servlet, alias);
         handler.setInitParams(initParams);
         this.handlerRegistry.addServlet(handler);
-        this.localServlets.add(servlet);
+        synchronized (this.localServlets) {
+            this.localServlets.add(servlet);
+        }
     }
 
     public void registerResources(String alias, String name, HttpContext context)
@@ -104,7 +111,7 @@ public final class HttpServiceImpl
         }
 
         try {
-            Servlet servlet = new ResourceServlet(name);
+            Servlet servlet = new ResourceServlet(name, this.resourceCache);
             registerServlet(alias, servlet, null, context);
         } catch (ServletException e) {
             SystemLogger.error("Failed to register resources", e);
@@ -113,7 +120,13 @@ public final class HttpServiceImpl
 
     public void unregister(String alias)
     {
-        unregisterServlet(this.handlerRegistry.getServletByAlias(alias));
+        Servlet servlet = this.handlerRegistry.getServletByAlias(alias);
+        unregisterServlet(servlet);
+
+        if (servlet instanceof ResourceServlet) {
+            // the context may serve different content if it is registered again
+            this.resourceCache.clear();
+        }
     }
 
     public HttpContext createDefaultHttpContext()
@@ -123,12 +136,20 @@ public final class HttpServiceImpl
 
     public void unregisterAll()
     {
-        HashSet<Servlet> servlets = new HashSet<Servlet>(this.localServlets);
+        // registrations may be added concurrently, their handlers initialize
+        // outside of the registry lock
+        HashSet<Servlet> servlets;
+        synchronized (this.localServlets) {
+            servlets = new HashSet<Servlet>(this.localServlets);
+        }
         for (Servlet servlet : servlets) {
             unregisterServlet(servlet, false);
         }
 
-        HashSet<Filter> filters = new HashSet<Filter>(this.localFilters);
+        HashSet<Filter> filters;
+        synchronized (this.localFilters) {
+            filters = new HashSet<Filter>(this.localFilters);
+        }
         for (Filter fiter : filters) {
             unregisterFilter(fiter, false);
         }
@@ -138,7 +159,9 @@ public final class HttpServiceImpl
     {
         if (filter != null) {
             this.handlerRegistry.removeFilter(filter, destroy);
-            this.localFilters.remove(filter);
+            synchronized (this.localFilters) {
+                this.localFilters.remove(filter);
+            }
         }
     }
 
@@ -146,7 +169,9 @@ public final class HttpServiceImpl
     {
         if (servlet != null) {
             this.handlerRegistry.removeServlet(servlet, destroy);
-            this.localServlets.remove(servlet);
+            synchronized (this.localServlets) {
+                this.localServlets.remove(servlet);
+            }
         }
     }
 
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Size-bounded LRU cache of small resources served by {@link ResourceServlet}.
+ * An entry holds the content, its entity tag and, for compressible content
+ * types, a precomputed gzip variant. Entries are validated against the last
+ * modification time of the resource.
+ */
+public final class ResourceCache
+{
+    public static final int DEFAULT_SIZE = 1024 * 1024;
+
+    /**
+     * Only resources up to this fraction of the cache size are cached.
+     */
+    private static final int ENTRY_SIZE_FRACTION = 16;
+
+    /**
+     * A gzip variant is only kept if it is smaller than this percentage of the content.
+     */
+    private static final int GZIP_RATIO_PERCENT = 90;
+
+    private final LinkedHashMap<String, Entry> entries;
+    private final int maxSize;
+    private int size;
+
+    public ResourceCache(int maxSize)
+    {
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        this.maxSize = Math.max(0, maxSize);
+    }
+
+    public int getMaxEntrySize()
+    {
+        return this.maxSize / ENTRY_SIZE_FRACTION;
+    }
+
+    public synchronized int getSize()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the cached entry, unless the resource was modified since it was cached.
+     */
+    public synchronized Entry get(String key, long lastModified)
+    {
+        Entry entry = this.entries.get(key);
+        if (entry != null && entry.lastModified != lastModified) {
+            this.entries.remove(key);
+            this.size -= entry.getSize();
+            entry = null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Creates an entry and caches it if its content is small enough. The entry
+     * is returned even if it was not cached. The gzip variant is only created
+     * for content that is cached, and is dropped if the content and gzip
+     * variant together are too large, so that a resource passing the
+     * {@link #getMaxEntrySize()} test on its content is always cached.
+     */
+    public Entry put(String key, byte[] content, long lastModified, String contentType)
+        throws IOException
+    {
+        byte[] gzip = null;
+        if (isCompressible(contentType) && content.length <= getMaxEntrySize()) {
+            gzip = gzip(content);
+            if (gzip.length * 100L >= content.length * (long) GZIP_RATIO_PERCENT
+                || content.length + gzip.length > getMaxEntrySize()) {
+                gzip = null;
+            }
+        }
+
+        Entry entry = new Entry(content, gzip, lastModified);
+        if (entry.getSize() > getMaxEntrySize()) {
+            return entry;
+        }
+
+        synchronized (this) {
+            Entry previous = this.entries.put(key, entry);
+            if (previous != null) {
+                this.size -= previous.getSize();
+            }
+
+            this.size += entry.getSize();
+            Iterator<Entry> it = this.entries.values().iterator();
+            while (this.size > this.maxSize && it.hasNext()) {
+                this.size -= it.next().getSize();
+                it.remove();
+            }
+        }
+
+        return entry;
+    }
+
+    public synchronized void clear()
+    {
+        this.entries.clear();
+        this.size = 0;
+    }
+
+    /**
+     * Returns the entity tag of a resource that is not cached, or <code>null</code>
+     * if its modification time is unknown.
+     */
+    public static String createETag(long lastModified, long length)
+    {
+        if (lastModified == 0) {
+            return null;
+        }
+
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+    }
+
+    private static boolean isCompressible(String contentType)
+    {
+        if (contentType == null) {
+            return false;
+        }
+
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.contains("javascript") || type.contains("json")
+            || type.contains("xml");
+    }
+
+    private static byte[] gzip(byte[] content)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + 32);
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(content);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    public static final class Entry
+    {
+        private final byte[] content;
+        private final byte[] gzipContent;
+        private final long lastModified;
+        private final String etag;
+
+        private Entry(byte[] content, byte[] gzipContent, long lastModified)
+        {
+            this.content = content;
+            this.gzipContent = gzipContent;
+            this.lastModified = lastModified;
+
+            if (lastModified != 0) {
+                this.etag = createETag(lastModified, content.length);
+            } else {
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                this.etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(content.length) + "\"";
+            }
+        }
+
+        public byte[] getContent()
+        {
+            return this.content;
+        }
+
+        public byte[] getGzipContent()
+        {
+            return this.gzipContent;
+        }
+
+        public String getETag()
+        {
+            return this.etag;
+        }
+
+        private int getSize()
+        {
+            return this.content.length + (this.gzipContent != null ? this.gzipContent.length : 0);
+        }
+    }
+}
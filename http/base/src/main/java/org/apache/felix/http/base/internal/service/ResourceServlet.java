@@ -20,21 +20,43 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.ServletException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
+import org.apache.felix.http.base.internal.filter.CompressionFilter;
+
+/**
+ * Serves resources registered with {@link HttpServiceImpl#registerResources}.
+ * Small resources are served from a shared {@link ResourceCache} that also
+ * holds their gzip variant, larger file backed resources are sent with
+ * {@link FileChannel#transferTo}. Conditional requests and single byte ranges
+ * are supported.
+ */
 public final class ResourceServlet 
     extends HttpServlet
 {
+    private static final int BUFFER_SIZE = 8192;
+    private static final String GZIP = "gzip";
+    private static final long[] UNSATISFIABLE = new long[0];
+
     private final String path;
+    private final ResourceCache cache;
 
-    public ResourceServlet(String path)
+    public ResourceServlet(String path, ResourceCache cache)
     {
         this.path = path;
+        this.cache = cache;
     }
 
     @Override
@@ -68,24 +90,182 @@ public final class ResourceServlet
             res.setContentType(contentType);
         }
 
-        long lastModified  = getLastModified(url);
-        if (lastModified != 0) {
-            res.setDateHeader("Last-Modified", lastModified);
+        File file = getFile(url);
+        if (file != null) {
+            handle(req, res, url, file, null, contentType);
+            return;
+        }
+
+        // getting the length or last modification time may already open the
+        // stream of the connection, close it if it is not used
+        URLConnection conn = url.openConnection();
+        boolean closed = false;
+        try {
+            closed = handle(req, res, url, null, conn, contentType);
+        } finally {
+            if (!closed) {
+                closeConnection(conn);
+            }
         }
+    }
 
-        if (!resourceModified(lastModified, req.getDateHeader("If-Modified-Since"))) {
-            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    /**
+     * Serves a file or the resource of a connection. Returns <code>true</code>
+     * if the stream of the connection has been read and closed.
+     */
+    private boolean handle(HttpServletRequest req, HttpServletResponse res, URL url, File file,
+        URLConnection conn, String contentType)
+        throws IOException
+    {
+        long lastModified;
+        long length;
+        if (file != null) {
+            lastModified = file.lastModified();
+            length = file.length();
         } else {
-            copyResource(url, res);
+            lastModified = getLastModified(conn, url);
+            length = getContentLength(conn);
+        }
+
+        String key = url.toExternalForm();
+        ResourceCache.Entry entry = this.cache.get(key, lastModified);
+        InputStream pending = null;
+        boolean closed = false;
+        if (entry == null && length <= this.cache.getMaxEntrySize()) {
+            InputStream is = file != null ? new FileInputStream(file) : conn.getInputStream();
+            closed = true;
+            byte[] data = readAtMost(is, this.cache.getMaxEntrySize());
+            if (data.length <= this.cache.getMaxEntrySize()) {
+                entry = this.cache.put(key, data, lastModified, contentType);
+            } else {
+                // unknown length larger than the cache entries, stream it
+                // starting with the bytes read so far
+                pending = new SequenceInputStream(new ByteArrayInputStream(data), is);
+            }
+        }
+
+        byte[] content = null;
+        String etag;
+        if (entry != null) {
+            content = entry.getContent();
+            length = content.length;
+            etag = entry.getETag();
+        } else {
+            etag = ResourceCache.createETag(lastModified, length);
+        }
+
+        try {
+            if (lastModified != 0) {
+                res.setDateHeader("Last-Modified", lastModified);
+            }
+            res.setHeader("Accept-Ranges", "bytes");
+
+            if (!resourceModified(req, etag, lastModified)) {
+                if (entry != null && entry.getGzipContent() != null && acceptsGzip(req)) {
+                    etag = toGzipETag(etag);
+                }
+                if (etag != null) {
+                    res.setHeader("ETag", etag);
+                }
+                res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return closed;
+            }
+
+            long[] range = getRange(req, etag, lastModified, length);
+            if (range == UNSATISFIABLE) {
+                res.setHeader("Content-Range", "bytes */" + length);
+                res.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return closed;
+            }
+
+            if (entry != null && entry.getGzipContent() != null) {
+                res.setHeader("Vary", "Accept-Encoding");
+                if (range == null && acceptsGzip(req)) {
+                    content = entry.getGzipContent();
+                    length = content.length;
+                    etag = toGzipETag(etag);
+                    res.setHeader("Content-Encoding", GZIP);
+                }
+            }
+            if (etag != null) {
+                res.setHeader("ETag", etag);
+            }
+
+            long offset = 0;
+            long count = length;
+            if (range != null) {
+                offset = range[0];
+                count = range[1] - range[0] + 1;
+                res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                res.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+            }
+            setContentLength(res, count);
+
+            if (content != null) {
+                OutputStream os = res.getOutputStream();
+                os.write(content, (int) offset, (int) count);
+                os.close();
+            } else if (file != null) {
+                transferFile(file, offset, count, res);
+            } else {
+                InputStream is = pending != null ? pending : conn.getInputStream();
+                pending = null;
+                copyResource(is, offset, count, res);
+                return true;
+            }
+            return closed;
+        } finally {
+            if (pending != null) {
+                pending.close();
+            }
+        }
+    }
+
+    /**
+     * Sets the content length, using the header for lengths which do not
+     * fit an <code>int</code>. Nothing is set for an unknown length.
+     */
+    private static void setContentLength(HttpServletResponse res, long length)
+    {
+        if (length > Integer.MAX_VALUE) {
+            res.setHeader("Content-Length", Long.toString(length));
+        } else if (length >= 0) {
+            res.setContentLength((int) length);
+        }
+    }
+
+    /**
+     * Returns the content length of a connection, reading the header for
+     * lengths which do not fit an <code>int</code>, or -1 if unknown.
+     */
+    private static long getContentLength(URLConnection conn)
+    {
+        String value = conn.getHeaderField("content-length");
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                // use the length known to the connection
+            }
+        }
+
+        return conn.getContentLength();
+    }
+
+    private static void closeConnection(URLConnection conn)
+    {
+        try {
+            conn.getInputStream().close();
+        } catch (IOException e) {
+            // not connected or already closed
         }
     }
 
-    private long getLastModified(URL url)
+    private long getLastModified(URLConnection conn, URL url)
     {
         long lastModified = 0;
 
         try {
-            URLConnection conn = url.openConnection();
             lastModified = conn.getLastModified();
         } catch (Exception e)
         {
@@ -105,38 +285,193 @@ public final class ResourceServlet
         return lastModified;
     }
 
-    private boolean resourceModified(long resTimestamp, long modSince)
+    private boolean resourceModified(HttpServletRequest req, String etag, long resTimestamp)
     {
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return etag == null || !(CompressionFilter.matches(ifNoneMatch, etag)
+                || CompressionFilter.matches(ifNoneMatch, toGzipETag(etag)));
+        }
+
+        long modSince;
+        try {
+            modSince = req.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+
         modSince /= 1000;
         resTimestamp /= 1000;
 
         return resTimestamp == 0 || modSince == -1 || resTimestamp > modSince;
     }
 
-    private void copyResource(URL url, HttpServletResponse res)
+    /**
+     * Returns the first and last byte of a single range, <code>null</code> to
+     * send the whole resource or {@link #UNSATISFIABLE}. Requests for multiple
+     * ranges are answered with the whole resource.
+     */
+    private long[] getRange(HttpServletRequest req, String etag, long lastModified, long length)
+    {
+        String range = req.getHeader("Range");
+        if (range == null || length < 0 || !range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+
+        String ifRange = req.getHeader("If-Range");
+        if (ifRange != null) {
+            if (ifRange.startsWith("\"")) {
+                if (!ifRange.equals(etag)) {
+                    return null;
+                }
+            } else {
+                try {
+                    if (lastModified == 0 || req.getDateHeader("If-Range") / 1000 != lastModified / 1000) {
+                        return null;
+                    }
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.length() == 0) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.length() == 0 ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (start >= length) {
+                    return UNSATISFIABLE;
+                }
+                if (end < start) {
+                    return null;
+                }
+            }
+
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest req)
+    {
+        return CompressionFilter.acceptsGzip(req.getHeader("Accept-Encoding"));
+    }
+
+    private static String toGzipETag(String etag)
+    {
+        return etag.substring(0, etag.length() - 1) + "-gz\"";
+    }
+
+    private static File getFile(URL url)
+    {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+
+        File file = new File(url.getPath());
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Reads the stream up to one byte more than the given maximum. The stream
+     * is closed unless more than the maximum has been read, in which case the
+     * caller goes on reading it.
+     */
+    private static byte[] readAtMost(InputStream is, int max)
+        throws IOException
+    {
+        boolean close = true;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(max + 1, BUFFER_SIZE));
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = is.read(buf, 0, Math.min(buf.length, max + 1 - out.size()))) >= 0) {
+                out.write(buf, 0, n);
+                if (out.size() > max) {
+                    close = false;
+                    break;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            if (close) {
+                is.close();
+            }
+        }
+    }
+
+    private void transferFile(File file, long offset, long count, HttpServletResponse res)
         throws IOException
     {
+        FileInputStream is = new FileInputStream(file);
         OutputStream os = null;
-        InputStream is = null;
 
         try {
             os = res.getOutputStream();
-            is = url.openStream();
+            FileChannel channel = is.getChannel();
+            WritableByteChannel target = Channels.newChannel(os);
+            long position = offset;
+            long end = offset + count;
+            while (position < end) {
+                long n = channel.transferTo(position, end - position, target);
+                if (n <= 0) {
+                    throw new IOException("Unexpected end of file " + file);
+                }
+                position += n;
+            }
+        } finally {
+            is.close();
 
-            int len = 0;
-            byte[] buf = new byte[1024];
-            int n;
+            if (os != null) {
+                os.close();
+            }
+        }
+    }
+
+    private void copyResource(InputStream is, long offset, long count, HttpServletResponse res)
+        throws IOException
+    {
+        OutputStream os = null;
 
-            while ((n = is.read(buf, 0, buf.length)) >= 0) {
-                os.write( buf, 0, n );
-                len += n;
+        try {
+            os = res.getOutputStream();
+
+            long skip = offset;
+            while (skip > 0) {
+                long n = is.skip(skip);
+                if (n <= 0) {
+                    throw new IOException("Unexpected end of resource");
+                }
+                skip -= n;
             }
 
-            res.setContentLength(len);
-        } finally {
-            if (is != null) {
-                is.close();
+            byte[] buf = new byte[BUFFER_SIZE];
+            long remaining = count < 0 ? Long.MAX_VALUE : count;
+            int n;
+            while (remaining > 0 && (n = is.read(buf, 0, (int) Math.min(buf.length, remaining))) >= 0) {
+                os.write(buf, 0, n);
+                remaining -= n;
             }
+        } finally {
+            is.close();
 
             if (os != null) {
                 os.close();
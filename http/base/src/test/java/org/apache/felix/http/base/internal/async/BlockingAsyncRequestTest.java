@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.async;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.felix.http.api.AsyncRequest;
+import org.apache.felix.http.api.AsyncRequestListener;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockingAsyncRequestTest
+{
+    private BlockingAsyncRequest async;
+    private List<String> events;
+
+    @Before
+    public void setUp()
+    {
+        this.async = new BlockingAsyncRequest();
+        this.events = new ArrayList<String>();
+        this.async.addListener(new AsyncRequestListener()
+        {
+            public void onComplete(AsyncRequest request)
+            {
+                events.add("complete");
+            }
+
+            public void onTimeout(AsyncRequest request)
+            {
+                events.add("timeout");
+            }
+        });
+    }
+
+    @Test
+    public void testNotSuspended()
+    {
+        this.async.dispatching();
+        Assert.assertTrue(this.async.isInitial());
+        Assert.assertFalse(this.async.dispatched());
+        Assert.assertEquals("[complete]", this.events.toString());
+    }
+
+    @Test
+    public void testResume()
+    {
+        this.async.dispatching();
+        this.async.suspend();
+        later(new Runnable()
+        {
+            public void run()
+            {
+                async.resume();
+            }
+        });
+
+        Assert.assertTrue(this.async.dispatched());
+        this.async.dispatching();
+        Assert.assertFalse(this.async.isInitial());
+        Assert.assertTrue(this.async.isResumed());
+        Assert.assertFalse(this.async.isExpired());
+        Assert.assertEquals(0, this.events.size());
+
+        Assert.assertFalse(this.async.dispatched());
+        Assert.assertEquals("[complete]", this.events.toString());
+    }
+
+    @Test
+    public void testComplete()
+    {
+        this.async.dispatching();
+        this.async.suspend();
+        later(new Runnable()
+        {
+            public void run()
+            {
+                async.complete();
+            }
+        });
+
+        Assert.assertFalse(this.async.dispatched());
+        Assert.assertFalse(this.async.isSuspended());
+        Assert.assertEquals("[complete]", this.events.toString());
+    }
+
+    @Test
+    public void testExpire()
+    {
+        this.async.setTimeout(50);
+        this.async.dispatching();
+        this.async.suspend();
+
+        Assert.assertTrue(this.async.dispatched());
+        this.async.dispatching();
+        Assert.assertTrue(this.async.isExpired());
+        Assert.assertFalse(this.async.isSuspended());
+        Assert.assertEquals("[timeout]", this.events.toString());
+
+        Assert.assertFalse(this.async.dispatched());
+        Assert.assertEquals("[timeout, complete]", this.events.toString());
+    }
+
+    @Test
+    public void testResumedByTimeoutListener()
+    {
+        this.async.addListener(new AsyncRequestListener()
+        {
+            public void onComplete(AsyncRequest request)
+            {
+            }
+
+            public void onTimeout(AsyncRequest request)
+            {
+                request.complete();
+            }
+        });
+        this.async.setTimeout(50);
+        this.async.dispatching();
+        this.async.suspend();
+
+        Assert.assertFalse(this.async.dispatched());
+        Assert.assertEquals("[timeout, complete]", this.events.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testResumeNotSuspended()
+    {
+        this.async.dispatching();
+        this.async.resume();
+    }
+
+    private static void later(final Runnable task)
+    {
+        new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                task.run();
+            }
+        }.start();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class CompressionFilterTest
+{
+    private HttpServletRequest req;
+    private HttpServletResponse res;
+    private ByteArrayOutputStream body;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        this.req = Mockito.mock(HttpServletRequest.class);
+        this.res = Mockito.mock(HttpServletResponse.class);
+        this.body = new ByteArrayOutputStream();
+
+        final ByteArrayOutputStream out = this.body;
+        Mockito.when(this.req.getMethod()).thenReturn("GET");
+        Mockito.when(this.res.getCharacterEncoding()).thenReturn("UTF-8");
+        Mockito.when(this.res.getContentType()).thenReturn("application/json;charset=UTF-8");
+        Mockito.when(this.res.getOutputStream()).thenReturn(new ServletOutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                out.write(b);
+            }
+        });
+    }
+
+    @Test
+    public void testNegotiate()
+    {
+        Assert.assertNull(CompressionFilter.negotiate(null));
+        Assert.assertNull(CompressionFilter.negotiate("identity"));
+        Assert.assertEquals("gzip", CompressionFilter.negotiate("gzip, deflate"));
+        Assert.assertEquals("gzip", CompressionFilter.negotiate("deflate,x-gzip"));
+        Assert.assertEquals("deflate", CompressionFilter.negotiate("gzip;q=0.5, deflate"));
+        Assert.assertEquals("deflate", CompressionFilter.negotiate("gzip;q=0,*"));
+        Assert.assertNull(CompressionFilter.negotiate("gzip;q=0, deflate;q=0"));
+        Assert.assertEquals("gzip", CompressionFilter.negotiate("*"));
+    }
+
+    @Test
+    public void testIsCompressible()
+    {
+        Assert.assertTrue(CompressionFilter.isCompressible("text/html; charset=UTF-8"));
+        Assert.assertTrue(CompressionFilter.isCompressible("application/json"));
+        Assert.assertTrue(CompressionFilter.isCompressible("application/vnd.api+json"));
+        Assert.assertFalse(CompressionFilter.isCompressible("image/png"));
+        Assert.assertFalse(CompressionFilter.isCompressible(null));
+    }
+
+    @Test
+    public void testGzip()
+        throws Exception
+    {
+        Mockito.when(this.req.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+        byte[] content = createContent(10000);
+
+        new CompressionFilter(true, 256, false, 0).doFilter(this.req, this.res, write(content, false));
+
+        Mockito.verify(this.res).setHeader("Content-Encoding", "gzip");
+        Mockito.verify(this.res).addHeader("Vary", "Accept-Encoding");
+        Assert.assertArrayEquals(content, readFully(new GZIPInputStream(getBody())));
+    }
+
+    @Test
+    public void testDeflateWithContentLength()
+        throws Exception
+    {
+        Mockito.when(this.req.getHeader("Accept-Encoding")).thenReturn("deflate");
+        byte[] content = createContent(10000);
+
+        new CompressionFilter(true, 256, false, 0).doFilter(this.req, this.res, write(content, true));
+
+        Mockito.verify(this.res).setHeader("Content-Encoding", "deflate");
+        Mockito.verify(this.res, Mockito.never()).setHeader("Content-Length", "10000");
+        Assert.assertArrayEquals(content, readFully(new InflaterInputStream(getBody())));
+    }
+
+    @Test
+    public void testSmallResponseNotCompressed()
+        throws Exception
+    {
+        Mockito.when(this.req.getHeader("Accept-Encoding")).thenReturn("gzip");
+        byte[] content = createContent(100);
+
+        new CompressionFilter(true, 256, false, 0).doFilter(this.req, this.res, write(content, false));
+
+        Mockito.verify(this.res, Mockito.never()).setHeader("Content-Encoding", "gzip");
+        Mockito.verify(this.res).setContentLength(100);
+        Assert.assertArrayEquals(content, this.body.toByteArray());
+    }
+
+    @Test
+    public void testETag()
+        throws Exception
+    {
+        byte[] content = createContent(1000);
+        CompressionFilter filter = new CompressionFilter(false, 256, true, 4096);
+        String etag = CompressionResponse.createETag(content, content.length, null);
+
+        filter.doFilter(this.req, this.res, write(content, false));
+        Mockito.verify(this.res).setHeader("ETag", etag);
+        Assert.assertArrayEquals(content, this.body.toByteArray());
+
+        this.body.reset();
+        Mockito.when(this.req.getHeader("If-None-Match")).thenReturn(etag);
+        filter.doFilter(this.req, this.res, write(content, false));
+        Mockito.verify(this.res).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        Assert.assertEquals(0, this.body.size());
+    }
+
+    @Test
+    public void testNoETagForLargeResponse()
+        throws Exception
+    {
+        byte[] content = createContent(10000);
+
+        new CompressionFilter(false, 256, true, 4096).doFilter(this.req, this.res, write(content, false));
+
+        Mockito.verify(this.res, Mockito.never()).setHeader("ETag",
+            CompressionResponse.createETag(content, content.length, null));
+        Assert.assertArrayEquals(content, this.body.toByteArray());
+    }
+
+    private FilterChain write(final byte[] content, final boolean setLength)
+    {
+        return new FilterChain()
+        {
+            public void doFilter(ServletRequest req, ServletResponse res)
+                throws IOException
+            {
+                if (setLength) {
+                    res.setContentLength(content.length);
+                }
+
+                // several writes, so large bodies are streamed
+                ServletOutputStream out = res.getOutputStream();
+                for (int i = 0; i < content.length; i += 1000) {
+                    out.write(content, i, Math.min(1000, content.length - i));
+                }
+            }
+        };
+    }
+
+    private InputStream getBody()
+    {
+        return new ByteArrayInputStream(this.body.toByteArray());
+    }
+
+    private static byte[] createContent(int length)
+    {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) ('a' + (i * 7 % 26));
+        }
+        return content;
+    }
+
+    private static byte[] readFully(InputStream in)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
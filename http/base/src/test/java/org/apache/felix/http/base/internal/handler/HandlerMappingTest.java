@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.handler;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.Assert;
+import org.mockito.Mockito;
+import org.apache.felix.http.base.internal.context.ExtServletContext;
+import javax.servlet.Filter;
+import javax.servlet.Servlet;
+
+public class HandlerMappingTest
+{
+    private static final String[] PATHS = { null, "", "/", "/a", "/a/", "/a/b", "/a/bc", "/a/b/c", "/ab",
+        "/b", "/b/c/d", "a/b", "/x/y" };
+
+    private HandlerRegistry registry;
+    private ExtServletContext context;
+
+    @Before
+    public void setUp()
+    {
+        this.registry = new HandlerRegistry();
+        this.context = Mockito.mock(ExtServletContext.class);
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        HandlerMapping mapping = this.registry.getMapping();
+        Assert.assertFalse(mapping.hasServletsMapped());
+        Assert.assertNull(mapping.getServletHandler("/a"));
+        Assert.assertEquals(0, mapping.getFilterHandlers("/a").length);
+    }
+
+    @Test
+    public void testServletHandlerMatchesLinearScan()
+        throws Exception
+    {
+        addServlet("/a");
+        addServlet("/a/b");
+        addServlet("/b/c");
+
+        assertMatchesLinearScan();
+        Assert.assertNull(this.registry.getMapping().getServletHandler("/"));
+        Assert.assertNull(this.registry.getMapping().getServletHandler(null));
+        Assert.assertEquals("/a/b", this.registry.getMapping().getServletHandler("/a/b/c").getAlias());
+
+        addServlet("/");
+        assertMatchesLinearScan();
+        Assert.assertEquals("/", this.registry.getMapping().getServletHandler(null).getAlias());
+        Assert.assertEquals("/", this.registry.getMapping().getServletHandler("/ab").getAlias());
+    }
+
+    @Test
+    public void testMappingIsReplacedOnChange()
+        throws Exception
+    {
+        HandlerMapping before = this.registry.getMapping();
+        Servlet servlet = addServlet("/a");
+        HandlerMapping after = this.registry.getMapping();
+
+        Assert.assertNotSame(before, after);
+        Assert.assertNull(before.getServletHandler("/a"));
+        Assert.assertNotNull(after.getServletHandler("/a"));
+
+        this.registry.removeServlet(servlet, false);
+        Assert.assertNotNull(after.getServletHandler("/a"));
+        Assert.assertNull(this.registry.getMapping().getServletHandler("/a"));
+    }
+
+    @Test
+    public void testFilterHandlers()
+        throws Exception
+    {
+        FilterHandler all = addFilter("/.*", 0);
+        FilterHandler ranked = addFilter("/a/.*", 10);
+        FilterHandler root = addFilter("/", 5);
+
+        HandlerMapping mapping = this.registry.getMapping();
+        Assert.assertArrayEquals(new FilterHandler[] { ranked, all }, mapping.getFilterHandlers("/a/b"));
+        Assert.assertArrayEquals(new FilterHandler[] { root, all }, mapping.getFilterHandlers(null));
+        Assert.assertArrayEquals(new FilterHandler[] { all }, mapping.getFilterHandlers("/b"));
+        Assert.assertEquals(0, mapping.getFilterHandlers("b").length);
+
+        // cached result
+        Assert.assertSame(mapping.getFilterHandlers("/a/b"), mapping.getFilterHandlers("/a/b"));
+
+        this.registry.removeFilter(ranked.getFilter(), false);
+        Assert.assertArrayEquals(new FilterHandler[] { all }, this.registry.getMapping().getFilterHandlers("/a/b"));
+    }
+
+    private void assertMatchesLinearScan()
+    {
+        HandlerMapping mapping = this.registry.getMapping();
+        for (String path : PATHS) {
+            ServletHandler expected = null;
+            for (ServletHandler handler : this.registry.getServlets()) {
+                if (handler.matches(path)) {
+                    expected = handler;
+                    break;
+                }
+            }
+
+            Assert.assertSame("Path " + path, expected, mapping.getServletHandler(path));
+        }
+    }
+
+    private Servlet addServlet(String alias)
+        throws Exception
+    {
+        Servlet servlet = Mockito.mock(Servlet.class);
+        this.registry.addServlet(new ServletHandler(this.context, servlet, alias));
+        return servlet;
+    }
+
+    private FilterHandler addFilter(String pattern, int ranking)
+        throws Exception
+    {
+        FilterHandler handler = new FilterHandler(this.context, Mockito.mock(Filter.class), pattern, ranking);
+        this.registry.addFilter(handler);
+        return handler;
+    }
+}
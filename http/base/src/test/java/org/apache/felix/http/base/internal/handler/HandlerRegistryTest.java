@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.handler;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.GenericServlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.Assert;
+import org.mockito.Mockito;
+import org.apache.felix.http.base.internal.context.ExtServletContext;
+
+public class HandlerRegistryTest
+{
+    private HandlerRegistry registry;
+    private ExtServletContext context;
+
+    @Before
+    public void setUp()
+    {
+        this.registry = new HandlerRegistry();
+        this.context = Mockito.mock(ExtServletContext.class);
+    }
+
+    @Test
+    public void testMappingIsBuiltOnceForSeveralChanges()
+        throws Exception
+    {
+        for (int i = 0; i < 10; i++) {
+            this.registry.addServlet(new ServletHandler(this.context, new TestServlet(null), "/s" + i));
+        }
+
+        HandlerMapping mapping = this.registry.getMapping();
+        Assert.assertEquals(10, mapping.getServlets().length);
+        Assert.assertSame(mapping, this.registry.getMapping());
+    }
+
+    @Test
+    public void testServletsInitializeConcurrently()
+        throws Exception
+    {
+        // each init waits for the other one, so both only complete if they run at the same time
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final ServletHandler first = new ServletHandler(this.context, new TestServlet(barrier), "/a");
+        ServletHandler second = new ServletHandler(this.context, new TestServlet(barrier), "/b");
+
+        final Exception[] failure = new Exception[1];
+        Thread thread = new Thread() {
+            public void run()
+            {
+                try {
+                    registry.addServlet(first);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        thread.start();
+        this.registry.addServlet(second);
+        thread.join();
+
+        Assert.assertNull(failure[0]);
+        Assert.assertEquals(2, this.registry.getServlets().length);
+    }
+
+    @Test
+    public void testServletIsHiddenWhileInitializing()
+        throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TestServlet servlet = new TestServlet(null) {
+            public void init()
+                throws ServletException
+            {
+                started.countDown();
+                await(release);
+            }
+        };
+
+        Thread thread = new Thread() {
+            public void run()
+            {
+                try {
+                    registry.addServlet(new ServletHandler(context, servlet, "/a"));
+                } catch (Exception e) {
+                    // reported by the assertions below
+                }
+            }
+        };
+        thread.start();
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Assert.assertNull(this.registry.getMapping().getServletHandler("/a"));
+        try {
+            this.registry.addServlet(new ServletHandler(this.context, new TestServlet(null), "/a"));
+            Assert.fail("Alias is reserved while the servlet initializes");
+        } catch (Exception e) {
+            // expected
+        }
+
+        release.countDown();
+        thread.join();
+        Assert.assertNotNull(this.registry.getMapping().getServletHandler("/a"));
+    }
+
+    @Test
+    public void testFailedInitReleasesAlias()
+        throws Exception
+    {
+        TestServlet failing = new TestServlet(null) {
+            public void init()
+                throws ServletException
+            {
+                throw new ServletException("init failed");
+            }
+        };
+
+        try {
+            this.registry.addServlet(new ServletHandler(this.context, failing, "/a"));
+            Assert.fail("Expected init to fail");
+        } catch (ServletException e) {
+            // expected
+        }
+
+        Assert.assertNull(this.registry.getServletByAlias("/a"));
+        this.registry.addServlet(new ServletHandler(this.context, new TestServlet(null), "/a"));
+        Assert.assertNotNull(this.registry.getMapping().getServletHandler("/a"));
+    }
+
+    @Test
+    public void testServletRemovedFromOwnInit()
+        throws Exception
+    {
+        final boolean[] destroyed = new boolean[1];
+        TestServlet servlet = new TestServlet(null) {
+            public void init()
+                throws ServletException
+            {
+                // must not wait for the initialization of this servlet
+                registry.removeServlet(this, true);
+            }
+
+            public void destroy()
+            {
+                destroyed[0] = true;
+            }
+        };
+
+        this.registry.addServlet(new ServletHandler(this.context, servlet, "/a"));
+
+        Assert.assertTrue(destroyed[0]);
+        Assert.assertNull(this.registry.getServletByAlias("/a"));
+        Assert.assertEquals(0, this.registry.getServlets().length);
+    }
+
+    private static class TestServlet
+        extends GenericServlet
+    {
+        private final CyclicBarrier barrier;
+
+        public TestServlet(CyclicBarrier barrier)
+        {
+            this.barrier = barrier;
+        }
+
+        public void init()
+            throws ServletException
+        {
+            if (this.barrier != null) {
+                try {
+                    this.barrier.await(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new ServletException("Servlets were not initialized concurrently", e);
+                }
+            }
+        }
+
+        protected void await(CountDownLatch latch)
+            throws ServletException
+        {
+            try {
+                latch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new ServletException(e);
+            }
+        }
+
+        public void service(ServletRequest req, ServletResponse res)
+        {
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResourceCacheTest
+{
+    @Test
+    public void testGetReturnsCachedEntry() throws Exception
+    {
+        ResourceCache cache = new ResourceCache(16 * 1024);
+        byte[] content = new byte[100];
+        ResourceCache.Entry entry = cache.put("a", content, 1000, "image/png");
+
+        Assert.assertSame(entry, cache.get("a", 1000));
+        Assert.assertSame(content, entry.getContent());
+        Assert.assertNull(entry.getGzipContent());
+        Assert.assertEquals(ResourceCache.createETag(1000, 100), entry.getETag());
+        Assert.assertEquals(100, cache.getSize());
+    }
+
+    @Test
+    public void testModifiedResourceIsRemoved() throws Exception
+    {
+        ResourceCache cache = new ResourceCache(16 * 1024);
+        cache.put("a", new byte[100], 1000, null);
+
+        Assert.assertNull(cache.get("a", 2000));
+        Assert.assertNull(cache.get("a", 1000));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testLargeResourceIsNotCached() throws Exception
+    {
+        ResourceCache cache = new ResourceCache(16 * 1024);
+        ResourceCache.Entry entry = cache.put("a", new byte[cache.getMaxEntrySize() + 1], 1000, null);
+
+        Assert.assertNotNull(entry);
+        Assert.assertNull(cache.get("a", 1000));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception
+    {
+        ResourceCache cache = new ResourceCache(16 * 1024);
+        int size = cache.getMaxEntrySize();
+        for (int i = 0; i < 16; i++) {
+            cache.put("r" + i, new byte[size], 1000, null);
+        }
+        Assert.assertNotNull(cache.get("r0", 1000));
+
+        cache.put("r16", new byte[size], 1000, null);
+
+        Assert.assertNotNull(cache.get("r0", 1000));
+        Assert.assertNull(cache.get("r1", 1000));
+        Assert.assertNotNull(cache.get("r16", 1000));
+        Assert.assertEquals(16 * size, cache.getSize());
+    }
+
+    @Test
+    public void testGzipVariant() throws Exception
+    {
+        ResourceCache cache = new ResourceCache(16 * 1024);
+        byte[] content = new byte[800];
+        Arrays.fill(content, (byte) 'a');
+        ResourceCache.Entry entry = cache.put("a", content, 1000, "text/css");
+
+        Assert.assertNotNull(entry.getGzipContent());
+        Assert.assertTrue(entry.getGzipContent().length < content.length);
+
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(entry.getGzipContent()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[256];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        Assert.assertArrayEquals(content, out.toByteArray());
+    }
+
+    @Test
+    public void testGzipDroppedIfEntryTooLarge() throws Exception
+    {
+        // the content fits, the content and its gzip variant together do not
+        ResourceCache cache = new ResourceCache(16 * 1024);
+        byte[] content = new byte[cache.getMaxEntrySize()];
+        Arrays.fill(content, (byte) 'a');
+        ResourceCache.Entry entry = cache.put("a", content, 1000, "text/css");
+
+        Assert.assertNull(entry.getGzipContent());
+        Assert.assertSame(entry, cache.get("a", 1000));
+        Assert.assertEquals(content.length, cache.getSize());
+    }
+
+    @Test
+    public void testETagWithoutLastModified() throws Exception
+    {
+        ResourceCache cache = new ResourceCache(16 * 1024);
+        String etag1 = cache.put("a", "one".getBytes(), 0, null).getETag();
+        String etag2 = cache.put("b", "two".getBytes(), 0, null).getETag();
+
+        Assert.assertNotNull(etag1);
+        Assert.assertFalse(etag1.equals(etag2));
+        Assert.assertNull(ResourceCache.createETag(0, 3));
+    }
+
+    @Test
+    public void testDisabledCache() throws Exception
+    {
+        ResourceCache cache = new ResourceCache(0);
+        cache.put("a", new byte[1], 1000, null);
+
+        Assert.assertNull(cache.get("a", 1000));
+    }
+}
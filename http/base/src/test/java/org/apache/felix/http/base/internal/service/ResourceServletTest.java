@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class ResourceServletTest
+{
+    private static final long LAST_MODIFIED = 1000000L;
+
+    private ServletContext context;
+    private HttpServletRequest req;
+    private HttpServletResponse res;
+    private ByteArrayOutputStream body;
+    private ResourceCache cache;
+    private ResourceServlet servlet;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        this.context = Mockito.mock(ServletContext.class);
+        ServletConfig config = Mockito.mock(ServletConfig.class);
+        Mockito.when(config.getServletContext()).thenReturn(this.context);
+        Mockito.when(this.context.getMimeType("/res/file.txt")).thenReturn("text/plain");
+
+        this.req = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(this.req.getPathInfo()).thenReturn("/file.txt");
+        Mockito.when(this.req.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+
+        this.body = new ByteArrayOutputStream();
+        final ByteArrayOutputStream out = this.body;
+        this.res = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(this.res.getOutputStream()).thenReturn(new ServletOutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                out.write(b);
+            }
+        });
+
+        this.cache = new ResourceCache(1024 * 1024);
+        this.servlet = new ResourceServlet("/res", this.cache);
+        this.servlet.init(config);
+    }
+
+    @Test
+    public void testUnknownLengthLargeResourceIsStreamed()
+        throws Exception
+    {
+        byte[] content = createContent(this.cache.getMaxEntrySize() * 3);
+        TestConnection conn = register(content, null);
+
+        this.servlet.doGet(this.req, this.res);
+
+        Assert.assertArrayEquals(content, this.body.toByteArray());
+        Assert.assertTrue(conn.closed);
+        Assert.assertEquals(0, this.cache.getSize());
+        Mockito.verify(this.res, Mockito.never()).setContentLength(content.length);
+    }
+
+    @Test
+    public void testUnknownLengthSmallResourceIsCached()
+        throws Exception
+    {
+        byte[] content = createContent(100);
+        TestConnection conn = register(content, null);
+
+        this.servlet.doGet(this.req, this.res);
+
+        Assert.assertArrayEquals(content, this.body.toByteArray());
+        Assert.assertTrue(conn.closed);
+        Assert.assertTrue(this.cache.getSize() > 0);
+        Mockito.verify(this.res).setContentLength(100);
+    }
+
+    @Test
+    public void testNotModifiedClosesConnection()
+        throws Exception
+    {
+        byte[] content = createContent(this.cache.getMaxEntrySize() * 2);
+        TestConnection conn = register(content, String.valueOf(content.length));
+        Mockito.when(this.req.getHeader("If-None-Match")).thenReturn(
+            ResourceCache.createETag(LAST_MODIFIED, content.length));
+
+        this.servlet.doGet(this.req, this.res);
+
+        Mockito.verify(this.res).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        Assert.assertEquals(0, this.body.size());
+        Assert.assertTrue(conn.closed);
+    }
+
+    @Test
+    public void testGzipWithZeroQualityIsNotSent()
+        throws Exception
+    {
+        byte[] content = createContent(4096);
+        register(content, null);
+        Mockito.when(this.req.getHeader("Accept-Encoding")).thenReturn("deflate, gzip;q=0");
+
+        this.servlet.doGet(this.req, this.res);
+
+        Mockito.verify(this.res).setHeader("Vary", "Accept-Encoding");
+        Mockito.verify(this.res, Mockito.never()).setHeader("Content-Encoding", "gzip");
+        Assert.assertArrayEquals(content, this.body.toByteArray());
+    }
+
+    @Test
+    public void testGzipAcceptedThroughWildcard()
+        throws Exception
+    {
+        byte[] content = createContent(4096);
+        register(content, null);
+        Mockito.when(this.req.getHeader("Accept-Encoding")).thenReturn("*;q=0.5");
+
+        this.servlet.doGet(this.req, this.res);
+
+        Mockito.verify(this.res).setHeader("Content-Encoding", "gzip");
+    }
+
+    @Test
+    public void testLargeContentLengthUsesHeader()
+        throws Exception
+    {
+        // the connection claims more than 2 GB, the copy stops at the end of
+        // the stream
+        register(createContent(100), "3000000000");
+
+        this.servlet.doGet(this.req, this.res);
+
+        Mockito.verify(this.res).setHeader("Content-Length", "3000000000");
+    }
+
+    private TestConnection register(byte[] content, String contentLength)
+        throws Exception
+    {
+        final TestConnection conn = new TestConnection(content, contentLength);
+        URL url = new URL("test", null, 0, "/res/file.txt", new URLStreamHandler()
+        {
+            @Override
+            protected URLConnection openConnection(URL u)
+            {
+                return conn;
+            }
+        });
+        conn.url = url;
+        Mockito.when(this.context.getResource("/res/file.txt")).thenReturn(url);
+        return conn;
+    }
+
+    private static byte[] createContent(int length)
+    {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) ('a' + (i % 26));
+        }
+        return content;
+    }
+
+    /**
+     * A connection returning the same stream until closed, and recording
+     * whether it was closed.
+     */
+    private static class TestConnection
+        extends URLConnection
+    {
+        private final byte[] content;
+        private final String contentLength;
+        private InputStream in;
+        URL url;
+        boolean closed;
+
+        TestConnection(byte[] content, String contentLength)
+        {
+            super(null);
+            this.content = content;
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public void connect()
+        {
+        }
+
+        @Override
+        public URL getURL()
+        {
+            return this.url;
+        }
+
+        @Override
+        public long getLastModified()
+        {
+            return LAST_MODIFIED;
+        }
+
+        @Override
+        public String getHeaderField(String name)
+        {
+            return "content-length".equals(name) ? this.contentLength : null;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream()
+        {
+            if (this.in == null) {
+                this.in = new ByteArrayInputStream(this.content)
+                {
+                    @Override
+                    public void close()
+                        throws IOException
+                    {
+                        closed = true;
+                        super.close();
+                    }
+                };
+            }
+            return this.in;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Measures the bytes allocated by the threads of the server. The load
+ * generator runs in the same virtual machine, so its threads are excluded
+ * by id. Allocation counters are only available on virtual machines
+ * implementing <code>com.sun.management.ThreadMXBean</code>; the counters
+ * of threads that terminate during a run are lost.
+ */
+final class AllocationMeter
+{
+    private final ThreadMXBean threads;
+    private final Method allocatedBytes;
+
+    public AllocationMeter()
+    {
+        this.threads = ManagementFactory.getThreadMXBean();
+        this.allocatedBytes = findAllocatedBytesMethod(this.threads);
+    }
+
+    public boolean isSupported()
+    {
+        return this.allocatedBytes != null;
+    }
+
+    /**
+     * Returns the bytes allocated so far by each live thread which is not
+     * excluded.
+     */
+    public Map<Long, Long> snapshot(Set<Long> excluded)
+    {
+        Map<Long, Long> result = new HashMap<Long, Long>();
+        if (!isSupported()) {
+            return result;
+        }
+
+        long[] ids = this.threads.getAllThreadIds();
+        long[] bytes;
+        try {
+            bytes = (long[]) this.allocatedBytes.invoke(this.threads, new Object[] { ids });
+        } catch (Exception e) {
+            return result;
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0 && !excluded.contains(ids[i])) {
+                result.put(ids[i], bytes[i]);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the bytes allocated between two snapshots. Threads started in
+     * between count from zero.
+     */
+    public static long allocatedBetween(Map<Long, Long> before, Map<Long, Long> after)
+    {
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : after.entrySet()) {
+            Long start = before.get(entry.getKey());
+            total += entry.getValue() - ((start != null) ? start : 0);
+        }
+
+        return total;
+    }
+
+    private static Method findAllocatedBytesMethod(ThreadMXBean threads)
+    {
+        try {
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            if (!type.isInstance(threads)) {
+                return null;
+            }
+
+            Boolean supported = (Boolean) type.getMethod("isThreadAllocatedMemorySupported").invoke(threads);
+            if (!supported) {
+                return null;
+            }
+
+            type.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(threads, true);
+            return type.getMethod("getThreadAllocatedBytes", long[].class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.benchmark;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts each HTTP service implementation in turn, drives the sample
+ * servlets, filter and resources with a local load generator and prints the
+ * throughput, latency percentiles and allocation rate of every scenario.
+ * <p>
+ * Usage: <code>java -jar org.apache.felix.http.benchmark.jar [--name=value]...</code>
+ * with the options
+ * <ul>
+ * <li><code>implementations</code>: comma separated list of
+ * <code>jetty</code>, <code>httplite</code> and <code>bridge</code>, all by default</li>
+ * <li><code>threads</code>: client threads, 16 by default</li>
+ * <li><code>warmup</code>: seconds of load before each measurement, 10 by default</li>
+ * <li><code>duration</code>: seconds measured per scenario, 30 by default</li>
+ * <li><code>port</code>: HTTP port, 8080 by default</li>
+ * <li><code>bundles</code>: directory of the implementation bundles, the
+ * <code>bundles</code> directory next to the jar by default</li>
+ * </ul>
+ * The load generator shares the virtual machine with the implementation,
+ * so the numbers are meant to be compared with each other on the same
+ * machine, not with other servers.
+ */
+public final class Benchmark
+{
+    private static final String[][] SCENARIOS = {
+        { "servlet", SampleActivator.SMALL_ALIAS },
+        { "servlet-64k", SampleActivator.LARGE_ALIAS },
+        { "filter", SampleActivator.FILTERED_ALIAS },
+        { "resource", SampleActivator.RESOURCE_ALIAS + "/page.html" } };
+
+    private static final String ROW_FORMAT = "%-10s %-12s %10s %8s %8s %8s %8s %8s %7s %10s %8s%n";
+
+    private final String[] implementations;
+    private final int threads;
+    private final long warmupMillis;
+    private final long durationMillis;
+    private final int port;
+    private final File bundles;
+    private final PrintStream out;
+    private final AllocationMeter allocationMeter = new AllocationMeter();
+
+    Benchmark(Map<String, String> options, PrintStream out)
+    {
+        this.implementations = getOption(options, "implementations",
+            HttpStack.JETTY + "," + HttpStack.HTTPLITE + "," + HttpStack.BRIDGE).split(",");
+        this.threads = Integer.parseInt(getOption(options, "threads", "16"));
+        this.warmupMillis = Long.parseLong(getOption(options, "warmup", "10")) * 1000;
+        this.durationMillis = Long.parseLong(getOption(options, "duration", "30")) * 1000;
+        this.port = Integer.parseInt(getOption(options, "port", "8080"));
+        this.bundles = new File(getOption(options, "bundles", defaultBundleDirectory()));
+        this.out = out;
+    }
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (!arg.startsWith("--") || index < 0) {
+                System.err.println("Usage: Benchmark [--implementations=jetty,httplite,bridge] [--threads=16]"
+                    + " [--warmup=10] [--duration=30] [--port=8080] [--bundles=dir]");
+                System.exit(1);
+            }
+
+            options.put(arg.substring(2, index), arg.substring(index + 1));
+        }
+
+        new Benchmark(options, System.out).run();
+    }
+
+    void run()
+        throws Exception
+    {
+        // the client keeps one idle connection per thread
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(this.threads));
+        }
+
+        this.out.printf("%d client threads, %d s warmup, %d s per scenario, allocation %s%n%n", this.threads,
+            this.warmupMillis / 1000, this.durationMillis / 1000,
+            this.allocationMeter.isSupported() ? "measured on server threads" : "not supported by this VM");
+        this.out.printf(ROW_FORMAT, "stack", "scenario", "req/s", "MB/s", "mean ms", "p50 ms", "p99 ms", "p99.9 ms",
+            "errors", "alloc MB/s", "KB/req");
+
+        for (String implementation : this.implementations) {
+            run(HttpStack.create(implementation.trim(), this.bundles, this.port));
+        }
+    }
+
+    private void run(HttpStack stack)
+        throws Exception
+    {
+        SampleActivator samples = new SampleActivator();
+        try {
+            stack.start(samples);
+            if (!samples.awaitRegistered(30, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("No HTTP service registered by [" + stack.getName() + "]");
+            }
+
+            for (String[] scenario : SCENARIOS) {
+                if (scenario[1].equals(SampleActivator.FILTERED_ALIAS) && !samples.isFilterRegistered()) {
+                    this.out.printf("%-10s %-12s %10s%n", stack.getName(), scenario[0], "n/a");
+                    continue;
+                }
+
+                URL url = new URL("http", "localhost", stack.getPort(), scenario[1]);
+                LoadGenerator generator = new LoadGenerator(url, this.threads, this.allocationMeter);
+                report(stack.getName(), scenario[0], generator.run(this.warmupMillis, this.durationMillis));
+            }
+        } finally {
+            stack.stop();
+        }
+    }
+
+    private void report(String stack, String scenario, LoadGenerator.Result result)
+    {
+        LatencyHistogram latencies = result.getLatencies();
+        double allocationRate = result.getAllocatedMegabytesPerSecond();
+        double allocationPerRequest = result.getAllocatedKilobytesPerRequest();
+
+        this.out.printf(ROW_FORMAT, stack, scenario,
+            String.format("%.0f", result.getRequestsPerSecond()),
+            String.format("%.1f", result.getMegabytesPerSecond()),
+            String.format("%.2f", latencies.getMean()),
+            String.format("%.2f", latencies.getPercentile(50)),
+            String.format("%.2f", latencies.getPercentile(99)),
+            String.format("%.2f", latencies.getPercentile(99.9)),
+            Long.toString(result.getErrors()),
+            (allocationRate < 0) ? "n/a" : String.format("%.1f", allocationRate),
+            (allocationPerRequest < 0) ? "n/a" : String.format("%.2f", allocationPerRequest));
+    }
+
+    private static String getOption(Map<String, String> options, String name, String defValue)
+    {
+        String value = options.get(name);
+        return (value != null) ? value : defValue;
+    }
+
+    private static String defaultBundleDirectory()
+    {
+        URL location = Benchmark.class.getProtectionDomain().getCodeSource().getLocation();
+        File parent = new File(location.getPath()).getParentFile();
+        return new File(parent, "bundles").getPath();
+    }
+}
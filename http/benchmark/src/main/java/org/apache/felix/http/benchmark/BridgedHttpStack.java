@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.benchmark;
+
+import java.io.File;
+
+import org.apache.felix.http.proxy.ProxyListener;
+import org.apache.felix.http.proxy.ProxyServlet;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Runs the bridged implementation behind a servlet container embedding the
+ * framework, wired like the bridge sample web application: the proxy
+ * servlet is mapped to all requests and finds the framework in a servlet
+ * context attribute.
+ */
+final class BridgedHttpStack
+    extends HttpStack
+{
+    private Server server;
+
+    BridgedHttpStack(String name, File bundle, int port)
+    {
+        super(name, bundle, port);
+    }
+
+    @Override
+    public void start(BundleActivator activator)
+        throws Exception
+    {
+        super.start(activator);
+
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/");
+        context.setAttribute(BundleContext.class.getName(), getBundleContext());
+        context.addEventListener(new ProxyListener());
+
+        ServletHolder holder = new ServletHolder(new ProxyServlet());
+        holder.setInitOrder(1);
+        context.addServlet(holder, "/*");
+
+        this.server = new Server(getPort());
+        this.server.setHandler(context);
+        this.server.start();
+    }
+
+    @Override
+    public void stop()
+        throws Exception
+    {
+        try {
+            if (this.server != null) {
+                this.server.stop();
+                this.server = null;
+            }
+        } finally {
+            super.stop();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.benchmark;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.felix.framework.Felix;
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+
+/**
+ * An embedded framework running one HTTP service implementation. The
+ * benchmark classes are loaded from the class path, so the system bundle
+ * exports the servlet and HTTP service packages they share with the
+ * implementation. Framework properties passed as system properties reach
+ * the implementation, for instance <code>-Dorg.apache.felix.http.nio=true</code>.
+ */
+public class HttpStack
+{
+    public static final String JETTY = "jetty";
+    public static final String HTTPLITE = "httplite";
+    public static final String BRIDGE = "bridge";
+
+    private static final String SYSTEM_PACKAGES =
+        "javax.servlet;version=2.5,"
+        + "javax.servlet.http;version=2.5,"
+        + "org.osgi.service.http;version=1.2.0,"
+        + "org.apache.felix.http.api;version=2.1.0";
+
+    private final String name;
+    private final File bundle;
+    private final int port;
+    private Felix framework;
+
+    protected HttpStack(String name, File bundle, int port)
+    {
+        this.name = name;
+        this.bundle = bundle;
+        this.port = port;
+    }
+
+    /**
+     * Creates the stack of an implementation from the bundles copied by
+     * the build.
+     */
+    public static HttpStack create(String name, File bundles, int port)
+    {
+        if (JETTY.equals(name)) {
+            return new HttpStack(name, new File(bundles, "org.apache.felix.http.jetty.jar"), port);
+        } else if (HTTPLITE.equals(name)) {
+            return new HttpStack(name, new File(bundles, "org.apache.felix.httplite.core.jar"), port);
+        } else if (BRIDGE.equals(name)) {
+            return new BridgedHttpStack(name, new File(bundles, "org.apache.felix.http.bridge.jar"), port);
+        }
+
+        throw new IllegalArgumentException("Unknown implementation [" + name + "]");
+    }
+
+    public String getName()
+    {
+        return this.name;
+    }
+
+    public int getPort()
+    {
+        return this.port;
+    }
+
+    /**
+     * Starts the framework with the activator running in the system bundle
+     * and installs and starts the implementation.
+     */
+    public void start(BundleActivator activator)
+        throws Exception
+    {
+        if (!this.bundle.isFile()) {
+            throw new IllegalStateException("Bundle [" + this.bundle + "] not found");
+        }
+
+        this.framework = new Felix(createConfig(activator));
+        this.framework.start();
+
+        Bundle implementation = getBundleContext().installBundle(this.bundle.toURI().toString());
+        implementation.start();
+    }
+
+    public void stop()
+        throws Exception
+    {
+        if (this.framework != null) {
+            this.framework.stop();
+            this.framework.waitForStop(30000);
+            this.framework = null;
+        }
+    }
+
+    protected BundleContext getBundleContext()
+    {
+        return this.framework.getBundleContext();
+    }
+
+    protected Map<String, Object> createConfig(BundleActivator activator)
+    {
+        File storage = new File(System.getProperty("java.io.tmpdir"), "felix-http-benchmark-" + this.name);
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put(Constants.FRAMEWORK_SYSTEMPACKAGES_EXTRA, SYSTEM_PACKAGES);
+        config.put(Constants.FRAMEWORK_STORAGE, storage.getAbsolutePath());
+        config.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+        config.put(FelixConstants.SYSTEMBUNDLE_ACTIVATORS_PROP, Collections.singletonList(activator));
+        // the load generator opens its connections through java.net.URL
+        // in this virtual machine, which must not go through the framework
+        config.put(FelixConstants.SERVICE_URLHANDLERS_PROP, "false");
+        config.put("org.osgi.service.http.port", Integer.toString(this.port));
+        return config;
+    }
+}
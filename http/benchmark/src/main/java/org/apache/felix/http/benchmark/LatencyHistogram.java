@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.benchmark;
+
+/**
+ * Latency histogram with four buckets per power of two microseconds, the
+ * same layout as the metrics of the Jetty based service. Each client thread
+ * records into its own histogram; the histograms are merged when the run is
+ * over, so recording needs no synchronization.
+ */
+final class LatencyHistogram
+{
+    private static final int SUB_BUCKETS = 4;
+    private static final int MAX_MAGNITUDE = 40;
+    private static final int BUCKETS = SUB_BUCKETS * MAX_MAGNITUDE;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long total;
+    private long max;
+
+    public void record(long micros)
+    {
+        this.counts[bucket(micros)]++;
+        this.count++;
+        this.total += micros;
+        this.max = Math.max(this.max, micros);
+    }
+
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts[i] += other.counts[i];
+        }
+
+        this.count += other.count;
+        this.total += other.total;
+        this.max = Math.max(this.max, other.max);
+    }
+
+    public long getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * Returns the mean latency in milliseconds.
+     */
+    public double getMean()
+    {
+        return (this.count == 0) ? 0 : this.total / 1000.0 / this.count;
+    }
+
+    /**
+     * Returns the largest latency in milliseconds.
+     */
+    public double getMax()
+    {
+        return this.max / 1000.0;
+    }
+
+    /**
+     * Returns the upper bound in milliseconds of the bucket holding the
+     * percentile.
+     */
+    public double getPercentile(double percentile)
+    {
+        if (this.count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(this.count * percentile / 100.0));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += this.counts[i];
+            if (cumulative >= target) {
+                return Math.min(upperBound(i), this.max) / 1000.0;
+            }
+        }
+
+        return getMax();
+    }
+
+    static int bucket(long micros)
+    {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (magnitude - 2)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, (magnitude - 1) * SUB_BUCKETS + sub);
+    }
+
+    static long upperBound(int bucket)
+    {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int magnitude = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (magnitude - 2)) - 1;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Closed loop load generator: every client thread sends its next request as
+ * soon as the previous response has been read, over a persistent connection.
+ * Requests completed during the warmup are not recorded.
+ */
+public final class LoadGenerator
+{
+    private final URL url;
+    private final int threads;
+    private final AllocationMeter allocationMeter;
+
+    private volatile boolean running;
+    private volatile boolean measuring;
+
+    public LoadGenerator(URL url, int threads, AllocationMeter allocationMeter)
+    {
+        this.url = url;
+        this.threads = threads;
+        this.allocationMeter = allocationMeter;
+    }
+
+    public Result run(long warmupMillis, long durationMillis)
+        throws InterruptedException
+    {
+        Client[] clients = new Client[this.threads];
+        Set<Long> excluded = new HashSet<Long>();
+        excluded.add(Thread.currentThread().getId());
+
+        this.running = true;
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Client();
+            clients[i].setName("benchmark-client-" + i);
+            clients[i].setDaemon(true);
+            clients[i].start();
+            excluded.add(clients[i].getId());
+        }
+
+        Thread.sleep(warmupMillis);
+
+        Map<Long, Long> allocatedBefore = this.allocationMeter.snapshot(excluded);
+        long start = System.nanoTime();
+        this.measuring = true;
+
+        Thread.sleep(durationMillis);
+
+        this.measuring = false;
+        long elapsed = System.nanoTime() - start;
+        Map<Long, Long> allocatedAfter = this.allocationMeter.snapshot(excluded);
+
+        this.running = false;
+        Result result = new Result(elapsed,
+            this.allocationMeter.isSupported() ? AllocationMeter.allocatedBetween(allocatedBefore, allocatedAfter) : -1);
+        for (Client client : clients) {
+            client.join();
+            result.add(client);
+        }
+
+        return result;
+    }
+
+    private boolean request(byte[] buffer, Client client)
+        throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) this.url.openConnection();
+        connection.setUseCaches(false);
+        int status = connection.getResponseCode();
+
+        InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            try {
+                // the connection is only reused if the body is read completely
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    client.bytes += n;
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        return status == HttpURLConnection.HTTP_OK;
+    }
+
+    private final class Client
+        extends Thread
+    {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private long bytes;
+        private long errors;
+
+        @Override
+        public void run()
+        {
+            byte[] buffer = new byte[8192];
+            while (running) {
+                long start = System.nanoTime();
+                long bytesBefore = this.bytes;
+                boolean ok;
+                try {
+                    ok = request(buffer, this);
+                } catch (IOException e) {
+                    ok = false;
+                }
+
+                if (!measuring) {
+                    this.bytes = bytesBefore;
+                } else if (ok) {
+                    this.latencies.record((System.nanoTime() - start) / 1000);
+                } else {
+                    this.errors++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Outcome of a run.
+     */
+    public static final class Result
+    {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final long elapsedNanos;
+        private final long allocatedBytes;
+        private long bytes;
+        private long errors;
+
+        Result(long elapsedNanos, long allocatedBytes)
+        {
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        void add(Client client)
+        {
+            this.latencies.add(client.latencies);
+            this.bytes += client.bytes;
+            this.errors += client.errors;
+        }
+
+        public LatencyHistogram getLatencies()
+        {
+            return this.latencies;
+        }
+
+        public long getErrors()
+        {
+            return this.errors;
+        }
+
+        public double getRequestsPerSecond()
+        {
+            return this.latencies.getCount() / seconds();
+        }
+
+        public double getMegabytesPerSecond()
+        {
+            return this.bytes / seconds() / (1024 * 1024);
+        }
+
+        /**
+         * Returns the megabytes allocated per second by the server, or a
+         * negative value if allocation is not measured.
+         */
+        public double getAllocatedMegabytesPerSecond()
+        {
+            return (this.allocatedBytes < 0) ? -1 : this.allocatedBytes / seconds() / (1024 * 1024);
+        }
+
+        /**
+         * Returns the kilobytes allocated by the server per request, or a
+         * negative value if allocation is not measured.
+         */
+        public double getAllocatedKilobytesPerRequest()
+        {
+            long count = this.latencies.getCount();
+            return (this.allocatedBytes < 0 || count == 0) ? -1 : this.allocatedBytes / 1024.0 / count;
+        }
+
+        private double seconds()
+        {
+            return this.elapsedNanos / 1000000000.0;
+        }
+    }
+}
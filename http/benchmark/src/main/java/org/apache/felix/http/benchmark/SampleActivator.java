@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.benchmark;
+
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.http.api.ExtHttpService;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.http.HttpContext;
+import org.osgi.service.http.HttpService;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+
+/**
+ * Activator of the system bundle registering the sample servlets, filter
+ * and resources with the first HTTP service. The filter is only
+ * registered if the service implements {@link ExtHttpService}.
+ */
+public final class SampleActivator
+    implements BundleActivator, ServiceTrackerCustomizer
+{
+    public static final String SMALL_ALIAS = "/bench/small";
+    public static final String LARGE_ALIAS = "/bench/large";
+    public static final String FILTERED_ALIAS = "/bench/filtered";
+    public static final String RESOURCE_ALIAS = "/bench/static";
+
+    private static final int SMALL_SIZE = 64;
+    private static final int LARGE_SIZE = 64 * 1024;
+
+    private final CountDownLatch registered = new CountDownLatch(1);
+    private final SampleServlet small = new SampleServlet(SMALL_SIZE);
+    private final SampleServlet large = new SampleServlet(LARGE_SIZE);
+    private final SampleServlet filtered = new SampleServlet(SMALL_SIZE);
+    private final SampleFilter filter = new SampleFilter();
+
+    private BundleContext context;
+    private ServiceTracker tracker;
+    private HttpService service;
+    private volatile boolean filterRegistered;
+
+    public void start(BundleContext context)
+        throws Exception
+    {
+        this.context = context;
+        this.tracker = new ServiceTracker(context, HttpService.class.getName(), this);
+        this.tracker.open();
+    }
+
+    public void stop(BundleContext context)
+        throws Exception
+    {
+        this.tracker.close();
+    }
+
+    /**
+     * Waits until the samples are registered.
+     *
+     * @return <code>false</code> if the timeout elapsed first
+     */
+    public boolean awaitRegistered(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        return this.registered.await(timeout, unit);
+    }
+
+    public boolean isFilterRegistered()
+    {
+        return this.filterRegistered;
+    }
+
+    public synchronized Object addingService(ServiceReference reference)
+    {
+        if (this.service != null) {
+            return null;
+        }
+
+        HttpService service = (HttpService) this.context.getService(reference);
+        try {
+            service.registerServlet(SMALL_ALIAS, this.small, null, null);
+            service.registerServlet(LARGE_ALIAS, this.large, null, null);
+            service.registerServlet(FILTERED_ALIAS, this.filtered, null, null);
+            service.registerResources(RESOURCE_ALIAS, "/static", new ResourceContext());
+
+            if (service instanceof ExtHttpService) {
+                ((ExtHttpService) service).registerFilter(this.filter, FILTERED_ALIAS + "(/.*)?", null, 0, null);
+                this.filterRegistered = true;
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to register the samples", e);
+        }
+
+        this.service = service;
+        this.registered.countDown();
+        return service;
+    }
+
+    public void modifiedService(ServiceReference reference, Object service)
+    {
+    }
+
+    public synchronized void removedService(ServiceReference reference, Object service)
+    {
+        if (service == this.service) {
+            unregister(SMALL_ALIAS);
+            unregister(LARGE_ALIAS);
+            unregister(FILTERED_ALIAS);
+            unregister(RESOURCE_ALIAS);
+            if (this.filterRegistered) {
+                ((ExtHttpService) service).unregisterFilter(this.filter);
+                this.filterRegistered = false;
+            }
+
+            this.service = null;
+        }
+
+        this.context.ungetService(reference);
+    }
+
+    private void unregister(String alias)
+    {
+        try {
+            this.service.unregister(alias);
+        } catch (IllegalArgumentException e) {
+            // already gone
+        }
+    }
+
+    /**
+     * Serves the static resources from the class path instead of the system
+     * bundle.
+     */
+    private static final class ResourceContext
+        implements HttpContext
+    {
+        public boolean handleSecurity(HttpServletRequest request, HttpServletResponse response)
+        {
+            return true;
+        }
+
+        public URL getResource(String name)
+        {
+            return SampleActivator.class.getResource(name.startsWith("/") ? name : "/" + name);
+        }
+
+        public String getMimeType(String name)
+        {
+            return null;
+        }
+    }
+}
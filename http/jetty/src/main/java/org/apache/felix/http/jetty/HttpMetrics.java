@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.jetty;
+
+/**
+ * Request statistics of the Jetty based Http Service. The service is only
+ * registered if metrics are enabled with the
+ * <code>org.apache.felix.http.metrics</code> configuration property.
+ */
+public interface HttpMetrics
+{
+    /**
+     * Returns the time in milliseconds since the epoch when collection
+     * started or the statistics were last reset.
+     */
+    long getStartTime();
+
+    /**
+     * Returns the number of completed requests.
+     */
+    long getRequestCount();
+
+    /**
+     * Returns the number of requests currently being processed.
+     */
+    int getActiveRequests();
+
+    /**
+     * Returns the average number of requests completed per second during
+     * the last minute.
+     */
+    double getRequestRate();
+
+    /**
+     * Returns the request latency in milliseconds below which the given
+     * percentage of the completed requests fell, for example 99 for the
+     * 99th percentile. The value is accurate to within 25 percent.
+     */
+    double getLatencyPercentile(double percentile);
+
+    /**
+     * Returns the mean request latency in milliseconds.
+     */
+    double getLatencyMean();
+
+    /**
+     * Returns the number of response body bytes sent.
+     */
+    long getBytesSent();
+
+    /**
+     * Returns the number of open connections of all connectors.
+     */
+    int getOpenConnections();
+
+    /**
+     * Returns the number of threads in the Jetty thread pool.
+     */
+    int getThreads();
+
+    /**
+     * Returns the number of idle threads in the Jetty thread pool.
+     */
+    int getIdleThreads();
+
+    /**
+     * Returns the maximum number of threads of the Jetty thread pool or
+     * -1 if it is not known.
+     */
+    int getMaxThreads();
+
+    /**
+     * Returns <code>true</code> if the thread pool is running out of threads.
+     */
+    boolean isLowOnThreads();
+
+    /**
+     * Resets the request statistics.
+     */
+    void reset();
+}
@@ -27,6 +27,7 @@ public final class JettyActivator
         throws Exception
     {
         super.doStart();
+        getHttpServiceController().setAsyncRequestProvider(JettyAsyncRequest.PROVIDER);
         this.jetty = new JettyService(getBundleContext(), getDispatcherServlet(), getEventDispatcher(),
             getHttpServiceController());
         this.jetty.start();
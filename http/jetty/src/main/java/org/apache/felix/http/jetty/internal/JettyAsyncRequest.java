@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.jetty.internal;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.felix.http.base.internal.async.AbstractAsyncRequest;
+import org.apache.felix.http.base.internal.async.AsyncRequestProvider;
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+import org.eclipse.jetty.continuation.ContinuationSupport;
+
+/**
+ * Async request backed by a Jetty continuation, which releases the thread
+ * of a suspended request.
+ */
+final class JettyAsyncRequest
+    extends AbstractAsyncRequest
+    implements ContinuationListener
+{
+    static final AsyncRequestProvider PROVIDER = new AsyncRequestProvider()
+    {
+        public AbstractAsyncRequest create(HttpServletRequest req)
+        {
+            return new JettyAsyncRequest(ContinuationSupport.getContinuation(req));
+        }
+    };
+
+    /**
+     * Timeout used for requests that should not expire, about 24 days.
+     */
+    private static final long NO_TIMEOUT = Integer.MAX_VALUE;
+
+    private final Continuation continuation;
+
+    public JettyAsyncRequest(Continuation continuation)
+    {
+        this.continuation = continuation;
+    }
+
+    @Override
+    protected void doSuspend()
+    {
+        long timeout = getTimeout();
+        this.continuation.setTimeout(timeout > 0 ? timeout : NO_TIMEOUT);
+        this.continuation.addContinuationListener(this);
+        this.continuation.suspend();
+    }
+
+    @Override
+    protected void doResume()
+    {
+        this.continuation.resume();
+    }
+
+    @Override
+    protected void doComplete()
+    {
+        this.continuation.complete();
+    }
+
+    public void onComplete(Continuation continuation)
+    {
+        fireComplete();
+    }
+
+    public void onTimeout(Continuation continuation)
+    {
+        // Jetty dispatches the request again unless a listener resumed or
+        // completed it
+        expire();
+    }
+}
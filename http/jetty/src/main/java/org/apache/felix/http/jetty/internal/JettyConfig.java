@@ -101,6 +101,40 @@ public final class JettyConfig
     /** Felix specific property to set the list of path exclusions for Web Application Bundles */
     public static final String FELIX_HTTP_PATH_EXCLUSIONS = "org.apache.felix.http.path_exclusions";
 
+    /** Felix specific property to configure the minimum number of threads of the Jetty thread pool. Default is Jetty's default */
+    public static final String FELIX_JETTY_THREADPOOL_MIN = "org.apache.felix.http.jetty.threadpool.min";
+
+    /** Felix specific property to configure the maximum number of threads of the Jetty thread pool. Default is Jetty's default */
+    public static final String FELIX_JETTY_THREADPOOL_MAX = "org.apache.felix.http.jetty.threadpool.max";
+
+    /** Felix specific property to configure the time in milliseconds after which idle pool threads are stopped. Default is Jetty's default */
+    public static final String FELIX_JETTY_THREADPOOL_IDLE_TIMEOUT = "org.apache.felix.http.jetty.threadpool.idleTimeout";
+
+    /** Felix specific property to limit the number of jobs queued while all pool threads are busy. Default is unlimited */
+    public static final String FELIX_JETTY_THREADPOOL_MAX_QUEUED = "org.apache.felix.http.jetty.threadpool.maxQueued";
+
+    /** Felix specific property to configure the number of acceptor threads (and selector sets for NIO) per connector. Default is Jetty's default */
+    public static final String FELIX_JETTY_ACCEPTORS = "org.apache.felix.http.jetty.acceptors";
+
+    /** Felix specific property to configure the backlog of the server socket. Default is Jetty's default */
+    public static final String FELIX_JETTY_ACCEPT_QUEUE_SIZE = "org.apache.felix.http.jetty.acceptQueueSize";
+
+    /** Felix specific property to enable gzip compression of responses. Valid values are "true", "false". Default is false. Ignored when org.apache.felix.http.compression is enabled */
+    public static final String FELIX_JETTY_GZIP = "org.apache.felix.http.jetty.gzip";
+
+    /** Felix specific property to configure the minimum size of a response to be compressed. Default is 256 bytes */
+    public static final String FELIX_JETTY_GZIP_MIN_SIZE = "org.apache.felix.http.jetty.gzip.minSize";
+
+    /** Felix specific property to configure the content types to compress. Default is text, JavaScript, JSON and XML */
+    public static final String FELIX_JETTY_GZIP_MIME_TYPES = "org.apache.felix.http.jetty.gzip.mimeTypes";
+
+    /** Felix specific property to collect request metrics and register the metrics service. Valid values are "true", "false". Default is false */
+    public static final String FELIX_HTTP_METRICS = "org.apache.felix.http.metrics";
+
+    private static final String[] DEFAULT_GZIP_MIME_TYPES = { "text/html", "text/plain", "text/css", "text/xml",
+        "text/javascript", "application/javascript", "application/x-javascript", "application/json",
+        "application/xml" };
+
     private final BundleContext context;
     private boolean debug;
     private String host;
@@ -123,6 +157,16 @@ public final class JettyConfig
     private int responseBufferSize;
     private String contextPath;
     private String[] pathExclusions;
+    private int threadPoolMin;
+    private int threadPoolMax;
+    private int threadPoolIdleTimeout;
+    private int threadPoolMaxQueued;
+    private int acceptors;
+    private int acceptQueueSize;
+    private boolean useGzip;
+    private int gzipMinSize;
+    private String[] gzipMimeTypes;
+    private boolean collectMetrics;
 
     /**
      * Properties from the configuration not matching any of the
@@ -259,6 +303,79 @@ public final class JettyConfig
         return this.pathExclusions;
     }
 
+    /**
+     * Returns the configured minimum number of pool threads or -1 if not
+     * configured.
+     */
+    public int getThreadPoolMin()
+    {
+        return this.threadPoolMin;
+    }
+
+    /**
+     * Returns the configured maximum number of pool threads or -1 if not
+     * configured.
+     */
+    public int getThreadPoolMax()
+    {
+        return this.threadPoolMax;
+    }
+
+    /**
+     * Returns the configured idle timeout of pool threads in milliseconds or
+     * -1 if not configured.
+     */
+    public int getThreadPoolIdleTimeout()
+    {
+        return this.threadPoolIdleTimeout;
+    }
+
+    /**
+     * Returns the configured maximum number of queued jobs or -1 if the
+     * queue is unbounded.
+     */
+    public int getThreadPoolMaxQueued()
+    {
+        return this.threadPoolMaxQueued;
+    }
+
+    /**
+     * Returns the configured number of acceptors per connector or -1 if not
+     * configured.
+     */
+    public int getAcceptors()
+    {
+        return this.acceptors;
+    }
+
+    /**
+     * Returns the configured accept queue size or -1 if not configured.
+     */
+    public int getAcceptQueueSize()
+    {
+        return this.acceptQueueSize;
+    }
+
+    public boolean isUseGzip()
+    {
+        return this.useGzip;
+    }
+
+    public int getGzipMinSize()
+    {
+        return this.gzipMinSize;
+    }
+
+    public String[] getGzipMimeTypes()
+    {
+        return this.gzipMimeTypes;
+    }
+
+    public boolean isCollectMetrics()
+    {
+        return this.collectMetrics;
+    }
+
     public void reset()
     {
         update(null);
@@ -291,6 +408,16 @@ public final class JettyConfig
         this.responseBufferSize = getIntProperty(FELIX_JETTY_RESPONSE_BUFFER_SIZE, 24 * 1024);
         this.contextPath = validateContextPath(getProperty(props, FELIX_HTTP_CONTEXT_PATH, null));
         this.pathExclusions = getStringArrayProperty(props, FELIX_HTTP_PATH_EXCLUSIONS, new String[] { "/system" });
+        this.threadPoolMin = getIntProperty(props, FELIX_JETTY_THREADPOOL_MIN, -1);
+        this.threadPoolMax = getIntProperty(props, FELIX_JETTY_THREADPOOL_MAX, -1);
+        this.threadPoolIdleTimeout = getIntProperty(props, FELIX_JETTY_THREADPOOL_IDLE_TIMEOUT, -1);
+        this.threadPoolMaxQueued = getIntProperty(props, FELIX_JETTY_THREADPOOL_MAX_QUEUED, -1);
+        this.acceptors = getIntProperty(props, FELIX_JETTY_ACCEPTORS, -1);
+        this.acceptQueueSize = getIntProperty(props, FELIX_JETTY_ACCEPT_QUEUE_SIZE, -1);
+        this.useGzip = getBooleanProperty(props, FELIX_JETTY_GZIP, false);
+        this.gzipMinSize = getIntProperty(props, FELIX_JETTY_GZIP_MIN_SIZE, 256);
+        this.gzipMimeTypes = getStringArrayProperty(props, FELIX_JETTY_GZIP_MIME_TYPES, DEFAULT_GZIP_MIME_TYPES);
+        this.collectMetrics = getBooleanProperty(props, FELIX_HTTP_METRICS, false);
 
         // copy rest of the properties
         Enumeration keys = props.keys();
@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.jetty.internal;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.http.jetty.HttpMetrics;
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Collects request statistics as a handler wrapping the handlers of the
+ * server. Latencies are recorded in a histogram with four buckets per power
+ * of two microseconds, so percentiles are computed without keeping the
+ * individual samples.
+ */
+public final class JettyMetrics
+    extends HandlerWrapper implements HttpMetrics
+{
+    /**
+     * Request attribute holding the start time of a request, which may be
+     * dispatched more than once, or TRUE once its completion is tracked by a
+     * continuation listener.
+     */
+    private static final String STATE_ATTRIBUTE = JettyMetrics.class.getName() + ".state";
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int MAX_MAGNITUDE = 40;
+    private static final int BUCKETS = SUB_BUCKETS * MAX_MAGNITUDE;
+    private static final int RATE_SECONDS = 60;
+
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray rateCounts = new AtomicLongArray(RATE_SECONDS);
+    private final AtomicLongArray rateSeconds = new AtomicLongArray(RATE_SECONDS);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong latencyTotal = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private volatile long startTime = System.currentTimeMillis();
+
+    @Override
+    public void handle(String target, final Request baseRequest, HttpServletRequest request,
+        HttpServletResponse response)
+        throws IOException, ServletException
+    {
+        Object state = request.getAttribute(STATE_ATTRIBUTE);
+        final long start = (state instanceof Long) ? (Long) state : System.nanoTime();
+        if (state == null) {
+            request.setAttribute(STATE_ATTRIBUTE, start);
+            this.activeRequests.incrementAndGet();
+        }
+
+        try {
+            super.handle(target, baseRequest, request, response);
+        } finally {
+            if (baseRequest.isAsyncStarted()) {
+                // a suspended request is counted when it completes, which
+                // may happen without another dispatch
+                if (state == null || state instanceof Long) {
+                    request.setAttribute(STATE_ATTRIBUTE, Boolean.TRUE);
+                    baseRequest.getAsyncContinuation().addContinuationListener(new ContinuationListener()
+                    {
+                        public void onComplete(Continuation continuation)
+                        {
+                            requestCompleted(start, baseRequest);
+                        }
+
+                        public void onTimeout(Continuation continuation)
+                        {
+                        }
+                    });
+                }
+            } else if (!Boolean.TRUE.equals(request.getAttribute(STATE_ATTRIBUTE))) {
+                requestCompleted(start, baseRequest);
+            }
+        }
+    }
+
+    private void requestCompleted(long start, Request baseRequest)
+    {
+        this.activeRequests.decrementAndGet();
+        long bytes = baseRequest.getResponse().getContentCount();
+        requestCompleted((System.nanoTime() - start) / 1000, Math.max(0, bytes));
+    }
+
+    void requestCompleted(long micros, long bytes)
+    {
+        this.requests.incrementAndGet();
+        this.latencyTotal.addAndGet(micros);
+        this.bytesSent.addAndGet(bytes);
+        this.latencies.incrementAndGet(bucket(micros));
+
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % RATE_SECONDS);
+        long slotSecond = this.rateSeconds.get(slot);
+        if (slotSecond != second && this.rateSeconds.compareAndSet(slot, slotSecond, second)) {
+            this.rateCounts.set(slot, 0);
+        }
+        this.rateCounts.incrementAndGet(slot);
+    }
+
+    public long getStartTime()
+    {
+        return this.startTime;
+    }
+
+    public long getRequestCount()
+    {
+        return this.requests.get();
+    }
+
+    public int getActiveRequests()
+    {
+        return this.activeRequests.get();
+    }
+
+    public double getRequestRate()
+    {
+        long now = System.currentTimeMillis();
+        long second = now / 1000;
+        long count = 0;
+        for (int i = 0; i < RATE_SECONDS; i++) {
+            if (second - this.rateSeconds.get(i) < RATE_SECONDS) {
+                count += this.rateCounts.get(i);
+            }
+        }
+
+        double seconds = Math.min(RATE_SECONDS, Math.max(1, (now - this.startTime) / 1000.0));
+        return count / seconds;
+    }
+
+    public double getLatencyPercentile(double percentile)
+    {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.latencies.get(i);
+            total += counts[i];
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(total * Math.max(0, Math.min(100, percentile)) / 100.0);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += counts[i];
+            if (cumulative >= Math.max(1, target)) {
+                return upperBound(i) / 1000.0;
+            }
+        }
+
+        return upperBound(BUCKETS - 1) / 1000.0;
+    }
+
+    public double getLatencyMean()
+    {
+        long count = this.requests.get();
+        return (count == 0) ? 0 : this.latencyTotal.get() / 1000.0 / count;
+    }
+
+    public long getBytesSent()
+    {
+        return this.bytesSent.get();
+    }
+
+    public int getOpenConnections()
+    {
+        int open = 0;
+        Server server = getServer();
+        Connector[] connectors = (server != null) ? server.getConnectors() : null;
+        if (connectors != null) {
+            for (Connector connector : connectors) {
+                open += connector.getConnectionsOpen();
+            }
+        }
+
+        return open;
+    }
+
+    public int getThreads()
+    {
+        ThreadPool pool = getThreadPool();
+        return (pool != null) ? pool.getThreads() : 0;
+    }
+
+    public int getIdleThreads()
+    {
+        ThreadPool pool = getThreadPool();
+        return (pool != null) ? pool.getIdleThreads() : 0;
+    }
+
+    public int getMaxThreads()
+    {
+        ThreadPool pool = getThreadPool();
+        return (pool instanceof QueuedThreadPool) ? ((QueuedThreadPool) pool).getMaxThreads() : -1;
+    }
+
+    public boolean isLowOnThreads()
+    {
+        ThreadPool pool = getThreadPool();
+        return (pool != null) && pool.isLowOnThreads();
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.latencies.set(i, 0);
+        }
+
+        for (int i = 0; i < RATE_SECONDS; i++) {
+            this.rateCounts.set(i, 0);
+        }
+
+        this.requests.set(0);
+        this.latencyTotal.set(0);
+        this.bytesSent.set(0);
+        this.startTime = System.currentTimeMillis();
+
+        Server server = getServer();
+        Connector[] connectors = (server != null) ? server.getConnectors() : null;
+        if (connectors != null) {
+            for (Connector connector : connectors) {
+                connector.statsReset();
+            }
+        }
+    }
+
+    private ThreadPool getThreadPool()
+    {
+        Server server = getServer();
+        return (server != null) ? server.getThreadPool() : null;
+    }
+
+    /**
+     * Returns the histogram bucket of a latency: values below four have
+     * their own bucket, larger values share a bucket with the values having
+     * the same two bits following the highest bit.
+     */
+    static int bucket(long micros)
+    {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (magnitude - 2)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, (magnitude - 1) * SUB_BUCKETS + sub);
+    }
+
+    /**
+     * Returns the largest latency in microseconds falling into a bucket.
+     */
+    static long upperBound(int bucket)
+    {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int magnitude = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (magnitude - 2)) - 1;
+    }
+}
@@ -38,12 +38,16 @@ import org.apache.felix.http.base.internal.DispatcherServlet;
 import org.apache.felix.http.base.internal.EventDispatcher;
 import org.apache.felix.http.base.internal.HttpServiceController;
 import org.apache.felix.http.base.internal.logger.SystemLogger;
+import org.apache.felix.http.jetty.HttpMetrics;
 import org.eclipse.jetty.security.HashLoginService;
+import org.eclipse.jetty.server.AbstractConnector;
 import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.SessionManager;
 import org.eclipse.jetty.server.bio.SocketConnector;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.eclipse.jetty.server.handler.GzipHandler;
 import org.eclipse.jetty.server.handler.StatisticsHandler;
 import org.eclipse.jetty.server.nio.SelectChannelConnector;
 import org.eclipse.jetty.server.ssl.SslConnector;
@@ -53,6 +57,7 @@ import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
@@ -95,6 +100,9 @@ public final class JettyService
     private EventDispatcher eventDispatcher;
     private final HttpServiceController controller;
     private MBeanServerTracker mbeanServerTracker;
+    private JettyMetrics metrics;
+    private ServiceRegistration metricsReg;
+    private MetricsPlugin metricsPlugin;
     private BundleTracker bundleTracker;
     private ServiceTracker serviceTracker;
     private EventAdmin eventAdmin;
@@ -214,6 +222,19 @@ public final class JettyService
                 this.mbeanServerTracker.close();
                 this.mbeanServerTracker = null;
             }
+
+            if (this.metricsReg != null)
+            {
+                this.metricsReg.unregister();
+                this.metricsReg = null;
+            }
+
+            if (this.metricsPlugin != null)
+            {
+                this.metricsPlugin.unregister();
+                this.metricsPlugin = null;
+            }
+            this.metrics = null;
         }
     }
 
@@ -231,6 +252,7 @@ public final class JettyService
             this.server.setSendDateHeader(true);
 
             this.server.addBean(realm);
+            this.server.setThreadPool(createThreadPool());
 
             if (this.config.isUseHttp())
             {
@@ -262,9 +284,37 @@ public final class JettyService
                 context.addBean(new StatisticsHandler());
             }
 
-            this.server.setHandler(this.parent);
+            Handler handler = this.parent;
+            if (this.config.isUseGzip() && this.controller.isCompressionEnabled())
+            {
+                // responses would be compressed twice
+                SystemLogger.warning("Ignoring " + JettyConfig.FELIX_JETTY_GZIP
+                    + ", responses are compressed by the HTTP service compression filter.", null);
+            }
+            else if (this.config.isUseGzip())
+            {
+                GzipHandler gzipHandler = new GzipHandler();
+                gzipHandler.setMinGzipSize(this.config.getGzipMinSize());
+                gzipHandler.setMimeTypes(join(this.config.getGzipMimeTypes()));
+                gzipHandler.setHandler(handler);
+                handler = gzipHandler;
+            }
+
+            if (this.config.isCollectMetrics())
+            {
+                this.metrics = new JettyMetrics();
+                this.metrics.setHandler(handler);
+                handler = this.metrics;
+            }
+
+            this.server.setHandler(handler);
             this.server.start();
             SystemLogger.info(message.toString());
+
+            if (this.metrics != null)
+            {
+                registerMetrics();
+            }
         }
         else
         {
@@ -274,6 +324,54 @@ public final class JettyService
         publishServiceProperties();
     }
 
+    private QueuedThreadPool createThreadPool()
+    {
+        QueuedThreadPool pool = new QueuedThreadPool();
+        pool.setName("Jetty HTTP Service Worker");
+        if (this.config.getThreadPoolMin() > 0)
+        {
+            pool.setMinThreads(this.config.getThreadPoolMin());
+        }
+        if (this.config.getThreadPoolMax() > 0)
+        {
+            pool.setMaxThreads(this.config.getThreadPoolMax());
+        }
+        if (this.config.getThreadPoolIdleTimeout() > 0)
+        {
+            pool.setMaxIdleTimeMs(this.config.getThreadPoolIdleTimeout());
+        }
+        if (this.config.getThreadPoolMaxQueued() >= 0)
+        {
+            pool.setMaxQueued(this.config.getThreadPoolMaxQueued());
+        }
+        return pool;
+    }
+
+    private void registerMetrics()
+    {
+        Properties props = new Properties();
+        props.put(Constants.SERVICE_VENDOR, "Apache Software Foundation");
+        props.put(Constants.SERVICE_DESCRIPTION, "HTTP Service Metrics");
+        this.metricsReg = this.context.registerService(HttpMetrics.class.getName(), this.metrics, props);
+
+        this.metricsPlugin = new MetricsPlugin(this.context, this.metrics);
+        this.metricsPlugin.register();
+    }
+
+    private static String join(String[] values)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values)
+        {
+            if (sb.length() > 0)
+            {
+                sb.append(',');
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
     private void initializeHttp()
         throws Exception
     {
@@ -389,7 +487,21 @@ public final class JettyService
         connector.setRequestBufferSize(this.config.getRequestBufferSize());
         connector.setResponseBufferSize(this.config.getResponseBufferSize());
         connector.setHost(this.config.getHost());
-        connector.setStatsOn(this.config.isRegisterMBeans());
+        connector.setStatsOn(this.config.isRegisterMBeans() || this.config.isCollectMetrics());
+
+        if (connector instanceof AbstractConnector)
+        {
+            // for NIO connectors this is also the number of selector sets
+            AbstractConnector abstractConnector = (AbstractConnector) connector;
+            if (this.config.getAcceptors() > 0)
+            {
+                abstractConnector.setAcceptors(this.config.getAcceptors());
+            }
+            if (this.config.getAcceptQueueSize() > 0)
+            {
+                abstractConnector.setAcceptQueueSize(this.config.getAcceptQueueSize());
+            }
+        }
 
         // connector.setLowResourceMaxIdleTime(ms);
         // connector.setRequestBufferSize(requestBufferSize);
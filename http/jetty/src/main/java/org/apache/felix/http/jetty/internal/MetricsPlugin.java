@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.jetty.internal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.Properties;
+
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.http.jetty.HttpMetrics;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Web Console plugin and configuration printer showing the collected
+ * {@link HttpMetrics}.
+ */
+@SuppressWarnings("serial")
+public class MetricsPlugin extends HttpServlet
+{
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final BundleContext context;
+    private final HttpMetrics metrics;
+
+    private ServiceRegistration serviceReg;
+
+    public MetricsPlugin(BundleContext context, HttpMetrics metrics)
+    {
+        this.context = context;
+        this.metrics = metrics;
+    }
+
+    public void register()
+    {
+        Properties props = new Properties();
+        props.put(Constants.SERVICE_VENDOR, "Apache Software Foundation");
+        props.put(Constants.SERVICE_DESCRIPTION, "HTTP Metrics Web Console Plugin");
+        props.put("felix.webconsole.label", "httpmetrics");
+        props.put("felix.webconsole.title", "HTTP Metrics");
+        props.put("felix.webconsole.configprinter.modes", "always");
+        this.serviceReg = this.context.registerService(Servlet.class.getName(), this, props);
+    }
+
+    public void unregister()
+    {
+        if (this.serviceReg != null)
+        {
+            this.serviceReg.unregister();
+            this.serviceReg = null;
+        }
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws IOException
+    {
+        final PrintWriter pw = resp.getWriter();
+
+        pw.println("<p class=\"statline ui-state-highlight\">${Request Statistics}</p>");
+
+        pw.println("<table class=\"nicetable\">");
+        pw.println("<thead><tr>");
+        pw.println("<th class=\"header\">${Name}</th>");
+        pw.println("<th class=\"header\">${Value}</th>");
+        pw.println("</tr></thead>");
+
+        String[][] rows = getRows();
+        for (int i = 0; i < rows.length; i++)
+        {
+            String rowClass = (i % 2 == 0) ? "odd" : "even";
+            pw.println("<tr class=\"" + rowClass + " ui-state-default\">");
+            pw.println("<td>" + rows[i][0] + "</td>");
+            pw.println("<td>" + rows[i][1] + "</td>");
+            pw.println("</tr>");
+        }
+        pw.println("</table>");
+    }
+
+    /**
+     * @see org.apache.felix.webconsole.ConfigurationPrinter#printConfiguration(java.io.PrintWriter)
+     */
+    public void printConfiguration(final PrintWriter pw)
+    {
+        pw.println("HTTP Metrics:");
+        pw.println();
+        for (String[] row : getRows())
+        {
+            pw.println(row[0] + " : " + row[1]);
+        }
+    }
+
+    private String[][] getRows()
+    {
+        String[][] rows = new String[11 + PERCENTILES.length][];
+        int i = 0;
+        rows[i++] = row("Collecting since", new Date(this.metrics.getStartTime()));
+        rows[i++] = row("Requests", this.metrics.getRequestCount());
+        rows[i++] = row("Active requests", this.metrics.getActiveRequests());
+        rows[i++] = row("Requests per second (last minute)", format(this.metrics.getRequestRate()));
+        rows[i++] = row("Mean latency (ms)", format(this.metrics.getLatencyMean()));
+        for (double percentile : PERCENTILES)
+        {
+            rows[i++] = row(percentile + "th percentile latency (ms)",
+                format(this.metrics.getLatencyPercentile(percentile)));
+        }
+        rows[i++] = row("Bytes sent", this.metrics.getBytesSent());
+        rows[i++] = row("Open connections", this.metrics.getOpenConnections());
+        rows[i++] = row("Threads", this.metrics.getThreads());
+        rows[i++] = row("Idle threads", this.metrics.getIdleThreads());
+        rows[i++] = row("Maximum threads", this.metrics.getMaxThreads());
+        rows[i++] = row("Low on threads", this.metrics.isLowOnThreads());
+        return rows;
+    }
+
+    private static String[] row(String name, Object value)
+    {
+        return new String[] { name, String.valueOf(value) };
+    }
+
+    private static String format(double value)
+    {
+        return String.format("%.2f", value);
+    }
+}
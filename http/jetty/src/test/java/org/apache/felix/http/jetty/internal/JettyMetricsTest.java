@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.jetty.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JettyMetricsTest
+{
+    @Test
+    public void testSmallLatenciesHaveOwnBucket()
+    {
+        for (int i = 0; i < 8; i++) {
+            Assert.assertEquals(i, JettyMetrics.bucket(i));
+            Assert.assertEquals(i, JettyMetrics.upperBound(i));
+        }
+    }
+
+    @Test
+    public void testBucketContainsLatency()
+    {
+        for (long micros = 0; micros < 1000000; micros++) {
+            int bucket = JettyMetrics.bucket(micros);
+            long upper = JettyMetrics.upperBound(bucket);
+            Assert.assertTrue(micros + " above " + upper, micros <= upper);
+            // four buckets per power of two
+            Assert.assertTrue(micros + " far below " + upper, upper <= micros + micros / 4);
+        }
+    }
+
+    @Test
+    public void testBucketsAreContiguous()
+    {
+        for (int bucket = 0; bucket < 159; bucket++) {
+            long upper = JettyMetrics.upperBound(bucket);
+            Assert.assertEquals(bucket, JettyMetrics.bucket(upper));
+            Assert.assertEquals(bucket + 1, JettyMetrics.bucket(upper + 1));
+        }
+    }
+
+    @Test
+    public void testOutOfRangeLatencies()
+    {
+        Assert.assertEquals(0, JettyMetrics.bucket(-5));
+        Assert.assertEquals(159, JettyMetrics.bucket(Long.MAX_VALUE));
+        Assert.assertEquals(159, JettyMetrics.bucket(JettyMetrics.upperBound(159) + 1));
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        JettyMetrics metrics = new JettyMetrics();
+        Assert.assertEquals(0, metrics.getLatencyPercentile(50), 0);
+
+        for (int i = 0; i < 90; i++) {
+            metrics.requestCompleted(1000, 10);
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.requestCompleted(100000, 10);
+        }
+
+        Assert.assertEquals(100, metrics.getRequestCount());
+        Assert.assertEquals(1.0, metrics.getLatencyPercentile(50), 0.25);
+        Assert.assertEquals(1.0, metrics.getLatencyPercentile(90), 0.25);
+        Assert.assertEquals(100.0, metrics.getLatencyPercentile(99), 25);
+        Assert.assertEquals(100.0, metrics.getLatencyPercentile(100), 25);
+    }
+}
@@ -24,6 +24,14 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletConfig;
 import java.io.IOException;
 
+/**
+ * Forwards the requests of the web application to the dispatcher of the
+ * bridged HTTP service. To suspend requests with
+ * <code>org.apache.felix.http.api.AsyncRequest</code> without holding a
+ * thread, the servlet has to be registered with
+ * <code>&lt;async-supported&gt;true&lt;/async-supported&gt;</code> in a
+ * Servlet 3 container; otherwise suspended requests keep their thread.
+ */
 public final class ProxyServlet
     extends HttpServlet
 {
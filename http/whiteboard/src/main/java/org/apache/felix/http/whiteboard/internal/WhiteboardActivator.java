@@ -33,6 +33,23 @@ import java.util.Hashtable;
 public final class WhiteboardActivator
     extends AbstractActivator
 {
+    /**
+     * Framework property setting the milliseconds during which whiteboard
+     * servlets and filters are collected to be registered together. By
+     * default, or if set to 0, each service is registered as soon as it is
+     * tracked.
+     */
+    private static final String FELIX_HTTP_WHITEBOARD_BATCH_DELAY = "org.apache.felix.http.whiteboard.batchDelay";
+
+    private static final long DEFAULT_BATCH_DELAY = 0;
+
+    /**
+     * Framework property setting the maximum number of threads initializing
+     * whiteboard servlets and filters of different contexts concurrently, if
+     * registrations are batched.
+     */
+    private static final String FELIX_HTTP_WHITEBOARD_INIT_THREADS = "org.apache.felix.http.whiteboard.initThreads";
+
     private final ArrayList<ServiceTracker> trackers;
     private ExtenderManager manager;
     private ServiceRegistration httpPlugin;
@@ -45,7 +62,8 @@ public final class WhiteboardActivator
     protected void doStart()
         throws Exception
     {
-        this.manager = new ExtenderManager();
+        this.manager = new ExtenderManager(getLongProperty(FELIX_HTTP_WHITEBOARD_BATCH_DELAY, DEFAULT_BATCH_DELAY),
+            (int) getLongProperty(FELIX_HTTP_WHITEBOARD_INIT_THREADS, Runtime.getRuntime().availableProcessors()));
         addTracker(new HttpContextTracker(getBundleContext(), this.manager));
         addTracker(new FilterTracker(getBundleContext(), this.manager));
         addTracker(new ServletTracker(getBundleContext(), this.manager));
@@ -63,6 +81,20 @@ public final class WhiteboardActivator
         SystemLogger.info("Http service whiteboard started");
     }
 
+    private long getLongProperty(String name, long defValue)
+    {
+        String value = getBundleContext().getProperty(name);
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                SystemLogger.warning("Ignoring invalid value of " + name + ": " + value, null);
+            }
+        }
+
+        return defValue;
+    }
+
     private void addTracker(ServiceTracker tracker)
     {
         this.trackers.add(tracker);
@@ -80,5 +112,6 @@ public final class WhiteboardActivator
 
         this.trackers.clear();
         this.manager.unregisterAll();
+        this.manager.dispose();
     }
 }
@@ -16,10 +16,22 @@
  */
 package org.apache.felix.http.whiteboard.internal.manager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.Filter;
 import javax.servlet.Servlet;
@@ -34,16 +46,63 @@ import org.osgi.framework.ServiceReference;
 import org.osgi.service.http.HttpContext;
 import org.osgi.service.http.HttpService;
 
+/**
+ * Registers whiteboard servlets and filters with the Http Service. If a batch
+ * delay is configured, mappings are not registered one at a time: mappings
+ * added within the delay are collected and registered together. Mappings of
+ * different <code>HttpContext</code>s are registered, and thus initialized,
+ * concurrently, while the mappings sharing an <code>HttpContext</code> are
+ * registered one after the other. A single pool of threads, stopped by
+ * {@link #dispose()}, schedules the batches and registers their mappings.
+ */
 public final class ExtenderManager
 {
     private HttpService httpService;
     private final HashMap<ServiceReference, AbstractMapping> mapping;
     private final HttpContextManager contextManager;
+    private final long batchDelay;
+    private final int initThreads;
+    private final Set<AbstractMapping> pending;
+    private final Set<AbstractMapping> inFlight;
+    private final Set<AbstractMapping> cancelled;
+    private final ScheduledThreadPoolExecutor executor;
+    private boolean flushScheduled;
+
+    /**
+     * Set while the current thread registers the mappings of a batch.
+     */
+    private static final ThreadLocal<Boolean> REGISTERING = new ThreadLocal<Boolean>();
 
     public ExtenderManager()
+    {
+        this(0, 1);
+    }
+
+    /**
+     * @param batchDelay milliseconds during which added mappings are collected
+     *            before they are registered, or 0 to register each mapping
+     *            when it is added
+     * @param initThreads maximum number of threads registering the mappings of
+     *            a batch
+     */
+    public ExtenderManager(long batchDelay, int initThreads)
     {
         this.mapping = new HashMap<ServiceReference, AbstractMapping>();
         this.contextManager = new HttpContextManager();
+        this.batchDelay = batchDelay;
+        this.initThreads = Math.max(1, initThreads);
+        this.pending = new LinkedHashSet<AbstractMapping>();
+        this.inFlight = new HashSet<AbstractMapping>();
+        this.cancelled = new HashSet<AbstractMapping>();
+        if (batchDelay > 0)
+        {
+            this.executor = new ScheduledThreadPoolExecutor(this.initThreads, new WhiteboardThreadFactory());
+            this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+        else
+        {
+            this.executor = null;
+        }
     }
 
     static boolean isEmpty(final String value)
@@ -185,6 +244,7 @@ public final class ExtenderManager
 
     public synchronized void setHttpService(HttpService service)
     {
+        awaitInFlight(null);
         this.httpService = service;
         if (this.httpService instanceof ExtHttpService) {
             SystemLogger.info("Detected extended HttpService. Filters enabled.");
@@ -206,6 +266,8 @@ public final class ExtenderManager
     	AbstractMapping[] mappings = null;
     	HttpService service;
     	synchronized (this) {
+    		awaitInFlight(null);
+    		this.pending.clear();
 			service = this.httpService;
 			if (service != null) {
     			Collection<AbstractMapping> values = this.mapping.values();
@@ -231,8 +293,15 @@ public final class ExtenderManager
     		}
     	}
     	if (mappings != null) {
-    		for (AbstractMapping mapping : mappings) {
-    			mapping.register(service);
+    		if (this.batchDelay > 0) {
+    			for (AbstractMapping mapping : mappings) {
+    				this.pending.add(mapping);
+    			}
+    			scheduleFlush(0);
+    		} else {
+    			for (AbstractMapping mapping : mappings) {
+    				mapping.register(service);
+    			}
     		}
     	}
     }
@@ -253,17 +322,39 @@ public final class ExtenderManager
         }
     }
 
-    private void registerMapping(AbstractMapping mapping)
+    private synchronized void registerMapping(AbstractMapping mapping)
     {
         HttpService httpService = this.httpService;
         if (httpService != null)
         {
-            mapping.register(httpService);
+            if (this.batchDelay > 0)
+            {
+                this.pending.add(mapping);
+                scheduleFlush(this.batchDelay);
+            }
+            else
+            {
+                mapping.register(httpService);
+            }
         }
     }
 
-    private void unregisterMapping(AbstractMapping mapping)
+    private synchronized void unregisterMapping(AbstractMapping mapping)
     {
+        this.pending.remove(mapping);
+        if (this.inFlight.contains(mapping))
+        {
+            if (REGISTERING.get() != null)
+            {
+                // removed by the init method of a mapping of the batch: the
+                // thread registering the mapping unregisters it
+                this.cancelled.add(mapping);
+                return;
+            }
+
+            awaitInFlight(mapping);
+        }
+
         HttpService httpService = this.httpService;
         if (httpService != null)
         {
@@ -271,6 +362,266 @@ public final class ExtenderManager
         }
     }
 
+    /**
+     * Schedules a flush unless one is scheduled or running, in which case the
+     * pending mappings are registered once it completes. Must be called
+     * holding the lock of this manager.
+     */
+    private void scheduleFlush(long delay)
+    {
+        if (!this.flushScheduled && !this.executor.isShutdown())
+        {
+            try
+            {
+                this.executor.schedule(new Runnable()
+                {
+                    public void run()
+                    {
+                        flush();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+                this.flushScheduled = true;
+            }
+            catch (RejectedExecutionException e)
+            {
+                // disposed
+            }
+        }
+    }
+
+    /**
+     * Registers the mappings collected since the last flush. The registration
+     * happens without holding the lock of this manager, as servlets may
+     * register further whiteboard services from their <code>init</code>
+     * method. A mapping being registered is unregistered only once its
+     * registration has completed; if it is removed by the registering threads
+     * themselves, they unregister it rather than wait for it.
+     */
+    void flush()
+    {
+        HttpService httpService;
+        AbstractMapping[] mappings;
+        synchronized (this)
+        {
+            httpService = this.httpService;
+            mappings = this.pending.toArray(new AbstractMapping[this.pending.size()]);
+            this.pending.clear();
+            if (httpService == null || mappings.length == 0)
+            {
+                this.flushScheduled = false;
+                return;
+            }
+
+            // the flush stays scheduled while it runs, so that batches
+            // are registered one after the other
+            this.flushScheduled = true;
+            for (AbstractMapping mapping : mappings)
+            {
+                this.inFlight.add(mapping);
+            }
+        }
+
+        try
+        {
+            register(httpService, mappings);
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                for (AbstractMapping mapping : mappings)
+                {
+                    this.inFlight.remove(mapping);
+                    this.cancelled.remove(mapping);
+                }
+
+                notifyAll();
+                this.flushScheduled = false;
+                if (!this.pending.isEmpty())
+                {
+                    scheduleFlush(this.batchDelay);
+                }
+            }
+        }
+    }
+
+    private void register(final HttpService httpService, AbstractMapping[] mappings)
+    {
+        if (this.initThreads <= 1 || this.executor == null)
+        {
+            register(httpService, Arrays.asList(mappings));
+            return;
+        }
+
+        // HttpContexts need not be thread safe, so the mappings sharing a
+        // context are registered by the same thread
+        Map<HttpContext, List<AbstractMapping>> groups = new IdentityHashMap<HttpContext, List<AbstractMapping>>();
+        for (AbstractMapping mapping : mappings)
+        {
+            List<AbstractMapping> group = groups.get(mapping.getContext());
+            if (group == null)
+            {
+                group = new ArrayList<AbstractMapping>();
+                groups.put(mapping.getContext(), group);
+            }
+            group.add(mapping);
+        }
+
+        // the calling thread registers the first group, the executor the
+        // others; a group rejected by a disposed executor is registered here
+        List<Future<?>> futures = new ArrayList<Future<?>>(groups.size());
+        List<AbstractMapping> local = new ArrayList<AbstractMapping>();
+        for (final List<AbstractMapping> group : groups.values())
+        {
+            if (!local.isEmpty())
+            {
+                try
+                {
+                    futures.add(this.executor.submit(new Runnable()
+                    {
+                        public void run()
+                        {
+                            register(httpService, group);
+                        }
+                    }));
+                    continue;
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // disposed
+                }
+            }
+            local.addAll(group);
+        }
+
+        register(httpService, local);
+
+        boolean interrupted = false;
+        for (Future<?> future : futures)
+        {
+            while (true)
+            {
+                try
+                {
+                    future.get();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    // the mappings must be registered before they are released
+                    interrupted = true;
+                }
+                catch (ExecutionException e)
+                {
+                    SystemLogger.error("Failed to register whiteboard services", e.getCause());
+                    break;
+                }
+            }
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Registers mappings one after the other, and releases each of them once
+     * registered. A mapping removed by the <code>init</code> method of a
+     * mapping of the batch is unregistered, or not registered at all if its
+     * registration had not started.
+     */
+    private void register(HttpService httpService, List<AbstractMapping> mappings)
+    {
+        REGISTERING.set(Boolean.TRUE);
+        try
+        {
+            for (AbstractMapping mapping : mappings)
+            {
+                boolean cancelled;
+                synchronized (this)
+                {
+                    cancelled = this.cancelled.remove(mapping);
+                }
+
+                if (!cancelled)
+                {
+                    mapping.register(httpService);
+                }
+
+                while (true)
+                {
+                    synchronized (this)
+                    {
+                        if (!this.cancelled.remove(mapping))
+                        {
+                            this.inFlight.remove(mapping);
+                            notifyAll();
+                            break;
+                        }
+                    }
+
+                    mapping.unregister(httpService);
+                }
+            }
+        }
+        finally
+        {
+            REGISTERING.remove();
+        }
+    }
+
+    /**
+     * Waits until a mapping, or all mappings if it is <code>null</code>, are no
+     * longer being registered by {@link #flush()}. Must be called holding the
+     * lock of this manager.
+     */
+    private void awaitInFlight(AbstractMapping mapping)
+    {
+        boolean interrupted = false;
+        while ((mapping == null) ? !this.inFlight.isEmpty() : this.inFlight.contains(mapping))
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the threads registering batched mappings. Pending mappings are
+     * discarded, so {@link #unregisterAll()} should be called first.
+     */
+    public synchronized void dispose()
+    {
+        this.pending.clear();
+        if (this.executor != null)
+        {
+            // a batch being registered completes, a scheduled one is dropped
+            this.executor.shutdown();
+        }
+    }
+
+    private static final class WhiteboardThreadFactory
+        implements ThreadFactory
+    {
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "Felix HTTP Whiteboard");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
     /**
      * Returns
      * {@link org.apache.felix.http.whiteboard.internal.manager.HttpContextManager.HttpContextHolder}
@@ -357,6 +357,78 @@ public class ExtenderManagerTest
         TestCase.assertSame(servlet1.getHttpContext(), servlet1_1.getHttpContext());
     }
 
+    @Test
+    public void test_servlet_batched()
+    {
+        // long delay to flush explicitly, single thread as the mock service is not thread safe
+        ExtenderManager em = new ExtenderManager(60000, 1);
+        em.setHttpService(this.httpService);
+
+        when(servlet2Reference.getProperty(HttpWhiteboardConstants.CONTEXT_ID)).thenReturn("");
+        em.add(servlet1, servlet1Reference);
+        em.add(servlet1_1, servlet1_1Reference);
+        em.add(servlet2, servlet2Reference);
+
+        // collected, but not registered yet
+        TestCase.assertEquals(3, em.getMappings().size());
+        TestCase.assertTrue(this.httpService.getServlets().isEmpty());
+
+        // removed before the batch is registered
+        em.remove(servlet1_1Reference);
+        TestCase.assertEquals(2, em.getMappings().size());
+
+        em.flush();
+        TestCase.assertEquals(2, this.httpService.getServlets().size());
+        TestCase.assertSame(servlet1, this.httpService.getServlets().get(SERVLET_1_ALIAS));
+        TestCase.assertSame(servlet2, this.httpService.getServlets().get(SERVLET_2_ALIAS));
+        TestCase.assertNull(this.httpService.getServlets().get(SERVLET_1_1_ALIAS));
+
+        em.remove(servlet1Reference);
+        TestCase.assertEquals(1, this.httpService.getServlets().size());
+
+        em.unregisterAll();
+        em.dispose();
+        TestCase.assertTrue(this.httpService.getServlets().isEmpty());
+    }
+
+    @Test
+    public void test_servlet_batched_removed_while_registering()
+    {
+        final ExtenderManager em = new ExtenderManager(60000, 1);
+        MockExtHttpService service = new MockExtHttpService()
+        {
+            @Override
+            public void registerServlet(String alias, Servlet servlet, @SuppressWarnings("rawtypes") Dictionary initparams,
+                HttpContext context)
+            {
+                super.registerServlet(alias, servlet, initparams, context);
+                if (servlet == servlet1)
+                {
+                    // as if the servlet removed itself and a servlet of the
+                    // same batch from its init method
+                    em.remove(servlet1Reference);
+                    em.remove(servlet1_1Reference);
+                }
+            }
+        };
+        em.setHttpService(service);
+
+        when(servlet2Reference.getProperty(HttpWhiteboardConstants.CONTEXT_ID)).thenReturn("");
+        em.add(servlet1, servlet1Reference);
+        em.add(servlet1_1, servlet1_1Reference);
+        em.add(servlet2, servlet2Reference);
+
+        // the removals do not wait for the batch being registered
+        em.flush();
+        TestCase.assertEquals(1, em.getMappings().size());
+        TestCase.assertEquals(1, service.getServlets().size());
+        TestCase.assertSame(servlet2, service.getServlets().get(SERVLET_2_ALIAS));
+
+        em.unregisterAll();
+        em.dispose();
+        TestCase.assertTrue(service.getServlets().isEmpty());
+    }
+
     @Test
     public void test_servlet_before_context_per_bundle()
     {
@@ -794,7 +866,7 @@ public class ExtenderManagerTest
         HttpContext getHttpContext();
     }
 
-    static final class MockExtHttpService implements ExtHttpService
+    static class MockExtHttpService implements ExtHttpService
     {
 
         private final BidiMap /* <String, Servlet> */servlets = new DualHashBidiMap();
@@ -128,6 +128,14 @@ public class Activator implements BundleActivator
             context.getProperty(Server.CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP));
         config.put(Server.CONFIG_PROPERTY_CONNECTION_TIMEOUT_PROP,
             context.getProperty(Server.CONFIG_PROPERTY_CONNECTION_TIMEOUT_PROP));
+        config.put(Server.CONFIG_PROPERTY_CONNECTION_ADAPTIVE_PROP,
+            context.getProperty(Server.CONFIG_PROPERTY_CONNECTION_ADAPTIVE_PROP));
+        config.put(Server.CONFIG_PROPERTY_NIO_ENABLE,
+            context.getProperty(Server.CONFIG_PROPERTY_NIO_ENABLE));
+        config.put(Server.CONFIG_PROPERTY_RESOURCE_CACHE_SIZE,
+            context.getProperty(Server.CONFIG_PROPERTY_RESOURCE_CACHE_SIZE));
+        config.put(Server.CONFIG_PROPERTY_REQUEST_BODY_LIMIT,
+            context.getProperty(Server.CONFIG_PROPERTY_REQUEST_BODY_LIMIT));
 
         return config;
     }
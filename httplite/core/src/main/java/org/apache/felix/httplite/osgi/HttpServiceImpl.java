@@ -139,6 +139,11 @@ public class HttpServiceImpl implements HttpService, ServiceRegistrationResolver
         {
             reg.getServlet().destroy();
         }
+        else if (reg != null && !reg.isServlet())
+        {
+            // the context may serve different content if it is registered again
+            m_server.getResourceCache().clear();
+        }
     }
 
     /*
@@ -290,7 +295,8 @@ public class HttpServiceImpl implements HttpService, ServiceRegistrationResolver
             }
             else
             {
-                return new ResourceHandler(request, response, element, m_logger);
+                return new ResourceHandler(request, response, element,
+                    m_server.getResourceCache(), m_logger);
             }
         }
 
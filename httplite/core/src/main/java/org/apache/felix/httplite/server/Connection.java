@@ -18,21 +18,21 @@
  */
 package org.apache.felix.httplite.server;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 
 import javax.servlet.ServletException;
 
 import org.apache.felix.httplite.osgi.Logger;
 import org.apache.felix.httplite.osgi.ServiceRegistrationHandler;
 import org.apache.felix.httplite.osgi.ServiceRegistrationResolver;
-import org.apache.felix.httplite.servlet.ConcreteServletInputStream;
 import org.apache.felix.httplite.servlet.HttpConstants;
 import org.apache.felix.httplite.servlet.HttpServletRequestImpl;
 import org.apache.felix.httplite.servlet.HttpServletResponseImpl;
+import org.apache.felix.httplite.servlet.RequestParser;
+import org.apache.felix.httplite.servlet.RequestTooLargeException;
 
 /**
  * This class represents an accepted connection between the server and
@@ -40,6 +40,12 @@ import org.apache.felix.httplite.servlet.HttpServletResponseImpl;
  * clients. A given persistent connection is limited in the number of
  * consecutive requests it is allowed to make before having its connection
  * closed as well as after a period of inactivity.
+ * <p>
+ * Requests that a client pipelines are parsed from the bytes that have
+ * already been read, and their responses are collected and sent with a single
+ * write once the last buffered request has been serviced. If the connection
+ * is given the thread pool, it gives up its thread while idle as soon as other
+ * connections are waiting for one.
 **/
 public class Connection
 {
@@ -51,12 +57,20 @@ public class Connection
      * Requests per request
      */
     public static final int DEFAULT_CONNECTION_REQUESTLIMIT = 50;
+    /**
+     * Interval in milliseconds at which an idle connection checks whether
+     * the thread pool is saturated.
+     */
+    private static final int IDLE_CHECK_INTERVAL = 500;
 
     private final Socket m_socket;
-    private ConcreteServletInputStream m_is;
-    private OutputStream m_os;
+    private InputStream m_is;
+    private final RequestParser m_parser;
+    private PipelineOutputStream m_os;
     private int m_requestCount = 0;
+    private final int m_timeout;
     private final int m_requestLimit;
+    private final ThreadPool m_threadPool;
     private final ServiceRegistrationResolver m_resolver;
     private final Logger m_logger;
 
@@ -84,18 +98,59 @@ public class Connection
      * @throws java.io.IOException If any I/O error occurs.
      */
     public Connection(final Socket socket, final int timeout, final int requestLimit, final ServiceRegistrationResolver resolver, final Logger logger) throws IOException
+    {
+        this(socket, timeout, requestLimit, null, resolver, logger);
+    }
+
+    /**
+     * Constructs a connection with the specified inactivity timeout and request
+     * limit, which closes early when idle while the thread pool is saturated.
+     * @param socket The client socket.
+     * @param timeout The inactivity timeout of the connection in milliseconds.
+     * @param requestLimit The maximum number of consecutive requests.
+     * @param threadPool the pool servicing the connection, or <tt>null</tt> to
+     *        keep idle connections open until the inactivity timeout expires.
+     * @param resolver resolves a request URI to a client or servlet registration via the HTTP Service.
+     * @param logger logger instance.
+     * @throws java.io.IOException If any I/O error occurs.
+     */
+    public Connection(final Socket socket, final int timeout, final int requestLimit, final ThreadPool threadPool, final ServiceRegistrationResolver resolver, final Logger logger) throws IOException
+    {
+        this(socket, timeout, requestLimit, threadPool, RequestParser.DEFAULT_MAX_BODY_SIZE, resolver, logger);
+    }
+
+    /**
+     * Constructs a connection with the specified inactivity timeout, request
+     * limit and request body limit, which closes early when idle while the
+     * thread pool is saturated.
+     * @param socket The client socket.
+     * @param timeout The inactivity timeout of the connection in milliseconds.
+     * @param requestLimit The maximum number of consecutive requests.
+     * @param threadPool the pool servicing the connection, or <tt>null</tt> to
+     *        keep idle connections open until the inactivity timeout expires.
+     * @param maxBodySize The maximum size of a request body in bytes; larger
+     *        requests are answered with <tt>413 Request Entity Too Large</tt>.
+     * @param resolver resolves a request URI to a client or servlet registration via the HTTP Service.
+     * @param logger logger instance.
+     * @throws java.io.IOException If any I/O error occurs.
+     */
+    public Connection(final Socket socket, final int timeout, final int requestLimit, final ThreadPool threadPool, final int maxBodySize, final ServiceRegistrationResolver resolver, final Logger logger) throws IOException
     {
         m_socket = socket;
+        m_parser = new RequestParser(RequestParser.DEFAULT_MAX_HEADER_SIZE, maxBodySize);
         m_resolver = resolver;
         m_logger = logger;
-        m_socket.setSoTimeout(timeout);
+        m_timeout = timeout;
+        m_threadPool = threadPool;
+        // wake up regularly to check the thread pool
+        m_socket.setSoTimeout((threadPool != null && timeout > 0) ? Math.min(timeout, IDLE_CHECK_INTERVAL) : timeout);
         m_socket.setTcpNoDelay(true);
         m_requestLimit = requestLimit;
         try
         {
-            m_is = new ConcreteServletInputStream(new BufferedInputStream(
-                m_socket.getInputStream()));
-            m_os = new BufferedOutputStream(m_socket.getOutputStream());
+            // the parser does its own buffering
+            m_is = m_socket.getInputStream();
+            m_os = new PipelineOutputStream(m_socket.getOutputStream());
         }
         catch (IOException ex)
         {
@@ -151,19 +206,36 @@ public class Connection
     **/
     public void process() throws IOException, ServletException
     {
-        HttpServletRequestImpl request = m_resolver.getServletRequest(m_socket);
-        HttpServletResponseImpl response = m_resolver.getServletResponse(m_os);
-
         try
         {
             // Loop until we close the connection.
             boolean close = false;
             while (!close)
             {
+                HttpServletRequestImpl request = m_resolver.getServletRequest(m_socket);
+                HttpServletResponseImpl response = m_resolver.getServletResponse(m_os);
+
                 // Read the next request.
                 try
                 {
-                    request.parseRequestLine(m_is);
+                    if (!readRequest(response))
+                    {
+                        // The client closed the connection between requests.
+                        break;
+                    }
+                    m_parser.apply(request);
+                }
+                catch (SocketTimeoutException e)
+                {
+                    throw e;
+                }
+                catch (RequestTooLargeException e)
+                {
+                    // The rest of the request is not read, so the connection
+                    // cannot be used for another request.
+                    m_logger.log(Logger.LOG_DEBUG, "Rejecting request: " + e.getMessage());
+                    response.sendRequestTooLargeResponse();
+                    break;
                 }
                 catch (IOException e)
                 {
@@ -175,24 +247,18 @@ public class Connection
                 }
                 m_requestCount++;
 
-                // Keep track of whether we have failed or not,
-                // because we still want to read the bytes to clear
-                // the input stream so we can service more requests.
+                // If the client already sent the next request, hold back the
+                // response so that it is sent together with the following ones.
+                boolean pipelined = !m_parser.isEmpty();
+                m_os.setDeferred(pipelined);
+
+                // Keep track of whether we have failed or not.
                 boolean error = false;
 
                 m_logger.log(Logger.LOG_DEBUG,
                     "Processing " + request.getRequestURI() + " (" + (m_requestLimit - m_requestCount)
                         + " remaining)");
 
-                // If client is HTTP/1.1, then send continue message.
-                if (request.getProtocol().equals(HttpConstants.HTTP11_VERSION))
-                {
-                    response.sendContinueResponse();
-                }
-
-                // Read the header lines of the request.
-                request.parseHeader(m_is);
-
                 // If we have an HTTP/1.0 request without the connection set to
                 // keep-alive or we explicitly have a request to close the connection,
                 // then set close flag to exit the loop rather than trying to read
@@ -212,12 +278,24 @@ public class Connection
                     close = true;
                     response.setConnectionType("close");
                 }
+                // If other connections are waiting for a thread, do not keep
+                // ours while waiting for this client's next request.
+                else if (!pipelined && (m_threadPool != null) && m_threadPool.isSaturated())
+                {
+                    close = true;
+                    response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
+                }
+                else if (request.getProtocol().equals(HttpConstants.HTTP10_VERSION))
+                {
+                    response.setConnectionType(HttpConstants.KEEPALIVE_CONNECTION);
+                }
 
                 // We do not support OPTIONS method so send
                 // a "not implemented" error in that case.
                 if (!HttpServletRequestImpl.isSupportedMethod(request.getMethod()))
                 {
                     error = true;
+                    close = true;
                     response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
                     response.sendNotImplementedResponse();
                 }
@@ -228,13 +306,11 @@ public class Connection
                     && (request.getHeader(HttpConstants.HOST_HEADER) == null))
                 {
                     error = true;
+                    close = true;
                     response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
                     response.sendMissingHostResponse();
                 }
 
-                // Read in the request body.
-                request.parseBody(m_is);
-
                 // Only process the request if there was no error.
                 if (!error)
                 {
@@ -247,9 +323,10 @@ public class Connection
 
                         m_logger.log(Logger.LOG_DEBUG, "Processed " + request.toString());
 
-                        // TODO: Adding next line to make test cases pass, but not sure if it is correct
-                        // and needs further investigation.
-                        close = true;
+                        // The connection can only be reused if the client can
+                        // tell where the response ends.
+                        close = close || !response.isCommitted()
+                            || !response.containsHeader(HttpConstants.HEADER_CONTENT_LENGTH);
                         continue;
                     }
 
@@ -287,4 +364,60 @@ public class Connection
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads from the socket until the parser has a complete request. If the
+     * client expects it, an interim 100 Continue response is sent before the
+     * request body is read. Responses held back for pipelined requests are
+     * sent before blocking on the socket.
+     * @param response response used to send the interim response.
+     * @return <tt>false</tt> if the client closed the connection before sending
+     *         another request, or if the connection was idle while the thread
+     *         pool is saturated.
+     * @throws java.net.SocketTimeoutException If the inactivity timeout expired.
+     * @throws IOException If any I/O error occurs or the request is malformed.
+    **/
+    private boolean readRequest(final HttpServletResponseImpl response) throws IOException
+    {
+        m_os.setDeferred(false);
+        long lastActivity = System.currentTimeMillis();
+        while (!m_parser.parse())
+        {
+            if (m_parser.isContinueExpected())
+            {
+                response.sendContinueResponse();
+            }
+            m_os.flushPending();
+
+            int count;
+            try
+            {
+                count = m_parser.fill(m_is);
+            }
+            catch (SocketTimeoutException ex)
+            {
+                if (m_parser.isEmpty() && (m_threadPool != null) && m_threadPool.isSaturated())
+                {
+                    m_logger.log(Logger.LOG_DEBUG,
+                        "Closing idle connection, other connections are waiting for a thread.");
+                    return false;
+                }
+                if (System.currentTimeMillis() - lastActivity < m_timeout)
+                {
+                    continue;
+                }
+                throw ex;
+            }
+            if (count < 0)
+            {
+                if (m_parser.isEmpty())
+                {
+                    return false;
+                }
+                throw new IOException("Unexpected end of file when reading request.");
+            }
+            lastActivity = System.currentTimeMillis();
+        }
+        return true;
+    }
+}
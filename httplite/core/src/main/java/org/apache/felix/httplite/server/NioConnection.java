@@ -0,0 +1,402 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import javax.servlet.ServletException;
+
+import org.apache.felix.httplite.osgi.Logger;
+import org.apache.felix.httplite.osgi.ServiceRegistrationHandler;
+import org.apache.felix.httplite.osgi.ServiceRegistrationResolver;
+import org.apache.felix.httplite.servlet.HttpConstants;
+import org.apache.felix.httplite.servlet.HttpServletRequestImpl;
+import org.apache.felix.httplite.servlet.HttpServletResponseImpl;
+import org.apache.felix.httplite.servlet.RequestParser;
+import org.apache.felix.httplite.servlet.RequestTooLargeException;
+
+/**
+ * A connection accepted by the {@link NioConnector}. Incoming bytes are
+ * read into the buffer of the connection's {@link RequestParser} by the
+ * selector thread, which parses them as they arrive. Once the body has been
+ * received, the connection is executed on the thread pool to service the
+ * request, after which it is either closed or handed back to the selector.
+ * Further requests that a client pipelined are serviced by the same thread,
+ * and their responses are sent with a single write.
+**/
+class NioConnection implements Runnable
+{
+    private static final int WRITE_TIMEOUT = 30000;
+    private static final byte[] CONTINUE_RESPONSE = HttpServletResponseImpl.buildResponse(HttpConstants.HTTP_RESPONSE_CONTINUE);
+    private static final byte[] REQUEST_TOO_LARGE_RESPONSE = HttpServletResponseImpl.buildRequestTooLargeResponse();
+
+    private final NioConnector m_connector;
+    private final SocketChannel m_channel;
+    private final int m_requestLimit;
+    private final ServiceRegistrationResolver m_resolver;
+    private final Logger m_logger;
+    private final PipelineOutputStream m_os;
+    private SelectionKey m_key;
+    private Selector m_writeSelector;
+
+    private final RequestParser m_parser;
+    // view of the parser buffer that channel reads go to
+    private ByteBuffer m_buffer;
+    private HttpServletRequestImpl m_ready;
+
+    private int m_requestCount = 0;
+    private volatile boolean m_idle = true;
+    private volatile long m_lastActivity = System.currentTimeMillis();
+    private boolean m_closed = false;
+
+    NioConnection(final NioConnector connector, final SocketChannel channel, final int requestLimit,
+        final int maxBodySize, final ServiceRegistrationResolver resolver, final Logger logger)
+    {
+        m_connector = connector;
+        m_channel = channel;
+        m_requestLimit = requestLimit;
+        m_parser = new RequestParser(RequestParser.DEFAULT_MAX_HEADER_SIZE, maxBodySize);
+        m_resolver = resolver;
+        m_logger = logger;
+        m_os = new PipelineOutputStream(new ChannelOutputStream());
+    }
+
+    void setSelectionKey(final SelectionKey key)
+    {
+        m_key = key;
+    }
+
+    SelectionKey getSelectionKey()
+    {
+        return m_key;
+    }
+
+    /**
+     * @return <tt>true</tt> if the connection is waiting for a request rather than being processed.
+    **/
+    boolean isIdle()
+    {
+        return m_idle;
+    }
+
+    long getLastActivity()
+    {
+        return m_lastActivity;
+    }
+
+    /**
+     * Reads the available bytes from the channel into the parser buffer. Only
+     * called by the selector thread.
+     * @return <tt>false</tt> if the client closed the connection.
+     * @throws IOException If any I/O error occurs.
+    **/
+    boolean read() throws IOException
+    {
+        try
+        {
+            m_parser.makeRoom();
+        }
+        catch (RequestTooLargeException ex)
+        {
+            reject();
+            throw ex;
+        }
+        byte[] data = m_parser.getBuffer();
+        if (m_buffer == null || m_buffer.array() != data)
+        {
+            m_buffer = ByteBuffer.wrap(data);
+        }
+        m_buffer.limit(data.length);
+        m_buffer.position(m_parser.getLimit());
+        int count = m_channel.read(m_buffer);
+        if (count < 0)
+        {
+            return false;
+        }
+        m_parser.advance(count);
+        m_lastActivity = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Parses the buffered bytes. Only called by the selector thread.
+     * @return <tt>true</tt> if a complete request is available for processing.
+     * @throws IOException If the request is malformed or too large.
+    **/
+    boolean parse() throws IOException
+    {
+        boolean complete;
+        try
+        {
+            complete = m_parser.parse();
+        }
+        catch (RequestTooLargeException ex)
+        {
+            reject();
+            throw ex;
+        }
+        if (!complete)
+        {
+            if (m_parser.isContinueExpected())
+            {
+                // the client waits for our permission before sending the body
+                m_channel.write(ByteBuffer.wrap(CONTINUE_RESPONSE));
+            }
+            return false;
+        }
+        HttpServletRequestImpl request = m_resolver.getServletRequest(m_channel.socket());
+        m_parser.apply(request);
+        m_ready = request;
+        m_idle = false;
+        return true;
+    }
+
+    /**
+     * Answers a request exceeding the size limits before the selector thread
+     * closes the connection. As the connection is idle, no other response is
+     * pending; the response is small enough to be written without waiting.
+    **/
+    private void reject() throws IOException
+    {
+        m_channel.write(ByteBuffer.wrap(REQUEST_TOO_LARGE_RESPONSE));
+    }
+
+    /**
+     * Services the parsed request. Executed by a thread pool thread.
+    **/
+    public void run()
+    {
+        boolean close = true;
+        try
+        {
+            do
+            {
+                m_requestCount++;
+                // the selector does not touch the parser until the connection
+                // is resumed, so the next buffered request can be parsed here
+                m_os.setDeferred(!m_parser.isEmpty());
+                close = process(m_ready);
+            }
+            while (!close && nextPipelined());
+            m_os.setDeferred(false);
+            m_os.flush();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG, "Error processing " + m_ready + ": " + ex.getMessage());
+            close = true;
+        }
+        catch (ServletException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error processing " + m_ready + ".", ex);
+            close = true;
+        }
+        catch (RuntimeException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error processing " + m_ready + ".", ex);
+            close = true;
+        }
+        m_ready = null;
+        m_lastActivity = System.currentTimeMillis();
+        m_idle = true;
+        if (close)
+        {
+            close();
+        }
+        else
+        {
+            m_connector.resume(this);
+        }
+    }
+
+    /**
+     * Takes the next request from the buffered bytes, if it has been received
+     * completely. Otherwise the selector continues parsing once the connection
+     * is resumed.
+     * @return <tt>true</tt> if a pipelined request is ready for processing.
+     * @throws IOException If the request is malformed or too large.
+    **/
+    private boolean nextPipelined() throws IOException
+    {
+        try
+        {
+            if (m_parser.isEmpty() || !m_parser.parse())
+            {
+                return false;
+            }
+        }
+        catch (RequestTooLargeException ex)
+        {
+            // sent after the responses held back for the previous requests
+            m_os.setDeferred(false);
+            m_os.write(REQUEST_TOO_LARGE_RESPONSE);
+            m_os.flush();
+            throw ex;
+        }
+        HttpServletRequestImpl request = m_resolver.getServletRequest(m_channel.socket());
+        m_parser.apply(request);
+        m_ready = request;
+        return true;
+    }
+
+    /**
+     * Processes a single request, following the same rules as {@link Connection}.
+     * @return <tt>true</tt> if the connection has to be closed afterwards.
+    **/
+    private boolean process(final HttpServletRequestImpl request) throws IOException, ServletException
+    {
+        HttpServletResponseImpl response = m_resolver.getServletResponse(m_os);
+
+        m_logger.log(Logger.LOG_DEBUG,
+            "Processing " + request.getRequestURI() + " (" + (m_requestLimit - m_requestCount)
+                + " remaining)");
+
+        // If we have an HTTP/1.0 request without the connection set to
+        // keep-alive or we explicitly have a request to close the connection,
+        // or if the request limit has been reached, close the connection.
+        boolean close = false;
+        String v = request.getHeader(HttpConstants.HEADER_CONNECTION);
+        boolean http10 = request.getProtocol().equals(HttpConstants.HTTP10_VERSION);
+        if ((http10 && ((v == null) || (!v.equalsIgnoreCase(HttpConstants.KEEPALIVE_CONNECTION))))
+            || ((v != null) && v.equalsIgnoreCase(HttpConstants.CLOSE_CONNECTION))
+            || m_requestCount >= m_requestLimit)
+        {
+            close = true;
+            response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
+        }
+        else if (http10)
+        {
+            response.setConnectionType(HttpConstants.KEEPALIVE_CONNECTION);
+        }
+
+        if (!HttpServletRequestImpl.isSupportedMethod(request.getMethod()))
+        {
+            response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
+            response.sendNotImplementedResponse();
+            return true;
+        }
+
+        if (request.getProtocol().equals(HttpConstants.HTTP11_VERSION)
+            && (request.getHeader(HttpConstants.HOST_HEADER) == null))
+        {
+            response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
+            response.sendMissingHostResponse();
+            return true;
+        }
+
+        ServiceRegistrationHandler processor = m_resolver.getProcessor(request, response,
+            request.getRequestURI());
+        if (processor == null)
+        {
+            response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
+            response.sendNotFoundResponse();
+            return true;
+        }
+
+        processor.handle(close);
+        m_logger.log(Logger.LOG_DEBUG, "Processed " + request.toString());
+
+        // the connection can only be reused if the client can tell where the
+        // response ends
+        return close || !response.isCommitted()
+            || !response.containsHeader(HttpConstants.HEADER_CONTENT_LENGTH);
+    }
+
+    /**
+     * Closes the connection. May be called by any thread.
+    **/
+    void close()
+    {
+        synchronized (this)
+        {
+            if (m_closed)
+            {
+                return;
+            }
+            m_closed = true;
+        }
+        if (m_key != null)
+        {
+            m_key.cancel();
+        }
+        try
+        {
+            m_channel.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing socket.", ex);
+        }
+        if (m_writeSelector != null)
+        {
+            try
+            {
+                m_writeSelector.close();
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(Logger.LOG_ERROR, "Error closing selector.", ex);
+            }
+        }
+        m_connector.connectionClosed();
+    }
+
+    /**
+     * Writes to the non-blocking channel; if the socket buffer is full the
+     * writing thread waits on a private selector until the channel is writable.
+    **/
+    private class ChannelOutputStream extends OutputStream
+    {
+        public void write(final int b) throws IOException
+        {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        public void write(final byte[] b, final int off, final int len) throws IOException
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining())
+            {
+                if (m_channel.write(buffer) == 0)
+                {
+                    waitForWritable();
+                }
+            }
+        }
+
+        private void waitForWritable() throws IOException
+        {
+            if (m_writeSelector == null)
+            {
+                m_writeSelector = Selector.open();
+                m_channel.register(m_writeSelector, SelectionKey.OP_WRITE);
+            }
+            if (m_writeSelector.select(WRITE_TIMEOUT) == 0)
+            {
+                throw new IOException("Timed out writing response.");
+            }
+            m_writeSelector.selectedKeys().clear();
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.felix.httplite.osgi.Logger;
+import org.apache.felix.httplite.osgi.ServiceRegistrationResolver;
+
+/**
+ * Non-blocking connector based on a <tt>java.nio</tt> selector. A single
+ * thread accepts connections and reads from all of them; a request is only
+ * handed to the thread pool once its request line, headers and body have been
+ * received completely. Idle persistent connections therefore do not occupy a
+ * pool thread, so a small pool can serve many keep-alive clients.
+ * <p>
+ * This connector requires a Java 1.4 or later runtime and is only used when
+ * <tt>org.apache.felix.http.nio</tt> is set to <tt>true</tt>.
+**/
+public class NioConnector
+{
+    /**
+     * Default maximum size of a request body. Bodies are buffered until the
+     * request has been received completely, so the default is lower than the
+     * one of blocking connections.
+     */
+    public static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+    /**
+     * Interval in milliseconds at which idle connections are checked.
+     */
+    private static final int IDLE_CHECK_INTERVAL = 1000;
+
+    private final int m_port;
+    private final InetAddress m_bindAddr;
+    private final ThreadPool m_threadPool;
+    private final int m_connectionTimeout;
+    private final int m_connectionRequestLimit;
+    private final int m_maxBodySize;
+    private final ServiceRegistrationResolver m_resolver;
+    private final Logger m_logger;
+
+    private Selector m_selector;
+    private ServerSocketChannel m_serverChannel;
+    private final List m_resumed = new ArrayList();
+    private volatile boolean m_running;
+    private int m_connectionCount;
+
+    /**
+     * @param port port to listen on
+     * @param bindAddr address of the interface to bind to, or <tt>null</tt> for all interfaces
+     * @param threadPool thread pool that executes the requests
+     * @param connectionTimeout inactivity timeout of persistent connections in milliseconds
+     * @param connectionRequestLimit maximum number of requests on a persistent connection
+     * @param maxBodySize maximum size of a request body in bytes
+     * @param resolver resolves a request URI to a servlet or resource registration
+     * @param logger logger instance
+     */
+    public NioConnector(final int port, final InetAddress bindAddr, final ThreadPool threadPool,
+        final int connectionTimeout, final int connectionRequestLimit, final int maxBodySize,
+        final ServiceRegistrationResolver resolver, final Logger logger)
+    {
+        m_port = port;
+        m_bindAddr = bindAddr;
+        m_threadPool = threadPool;
+        m_connectionTimeout = connectionTimeout;
+        m_connectionRequestLimit = connectionRequestLimit;
+        m_maxBodySize = maxBodySize;
+        m_resolver = resolver;
+        m_logger = logger;
+    }
+
+    /**
+     * Binds the server channel. After this method returns clients can connect,
+     * but they are only serviced once {@link #run()} is called.
+     * @throws IOException If the port cannot be bound.
+    **/
+    public void open() throws IOException
+    {
+        m_selector = Selector.open();
+        m_serverChannel = ServerSocketChannel.open();
+        try
+        {
+            m_serverChannel.socket().bind(new InetSocketAddress(m_bindAddr, m_port));
+            m_serverChannel.configureBlocking(false);
+            m_serverChannel.register(m_selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException ex)
+        {
+            m_serverChannel.close();
+            m_selector.close();
+            throw ex;
+        }
+        m_running = true;
+    }
+
+    /**
+     * Stops the selector loop. Connections that are currently being processed
+     * by the thread pool are closed when their request completes.
+    **/
+    public void close()
+    {
+        m_running = false;
+        m_selector.wakeup();
+    }
+
+    /**
+     * Returns the number of currently open connections.
+     * @return number of open connections.
+    **/
+    public synchronized int getConnectionCount()
+    {
+        return m_connectionCount;
+    }
+
+    /**
+     * The selector loop; runs until {@link #close()} is called.
+    **/
+    public void run()
+    {
+        m_logger.log(Logger.LOG_DEBUG, "Waiting for connections.");
+        long lastIdleCheck = System.currentTimeMillis();
+        try
+        {
+            while (m_running)
+            {
+                m_selector.select(IDLE_CHECK_INTERVAL);
+                if (!m_running)
+                {
+                    break;
+                }
+                processResumed();
+
+                Iterator keys = m_selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = (SelectionKey) keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+                    if (key.isAcceptable())
+                    {
+                        accept();
+                    }
+                    else if (key.isReadable())
+                    {
+                        read(key);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL)
+                {
+                    closeIdleConnections(now);
+                    lastIdleCheck = now;
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "The selector terminated with an exception.", ex);
+        }
+        finally
+        {
+            closeAll();
+        }
+    }
+
+    /**
+     * Called by a pool thread when it has finished processing a request on a
+     * connection that should be kept open. The connection is handed back to
+     * the selector thread, which waits for the next request on it.
+     * @param connection the connection to resume.
+    **/
+    void resume(final NioConnection connection)
+    {
+        if (!m_running)
+        {
+            connection.close();
+            return;
+        }
+        synchronized (m_resumed)
+        {
+            m_resumed.add(connection);
+        }
+        m_selector.wakeup();
+    }
+
+    /**
+     * Called when a connection is closed.
+    **/
+    synchronized void connectionClosed()
+    {
+        m_connectionCount--;
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel = m_serverChannel.accept();
+        if (channel == null)
+        {
+            return;
+        }
+        try
+        {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            NioConnection connection = new NioConnection(this, channel,
+                m_connectionRequestLimit, m_maxBodySize, m_resolver, m_logger);
+            SelectionKey key = channel.register(m_selector, SelectionKey.OP_READ, connection);
+            connection.setSelectionKey(key);
+            synchronized (this)
+            {
+                m_connectionCount++;
+            }
+            m_logger.log(Logger.LOG_DEBUG, "Accepted a new connection.");
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error creating connection.", ex);
+            channel.close();
+        }
+    }
+
+    private void read(final SelectionKey key)
+    {
+        NioConnection connection = (NioConnection) key.attachment();
+        try
+        {
+            if (!connection.read())
+            {
+                connection.close();
+                return;
+            }
+            dispatchIfComplete(connection);
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG, "Closing connection after read error: " + ex.getMessage());
+            connection.close();
+        }
+    }
+
+    private void dispatchIfComplete(final NioConnection connection) throws IOException
+    {
+        if (connection.parse())
+        {
+            // stop reading until the request has been processed
+            connection.getSelectionKey().interestOps(0);
+            try
+            {
+                m_threadPool.addTask(connection);
+            }
+            catch (IllegalStateException ex)
+            {
+                // the thread pool is stopping
+                connection.close();
+            }
+        }
+    }
+
+    private void processResumed()
+    {
+        Object[] resumed;
+        synchronized (m_resumed)
+        {
+            if (m_resumed.isEmpty())
+            {
+                return;
+            }
+            resumed = m_resumed.toArray();
+            m_resumed.clear();
+        }
+        for (int i = 0; i < resumed.length; i++)
+        {
+            NioConnection connection = (NioConnection) resumed[i];
+            SelectionKey key = connection.getSelectionKey();
+            if (!key.isValid())
+            {
+                continue;
+            }
+            try
+            {
+                key.interestOps(SelectionKey.OP_READ);
+                // a pipelining client might already have sent the next request
+                dispatchIfComplete(connection);
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(Logger.LOG_DEBUG, "Closing connection: " + ex.getMessage());
+                connection.close();
+            }
+        }
+    }
+
+    private void closeIdleConnections(final long now)
+    {
+        if (m_connectionTimeout <= 0)
+        {
+            return;
+        }
+        Iterator keys = m_selector.keys().iterator();
+        while (keys.hasNext())
+        {
+            SelectionKey key = (SelectionKey) keys.next();
+            Object attachment = key.attachment();
+            if (key.isValid() && attachment instanceof NioConnection)
+            {
+                NioConnection connection = (NioConnection) attachment;
+                if (connection.isIdle() && now - connection.getLastActivity() > m_connectionTimeout)
+                {
+                    m_logger.log(Logger.LOG_INFO, "Connection closed due to inactivity.");
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private void closeAll()
+    {
+        Iterator keys = m_selector.keys().iterator();
+        while (keys.hasNext())
+        {
+            SelectionKey key = (SelectionKey) keys.next();
+            Object attachment = key.attachment();
+            if (attachment instanceof NioConnection)
+            {
+                NioConnection connection = (NioConnection) attachment;
+                // connections that are being processed are closed when they
+                // are resumed, because we are no longer running by then
+                if (connection.isIdle())
+                {
+                    connection.close();
+                }
+            }
+        }
+        try
+        {
+            m_serverChannel.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing server socket.", ex);
+        }
+        try
+        {
+            m_selector.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing selector.", ex);
+        }
+    }
+}
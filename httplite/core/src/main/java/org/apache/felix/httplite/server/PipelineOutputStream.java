@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream of a connection that can hold back flushes. While the
+ * client has further pipelined requests buffered, the connection defers
+ * flushing, so the responses to these requests accumulate in the buffer and
+ * are sent with a single write instead of one or more writes per response.
+**/
+class PipelineOutputStream extends BufferedOutputStream
+{
+    /**
+     * Size of the buffer responses are collected in.
+     */
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    private boolean m_deferred = false;
+
+    /**
+     * @param out the socket output stream.
+     */
+    PipelineOutputStream(final OutputStream out)
+    {
+        super(out, BUFFER_SIZE);
+    }
+
+    /**
+     * @param deferred if <tt>true</tt>, calls to {@link #flush()} are ignored
+     *        until {@link #flushPending()} is called or deferring is turned off.
+     */
+    void setDeferred(final boolean deferred)
+    {
+        m_deferred = deferred;
+    }
+
+    /**
+     * Flushes the buffer unless flushing is deferred.
+     * @throws IOException If any I/O error occurs.
+     */
+    public void flush() throws IOException
+    {
+        if (!m_deferred)
+        {
+            super.flush();
+        }
+    }
+
+    /**
+     * Writes out the buffered bytes even if flushing is deferred.
+     * @throws IOException If any I/O error occurs.
+     */
+    void flushPending() throws IOException
+    {
+        if (count > 0)
+        {
+            super.flush();
+        }
+    }
+
+    /**
+     * Flushes the buffer and closes the socket output stream.
+     * @throws IOException If any I/O error occurs.
+     */
+    public void close() throws IOException
+    {
+        m_deferred = false;
+        super.close();
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A size-bounded, least-recently-used cache of small static resources. Each
+ * entry keeps the resource content together with its entity tag and, for
+ * compressible content types, a precomputed gzip variant, so that frequently
+ * requested resources are neither re-read from their bundle nor re-compressed.
+ * Entries are validated against the last modification time of the resource.
+**/
+public class ResourceCache
+{
+    /**
+     * Default maximum number of bytes held by the cache.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1024 * 1024;
+    /**
+     * Only resources up to this fraction of the cache size are cached.
+     */
+    private static final int ENTRY_SIZE_FRACTION = 16;
+    /**
+     * A gzip variant is only kept if it is smaller than this percentage of the content.
+     */
+    private static final int GZIP_RATIO_PERCENT = 90;
+
+    private final Map m_entries = new HashMap();
+    private final int m_maxSize;
+    private int m_size = 0;
+    private long m_clock = 0;
+
+    /**
+     * @param maxSize maximum number of bytes held by the cache; 0 disables caching.
+     */
+    public ResourceCache(final int maxSize)
+    {
+        m_maxSize = Math.max(0, maxSize);
+    }
+
+    /**
+     * @return the size of the largest resource that is cached.
+    **/
+    public int getMaxEntrySize()
+    {
+        return m_maxSize / ENTRY_SIZE_FRACTION;
+    }
+
+    /**
+     * Returns the cached entry for a resource, unless it has been modified
+     * since it was cached.
+     * @param key the external form of the resource URL.
+     * @param lastModified the current last modification time of the resource.
+     * @return the entry or <tt>null</tt>.
+    **/
+    public synchronized Entry get(final String key, final long lastModified)
+    {
+        Entry entry = (Entry) m_entries.get(key);
+        if (entry == null)
+        {
+            return null;
+        }
+        if (entry.m_lastModified != lastModified)
+        {
+            remove(entry);
+            return null;
+        }
+        entry.m_lastAccess = ++m_clock;
+        return entry;
+    }
+
+    /**
+     * Creates an entry for a resource and caches it if its content is small
+     * enough. The gzip variant is only created for content that is cached, and
+     * is dropped if the content and gzip variant together are too large, so
+     * that a resource passing the {@link #getMaxEntrySize()} test on its
+     * content is always cached.
+     * @param key the external form of the resource URL.
+     * @param content the resource content.
+     * @param lastModified the last modification time of the resource, or 0 if unknown.
+     * @param contentType the content type of the resource, or <tt>null</tt>.
+     * @return the new entry, which is returned even if it was too large to be cached.
+     * @throws IOException If the gzip variant cannot be created.
+    **/
+    public Entry put(final String key, final byte[] content, final long lastModified,
+        final String contentType) throws IOException
+    {
+        byte[] gzip = null;
+        if (isCompressible(contentType) && content.length <= getMaxEntrySize())
+        {
+            gzip = gzip(content);
+            if (gzip.length * 100 >= content.length * GZIP_RATIO_PERCENT
+                || content.length + gzip.length > getMaxEntrySize())
+            {
+                gzip = null;
+            }
+        }
+        Entry entry = new Entry(key, content, gzip, lastModified);
+        if (entry.getSize() <= getMaxEntrySize())
+        {
+            synchronized (this)
+            {
+                Entry previous = (Entry) m_entries.get(key);
+                if (previous != null)
+                {
+                    remove(previous);
+                }
+                while (m_size + entry.getSize() > m_maxSize && !m_entries.isEmpty())
+                {
+                    remove(leastRecentlyUsed());
+                }
+                entry.m_lastAccess = ++m_clock;
+                m_entries.put(key, entry);
+                m_size += entry.getSize();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Removes all entries.
+    **/
+    public synchronized void clear()
+    {
+        m_entries.clear();
+        m_size = 0;
+    }
+
+    /**
+     * @return the number of bytes held by the cache.
+    **/
+    public synchronized int getSize()
+    {
+        return m_size;
+    }
+
+    /**
+     * Returns the entity tag of a resource that is not cached.
+     * @param lastModified the last modification time of the resource, or 0 if unknown.
+     * @param length the length of the resource.
+     * @return the entity tag, or <tt>null</tt> if the modification time is unknown.
+    **/
+    public static String createETag(final long lastModified, final long length)
+    {
+        if (lastModified == 0)
+        {
+            return null;
+        }
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+    }
+
+    private void remove(final Entry entry)
+    {
+        m_entries.remove(entry.m_key);
+        m_size -= entry.getSize();
+    }
+
+    private Entry leastRecentlyUsed()
+    {
+        Entry lru = null;
+        for (Iterator i = m_entries.values().iterator(); i.hasNext();)
+        {
+            Entry entry = (Entry) i.next();
+            if (lru == null || entry.m_lastAccess < lru.m_lastAccess)
+            {
+                lru = entry;
+            }
+        }
+        return lru;
+    }
+
+    private static boolean isCompressible(final String contentType)
+    {
+        if (contentType == null)
+        {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.indexOf("javascript") >= 0
+            || type.indexOf("json") >= 0 || type.indexOf("xml") >= 0;
+    }
+
+    private static byte[] gzip(final byte[] content) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(content.length / 2 + 32);
+        GZIPOutputStream gzos = new GZIPOutputStream(baos);
+        gzos.write(content);
+        gzos.close();
+        return baos.toByteArray();
+    }
+
+    /**
+     * A cached resource.
+    **/
+    public static class Entry
+    {
+        private final String m_key;
+        private final byte[] m_content;
+        private final byte[] m_gzip;
+        private final long m_lastModified;
+        private final String m_etag;
+        private long m_lastAccess;
+
+        Entry(final String key, final byte[] content, final byte[] gzip, final long lastModified)
+        {
+            m_key = key;
+            m_content = content;
+            m_gzip = gzip;
+            m_lastModified = lastModified;
+            if (lastModified != 0)
+            {
+                m_etag = createETag(lastModified, content.length);
+            }
+            else
+            {
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                m_etag = "\"" + Long.toHexString(crc.getValue()) + "-"
+                    + Integer.toHexString(content.length) + "\"";
+            }
+        }
+
+        /**
+         * @return the resource content.
+        **/
+        public byte[] getContent()
+        {
+            return m_content;
+        }
+
+        /**
+         * @return the gzip compressed content, or <tt>null</tt> if the content is not compressible.
+        **/
+        public byte[] getGzipContent()
+        {
+            return m_gzip;
+        }
+
+        /**
+         * @return the entity tag of the uncompressed content.
+        **/
+        public String getETag()
+        {
+            return m_etag;
+        }
+
+        int getSize()
+        {
+            return m_content.length + ((m_gzip == null) ? 0 : m_gzip.length);
+        }
+    }
+}
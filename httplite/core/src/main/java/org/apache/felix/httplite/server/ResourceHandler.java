@@ -18,9 +18,17 @@
  */
 package org.apache.felix.httplite.server;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.StringTokenizer;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -36,12 +44,20 @@ import org.osgi.service.http.HttpContext;
  * Handles resource processing.  
  * 
  * Encapsulates the logic in OSGI Service Platform Release 4 Compendium Version 4.2 Section 102.3
+ * 
+ * Small resources are served from a {@link ResourceCache}, which also holds their
+ * gzip variant. Conditional requests (<tt>If-None-Match</tt>, <tt>If-Modified-Since</tt>)
+ * and single byte ranges are supported; larger resources are streamed without
+ * being buffered in memory.
  *
  */
 public class ResourceHandler implements ServiceRegistrationHandler
 {
 
     private static final String INDEX_HTML = "index.html";
+    private static final String GZIP_ENCODING = "gzip";
+    private static final String GZIP_ETAG_SUFFIX = "-gz";
+    private static final long[] UNSATISFIABLE_RANGE = new long[0];
 	private final HttpServletRequestImpl m_request;
     private final HttpServletResponseImpl m_response;
 
@@ -50,14 +66,16 @@ public class ResourceHandler implements ServiceRegistrationHandler
     private final String m_alias;
 	private final Logger m_logger;
     private final int m_aliasIndex;
+    private final ResourceCache m_cache;
 
     /**
      * @param req HttpRequest
      * @param res HttpResponse
      * @param resource ServiceRegistration
+     * @param cache cache of small resources
      * @param logger Log reference
      */
-    public ResourceHandler(final HttpServletRequestImpl req, final HttpServletResponseImpl res, final ServiceRegistration resource, final Logger logger)
+    public ResourceHandler(final HttpServletRequestImpl req, final HttpServletResponseImpl res, final ServiceRegistration resource, final ResourceCache cache, final Logger logger)
     {
         if (resource.isServlet())
         {
@@ -71,6 +89,7 @@ public class ResourceHandler implements ServiceRegistrationHandler
         this.m_name = resource.getName();
         this.m_alias = resource.getAlias();  
         this.m_aliasIndex = m_alias.length();
+        this.m_cache = cache;
         this.m_logger = logger;
     }
 
@@ -111,10 +130,462 @@ public class ResourceHandler implements ServiceRegistrationHandler
             	return;
             }
 
-            InputStream inputStream = resource.openStream();
-            m_response.setContentType(m_httpContext.getMimeType(resourceName));
+            String contentType = m_httpContext.getMimeType(resourceName);
+            m_response.setContentType(contentType);
+
+            serve(resource, contentType, close);
+        }
+    }
+
+    /**
+     * Writes a resource to the response, taking conditional and range requests
+     * into account.
+     * 
+     * @param resource URL of the resource
+     * @param contentType content type of the resource, or null if unknown
+     * @param close if connection should be closed
+     * @throws IOException on I/O error
+     */
+    private void serve(final URL resource, final String contentType, final boolean close) throws IOException
+    {
+        File file = getFile(resource);
+        URLConnection connection = null;
+        long lastModified;
+        long length;
+        if (file != null)
+        {
+            lastModified = file.lastModified();
+            length = file.length();
+        }
+        else
+        {
+            connection = resource.openConnection();
+            lastModified = connection.getLastModified();
+            length = connection.getContentLength();
+        }
+
+        String key = resource.toExternalForm();
+        ResourceCache.Entry entry = m_cache.get(key, lastModified);
+        InputStream pending = null;
+        if (entry == null && length <= m_cache.getMaxEntrySize())
+        {
+            // Small resources are cached. Resources of unknown length are read
+            // up to the cache entry size; larger ones are streamed, starting
+            // with the bytes read so far.
+            InputStream is = openStream(file, connection);
+            byte[] data = readAtMost(is, m_cache.getMaxEntrySize());
+            if (data.length <= m_cache.getMaxEntrySize())
+            {
+                entry = m_cache.put(key, data, lastModified, contentType);
+            }
+            else
+            {
+                pending = new SequenceInputStream(new ByteArrayInputStream(data), is);
+            }
+        }
+
+        try
+        {
+            serve(file, connection, entry, pending, lastModified, length, close);
+        }
+        finally
+        {
+            if (pending != null)
+            {
+                pending.close();
+            }
+        }
+    }
+
+    /**
+     * Writes a resource, or the cached entry for it, to the response.
+     *
+     * @param file the file backing the resource, or null
+     * @param connection the connection to the resource if it is not a file
+     * @param entry the cached entry for the resource, or null
+     * @param pending the stream of a resource of unknown length that is too large to be cached, or null
+     * @param lastModified last modification time of the resource, or 0 if unknown
+     * @param length length of the resource, or -1 if unknown
+     * @param close if connection should be closed
+     * @throws IOException on I/O error
+     */
+    private void serve(final File file, final URLConnection connection, final ResourceCache.Entry entry,
+        final InputStream pending, final long lastModified, long length, final boolean close) throws IOException
+    {
+        byte[] content = null;
+        String etag;
+        if (entry != null)
+        {
+            content = entry.getContent();
+            length = content.length;
+            etag = entry.getETag();
+        }
+        else
+        {
+            etag = ResourceCache.createETag(lastModified, length);
+        }
+
+        if (lastModified != 0)
+        {
+            m_response.setDateHeader("Last-Modified", lastModified);
+        }
+        m_response.setHeader("Accept-Ranges", "bytes");
+
+        if (!isModified(etag, lastModified))
+        {
+            m_response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            if (entry != null && entry.getGzipContent() != null && acceptsGzip())
+            {
+                etag = toGzipETag(etag);
+            }
+            if (etag != null)
+            {
+                m_response.setHeader("ETag", etag);
+            }
+            m_response.flushBuffer();
+            return;
+        }
+
+        long[] range = getRange(etag, lastModified, length);
+        if (range == UNSATISFIABLE_RANGE)
+        {
+            m_response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            m_response.setHeader("Content-Range", "bytes */" + length);
+            m_response.setContentLength(0);
+            m_response.flushBuffer();
+            return;
+        }
+
+        if (entry != null && entry.getGzipContent() != null)
+        {
+            m_response.setHeader("Vary", "Accept-Encoding");
+            if (range == null && acceptsGzip())
+            {
+                content = entry.getGzipContent();
+                length = content.length;
+                etag = toGzipETag(etag);
+                m_response.setHeader("Content-Encoding", GZIP_ENCODING);
+            }
+        }
+        if (etag != null)
+        {
+            m_response.setHeader("ETag", etag);
+        }
+
+        long offset = 0;
+        long count = length;
+        if (range != null)
+        {
+            offset = range[0];
+            count = range[1] - range[0] + 1;
+            m_response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            m_response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+        }
+        if (count >= 0)
+        {
+            m_response.setContentLength((int) count);
+        }
+        else
+        {
+            // the end of the response is the end of the connection
+            m_response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
+        }
+
+        if (m_request.getMethod().equals(HttpConstants.HEAD_REQUEST))
+        {
+            m_response.flushBuffer();
+            return;
+        }
+
+        InputStream body;
+        if (content != null)
+        {
+            body = new ByteArrayInputStream(content, (int) offset, (int) count);
+        }
+        else if (pending != null)
+        {
+            m_response.streamToOutputStream(pending);
+            return;
+        }
+        else
+        {
+            body = openStream(file, connection);
+            skipFully(body, offset);
+            body = new BoundedInputStream(body, count);
+        }
+        m_response.writeToOutputStream(body, close);
+    }
+
+    /**
+     * Evaluates <tt>If-None-Match</tt> and, in its absence, <tt>If-Modified-Since</tt>.
+     * 
+     * @param etag entity tag of the resource, or null
+     * @param lastModified last modification time of the resource, or 0 if unknown
+     * @return false if the client already has the current version of the resource.
+     */
+    private boolean isModified(final String etag, final long lastModified)
+    {
+        String ifNoneMatch = m_request.getHeader("If-None-Match");
+        if (ifNoneMatch != null)
+        {
+            return etag == null || !(matches(ifNoneMatch, etag) || matches(ifNoneMatch, toGzipETag(etag)));
+        }
+
+        if (lastModified == 0)
+        {
+            return true;
+        }
+        long modifiedSince;
+        try
+        {
+            modifiedSince = m_request.getDateHeader("If-Modified-Since");
+        }
+        catch (IllegalArgumentException e)
+        {
+            return true;
+        }
+        return modifiedSince == -1 || lastModified / 1000 > modifiedSince / 1000;
+    }
+
+    /**
+     * Parses a single range of the <tt>Range</tt> header. Multiple ranges are
+     * not supported, in which case the whole resource is sent.
+     * 
+     * @param etag entity tag of the resource, or null
+     * @param lastModified last modification time of the resource, or 0 if unknown
+     * @param length length of the resource
+     * @return first and last byte position, null to send the whole resource, or UNSATISFIABLE_RANGE.
+     */
+    private long[] getRange(final String etag, final long lastModified, final long length)
+    {
+        String range = m_request.getHeader("Range");
+        if (range == null || length < 0 || !range.startsWith("bytes=") || range.indexOf(',') >= 0)
+        {
+            return null;
+        }
+
+        String ifRange = m_request.getHeader("If-Range");
+        if (ifRange != null)
+        {
+            if (ifRange.startsWith("\""))
+            {
+                if (!ifRange.equals(etag))
+                {
+                    return null;
+                }
+            }
+            else
+            {
+                try
+                {
+                    if (lastModified == 0 || m_request.getDateHeader("If-Range") / 1000 != lastModified / 1000)
+                    {
+                        return null;
+                    }
+                }
+                catch (IllegalArgumentException e)
+                {
+                    return null;
+                }
+            }
+        }
+
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+        {
+            return null;
+        }
+        try
+        {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.length() == 0)
+            {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0)
+                {
+                    return UNSATISFIABLE_RANGE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            }
+            else
+            {
+                start = Long.parseLong(first);
+                end = (last.length() == 0) ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (start >= length)
+                {
+                    return UNSATISFIABLE_RANGE;
+                }
+                if (end < start)
+                {
+                    return null;
+                }
+            }
+            return new long[] { start, end };
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the <tt>Accept-Encoding</tt> header accepts gzip, by name
+     * or through <tt>*</tt>, with a quality above zero.
+     */
+    private boolean acceptsGzip()
+    {
+        String acceptEncoding = m_request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null)
+        {
+            return false;
+        }
+
+        float gzip = -1;
+        float any = -1;
+        StringTokenizer tokens = new StringTokenizer(acceptEncoding, ",");
+        while (tokens.hasMoreTokens())
+        {
+            String token = tokens.nextToken();
+            int semicolon = token.indexOf(';');
+            String coding = ((semicolon < 0) ? token : token.substring(0, semicolon)).trim().toLowerCase();
+            float quality = (semicolon < 0) ? 1 : getQuality(token.substring(semicolon + 1));
+            if (coding.equals(GZIP_ENCODING) || coding.equals("x-gzip"))
+            {
+                gzip = Math.max(gzip, quality);
+            }
+            else if (coding.equals("*"))
+            {
+                any = quality;
+            }
+        }
+        return ((gzip < 0) ? any : gzip) > 0;
+    }
+
+    /**
+     * @param params parameters of a content coding
+     * @return the value of the <tt>q</tt> parameter, or 1 if it is absent.
+     */
+    private static float getQuality(final String params)
+    {
+        StringTokenizer tokens = new StringTokenizer(params, ";");
+        while (tokens.hasMoreTokens())
+        {
+            String param = tokens.nextToken().trim();
+            if (param.startsWith("q=") || param.startsWith("Q="))
+            {
+                try
+                {
+                    return Float.parseFloat(param.substring(2).trim());
+                }
+                catch (NumberFormatException e)
+                {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static boolean matches(final String header, final String etag)
+    {
+        StringTokenizer tokens = new StringTokenizer(header, ",");
+        while (tokens.hasMoreTokens())
+        {
+            String token = tokens.nextToken().trim();
+            if (token.startsWith("W/"))
+            {
+                token = token.substring(2);
+            }
+            if (token.equals("*") || token.equals(etag))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String toGzipETag(final String etag)
+    {
+        return etag.substring(0, etag.length() - 1) + GZIP_ETAG_SUFFIX + "\"";
+    }
+
+    /**
+     * @param resource URL
+     * @return the file backing a <tt>file:</tt> URL, or null.
+     */
+    private static File getFile(final URL resource)
+    {
+        if (!"file".equals(resource.getProtocol()))
+        {
+            return null;
+        }
+        File file = new File(resource.getPath());
+        return file.isFile() ? file : null;
+    }
+
+    private static InputStream openStream(final File file, final URLConnection connection) throws IOException
+    {
+        return (file != null) ? new FileInputStream(file) : connection.getInputStream();
+    }
 
-            m_response.writeToOutputStream(inputStream, close);
+    /**
+     * Reads a stream up to one byte more than the given maximum. The stream is
+     * closed unless more than the maximum has been read, in which case the
+     * caller goes on reading it.
+     *
+     * @param is the stream to read
+     * @param max the number of bytes that may be returned without closing the stream
+     * @return the bytes read
+     * @throws IOException on I/O error
+     */
+    private static byte[] readAtMost(final InputStream is, final int max) throws IOException
+    {
+        boolean close = true;
+        try
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.min(max + 1, 8192));
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf, 0, Math.min(buf.length, max + 1 - baos.size()))) >= 0)
+            {
+                baos.write(buf, 0, n);
+                if (baos.size() > max)
+                {
+                    close = false;
+                    break;
+                }
+            }
+            return baos.toByteArray();
+        }
+        finally
+        {
+            if (close)
+            {
+                is.close();
+            }
+        }
+    }
+
+    private static void skipFully(final InputStream is, final long count) throws IOException
+    {
+        long remaining = count;
+        while (remaining > 0)
+        {
+            long skipped = is.skip(remaining);
+            if (skipped <= 0)
+            {
+                if (is.read() < 0)
+                {
+                    throw new IOException("Unexpected end of resource.");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
         }
     }
 
@@ -132,4 +603,46 @@ public class ResourceHandler implements ServiceRegistrationHandler
             return m_name + "/" + path.substring(m_aliasIndex);
         }       
     }
+
+    /**
+     * Limits the number of bytes read from a stream.
+     */
+    private static class BoundedInputStream extends FilterInputStream
+    {
+        private long m_remaining;
+
+        BoundedInputStream(final InputStream in, final long count)
+        {
+            super(in);
+            m_remaining = count;
+        }
+
+        public int read() throws IOException
+        {
+            if (m_remaining <= 0)
+            {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0)
+            {
+                m_remaining--;
+            }
+            return b;
+        }
+
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (m_remaining <= 0)
+            {
+                return -1;
+            }
+            int count = super.read(b, off, (int) Math.min(len, m_remaining));
+            if (count > 0)
+            {
+                m_remaining -= count;
+            }
+            return count;
+        }
+    }
 }
@@ -28,6 +28,7 @@ import java.util.Map;
 
 import org.apache.felix.httplite.osgi.Logger;
 import org.apache.felix.httplite.osgi.ServiceRegistrationResolver;
+import org.apache.felix.httplite.servlet.RequestParser;
 
 /**
  * This class implements a simple multi-threaded web server. It
@@ -45,6 +46,10 @@ public class Server
      * Connection request limit property
      */
     public static final String CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP = "org.apache.felix.http.connection.requestlimit";
+    /**
+     * Adaptive keep-alive property
+     */
+    public static final String CONFIG_PROPERTY_CONNECTION_ADAPTIVE_PROP = "org.apache.felix.http.connection.adaptive";
     /**
      * Thread pool timeout property
      */
@@ -73,6 +78,18 @@ public class Server
      * The address of the host interface to bind http to. The default is to bind to all interfaces.
      */
     public static final String CONFIG_PROPERTY_HTTP_HOST = "org.apache.felix.http.host"; 
+    /**
+     * Flag to serve connections with the non-blocking NIO connector. The default is false.
+     */
+    public static final String CONFIG_PROPERTY_NIO_ENABLE = "org.apache.felix.http.nio";
+    /**
+     * Maximum number of bytes of small static resources kept in memory. The default is 1048576; 0 disables the cache.
+     */
+    public static final String CONFIG_PROPERTY_RESOURCE_CACHE_SIZE = "org.apache.felix.http.resource.cache.size";
+    /**
+     * Maximum size in bytes of a request body. The default is 16777216, or 1048576 with the NIO connector.
+     */
+    public static final String CONFIG_PROPERTY_REQUEST_BODY_LIMIT = "org.apache.felix.http.request.bodylimit";
 
     /**
      * Default HTTP port to listen on.
@@ -105,10 +122,15 @@ public class Server
 
     private Thread m_serverThread;
     private ServerSocket m_serverSocket;
+    private NioConnector m_nioConnector;
     private final ThreadPool m_threadPool;
+    private final ResourceCache m_resourceCache;
 
     private final int m_connectionTimeout;
     private final int m_connectionRequestLimit;
+    private final boolean m_connectionAdaptive;
+    private final boolean m_nioEnabled;
+    private final int m_requestBodyLimit;
     private ServiceRegistrationResolver m_resolver;
     private final Logger m_logger;
     
@@ -142,6 +164,21 @@ public class Server
      *       connections after which the connection is closed; the default value
      *       is 10000 milliseconds.
      *   </li>
+     *   <li><tt>org.apache.felix.http.connection.adaptive</tt> - if <tt>true</tt>, idle persistent
+     *       connections of the blocking connector give up their thread when other connections are
+     *       waiting for one, instead of waiting for the inactivity timeout; the default is true.
+     *   </li>
+     *   <li><tt>org.apache.felix.http.nio</tt> - if <tt>true</tt>, connections are served by a
+     *       non-blocking connector so that idle persistent connections do not occupy a
+     *       thread of the thread pool; requires Java 1.4 or later. The default is false.
+     *   </li>
+     *   <li><tt>org.apache.felix.http.resource.cache.size</tt> - the maximum number of bytes of
+     *       small static resources kept in memory; the default value is 1048576, 0 disables the cache.
+     *   </li>
+     *   <li><tt>org.apache.felix.http.request.bodylimit</tt> - the maximum size in bytes of a request
+     *       body, larger requests are answered with <tt>413 Request Entity Too Large</tt>; the default
+     *       value is 16777216, or 1048576 with the NIO connector which buffers bodies in memory.
+     *   </li>
      * </ul>
      * The configuration properties cannot be changed after construction. The
      * web server is not active until it is started.
@@ -167,6 +204,13 @@ public class Server
             : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_CONNECTION_TIMEOUT_PROP));
         m_connectionRequestLimit = (configMap.get(Server.CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP) == null) ? Connection.DEFAULT_CONNECTION_REQUESTLIMIT
             : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP));
+        m_connectionAdaptive = !"false".equalsIgnoreCase((String) configMap.get(Server.CONFIG_PROPERTY_CONNECTION_ADAPTIVE_PROP));
+        m_nioEnabled = "true".equalsIgnoreCase((String) configMap.get(Server.CONFIG_PROPERTY_NIO_ENABLE));
+        m_requestBodyLimit = (configMap.get(Server.CONFIG_PROPERTY_REQUEST_BODY_LIMIT) == null)
+            ? (m_nioEnabled ? NioConnector.DEFAULT_MAX_BODY_SIZE : RequestParser.DEFAULT_MAX_BODY_SIZE)
+            : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_REQUEST_BODY_LIMIT));
+        m_resourceCache = new ResourceCache((configMap.get(Server.CONFIG_PROPERTY_RESOURCE_CACHE_SIZE) == null) ? ResourceCache.DEFAULT_CACHE_SIZE
+            : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_RESOURCE_CACHE_SIZE)));
     }
 
     /**
@@ -254,6 +298,15 @@ public class Server
         return m_port;
     }
 
+    /**
+     * Returns the cache shared by all resource registrations.
+     * @return The resource cache.
+    **/
+    public ResourceCache getResourceCache()
+    {
+        return m_resourceCache;
+    }
+
     /**
      * This method starts the web server if it is not already active.
      * @param resolver Resolver is able to get Servlet or Resource based on request URI.
@@ -270,7 +323,13 @@ public class Server
         {
             // If inactive, then create server socket, server thread, and
             // set state to active.
-            if (m_bindAddr == null)
+            if (m_nioEnabled)
+            {
+                m_nioConnector = new NioConnector(m_port, m_bindAddr, m_threadPool,
+                    m_connectionTimeout, m_connectionRequestLimit, m_requestBodyLimit, m_resolver, m_logger);
+                m_nioConnector.open();
+            }
+            else if (m_bindAddr == null)
             {
                 m_serverSocket = new ServerSocket(m_port);
             }
@@ -283,7 +342,14 @@ public class Server
             {
 				public void run()
                 {
-                    acceptConnections();
+                    if (m_nioEnabled)
+                    {
+                        selectConnections();
+                    }
+                    else
+                    {
+                        acceptConnections();
+                    }
                 }
             }, "HttpServer");
             m_state = ACTIVE_STATE;
@@ -332,12 +398,19 @@ public class Server
 
                 // Close the server socket, which will cause the server thread
                 // to exit its accept() loop.
-                try
+                if (m_nioConnector != null)
                 {
-                    m_serverSocket.close();
+                    m_nioConnector.close();
                 }
-                catch (IOException ex)
+                else
                 {
+                    try
+                    {
+                        m_serverSocket.close();
+                    }
+                    catch (IOException ex)
+                    {
+                    }
                 }
             }
         }
@@ -374,7 +447,8 @@ public class Server
                     // Create connection object and add it to the thread pool
                     // to be serviced.
                     Connection connection = new Connection(socket, m_connectionTimeout,
-                        m_connectionRequestLimit, m_resolver, m_logger);
+                        m_connectionRequestLimit, m_connectionAdaptive ? m_threadPool : null,
+                        m_requestBodyLimit, m_resolver, m_logger);
                     m_logger.log(Logger.LOG_DEBUG, "Accepted a new connection.");
                     m_threadPool.addConnection(connection);
                 }
@@ -401,6 +475,22 @@ public class Server
         shutdown();
     }
 
+    /**
+     * This method is the main server loop when the NIO connector is enabled.
+     * This is only ever called by the server thread.
+    **/
+    private void selectConnections()
+    {
+        // Start the thread pool.
+        m_threadPool.start();
+
+        // Returns when the connector is closed.
+        m_nioConnector.run();
+
+        // Shutdown the server.
+        shutdown();
+    }
+
     /**
      * This method shuts down the server; it is only ever called by the
      * server thread.
@@ -431,6 +521,7 @@ public class Server
             // gate and set the state to inactive.
             m_shutdownGate.open();
             m_shutdownGate = null;
+            m_nioConnector = null;
             m_state = INACTIVE_STATE;
         }
         m_logger.log(Logger.LOG_DEBUG, "Shutdown complete.");
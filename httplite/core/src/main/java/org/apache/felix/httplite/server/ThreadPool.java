@@ -159,16 +159,48 @@ public class ThreadPool
 
     /**
      * This method adds an HTTP connection to the thread pool for servicing.
-     * @param connection
+     * @param connection the connection to service.
      * @throws java.lang.IllegalStateException If the thread pool is not in the
      *         <tt>ThreadPool.ACTIVE_STATE</tt> state.
     **/
     public synchronized void addConnection(final Connection connection)
+    {
+        addJob(connection);
+    }
+
+    /**
+     * This method adds a task to the thread pool for execution. This is used
+     * by the non-blocking connector, which only hands requests that have been
+     * read completely to the pool, so that idle connections do not occupy a
+     * thread.
+     * @param task the task to execute.
+     * @throws java.lang.IllegalStateException If the thread pool is not in the
+     *         <tt>ThreadPool.ACTIVE_STATE</tt> state.
+    **/
+    public synchronized void addTask(final Runnable task)
+    {
+        addJob(task);
+    }
+
+    /**
+     * Returns whether the pool is saturated, meaning that all threads have
+     * been created and jobs are waiting for a thread to become available.
+     * Persistent connections use this to give up their thread when they are
+     * idle.
+     * @return <tt>true</tt> if jobs are waiting for a thread.
+    **/
+    public synchronized boolean isSaturated()
+    {
+        return (m_threadCount >= m_threadLimit)
+            && (m_connectionList.size() > m_threadAvailable);
+    }
+
+    private void addJob(final Object job)
     {
         if (m_state == Server.ACTIVE_STATE)
         {
-            // Add the new connection to the connection list.
-            m_connectionList.add(connection);
+            // Add the new job to the connection list.
+            m_connectionList.add(job);
             notify();
 
             // If there are not enough available threads to handle all outstanding
@@ -213,7 +245,7 @@ public class ThreadPool
     **/
     private void processConnections()
     {
-        Connection connection;
+        Object connection;
         while (true)
         {
             synchronized (this)
@@ -255,7 +287,7 @@ public class ThreadPool
                 }
                 else
                 {
-                    connection = (Connection) m_connectionList.remove(0);
+                    connection = m_connectionList.remove(0);
                 }
 
                 // Decrement number of available threads, since we will either
@@ -300,9 +332,21 @@ public class ThreadPool
             // Note, we might have outstanding connections to
             // process even if we are stopping, so we cleaning
             // service those remaining connections before stopping.
+            if (connection instanceof Runnable)
+            {
+                try
+                {
+                    ((Runnable) connection).run();
+                }
+                catch (RuntimeException ex)
+                {
+                    m_logger.log(Logger.LOG_ERROR, "Task failed with an exception.", ex);
+                }
+                continue;
+            }
             try
             {
-                connection.process();
+                ((Connection) connection).process();
                 m_logger.log(Logger.LOG_DEBUG, "Connection closed normally.");
             }
             catch (SocketTimeoutException ex)
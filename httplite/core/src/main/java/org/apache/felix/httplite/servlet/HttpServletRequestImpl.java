@@ -19,12 +19,9 @@
 package org.apache.felix.httplite.servlet;
 
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.Socket;
@@ -56,8 +53,8 @@ import org.apache.felix.httplite.osgi.ServiceRegistrationResolver;
 
 
 /**
- * This class represents an HTTP request, which is parses from a given input
- * stream, and implements HttpServletRequest for servlet processing.
+ * This class represents an HTTP request, which is populated by a
+ * {@link RequestParser}, and implements HttpServletRequest for servlet processing.
  **/
 public class HttpServletRequestImpl implements HttpServletRequest
 {
@@ -80,7 +77,7 @@ public class HttpServletRequestImpl implements HttpServletRequest
     /**
      * Headers in HTTP request
      */
-    private final Map m_headers = new HashMap();
+    private RequestHeaders m_headers = RequestHeaders.EMPTY;
     private final Socket m_socket;
     private Cookie[] m_cookies;
     //TODO: Make locale static and perhaps global to the service.
@@ -94,11 +91,9 @@ public class HttpServletRequestImpl implements HttpServletRequest
     private Map m_parameters;
 
     /**
-     * When the body is parsed this value will be set to a non-null value
-     * regardless of the body content. As such it serves as a flag for parsing
-     * the body.
+     * Body of the request, read completely by the parser.
      */
-    private byte[] m_requestBody = null;
+    private byte[] m_requestBody = new byte[0];
     //private final static String m_encoding = "UTF-8";
     private final Logger m_logger;
     private String m_queryString;
@@ -148,11 +143,6 @@ public class HttpServletRequestImpl implements HttpServletRequest
             throw new IllegalStateException( "getReader() has already been called." );
         }
 
-        if ( m_requestBody == null )
-        {
-            parseBody( new BufferedInputStream( m_socket.getInputStream() ) );
-        }
-
         m_getInputStreamCalled = true;
 
         return new ConcreteServletInputStream( new ByteArrayInputStream( m_requestBody ) );
@@ -170,11 +160,6 @@ public class HttpServletRequestImpl implements HttpServletRequest
         {
             throw new IllegalStateException( "getInputStream() has already been called." );
         }
-        if ( m_requestBody == null )
-        {
-            parseBody( new BufferedInputStream( m_socket.getInputStream() ) );
-        }
-
         m_getReaderCalled = true;
 
         return new BufferedReader( new InputStreamReader( new ByteArrayInputStream( m_requestBody ) ) );
@@ -182,29 +167,28 @@ public class HttpServletRequestImpl implements HttpServletRequest
 
 
     /**
-     * This method parses the HTTP request line from the specified input stream
-     * and stores the result.
+     * Sets the parsed request line, headers and body. Called by
+     * {@link RequestParser#apply(HttpServletRequestImpl)}.
      * 
-     * @param is
-     *            The input stream from which to read the HTTP request.
-     * @throws java.io.IOException
-     *             If any I/O error occurs.
+     * @param method
+     *            The HTTP method.
+     * @param uri
+     *            The request URI, including the query string.
+     * @param version
+     *            The HTTP version.
+     * @param headers
+     *            The request headers.
+     * @param body
+     *            The request body, never <tt>null</tt>.
      **/
-    public void parseRequestLine( final ConcreteServletInputStream is ) throws IOException
+    void setRequest( final String method, final String uri, final String version, final RequestHeaders headers,
+        final byte[] body )
     {
-        String requestLine = is.readLine();
-        if ( requestLine == null )
-        {
-            throw new IOException( "Unexpected end of file when reading request line." );
-        }
-        StringTokenizer st = new StringTokenizer( requestLine, " " );
-        if ( st.countTokens() != 3 )
-        {
-            throw new IOException( "Malformed HTTP request: " + requestLine );
-        }
-        m_method = st.nextToken();
-        m_uri = st.nextToken();
-        m_version = st.nextToken();
+        m_method = method;
+        m_uri = uri;
+        m_version = version;
+        m_headers = headers;
+        m_requestBody = body;
 
         // If the URI has query string, parse it.
         int qsIdx = m_uri.indexOf( "?" );
@@ -221,6 +205,8 @@ public class HttpServletRequestImpl implements HttpServletRequest
 
             m_uri = stripRedundantSeparators( m_uri );
         }
+
+        m_uriHost = m_headers.get( HttpConstants.HOST_HEADER );
     }
 
 
@@ -260,118 +246,6 @@ public class HttpServletRequestImpl implements HttpServletRequest
     }
 
 
-    /**
-     * This method parses the HTTP header lines from the specified input stream
-     * and stores the results.
-     * 
-     * The map m_headers is populated with two types of values, Strings if the
-     * header occurs once or a List in the case that the same header is
-     * specified multiple times.
-     * 
-     * @param is
-     *            The input stream from which to read the HTTP header lines.
-     * @throws java.io.IOException
-     *             If any I/O error occurs.
-     **/
-    public void parseHeader( final ConcreteServletInputStream is ) throws IOException
-    {
-        for ( String s = is.readLine(); ( s != null ) && ( s.length() != 0 ); s = is.readLine() )
-        {
-            int idx = s.indexOf( ":" );
-            if ( idx > 0 )
-            {
-                String header = s.substring( 0, idx ).trim();
-                String value = s.substring( idx + 1 ).trim();
-
-                String key = header.toLowerCase();
-
-                if ( !m_headers.containsKey( key ) )
-                {
-                    m_headers.put( key, value );
-                }
-                else
-                {
-                    Object originalValue = m_headers.get( key );
-
-                    if ( originalValue instanceof String )
-                    {
-                        List headerList = new ArrayList();
-                        headerList.add( originalValue );
-                        headerList.add( value );
-                        m_headers.put( key, headerList );
-                    }
-                    else if ( originalValue instanceof List )
-                    {
-                        ( ( List ) originalValue ).add( value );
-                    }
-                    else
-                    {
-                        throw new RuntimeException( "Unexpected type in m_headers: "
-                            + originalValue.getClass().getName() );
-                    }
-                }
-            }
-        }
-
-        if ( m_headers.containsKey( "Host" ) )
-        {
-            m_uriHost = m_headers.get( "Host" ).toString();
-        }
-    }
-
-
-    /**
-     * This method parses the HTTP body from the specified input stream and
-     * ignores the result.
-     * 
-     * @param is
-     *            The input stream from which to read the HTTP body.
-     * @throws java.io.IOException
-     *             If any I/O error occurs.
-     **/
-    public void parseBody( final InputStream is ) throws IOException
-    {
-        int length = getContentLength();
-
-        if ( length > 0 )
-        {
-            ByteArrayOutputStream baos = null;
-
-            byte[] buf = new byte[length];
-            int left = length;
-
-            do
-            {
-                left = left - is.read( buf );
-                if ( left > 0 )
-                {
-                    if ( baos == null )
-                    {
-                        baos = new ByteArrayOutputStream( length );
-                    }
-                    baos.write( buf );
-                }
-            }
-            while ( left > 0 );
-
-            if ( baos != null )
-            {
-                m_requestBody = baos.toByteArray();
-            }
-            else
-            {
-                m_requestBody = buf;
-            }
-        }
-        else
-        {
-            // Set this to a non-null value so we know that the body has been
-            // parsed.
-            m_requestBody = new byte[0];
-        }
-    }
-
-
     /*
      * (non-Javadoc)
      * 
@@ -394,49 +268,24 @@ public class HttpServletRequestImpl implements HttpServletRequest
 
     public String getHeader( final String header )
     {
-        Object value = m_headers.get( header.toLowerCase() );
-
-        if ( value == null )
-        {
-            return null;
-        }
-
-        return value.toString();
+        return m_headers.get( header );
     }
 
 
     public Enumeration getHeaders( final String name )
     {
-        Object v = m_headers.get( name );
-
-        if ( v == null )
-        {
-            return HttpConstants.EMPTY_ENUMERATION;
-        }
-
-        if ( v instanceof String )
-        {
-            return Collections.enumeration( Arrays.asList( new String[]
-                { ( String ) v } ) );
-        }
-
-        if ( v instanceof List )
-        {
-            return Collections.enumeration( ( List ) v );
-        }
-
-        throw new RuntimeException( "Unexpected type in m_headers: " + v.getClass().getName() );
+        return m_headers.getAll( name );
     }
 
 
     public Enumeration getHeaderNames()
     {
-        if ( m_headers.isEmpty() )
+        if ( m_headers.size() == 0 )
         {
             return HttpConstants.EMPTY_ENUMERATION;
         }
 
-        return Collections.enumeration( m_headers.keySet() );
+        return m_headers.getNames();
     }
 
 
@@ -166,6 +166,31 @@ public class HttpServletResponseImpl implements HttpServletResponse
         }
     }
 
+    /**
+     * Copy the contents of the input to the output stream without buffering it
+     * to compute a Content-Length, then close the input stream. The end of the
+     * response is the end of the connection, which must be closed afterwards.
+     * @param inputStream input stream
+     * @throws IOException on I/O error
+     */
+    public void streamToOutputStream(final InputStream inputStream) throws IOException
+    {
+        try
+        {
+            if (!m_headersWritten)
+            {
+                writeHeaders(true);
+            }
+
+            copy(inputStream, m_out);
+            m_out.flush();
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+
     /**
      * Copy an input stream to an output stream.
      * 
@@ -214,6 +239,17 @@ public class HttpServletResponseImpl implements HttpServletResponse
         m_out.flush();
     }
 
+    /**
+     * Static utility method to send a request entity too large response. The
+     * connection must be closed afterwards, as the rest of the request is not read.
+     * @throws java.io.IOException If any I/O error occurs.
+    **/
+    public void sendRequestTooLargeResponse() throws IOException
+    {
+        m_out.write(buildRequestTooLargeResponse());
+        m_out.flush();
+    }
+
     /**
      * Static utility method to send a moved permanently response.
      * @param hostname The hostname of the new location.
@@ -644,6 +680,25 @@ public class HttpServletResponseImpl implements HttpServletResponse
         m_customStatusMessage = sm;
     }
 
+    /**
+     * @return byte array of a request entity too large response which tells the
+     *         client that the connection is closed.
+     */
+    public static byte[] buildRequestTooLargeResponse()
+    {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(HttpConstants.HTTP11_VERSION);
+        buffer.append(' ');
+        buffer.append(HttpURLConnection.HTTP_ENTITY_TOO_LARGE);
+        buffer.append(" Request Entity Too Large");
+        buffer.append(HttpConstants.HEADER_DELEMITER);
+        appendHeader(buffer, HttpConstants.HEADER_CONNECTION, HttpConstants.CLOSE_CONNECTION);
+        appendHeader(buffer, HttpConstants.HEADER_CONTENT_LENGTH, "0");
+        buffer.append(HttpConstants.HEADER_DELEMITER);
+
+        return buffer.toString().getBytes();
+    }
+
     /**
      * @param code HTTP code
      * @return byte array of response
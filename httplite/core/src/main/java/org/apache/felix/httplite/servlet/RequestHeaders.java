@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.servlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * The headers of a request, kept as the raw bytes of the header block and
+ * the offsets of each name and value. Values are only decoded into strings
+ * when they are requested; names are matched against the raw bytes and
+ * common names are returned as shared constants.
+**/
+class RequestHeaders
+{
+    /**
+     * Header names that are returned without allocating a new string.
+     */
+    private static final String[] COMMON_NAMES = new String[] {
+        "accept", "accept-charset", "accept-encoding", "accept-language", "authorization",
+        "cache-control", "connection", "content-length", "content-type", "cookie", "expect",
+        "host", "if-match", "if-modified-since", "if-none-match", "if-range",
+        "if-unmodified-since", "keep-alive", "origin", "pragma", "range", "referer",
+        "transfer-encoding", "upgrade", "user-agent" };
+
+    /**
+     * Headers of a request that has not been parsed.
+     */
+    static final RequestHeaders EMPTY = new RequestHeaders(new byte[0], new int[0], 0);
+
+    private final byte[] m_data;
+    /**
+     * Four offsets per header: name start, name end, value start, value end.
+     */
+    private final int[] m_offsets;
+    private final int m_count;
+    private final String[] m_names;
+    private final String[] m_values;
+
+    /**
+     * @param data the header block
+     * @param offsets name and value offsets into data, four per header
+     * @param count number of headers
+     */
+    RequestHeaders(final byte[] data, final int[] offsets, final int count)
+    {
+        m_data = data;
+        m_offsets = offsets;
+        m_count = count;
+        m_names = new String[count];
+        m_values = new String[count];
+    }
+
+    /**
+     * @return number of header lines.
+     */
+    int size()
+    {
+        return m_count;
+    }
+
+    /**
+     * @param name header name, case insensitive
+     * @return the first value of the header or <tt>null</tt>.
+     */
+    String get(final String name)
+    {
+        for (int i = 0; i < m_count; i++)
+        {
+            if (nameEquals(i, name))
+            {
+                return getValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param name header name, case insensitive
+     * @return all values of the header.
+     */
+    Enumeration getAll(final String name)
+    {
+        List values = null;
+        for (int i = 0; i < m_count; i++)
+        {
+            if (nameEquals(i, name))
+            {
+                if (values == null)
+                {
+                    values = new ArrayList(1);
+                }
+                values.add(getValue(i));
+            }
+        }
+        return (values == null) ? HttpConstants.EMPTY_ENUMERATION : Collections.enumeration(values);
+    }
+
+    /**
+     * @return the distinct header names in lower case.
+     */
+    Enumeration getNames()
+    {
+        List names = new ArrayList(m_count);
+        for (int i = 0; i < m_count; i++)
+        {
+            String name = getName(i);
+            if (!names.contains(name))
+            {
+                names.add(name);
+            }
+        }
+        return Collections.enumeration(names);
+    }
+
+    /**
+     * Compares a header name with a string, ignoring case.
+     * @param index header index
+     * @param name name to compare with
+     * @return true if the name matches.
+     */
+    boolean nameEquals(final int index, final String name)
+    {
+        int start = m_offsets[index * 4];
+        int length = m_offsets[index * 4 + 1] - start;
+        if (length != name.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            if (toLowerCase((char) (m_data[start + i] & 0xff)) != toLowerCase(name.charAt(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param index header index
+     * @return header name in lower case.
+     */
+    String getName(final int index)
+    {
+        if (m_names[index] == null)
+        {
+            for (int i = 0; i < COMMON_NAMES.length; i++)
+            {
+                if (nameEquals(index, COMMON_NAMES[i]))
+                {
+                    m_names[index] = COMMON_NAMES[i];
+                    return m_names[index];
+                }
+            }
+            int start = m_offsets[index * 4];
+            int end = m_offsets[index * 4 + 1];
+            char[] chars = new char[end - start];
+            for (int i = 0; i < chars.length; i++)
+            {
+                chars[i] = toLowerCase((char) (m_data[start + i] & 0xff));
+            }
+            m_names[index] = new String(chars);
+        }
+        return m_names[index];
+    }
+
+    /**
+     * @param index header index
+     * @return header value.
+     */
+    String getValue(final int index)
+    {
+        if (m_values[index] == null)
+        {
+            m_values[index] = decode(m_data, m_offsets[index * 4 + 2], m_offsets[index * 4 + 3]);
+        }
+        return m_values[index];
+    }
+
+    /**
+     * Decodes ISO-8859-1 bytes.
+     * @param data bytes
+     * @param start first byte
+     * @param end end of the range, exclusive
+     * @return decoded string
+     */
+    static String decode(final byte[] data, final int start, final int end)
+    {
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++)
+        {
+            chars[i] = (char) (data[start + i] & 0xff);
+        }
+        return new String(chars);
+    }
+
+    private static char toLowerCase(final char ch)
+    {
+        return (ch >= 'A' && ch <= 'Z') ? (char) (ch + ('a' - 'A')) : ch;
+    }
+}
@@ -0,0 +1,677 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.servlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Incremental, byte-level HTTP request parser. A parser belongs to a
+ * connection and keeps one buffer for all of its requests: bytes are appended
+ * as they arrive, either with {@link #fill(InputStream)} or by writing directly
+ * into {@link #getBuffer()}, and {@link #parse()} advances over whatever is
+ * available without re-reading what it has already seen. Bytes following a
+ * complete request remain buffered, so pipelined requests are parsed from the
+ * same buffer. Chunked request bodies are decoded in place.
+ * <p>
+ * Header lines are only located, not decoded; {@link #apply(HttpServletRequestImpl)}
+ * hands the raw header block to the request, which decodes values on demand.
+**/
+public class RequestParser
+{
+    /**
+     * Default maximum size of the request line and headers.
+     */
+    public static final int DEFAULT_MAX_HEADER_SIZE = 16 * 1024;
+    /**
+     * Default maximum size of a request body.
+     */
+    public static final int DEFAULT_MAX_BODY_SIZE = 16 * 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    /**
+     * An empty buffer larger than this is released after a request.
+     */
+    private static final int RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final int REQUEST_LINE = 0;
+    private static final int HEADERS = 1;
+    private static final int BODY = 2;
+    private static final int CHUNK_SIZE = 3;
+    private static final int CHUNK_DATA = 4;
+    private static final int CHUNK_END = 5;
+    private static final int TRAILER = 6;
+    private static final int COMPLETE = 7;
+
+    private static final String[] METHODS = new String[] {
+        HttpConstants.GET_REQUEST, HttpConstants.HEAD_REQUEST, HttpConstants.POST_REQUEST,
+        HttpConstants.PUT_REQUEST, HttpConstants.DELETE_REQUEST, "OPTIONS", "TRACE" };
+    private static final String[] VERSIONS = new String[] {
+        HttpConstants.HTTP11_VERSION, HttpConstants.HTTP10_VERSION };
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    private final int m_maxHeaderSize;
+    private final int m_maxBodySize;
+
+    private byte[] m_buffer = new byte[INITIAL_BUFFER_SIZE];
+    /**
+     * Start of the current request.
+     */
+    private int m_start = 0;
+    /**
+     * Parse position.
+     */
+    private int m_pos = 0;
+    /**
+     * End of the buffered bytes.
+     */
+    private int m_limit = 0;
+    /**
+     * Position up to which the current line has been searched for a line feed.
+     */
+    private int m_scanned = 0;
+    private int m_state = REQUEST_LINE;
+
+    private String m_method;
+    private String m_uri;
+    private String m_version;
+    /**
+     * Start of the header block; header offsets are relative to it.
+     */
+    private int m_headerStart;
+    private int m_headerEnd;
+    private int[] m_offsets = new int[4 * 16];
+    private int m_headerCount;
+    private long m_contentLength;
+    private long m_chunkRemaining;
+    private int m_bodyStart;
+    private int m_bodyEnd;
+    private boolean m_expectContinue;
+
+    /**
+     * Creates a parser with the default limits.
+     */
+    public RequestParser()
+    {
+        this(DEFAULT_MAX_HEADER_SIZE, DEFAULT_MAX_BODY_SIZE);
+    }
+
+    /**
+     * @param maxHeaderSize maximum size of the request line and headers
+     * @param maxBodySize maximum size of a request body
+     */
+    public RequestParser(final int maxHeaderSize, final int maxBodySize)
+    {
+        m_maxHeaderSize = maxHeaderSize;
+        m_maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Reads available bytes from a stream into the buffer; blocks if none are available.
+     * @param is stream to read from
+     * @return number of bytes read, or -1 at the end of the stream.
+     * @throws IOException If any I/O error occurs.
+     */
+    public int fill(final InputStream is) throws IOException
+    {
+        makeRoom();
+        int count = is.read(m_buffer, m_limit, m_buffer.length - m_limit);
+        if (count > 0)
+        {
+            m_limit += count;
+        }
+        return count;
+    }
+
+    /**
+     * Ensures there is space after {@link #getLimit()} to write more bytes into the buffer.
+     * The buffer may be replaced by this call; it grows with the bytes received
+     * rather than with the announced length of the body.
+     * @throws RequestTooLargeException If the request exceeds the size limits.
+     */
+    public void makeRoom() throws IOException
+    {
+        if (m_limit < m_buffer.length)
+        {
+            return;
+        }
+        if (m_state < BODY && m_limit - m_start >= m_maxHeaderSize)
+        {
+            throw new RequestTooLargeException("Request header exceeds " + m_maxHeaderSize + " bytes.");
+        }
+        if (m_start > 0)
+        {
+            compact();
+        }
+        else if (m_state == BODY)
+        {
+            // the buffer is full, so the body has not been received completely
+            grow((int) Math.min(m_buffer.length * 2L, m_bodyStart + m_contentLength));
+        }
+        else
+        {
+            grow(m_buffer.length * 2);
+        }
+    }
+
+    /**
+     * @return the buffer; bytes may be written to it between {@link #getLimit()} and its length.
+     */
+    public byte[] getBuffer()
+    {
+        return m_buffer;
+    }
+
+    /**
+     * @return the end of the buffered bytes.
+     */
+    public int getLimit()
+    {
+        return m_limit;
+    }
+
+    /**
+     * Marks bytes written directly into the buffer as available.
+     * @param count number of bytes written after {@link #getLimit()}
+     */
+    public void advance(final int count)
+    {
+        m_limit += count;
+    }
+
+    /**
+     * @return true if no bytes of a following request are buffered.
+     */
+    public boolean isEmpty()
+    {
+        return m_state == REQUEST_LINE && m_start == m_limit;
+    }
+
+    /**
+     * Returns true once if the client sent <tt>Expect: 100-continue</tt>
+     * and is waiting for permission to send the body.
+     * @return true if an interim <tt>100 Continue</tt> response should be sent.
+     */
+    public boolean isContinueExpected()
+    {
+        if (m_expectContinue && m_state > HEADERS && m_state < COMPLETE)
+        {
+            m_expectContinue = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parses the buffered bytes.
+     * @return true if a complete request is available.
+     * @throws RequestTooLargeException If the request exceeds the size limits.
+     * @throws IOException If the request is malformed.
+     */
+    public boolean parse() throws IOException
+    {
+        while (true)
+        {
+            switch (m_state)
+            {
+                case REQUEST_LINE:
+                {
+                    // tolerate empty lines before the request line
+                    while (m_start < m_limit && (m_buffer[m_start] == '\r' || m_buffer[m_start] == '\n'))
+                    {
+                        m_start++;
+                    }
+                    m_pos = Math.max(m_pos, m_start);
+                    int lf = findLineFeed();
+                    if (lf < 0)
+                    {
+                        return false;
+                    }
+                    parseRequestLine(m_start, trimLineEnd(m_start, lf));
+                    m_pos = lf + 1;
+                    m_headerStart = m_pos;
+                    m_headerCount = 0;
+                    m_state = HEADERS;
+                    break;
+                }
+                case HEADERS:
+                {
+                    int lf = findLineFeed();
+                    if (lf < 0)
+                    {
+                        return false;
+                    }
+                    int end = trimLineEnd(m_pos, lf);
+                    if (end == m_pos)
+                    {
+                        m_headerEnd = m_pos;
+                        m_pos = lf + 1;
+                        endOfHeaders();
+                    }
+                    else
+                    {
+                        addHeader(m_pos, end);
+                        m_pos = lf + 1;
+                    }
+                    break;
+                }
+                case BODY:
+                {
+                    if (m_limit - m_pos < m_contentLength)
+                    {
+                        return false;
+                    }
+                    m_bodyEnd = m_bodyStart + (int) m_contentLength;
+                    m_pos = m_bodyEnd;
+                    m_state = COMPLETE;
+                    break;
+                }
+                case CHUNK_SIZE:
+                {
+                    int lf = findLineFeed();
+                    if (lf < 0)
+                    {
+                        return false;
+                    }
+                    m_chunkRemaining = parseChunkSize(m_pos, trimLineEnd(m_pos, lf));
+                    if (m_bodyEnd - m_bodyStart + m_chunkRemaining > m_maxBodySize)
+                    {
+                        throw new RequestTooLargeException("Request body exceeds " + m_maxBodySize + " bytes.");
+                    }
+                    m_pos = lf + 1;
+                    m_state = (m_chunkRemaining == 0) ? TRAILER : CHUNK_DATA;
+                    break;
+                }
+                case CHUNK_DATA:
+                {
+                    int count = (int) Math.min(m_limit - m_pos, m_chunkRemaining);
+                    if (count == 0)
+                    {
+                        return false;
+                    }
+                    // move the chunk data next to the previous chunk
+                    if (m_pos != m_bodyEnd)
+                    {
+                        System.arraycopy(m_buffer, m_pos, m_buffer, m_bodyEnd, count);
+                    }
+                    m_bodyEnd += count;
+                    m_pos += count;
+                    m_chunkRemaining -= count;
+                    if (m_chunkRemaining == 0)
+                    {
+                        m_state = CHUNK_END;
+                    }
+                    break;
+                }
+                case CHUNK_END:
+                {
+                    int lf = findLineFeed();
+                    if (lf < 0)
+                    {
+                        return false;
+                    }
+                    m_pos = lf + 1;
+                    m_state = CHUNK_SIZE;
+                    break;
+                }
+                case TRAILER:
+                {
+                    int lf = findLineFeed();
+                    if (lf < 0)
+                    {
+                        return false;
+                    }
+                    boolean empty = trimLineEnd(m_pos, lf) == m_pos;
+                    m_pos = lf + 1;
+                    if (empty)
+                    {
+                        m_state = COMPLETE;
+                    }
+                    break;
+                }
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Hands the parsed request to a request object and prepares for the next
+     * request. Must only be called after {@link #parse()} returned true.
+     * @param request request to populate
+     */
+    public void apply(final HttpServletRequestImpl request)
+    {
+        if (m_state != COMPLETE)
+        {
+            throw new IllegalStateException("The request has not been parsed completely.");
+        }
+
+        // copy the header block, as the buffer is reused for the next request
+        byte[] headerData = new byte[m_headerEnd - m_headerStart];
+        System.arraycopy(m_buffer, m_headerStart, headerData, 0, headerData.length);
+        int[] offsets = new int[m_headerCount * 4];
+        System.arraycopy(m_offsets, 0, offsets, 0, offsets.length);
+
+        byte[] body = EMPTY_BODY;
+        if (m_bodyEnd > m_bodyStart)
+        {
+            body = new byte[m_bodyEnd - m_bodyStart];
+            System.arraycopy(m_buffer, m_bodyStart, body, 0, body.length);
+        }
+
+        request.setRequest(m_method, m_uri, m_version,
+            new RequestHeaders(headerData, offsets, m_headerCount), body);
+
+        next();
+    }
+
+    /**
+     * Resets the parser state for the request following the current one.
+     */
+    private void next()
+    {
+        m_start = m_pos;
+        m_scanned = m_pos;
+        m_state = REQUEST_LINE;
+        m_method = null;
+        m_uri = null;
+        m_version = null;
+        m_expectContinue = false;
+        if (m_start == m_limit)
+        {
+            m_start = 0;
+            m_pos = 0;
+            m_limit = 0;
+            m_scanned = 0;
+            if (m_buffer.length > RETAINED_BUFFER_SIZE)
+            {
+                m_buffer = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+    }
+
+    /**
+     * @return position of the next line feed at or after the parse position, or -1.
+     * @throws IOException If the line makes the header exceed its size limit.
+     */
+    private int findLineFeed() throws IOException
+    {
+        for (int i = Math.max(m_pos, m_scanned); i < m_limit; i++)
+        {
+            if (m_buffer[i] == '\n')
+            {
+                m_scanned = i + 1;
+                return i;
+            }
+        }
+        m_scanned = m_limit;
+        if (m_state < BODY && m_limit - m_start >= m_maxHeaderSize)
+        {
+            throw new RequestTooLargeException("Request header exceeds " + m_maxHeaderSize + " bytes.");
+        }
+        return -1;
+    }
+
+    private int trimLineEnd(final int start, final int lf)
+    {
+        return (lf > start && m_buffer[lf - 1] == '\r') ? lf - 1 : lf;
+    }
+
+    private void parseRequestLine(final int start, final int end) throws IOException
+    {
+        int first = indexOf(' ', start, end);
+        int last = end;
+        while (last > start && m_buffer[last - 1] != ' ')
+        {
+            last--;
+        }
+        if (first < 0 || last - 1 <= first)
+        {
+            throw new IOException("Malformed HTTP request: " + RequestHeaders.decode(m_buffer, start, end));
+        }
+        int uriStart = skipSpaces(first, last - 1);
+        int uriEnd = last - 1;
+        while (uriEnd > uriStart && m_buffer[uriEnd - 1] == ' ')
+        {
+            uriEnd--;
+        }
+        if (uriStart == uriEnd || indexOf(' ', uriStart, uriEnd) >= 0)
+        {
+            throw new IOException("Malformed HTTP request: " + RequestHeaders.decode(m_buffer, start, end));
+        }
+        m_method = intern(METHODS, start, first);
+        m_uri = RequestHeaders.decode(m_buffer, uriStart, uriEnd);
+        m_version = intern(VERSIONS, last, end);
+    }
+
+    private void addHeader(final int start, final int end)
+    {
+        int colon = indexOf(':', start, end);
+        if (colon <= start)
+        {
+            // not a header line, ignored as before
+            return;
+        }
+        int nameEnd = colon;
+        while (nameEnd > start && isWhitespace(m_buffer[nameEnd - 1]))
+        {
+            nameEnd--;
+        }
+        int valueStart = skipSpaces(colon + 1, end);
+        int valueEnd = end;
+        while (valueEnd > valueStart && isWhitespace(m_buffer[valueEnd - 1]))
+        {
+            valueEnd--;
+        }
+
+        if ((m_headerCount + 1) * 4 > m_offsets.length)
+        {
+            int[] offsets = new int[m_offsets.length * 2];
+            System.arraycopy(m_offsets, 0, offsets, 0, m_offsets.length);
+            m_offsets = offsets;
+        }
+        int i = m_headerCount * 4;
+        m_offsets[i] = start - m_headerStart;
+        m_offsets[i + 1] = nameEnd - m_headerStart;
+        m_offsets[i + 2] = valueStart - m_headerStart;
+        m_offsets[i + 3] = valueEnd - m_headerStart;
+        m_headerCount++;
+    }
+
+    /**
+     * Determines how the body is framed once all headers have been located.
+     */
+    private void endOfHeaders() throws IOException
+    {
+        m_bodyStart = m_pos;
+        m_bodyEnd = m_pos;
+        m_contentLength = 0;
+
+        String transferEncoding = findHeader("transfer-encoding");
+        String expect = findHeader("expect");
+        m_expectContinue = expect != null && expect.equalsIgnoreCase("100-continue");
+
+        if (transferEncoding != null && !transferEncoding.equalsIgnoreCase("identity"))
+        {
+            if (!transferEncoding.toLowerCase().endsWith("chunked"))
+            {
+                throw new IOException("Unsupported transfer encoding: " + transferEncoding);
+            }
+            m_state = CHUNK_SIZE;
+            return;
+        }
+
+        String contentLength = findHeader("content-length");
+        if (contentLength != null)
+        {
+            try
+            {
+                m_contentLength = Long.parseLong(contentLength);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException("Invalid Content-Length: " + contentLength);
+            }
+            if (m_contentLength < 0)
+            {
+                throw new IOException("Invalid Content-Length: " + contentLength);
+            }
+            if (m_contentLength > m_maxBodySize)
+            {
+                throw new RequestTooLargeException("Request body exceeds " + m_maxBodySize + " bytes.");
+            }
+        }
+        m_state = (m_contentLength > 0) ? BODY : COMPLETE;
+    }
+
+    private String findHeader(final String name)
+    {
+        for (int i = 0; i < m_headerCount; i++)
+        {
+            int start = m_headerStart + m_offsets[i * 4];
+            int end = m_headerStart + m_offsets[i * 4 + 1];
+            if (end - start == name.length() && equalsIgnoreCase(name, start))
+            {
+                return RequestHeaders.decode(m_buffer, m_headerStart + m_offsets[i * 4 + 2],
+                    m_headerStart + m_offsets[i * 4 + 3]);
+            }
+        }
+        return null;
+    }
+
+    private long parseChunkSize(final int start, final int end) throws IOException
+    {
+        long size = 0;
+        int i = skipSpaces(start, end);
+        int digits = 0;
+        for (; i < end; i++)
+        {
+            int digit = Character.digit((char) m_buffer[i], 16);
+            if (digit < 0)
+            {
+                break;
+            }
+            size = size * 16 + digit;
+            if (++digits > 8)
+            {
+                throw new IOException("Invalid chunk size.");
+            }
+        }
+        if (digits == 0)
+        {
+            throw new IOException("Invalid chunk size: " + RequestHeaders.decode(m_buffer, start, end));
+        }
+        return size;
+    }
+
+    private String intern(final String[] candidates, final int start, final int end)
+    {
+        int length = end - start;
+        for (int i = 0; i < candidates.length; i++)
+        {
+            String candidate = candidates[i];
+            if (candidate.length() == length && equals(candidate, start))
+            {
+                return candidate;
+            }
+        }
+        return RequestHeaders.decode(m_buffer, start, end);
+    }
+
+    private boolean equals(final String s, final int start)
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            if (m_buffer[start + i] != s.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean equalsIgnoreCase(final String lowerCase, final int start)
+    {
+        for (int i = 0; i < lowerCase.length(); i++)
+        {
+            int c = m_buffer[start + i];
+            if (c >= 'A' && c <= 'Z')
+            {
+                c += 'a' - 'A';
+            }
+            if (c != lowerCase.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(final char c, final int start, final int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (m_buffer[i] == c)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int skipSpaces(final int start, final int end)
+    {
+        int i = start;
+        while (i < end && isWhitespace(m_buffer[i]))
+        {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWhitespace(final byte b)
+    {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Moves the current request to the start of the buffer.
+     */
+    private void compact()
+    {
+        int delta = m_start;
+        System.arraycopy(m_buffer, m_start, m_buffer, 0, m_limit - m_start);
+        m_start = 0;
+        m_pos -= delta;
+        m_limit -= delta;
+        m_scanned -= delta;
+        m_headerStart -= delta;
+        m_headerEnd -= delta;
+        m_bodyStart -= delta;
+        m_bodyEnd -= delta;
+    }
+
+    private void grow(final int capacity)
+    {
+        byte[] buffer = new byte[capacity];
+        System.arraycopy(m_buffer, 0, buffer, 0, m_limit);
+        m_buffer = buffer;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.servlet;
+
+import java.io.IOException;
+
+/**
+ * Thrown by the {@link RequestParser} when the request headers or body exceed
+ * the configured limits. The connection answers with a
+ * <tt>413 Request Entity Too Large</tt> response before it is closed.
+ */
+public class RequestTooLargeException extends IOException
+{
+    private static final long serialVersionUID = 4311839261412374152L;
+
+    /**
+     * @param message detail message
+     */
+    public RequestTooLargeException(final String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.osgi.test.cases;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+
+import org.apache.felix.httplite.osgi.Activator;
+import org.apache.felix.httplite.osgi.test.AbstractHttpliteTestCase;
+import org.apache.felix.httplite.osgi.test.BasicTestingServlet;
+import org.apache.felix.httplite.server.Server;
+import org.osgi.service.http.HttpService;
+
+
+/**
+ * Tests for the non-blocking connector. The load test keeps more idle
+ * connections open than the thread pool has threads, and measures the latency
+ * of a request with both connectors.
+ *
+ */
+public class TestNioConnector extends AbstractHttpliteTestCase
+{
+    private static final int THREADPOOL_LIMIT = 2;
+    private static final int IDLE_CONNECTIONS = 4;
+    private static final int CONNECTION_TIMEOUT = 2000;
+    private static final String CONTENT = "hello";
+    private static final int BODY_LIMIT = 1024;
+
+
+    protected void setUp() throws Exception
+    {
+        System.setProperty( Server.CONFIG_PROPERTY_THREADPOOL_LIMIT_PROP, Integer.toString( THREADPOOL_LIMIT ) );
+        System.setProperty( Server.CONFIG_PROPERTY_CONNECTION_TIMEOUT_PROP, Integer.toString( CONNECTION_TIMEOUT ) );
+        System.setProperty( Server.CONFIG_PROPERTY_NIO_ENABLE, "true" );
+        System.setProperty( Server.CONFIG_PROPERTY_REQUEST_BODY_LIMIT, Integer.toString( BODY_LIMIT ) );
+        super.setUp();
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        System.getProperties().remove( Server.CONFIG_PROPERTY_THREADPOOL_LIMIT_PROP );
+        System.getProperties().remove( Server.CONFIG_PROPERTY_CONNECTION_TIMEOUT_PROP );
+        System.getProperties().remove( Server.CONFIG_PROPERTY_NIO_ENABLE );
+        System.getProperties().remove( Server.CONFIG_PROPERTY_REQUEST_BODY_LIMIT );
+    }
+
+
+    /**
+     * Test a persistent connection serves several requests, including
+     * pipelined requests sent in a single write.
+     * 
+     * @throws Exception
+     */
+    public void testPipelinedRequests() throws Exception
+    {
+        registerServlet();
+
+        Socket socket = new Socket( "localhost", DEFAULT_PORT );
+        try
+        {
+            socket.setSoTimeout( 5000 );
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            out.write( request( "/test" ).getBytes() );
+            out.flush();
+            assertEquals( CONTENT, readResponse( in ) );
+
+            out.write( ( request( "/test" ) + request( "/test" ) ).getBytes() );
+            out.flush();
+            assertEquals( CONTENT, readResponse( in ) );
+            assertEquals( CONTENT, readResponse( in ) );
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+
+    /**
+     * Test the blocking connector keeps a persistent connection open and
+     * answers requests pipelined in a single write.
+     * 
+     * @throws Exception
+     */
+    public void testBlockingPipelinedRequests() throws Exception
+    {
+        restart( false );
+        testPipelinedRequests();
+    }
+
+
+    /**
+     * Test a request with a body above the configured limit is answered with
+     * 413 before the connection is closed.
+     * 
+     * @throws Exception
+     */
+    public void testRequestTooLarge() throws Exception
+    {
+        registerServlet();
+
+        Socket socket = new Socket( "localhost", DEFAULT_PORT );
+        try
+        {
+            socket.setSoTimeout( 5000 );
+            OutputStream out = socket.getOutputStream();
+            out.write( ( "POST /test HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + ( BODY_LIMIT + 1 )
+                + "\r\n\r\n" ).getBytes() );
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            assertTrue( readLine( in ).startsWith( "HTTP/1.1 413" ) );
+            while ( readLine( in ).length() > 0 )
+            {
+                // skip the headers
+            }
+            assertEquals( -1, in.read() );
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+
+    /**
+     * Test the blocking connector answers a request above the body limit with 413.
+     * 
+     * @throws Exception
+     */
+    public void testBlockingRequestTooLarge() throws Exception
+    {
+        restart( false );
+        testRequestTooLarge();
+    }
+
+
+    /**
+     * Test that idle connections do not delay a request when there are more of
+     * them than threads in the pool, and compare with the blocking connector.
+     * 
+     * @throws Exception
+     */
+    public void testIdleConnectionsLoad() throws Exception
+    {
+        long nio = measureLatency();
+
+        restart( false );
+        long blocking = measureLatency();
+
+        System.out.println( "Latency with " + IDLE_CONNECTIONS + " idle connections and " + THREADPOOL_LIMIT
+            + " threads: nio " + nio + " ms, blocking " + blocking + " ms" );
+
+        assertTrue( "NIO request waited for idle connections: " + nio + " ms", nio < CONNECTION_TIMEOUT );
+        // idle blocking connections give up their thread once requests are waiting
+        assertTrue( "Blocking request waited for idle connections to time out: " + blocking + " ms",
+            blocking < CONNECTION_TIMEOUT );
+    }
+
+
+    private long measureLatency() throws Exception
+    {
+        registerServlet();
+
+        Socket[] idle = new Socket[IDLE_CONNECTIONS];
+        try
+        {
+            for ( int i = 0; i < idle.length; i++ )
+            {
+                idle[i] = new Socket( "localhost", DEFAULT_PORT );
+            }
+            // give the server time to accept the idle connections
+            Thread.sleep( 200 );
+
+            long start = System.currentTimeMillis();
+            HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/test", "GET" );
+            client.setReadTimeout( CONNECTION_TIMEOUT * ( IDLE_CONNECTIONS + 1 ) );
+            client.connect();
+            assertEquals( 200, client.getResponseCode() );
+            assertEquals( CONTENT, readInputAsString( client.getInputStream() ) );
+
+            return System.currentTimeMillis() - start;
+        }
+        finally
+        {
+            for ( int i = 0; i < idle.length; i++ )
+            {
+                if ( idle[i] != null )
+                {
+                    idle[i].close();
+                }
+            }
+        }
+    }
+
+
+    private void registerServlet() throws Exception
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+        httpService.registerServlet( "/test", new BasicTestingServlet( CONTENT, false ), null, null );
+    }
+
+
+    private void restart( boolean nio ) throws Exception
+    {
+        activator.stop( registry.getBundleContext() );
+        System.setProperty( Server.CONFIG_PROPERTY_NIO_ENABLE, Boolean.toString( nio ) );
+        activator = new Activator();
+        activator.start( registry.getBundleContext() );
+    }
+
+
+    private static String request( String path )
+    {
+        return "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    }
+
+
+    /**
+     * Read a response with a Content-Length header and return its body.
+     */
+    private static String readResponse( InputStream in ) throws IOException
+    {
+        String status = readLine( in );
+        assertTrue( status, status.startsWith( "HTTP/1.1 200" ) );
+
+        int length = -1;
+        String line;
+        while ( ( line = readLine( in ) ).length() > 0 )
+        {
+            if ( line.toLowerCase().startsWith( "content-length:" ) )
+            {
+                length = Integer.parseInt( line.substring( line.indexOf( ':' ) + 1 ).trim() );
+            }
+        }
+        assertTrue( "Missing Content-Length", length >= 0 );
+
+        byte[] body = new byte[length];
+        int read = 0;
+        while ( read < length )
+        {
+            int count = in.read( body, read, length - read );
+            assertTrue( "Unexpected end of stream", count > 0 );
+            read += count;
+        }
+        return new String( body );
+    }
+
+
+    private static String readLine( InputStream in ) throws IOException
+    {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ( ( b = in.read() ) != '\n' )
+        {
+            assertTrue( "Unexpected end of stream", b >= 0 );
+            if ( b != '\r' )
+            {
+                line.write( b );
+            }
+        }
+        return line.toString();
+    }
+}
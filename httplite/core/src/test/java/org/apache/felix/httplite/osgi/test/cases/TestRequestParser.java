@@ -0,0 +1,359 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.osgi.test.cases;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.httplite.servlet.ConcreteServletInputStream;
+import org.apache.felix.httplite.servlet.HttpServletRequestImpl;
+import org.apache.felix.httplite.servlet.RequestParser;
+import org.apache.felix.httplite.servlet.RequestTooLargeException;
+
+
+/**
+ * Tests for the incremental request parser: pipelined requests, chunked
+ * bodies, requests arriving in small pieces and header access. The benchmark
+ * compares the parser with reading the request line and headers line by line.
+ *
+ */
+public class TestRequestParser extends TestCase
+{
+    private static final String GET = "GET /test/a?x=1 HTTP/1.1\r\n" + "Host: localhost\r\n"
+        + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) Gecko/20100101 Firefox/91.0\r\n"
+        + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+        + "Accept-Language: en-US,en;q=0.5\r\n" + "Accept-Encoding: gzip, deflate\r\n"
+        + "Connection: keep-alive\r\n" + "Cookie: a=1; b=2\r\n" + "\r\n";
+    private static final int BENCHMARK_REQUESTS = 20000;
+
+
+    public void testPipelinedRequests() throws Exception
+    {
+        String post = "POST /form HTTP/1.1\r\nHost: localhost\r\nContent-Length: 7\r\n\r\na=1&b=2";
+        RequestParser parser = new RequestParser();
+        InputStream in = new ByteArrayInputStream( ( GET + post + GET ).getBytes( "ISO-8859-1" ) );
+
+        HttpServletRequestImpl first = next( parser, in );
+        assertEquals( "GET", first.getMethod() );
+        assertEquals( "/test/a", first.getRequestURI() );
+        assertEquals( "x=1", first.getQueryString() );
+        assertEquals( "HTTP/1.1", first.getProtocol() );
+        assertEquals( 0, first.getContentLength() );
+
+        HttpServletRequestImpl second = next( parser, in );
+        assertEquals( "POST", second.getMethod() );
+        assertEquals( 7, second.getContentLength() );
+        assertEquals( "a=1&b=2", readBody( second ) );
+
+        HttpServletRequestImpl third = next( parser, in );
+        assertEquals( "/test/a", third.getRequestURI() );
+        assertTrue( parser.isEmpty() );
+        assertNull( next( parser, in ) );
+    }
+
+
+    public void testChunkedBody() throws Exception
+    {
+        String request = "POST /upload HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "5\r\nhello\r\n" + "7;name=value\r\n, world\r\n" + "0\r\nTrailer: x\r\n\r\n" + GET;
+        RequestParser parser = new RequestParser();
+        InputStream in = new ByteArrayInputStream( request.getBytes( "ISO-8859-1" ) );
+
+        assertEquals( "hello, world", readBody( next( parser, in ) ) );
+        assertEquals( "/test/a", next( parser, in ).getRequestURI() );
+    }
+
+
+    public void testRequestInSmallPieces() throws Exception
+    {
+        String post = "\r\nPOST /form HTTP/1.1\r\nHost: localhost\r\nContent-Length: 3\r\n\r\nabc";
+        String chunked = "POST /upload HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "3\r\nxyz\r\n0\r\n\r\n";
+        RequestParser parser = new RequestParser();
+        InputStream in = new OneByteInputStream( ( post + chunked ).getBytes( "ISO-8859-1" ) );
+
+        assertEquals( "abc", readBody( next( parser, in ) ) );
+        assertEquals( "xyz", readBody( next( parser, in ) ) );
+    }
+
+
+    public void testHeaders() throws Exception
+    {
+        String request = "GET //a//b HTTP/1.0\nHOST: example.org\nX-Multi: 1\nx-multi:  2 \nEmpty:\n\n";
+        HttpServletRequestImpl req = next( new RequestParser(), new ByteArrayInputStream( request.getBytes() ) );
+
+        assertEquals( "/a/b", req.getRequestURI() );
+        assertEquals( "HTTP/1.0", req.getProtocol() );
+        assertEquals( "example.org", req.getHeader( "Host" ) );
+        assertEquals( "1", req.getHeader( "X-MULTI" ) );
+        assertEquals( "", req.getHeader( "empty" ) );
+        assertNull( req.getHeader( "Accept" ) );
+        assertEquals( "example.org/a/b", req.getRequestURL().toString() );
+
+        List values = Collections.list( req.getHeaders( "X-Multi" ) );
+        assertEquals( 2, values.size() );
+        assertEquals( "2", values.get( 1 ) );
+
+        List names = Collections.list( req.getHeaderNames() );
+        assertEquals( 3, names.size() );
+        // common header names are shared constants
+        assertSame( "host", names.get( 0 ) );
+        assertEquals( "x-multi", names.get( 1 ) );
+    }
+
+
+    public void testExpectContinue() throws Exception
+    {
+        RequestParser parser = new RequestParser();
+        feed( parser, "PUT /a HTTP/1.1\r\nHost: h\r\nExpect: 100-continue\r\nContent-Length: 2\r\n\r\n" );
+
+        assertFalse( parser.parse() );
+        assertTrue( parser.isContinueExpected() );
+        assertFalse( parser.isContinueExpected() );
+
+        feed( parser, "ok" );
+        assertTrue( parser.parse() );
+        assertFalse( parser.isContinueExpected() );
+    }
+
+
+    public void testLimits() throws Exception
+    {
+        RequestParser parser = new RequestParser( 256, 16 );
+        StringBuffer sb = new StringBuffer( "GET / HTTP/1.1\r\n" );
+        for ( int i = 0; i < 32; i++ )
+        {
+            sb.append( "X-Header-" + i + ": value\r\n" );
+        }
+        try
+        {
+            next( parser, new ByteArrayInputStream( sb.toString().getBytes() ) );
+            fail( "Header limit not enforced." );
+        }
+        catch ( RequestTooLargeException e )
+        {
+            // expected
+        }
+
+        try
+        {
+            next( new RequestParser( 256, 16 ),
+                new ByteArrayInputStream( "POST / HTTP/1.1\r\nContent-Length: 17\r\n\r\n".getBytes() ) );
+            fail( "Body limit not enforced." );
+        }
+        catch ( RequestTooLargeException e )
+        {
+            // expected
+        }
+
+        try
+        {
+            next( new RequestParser( 256, 16 ), new ByteArrayInputStream(
+                "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n10\r\n0123456789abcdef\r\n1\r\nx\r\n0\r\n\r\n"
+                    .getBytes() ) );
+            fail( "Chunked body limit not enforced." );
+        }
+        catch ( RequestTooLargeException e )
+        {
+            // expected
+        }
+
+        try
+        {
+            next( new RequestParser(), new ByteArrayInputStream( "GET /\r\n\r\n".getBytes() ) );
+            fail( "Malformed request line accepted." );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+    }
+
+
+    /**
+     * The buffer grows with the body bytes received, not with the announced
+     * Content-Length, and is released once the request has been applied.
+     *
+     * @throws Exception
+     */
+    public void testBodyBufferGrowsWithReceivedBytes() throws Exception
+    {
+        RequestParser parser = new RequestParser();
+        feed( parser, "POST /a HTTP/1.1\r\nHost: h\r\nContent-Length: 1000000\r\n\r\n" );
+        assertFalse( parser.parse() );
+
+        byte[] chunk = new byte[10000];
+        for ( int i = 0; i < 10; i++ )
+        {
+            parser.makeRoom();
+            int count = Math.min( chunk.length, parser.getBuffer().length - parser.getLimit() );
+            System.arraycopy( chunk, 0, parser.getBuffer(), parser.getLimit(), count );
+            parser.advance( count );
+            assertFalse( parser.parse() );
+        }
+        assertTrue( parser.getBuffer().length < 1000000 );
+
+        InputStream in = new ByteArrayInputStream( new byte[1000000] );
+        while ( !parser.parse() )
+        {
+            assertTrue( parser.fill( in ) > 0 );
+        }
+        HttpServletRequestImpl request = new HttpServletRequestImpl( null, null, null );
+        parser.apply( request );
+        assertEquals( 1000000, request.getContentLength() );
+        assertTrue( parser.getBuffer().length < 1000000 );
+    }
+
+
+    /**
+     * Compare the time to parse pipelined requests with the parser and by
+     * reading lines into a map, as the request was parsed before.
+     * 
+     * @throws Exception
+     */
+    public void testParsingBenchmark() throws Exception
+    {
+        byte[] data = GET.getBytes( "ISO-8859-1" );
+        byte[] pipelined = new byte[data.length * 100];
+        for ( int i = 0; i < 100; i++ )
+        {
+            System.arraycopy( data, 0, pipelined, i * data.length, data.length );
+        }
+
+        // warm up
+        parseWithParser( pipelined, BENCHMARK_REQUESTS );
+        parseByLine( pipelined, BENCHMARK_REQUESTS );
+
+        long start = System.currentTimeMillis();
+        parseWithParser( pipelined, BENCHMARK_REQUESTS );
+        long parser = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        parseByLine( pipelined, BENCHMARK_REQUESTS );
+        long byLine = System.currentTimeMillis() - start;
+
+        System.out.println( "Parsing " + BENCHMARK_REQUESTS + " requests: parser " + parser + " ms, by line "
+            + byLine + " ms" );
+    }
+
+
+    private void parseWithParser( final byte[] pipelined, final int count ) throws IOException
+    {
+        int parsed = 0;
+        while ( parsed < count )
+        {
+            RequestParser parser = new RequestParser();
+            InputStream in = new ByteArrayInputStream( pipelined );
+            HttpServletRequestImpl request;
+            while ( parsed < count && ( request = next( parser, in ) ) != null )
+            {
+                assertNotNull( request.getHeader( "Host" ) );
+                parsed++;
+            }
+        }
+    }
+
+
+    private void parseByLine( final byte[] pipelined, final int count ) throws IOException
+    {
+        int parsed = 0;
+        while ( parsed < count )
+        {
+            ConcreteServletInputStream in = new ConcreteServletInputStream( new ByteArrayInputStream( pipelined ) );
+            for ( String line = in.readLine(); parsed < count && line != null; line = in.readLine() )
+            {
+                Map headers = new HashMap();
+                for ( String s = in.readLine(); s != null && s.length() != 0; s = in.readLine() )
+                {
+                    int idx = s.indexOf( ":" );
+                    headers.put( s.substring( 0, idx ).trim().toLowerCase(), s.substring( idx + 1 ).trim() );
+                }
+                assertNotNull( headers.get( "host" ) );
+                parsed++;
+            }
+        }
+    }
+
+
+    private static HttpServletRequestImpl next( final RequestParser parser, final InputStream in )
+        throws IOException
+    {
+        while ( !parser.parse() )
+        {
+            if ( parser.fill( in ) < 0 )
+            {
+                if ( parser.isEmpty() )
+                {
+                    return null;
+                }
+                throw new IOException( "Unexpected end of file." );
+            }
+        }
+        HttpServletRequestImpl request = new HttpServletRequestImpl( null, null, null );
+        parser.apply( request );
+        return request;
+    }
+
+
+    private static void feed( final RequestParser parser, final String s ) throws IOException
+    {
+        byte[] data = s.getBytes( "ISO-8859-1" );
+        parser.makeRoom();
+        System.arraycopy( data, 0, parser.getBuffer(), parser.getLimit(), data.length );
+        parser.advance( data.length );
+    }
+
+
+    private static String readBody( final HttpServletRequestImpl request ) throws IOException
+    {
+        InputStream in = request.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for ( int b = in.read(); b >= 0; b = in.read() )
+        {
+            out.write( b );
+        }
+        return out.toString( "ISO-8859-1" );
+    }
+
+    /**
+     * Returns a single byte per read, as a slow client would deliver a request.
+     */
+    private static class OneByteInputStream extends ByteArrayInputStream
+    {
+        OneByteInputStream( final byte[] data )
+        {
+            super( data );
+        }
+
+
+        public synchronized int read( final byte[] b, final int off, final int len )
+        {
+            return super.read( b, off, Math.min( 1, len ) );
+        }
+    }
+}
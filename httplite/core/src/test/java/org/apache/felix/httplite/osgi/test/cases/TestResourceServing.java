@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.osgi.test.cases;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.httplite.osgi.test.AbstractHttpliteTestCase;
+import org.osgi.service.http.HttpContext;
+import org.osgi.service.http.HttpService;
+
+
+/**
+ * Tests for conditional, ranged and compressed resource requests, and a
+ * throughput benchmark for cached and file backed resources.
+ *
+ */
+public class TestResourceServing extends AbstractHttpliteTestCase
+{
+    private static final int SMALL_SIZE = 8 * 1024;
+    private static final int LARGE_SIZE = 1024 * 1024;
+    private static final int BENCHMARK_DURATION = 2000;
+
+    private File m_root;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        m_root = File.createTempFile( "httplite", "" );
+        m_root.delete();
+        m_root.mkdir();
+
+        StringBuffer text = new StringBuffer();
+        while ( text.length() < SMALL_SIZE )
+        {
+            text.append( "The quick brown fox jumps over the lazy dog. " );
+        }
+        write( "small.txt", text.toString().getBytes() );
+
+        byte[] data = new byte[LARGE_SIZE];
+        for ( int i = 0; i < data.length; i++ )
+        {
+            data[i] = ( byte ) i;
+        }
+        write( "large.bin", data );
+
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+        httpService.registerResources( "/files", "", new FileContext() );
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        File[] files = m_root.listFiles();
+        for ( int i = 0; i < files.length; i++ )
+        {
+            files[i].delete();
+        }
+        m_root.delete();
+
+        super.tearDown();
+    }
+
+
+    /**
+     * Test that a request with a matching entity tag returns 304.
+     * 
+     * @throws IOException
+     */
+    public void testIfNoneMatch() throws IOException
+    {
+        HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/files/small.txt", "GET" );
+        assertEquals( 200, client.getResponseCode() );
+        String etag = client.getHeaderField( "ETag" );
+        assertNotNull( etag );
+        readInputAsByteArray( client.getInputStream() );
+
+        client = getConnection( DEFAULT_BASE_URL + "/files/small.txt", "GET" );
+        client.setRequestProperty( "If-None-Match", etag );
+        assertEquals( 304, client.getResponseCode() );
+    }
+
+
+    /**
+     * Test that a request with a current If-Modified-Since returns 304.
+     * 
+     * @throws IOException
+     */
+    public void testIfModifiedSince() throws IOException
+    {
+        HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/files/large.bin", "GET" );
+        client.setIfModifiedSince( System.currentTimeMillis() + 60000 );
+        assertEquals( 304, client.getResponseCode() );
+    }
+
+
+    /**
+     * Test single byte ranges.
+     * 
+     * @throws IOException
+     */
+    public void testRange() throws IOException
+    {
+        HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/files/large.bin", "GET" );
+        client.setRequestProperty( "Range", "bytes=1000-1009" );
+        assertEquals( 206, client.getResponseCode() );
+        assertEquals( "bytes 1000-1009/" + LARGE_SIZE, client.getHeaderField( "Content-Range" ) );
+        byte[] body = readInputAsByteArray( client.getInputStream() );
+        assertEquals( 10, body.length );
+        assertEquals( ( byte ) 1000, body[0] );
+
+        client = getConnection( DEFAULT_BASE_URL + "/files/large.bin", "GET" );
+        client.setRequestProperty( "Range", "bytes=-5" );
+        assertEquals( 206, client.getResponseCode() );
+        assertEquals( 5, readInputAsByteArray( client.getInputStream() ).length );
+
+        client = getConnection( DEFAULT_BASE_URL + "/files/large.bin", "GET" );
+        client.setRequestProperty( "Range", "bytes=" + LARGE_SIZE + "-" );
+        assertEquals( 416, client.getResponseCode() );
+    }
+
+
+    /**
+     * Test that compressible resources are sent gzip encoded if the client accepts it.
+     * 
+     * @throws IOException
+     */
+    public void testGzip() throws IOException
+    {
+        HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/files/small.txt", "GET" );
+        client.setRequestProperty( "Accept-Encoding", "gzip" );
+        assertEquals( 200, client.getResponseCode() );
+        assertEquals( "gzip", client.getHeaderField( "Content-Encoding" ) );
+        assertTrue( readInputAsByteArray( client.getInputStream() ).length < SMALL_SIZE );
+
+        client = getConnection( DEFAULT_BASE_URL + "/files/small.txt", "GET" );
+        assertEquals( 200, client.getResponseCode() );
+        assertNull( client.getHeaderField( "Content-Encoding" ) );
+        assertTrue( readInputAsByteArray( client.getInputStream() ).length >= SMALL_SIZE );
+    }
+
+
+    /**
+     * Measure requests per second for a cached and a streamed resource.
+     * 
+     * @throws IOException
+     */
+    public void testThroughput() throws IOException
+    {
+        System.out.println( "small.txt: " + measure( "/files/small.txt", SMALL_SIZE ) + " requests/s" );
+        System.out.println( "large.bin: " + measure( "/files/large.bin", LARGE_SIZE ) + " requests/s" );
+    }
+
+
+    private long measure( String path, int size ) throws IOException
+    {
+        int count = 0;
+        long start = System.currentTimeMillis();
+        long elapsed;
+        do
+        {
+            HttpURLConnection client = getConnection( DEFAULT_BASE_URL + path, "GET" );
+            assertEquals( 200, client.getResponseCode() );
+            assertTrue( readInputAsByteArray( client.getInputStream() ).length >= size );
+            count++;
+            elapsed = System.currentTimeMillis() - start;
+        }
+        while ( elapsed < BENCHMARK_DURATION );
+
+        return count * 1000L / elapsed;
+    }
+
+
+    private void write( String name, byte[] content ) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream( new File( m_root, name ) );
+        try
+        {
+            out.write( content );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Serves files of the temporary directory.
+     */
+    private class FileContext implements HttpContext
+    {
+        public boolean handleSecurity( HttpServletRequest request, HttpServletResponse response )
+        {
+            return true;
+        }
+
+
+        public URL getResource( String name )
+        {
+            File file = new File( m_root, name );
+            try
+            {
+                return file.isFile() ? file.toURL() : null;
+            }
+            catch ( MalformedURLException e )
+            {
+                return null;
+            }
+        }
+
+
+        public String getMimeType( String name )
+        {
+            return name.endsWith( ".txt" ) ? "text/plain" : null;
+        }
+    }
+}
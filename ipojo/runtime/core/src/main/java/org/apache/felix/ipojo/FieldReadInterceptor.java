@@ -0,0 +1,44 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.ipojo;
+
+/**
+* Field interceptor able to compute the value of an intercepted field read
+* without an interception context.
+* When such an interceptor is the only interceptor monitoring a field, the
+* instance manager calls {@link #onGet(Object, String, Object)} directly
+* instead of creating a {@link FieldInvocationContext} for each read access.
+* Writes and value changes are still notified through
+* {@link FieldInterceptor#onFieldAccess(FieldInvocationContext, Object)}.
+* @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+*/
+public interface FieldReadInterceptor extends FieldInterceptor {
+
+    /**
+     * Invoked when an intercepted field is read.
+     * The returned value must be the one the interceptor would pass to
+     * {@code context.proceed()} for a read access.
+     * @param pojo the pojo object on which the field is read
+     * @param fieldName the name of the read field
+     * @param value the last value of the field
+     * @return the value to inject
+     */
+    Object onGet(Object pojo, String fieldName, Object value);
+
+}
@@ -24,6 +24,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.felix.ipojo.FieldInvocationContext.Type;
 import org.apache.felix.ipojo.architecture.InstanceDescription;
@@ -142,6 +143,14 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      */
     private Map m_fields = new HashMap();
 
+    /**
+     * The map of [field, {@link FieldAccess}] caching the reflected field
+     * and the interceptor chain of intercepted fields.
+     * Entries are discarded when a field interceptor is registered or when
+     * the manipulated class is unloaded.
+     */
+    private final Map<String, FieldAccess> m_fieldAccesses = new ConcurrentHashMap<String, FieldAccess>();
+
     /**
      * The Map storing the Method objects by ids.
      * [id=>{@link Method}].
@@ -435,6 +444,7 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
         synchronized (this) {
             m_factory.disposed(this);
             m_clazz = null;
+            m_fieldAccesses.clear();
             // Do not clean registration map, so injection still works
             // after disposal for late callbacks.
         }
@@ -852,6 +862,9 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
                 fmap.put(priority, list);
             }
             list.add(interceptor);
+
+            // The chain has changed.
+            m_fieldAccesses.remove(field.getFieldName());
         }
     }
 
@@ -955,33 +968,36 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      * @return the value decided by the field interception chain
      */
     public Object onGet(Object pojo, String fieldName) {
-        Object initialValue = null;
-        synchronized (this) { // Stack confinement.
-            initialValue = m_fields.get(fieldName);
-        }
+        FieldAccess access = getFieldAccess(fieldName);
+        Object initialValue = access.m_value;
         Object result;
 
-        List<FieldInterceptor> chain = getFieldInterceptorChain(fieldName);
-
-        // Construct the interception context.
-        Field field;
-        try {
-            field = getClazz().getDeclaredField(fieldName);
-        } catch (Exception e) {
-            m_logger.log(Logger.ERROR, "Cannot find POJO field: " + fieldName, e);
-            throw new RuntimeException(e);
-        }
-        FieldInvocationContext ctx = new FieldInvocationContext(this, chain, pojo, Type.READ, field);
+        if (access.m_reader != null) {
+            // Fast path: a single interceptor computes the value,
+            // no context and no lock are required.
+            try {
+                result = access.m_reader.onGet(pojo, fieldName, initialValue);
+            } catch (Throwable e) {
+                // Catch every other possible error and runtime exception.
+                m_logger.log(Logger.ERROR,
+                        "[" + m_name + "] onGet -> The FieldInterceptor chain has failed : " + e.getMessage(), e);
+                stop();
+                throw new RuntimeException("Cannot GET POJO field value, the FieldInterceptor chain has thrown an exception", e);
+            }
+        } else {
+            // Construct the interception context.
+            FieldInvocationContext ctx = new FieldInvocationContext(this, access.m_chain, pojo, Type.READ, access.m_field);
 
-        // Proceed to the field read access.
-        try {
-            result = ctx.proceed(initialValue);
-        } catch (Throwable e) {
-            // Catch every other possible error and runtime exception.
-            m_logger.log(Logger.ERROR,
-                    "[" + m_name + "] onGet -> The FieldInterceptor chain has failed : " + e.getMessage(), e);
-            stop();
-            throw new RuntimeException("Cannot GET POJO field value, the FieldInterceptor chain has thrown an exception", e);
+            // Proceed to the field read access.
+            try {
+                result = ctx.proceed(initialValue);
+            } catch (Throwable e) {
+                // Catch every other possible error and runtime exception.
+                m_logger.log(Logger.ERROR,
+                        "[" + m_name + "] onGet -> The FieldInterceptor chain has failed : " + e.getMessage(), e);
+                stop();
+                throw new RuntimeException("Cannot GET POJO field value, the FieldInterceptor chain has thrown an exception", e);
+            }
         }
 
         // The actual field value has been changed by the interception chain.
@@ -992,7 +1008,7 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
 
             // Construct the interception context.
             // The interception chain is _exactly_ the same.
-            FieldInvocationContext ctx2 = new FieldInvocationContext(this, chain, pojo, Type.WRITE, field);
+            FieldInvocationContext ctx2 = new FieldInvocationContext(this, access.m_chain, pojo, Type.WRITE, access.m_field);
 
             try {
                 ctx2.proceed(result);
@@ -1007,10 +1023,45 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
         }
         return result;
     }
-    
+
+    /**
+     * Gets the cached {@link FieldAccess} of the given field, creating it
+     * on first access.
+     * @param fieldName the field name
+     * @return the field access object
+     * @throws RuntimeException if the field cannot be found in the POJO class
+     */
+    private FieldAccess getFieldAccess(String fieldName) {
+        FieldAccess access = m_fieldAccesses.get(fieldName);
+        if (access != null) {
+            return access;
+        }
+
+        Field field;
+        try {
+            field = getClazz().getDeclaredField(fieldName);
+        } catch (Exception e) {
+            m_logger.log(Logger.ERROR, "Cannot find POJO field: " + fieldName, e);
+            throw new RuntimeException(e);
+        }
+
+        // Lock order: instance then registration map, the same as doSetField and register.
+        synchronized (this) {
+            synchronized (m_fieldRegistration) {
+                access = new FieldAccess(field, getFieldInterceptorChain(fieldName), m_fields.get(fieldName));
+                m_fieldAccesses.put(fieldName, access);
+            }
+        }
+        return access;
+    }
+
     // Used by FieldInvocationContext.proceed()
     public synchronized void doSetField(Object pojo, Field field, Object value) throws IllegalAccessException {
         m_fields.put(field.getName(), value);
+        FieldAccess access = m_fieldAccesses.get(field.getName());
+        if (access != null) {
+            access.m_value = value;
+        }
         List<Object> pojos;
         if (pojo != null) {
             pojos = Collections.singletonList(pojo);
@@ -1095,17 +1146,10 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      */
     public void onSet(final Object pojo, final String fieldName, final Object objectValue) {
 
-        List<FieldInterceptor> chain = getFieldInterceptorChain(fieldName);
-        
+        FieldAccess access = getFieldAccess(fieldName);
+
         // Construct the interception context.
-        Field field;
-        try {
-          field = getClazz().getDeclaredField(fieldName);
-        } catch (Exception e) {
-          m_logger.log(Logger.ERROR, "Cannot find POJO field: " + fieldName, e);
-          throw new RuntimeException(e);
-        }
-        FieldInvocationContext ctx = new FieldInvocationContext(this, chain, pojo, Type.WRITE, field);
+        FieldInvocationContext ctx = new FieldInvocationContext(this, access.m_chain, pojo, Type.WRITE, access.m_field);
         
         // Proceed to the field WRITE access.
         try {
@@ -1313,4 +1357,48 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
         }
         return chain;
     }
+
+    /**
+     * The cached information required to intercept accesses to a field:
+     * the reflected field, its interceptor chain and the last value set by
+     * the container.
+     */
+    private static final class FieldAccess {
+
+        /**
+         * The reflected field.
+         */
+        final Field m_field;
+
+        /**
+         * The interceptor chain (immutable).
+         */
+        final List<FieldInterceptor> m_chain;
+
+        /**
+         * The interceptor to call directly on read accesses, set if the chain
+         * contains a single {@link FieldReadInterceptor} and the field
+         * is not primitive (primitive values require the conversion made by
+         * the {@link FieldInvocationContext}).
+         */
+        final FieldReadInterceptor m_reader;
+
+        /**
+         * The last value set by the container (mirrors the {@link InstanceManager#m_fields} entry).
+         * Updated while holding the instance manager lock.
+         */
+        volatile Object m_value;
+
+        FieldAccess(Field field, List<FieldInterceptor> chain, Object value) {
+            m_field = field;
+            m_chain = chain;
+            m_value = value;
+            if (chain.size() == 1 && chain.get(0) instanceof FieldReadInterceptor
+                    && !field.getType().isPrimitive()) {
+                m_reader = (FieldReadInterceptor) chain.get(0);
+            } else {
+                m_reader = null;
+            }
+        }
+    }
 }
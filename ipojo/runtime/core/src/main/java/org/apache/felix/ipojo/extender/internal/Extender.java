@@ -23,7 +23,7 @@ import org.apache.felix.ipojo.ConfigurationTracker;
 import org.apache.felix.ipojo.EventDispatcher;
 import org.apache.felix.ipojo.extender.internal.linker.DeclarationLinker;
 import org.apache.felix.ipojo.extender.internal.processor.*;
-import org.apache.felix.ipojo.extender.internal.queue.ExecutorQueueService;
+import org.apache.felix.ipojo.extender.internal.queue.JobGraphQueueService;
 import org.apache.felix.ipojo.extender.internal.queue.PrefixedThreadFactory;
 import org.apache.felix.ipojo.extender.internal.queue.SynchronousQueueService;
 import org.apache.felix.ipojo.extender.internal.queue.pref.HeaderPreferenceSelection;
@@ -67,6 +67,13 @@ public class Extender implements BundleActivator {
      */
     private static final String SYNCHRONOUS_PROCESSING = "ipojo.processing.synchronous";
 
+    /**
+     * Property setting the number of threads processing bundles, factories and instances
+     * asynchronously. Jobs of the same bundle, and jobs of the same component type, are
+     * always executed in order. By default, the number of available processors is used.
+     */
+    private static final String PROCESSING_THREADS = "ipojo.processing.threads";
+
     /**
      * The Bundle Context of the iPOJO Core bundle.
      */
@@ -137,7 +144,8 @@ public class Extender implements BundleActivator {
                     m_logger);
         } else {
             SynchronousQueueService sync = new SynchronousQueueService(context);
-            ExecutorQueueService async = new ExecutorQueueService(context, 1, new PrefixedThreadFactory("[iPOJO] "));
+            JobGraphQueueService async = new JobGraphQueueService(context, getProcessingThreads(context, m_logger),
+                    new PrefixedThreadFactory("[iPOJO] "));
             m_queueService = new PreferenceQueueService(new HeaderPreferenceSelection(), sync, async);
 
             extensionBundleProcessor = new QueuingActivationProcessor(extensionBundleProcessor, m_queueService);
@@ -289,5 +297,38 @@ public class Extender implements BundleActivator {
 
     }
 
+    /**
+     * Gets the number of threads used by the asynchronous processing.
+     * This method checks the {@link Extender#PROCESSING_THREADS} property, set as a system
+     * property ({@literal ipojo.processing.threads}) or inside the iPOJO bundle manifest.
+     * If not set or invalid, the number of available processors is returned.
+     *
+     * @param context the bundle context.
+     * @param logger  the logger to indicates the number of threads.
+     * @return the number of processing threads
+     */
+    private static int getProcessingThreads(BundleContext context, Logger logger) {
+        String value = context.getProperty(PROCESSING_THREADS);
+
+        // If null, look in bundle manifest
+        if (value == null) {
+            String key = PROCESSING_THREADS.replace('.', '-');
+            value = (String) context.getBundle().getHeaders().get(key);
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (value != null) {
+            try {
+                threads = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                logger.log(Logger.WARNING, "Invalid number of iPOJO processing threads: " + value);
+            }
+        }
+        threads = Math.max(1, threads);
+
+        logger.log(Logger.INFO, "iPOJO asynchronous processing uses " + threads + " thread(s)");
+        return threads;
+    }
+
 
 }
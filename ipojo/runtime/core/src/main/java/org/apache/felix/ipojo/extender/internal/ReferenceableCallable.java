@@ -19,6 +19,7 @@
 
 package org.apache.felix.ipojo.extender.internal;
 
+import org.apache.felix.ipojo.extender.internal.queue.OrderedJob;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleReference;
 
@@ -27,9 +28,10 @@ import java.util.concurrent.Callable;
 /**
  * A callable object implementing Bundle Reference.
  * It makes the Bundle object accessible by the processing job.
+ * By default, the jobs of a same bundle are ordered (see {@link OrderedJob}).
  * This class is intended to be extended.
  */
-public abstract class ReferenceableCallable<T> implements Callable<T>, BundleReference {
+public abstract class ReferenceableCallable<T> implements Callable<T>, BundleReference, OrderedJob {
     /**
      * The bundle object.
      */
@@ -53,4 +55,14 @@ public abstract class ReferenceableCallable<T> implements Callable<T>, BundleRef
         return m_bundle;
     }
 
+    /**
+     * Gets the keys ordering this job.
+     * By default, the job is ordered with the other jobs of the same bundle.
+     *
+     * @return the bundle
+     */
+    public Object[] getOrderingKeys() {
+        return new Object[] {m_bundle};
+    }
+
 }
@@ -207,6 +207,16 @@ public class ManagedType implements FactoryStateListener, Lifecycle {
             if (service instanceof ExtensionDeclaration) {
                 m_future = m_queueService.submit(new ReferenceableCallable<IPojoFactory>(reference.getBundle()) {
 
+                    /**
+                     * The factory is built before the instances of the type are created, but
+                     * independently of the other jobs of the extension bundle.
+                     * @return the type declaration
+                     */
+                    @Override
+                    public Object[] getOrderingKeys() {
+                        return new Object[] {m_declaration};
+                    }
+
                     /**
                      * The factory creation job.
                      * @return the IPojoFactory
@@ -296,6 +306,17 @@ public class ManagedType implements FactoryStateListener, Lifecycle {
                 }
 
                 return m_queueService.submit(new ReferenceableCallable<ComponentInstance>(reference.getBundle()) {
+
+                    /**
+                     * Instances are created once the factory job is completed, so the job
+                     * never waits for the factory future while holding a thread.
+                     * @return the type declaration
+                     */
+                    @Override
+                    public Object[] getOrderingKeys() {
+                        return new Object[] {m_declaration};
+                    }
+
                     public ComponentInstance call() throws Exception {
                         try {
                             // Create the component's instance
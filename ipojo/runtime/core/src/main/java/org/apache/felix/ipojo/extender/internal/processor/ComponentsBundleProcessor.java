@@ -63,6 +63,7 @@ public class ComponentsBundleProcessor implements BundleProcessor {
 
     /**
      * Registry storing the bundle to components and instances declared within this bundle.
+     * Bundles are processed concurrently, access is guarded by the map itself.
      */
     private final Map<Bundle, ComponentsAndInstances> m_registry = new HashMap<Bundle, ComponentsAndInstances>();
 
@@ -107,7 +108,10 @@ public class ComponentsBundleProcessor implements BundleProcessor {
      * @param bundle the bundle
      */
     public void deactivate(Bundle bundle) {
-        ComponentsAndInstances cai = m_registry.remove(bundle);
+        ComponentsAndInstances cai;
+        synchronized (m_registry) {
+            cai = m_registry.remove(bundle);
+        }
         if (cai != null) {
             cai.stop();
         }
@@ -196,12 +200,14 @@ public class ComponentsBundleProcessor implements BundleProcessor {
      * @return the set of component and instances declared by the bundle, <code>null</code> otherwise
      */
     private ComponentsAndInstances getComponentsAndInstances(Bundle bundle) {
-        ComponentsAndInstances cai = m_registry.get(bundle);
-        if (cai == null) {
-            cai = new ComponentsAndInstances();
-            m_registry.put(bundle, cai);
+        synchronized (m_registry) {
+            ComponentsAndInstances cai = m_registry.get(bundle);
+            if (cai == null) {
+                cai = new ComponentsAndInstances();
+                m_registry.put(bundle, cai);
+            }
+            return cai;
         }
-        return cai;
     }
 
     /**
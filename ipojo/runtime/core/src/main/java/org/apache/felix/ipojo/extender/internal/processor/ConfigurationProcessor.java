@@ -56,7 +56,7 @@ public class ConfigurationProcessor implements BundleProcessor {
 
     /**
      * Registry storing the bundle to components and instances declared within this bundle.
-     * Only instances are expected.
+     * Only instances are expected. Bundles are processed concurrently, access is guarded by the map itself.
      */
     private final Map<Bundle, ComponentsAndInstances> m_registry = new HashMap<Bundle, ComponentsAndInstances>();
 
@@ -143,7 +143,10 @@ public class ConfigurationProcessor implements BundleProcessor {
     public void deactivate(Bundle bundle) {
         if (! m_enabled) { return; }
 
-        ComponentsAndInstances cai = m_registry.remove(bundle);
+        ComponentsAndInstances cai;
+        synchronized (m_registry) {
+            cai = m_registry.remove(bundle);
+        }
         if (cai != null) {
             cai.stop();
         }
@@ -293,12 +296,14 @@ public class ConfigurationProcessor implements BundleProcessor {
      * @return the set of component and instances declared by the bundle, <code>null</code> otherwise
      */
     private ComponentsAndInstances getComponentsAndInstances(Bundle bundle) {
-        ComponentsAndInstances cai = m_registry.get(bundle);
-        if (cai == null) {
-            cai = new ComponentsAndInstances();
-            m_registry.put(bundle, cai);
+        synchronized (m_registry) {
+            ComponentsAndInstances cai = m_registry.get(bundle);
+            if (cai == null) {
+                cai = new ComponentsAndInstances();
+                m_registry.put(bundle, cai);
+            }
+            return cai;
         }
-        return cai;
     }
 
     /**
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.extender.internal.queue;
+
+import org.apache.felix.ipojo.extender.internal.AbstractService;
+import org.apache.felix.ipojo.extender.internal.LifecycleQueueService;
+import org.apache.felix.ipojo.extender.queue.Callback;
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+import org.apache.felix.ipojo.extender.queue.QueueService;
+import org.osgi.framework.BundleContext;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * An asynchronous implementation of the queue service scheduling jobs according to their dependencies.
+ * Submitted jobs implementing {@link OrderedJob} form a graph: a job depends on the last submitted job of each of
+ * its keys, and is handed to the thread pool once all these jobs are completed. So, jobs sharing a key (such as
+ * the processing steps of a bundle, or the creation of a factory and of its instances) are executed in submission
+ * order, while independent jobs are executed concurrently. Unlike a single threaded executor, a waiting job never
+ * holds a thread.
+ */
+public class JobGraphQueueService extends AbstractService implements LifecycleQueueService {
+
+    /**
+     * The executor service.
+     */
+    private final ExecutorService m_executorService;
+
+    /**
+     * The statistics populated by this queue service.
+     */
+    private final Statistic m_statistic = new Statistic();
+
+    /**
+     * The last submitted and not yet completed job of each key.
+     * This map also guards the graph structure (pending counters and successors).
+     */
+    private final Map<Object, JobNode> m_tails = new HashMap<Object, JobNode>();
+
+    /**
+     * Creates the queue service.
+     *
+     * @param bundleContext the bundle context.
+     * @param size          the thread pool size
+     * @param threadFactory the thread factory
+     */
+    public JobGraphQueueService(BundleContext bundleContext, int size, ThreadFactory threadFactory) {
+        super(bundleContext, QueueService.class);
+        m_executorService = Executors.newFixedThreadPool(size, threadFactory);
+    }
+
+    /**
+     * Stops the service.
+     */
+    public void stop() {
+        m_executorService.shutdown();
+        // Wait for potential executed tasks to finish their executions
+        try {
+            m_executorService.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            // Ignored
+        }
+        super.stop();
+    }
+
+    @Override
+    protected Dictionary<String, ?> getServiceProperties() {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put(QueueService.QUEUE_MODE_PROPERTY, QueueService.ASYNCHRONOUS_QUEUE_MODE);
+        return properties;
+    }
+
+    public int getFinished() {
+        return m_statistic.getFinishedCounter().get();
+    }
+
+    public int getWaiters() {
+        return m_statistic.getWaiters().size();
+    }
+
+    public int getCurrents() {
+        return m_statistic.getCurrentsCounter().get();
+    }
+
+    public List<JobInfo> getWaitersInfo() {
+        List<JobInfo> snapshot;
+        synchronized (m_statistic.getWaiters()) {
+            snapshot = new ArrayList<JobInfo>(m_statistic.getWaiters());
+        }
+        return Collections.unmodifiableList(snapshot);
+    }
+
+    /**
+     * @return the statistics populated by this queue service.
+     */
+    public Statistic getStatistic() {
+        return m_statistic;
+    }
+
+    /**
+     * Submits a job to the queue. The submitted job is wrapped into a {@link JobInfoCallable} to collect the
+     * statistics. The job is executed once all the jobs it depends on are completed.
+     *
+     * @param callable    the job
+     * @param callback    callback called when the job is processed
+     * @param description a description of the job
+     * @return the reference on the submitted job
+     */
+    public <T> Future<T> submit(Callable<T> callable, Callback<T> callback, String description) {
+        JobInfoCallable<T> info = new JobInfoCallable<T>(m_statistic, callable, callback, description);
+        FutureTask<T> task = new FutureTask<T>(info);
+        Object[] keys = null;
+        if (callable instanceof OrderedJob) {
+            keys = ((OrderedJob) callable).getOrderingKeys();
+        }
+        schedule(new JobNode(task, info, keys));
+        return task;
+    }
+
+    public <T> Future<T> submit(Callable<T> callable, String description) {
+        return submit(callable, null, description);
+    }
+
+    public <T> Future<T> submit(Callable<T> callable) {
+        return submit(callable, "No description");
+    }
+
+    /**
+     * Adds the job to the graph and executes it if it does not depend on any running or waiting job.
+     *
+     * @param node the job
+     */
+    private void schedule(JobNode node) {
+        boolean ready;
+        synchronized (m_tails) {
+            for (Object key : node.m_keys) {
+                JobNode predecessor = m_tails.put(key, node);
+                if (predecessor != null && predecessor != node && !predecessor.m_successors.contains(node)) {
+                    predecessor.m_successors.add(node);
+                    node.m_pending++;
+                }
+            }
+            ready = node.m_pending == 0;
+        }
+        if (ready) {
+            execute(node);
+        }
+    }
+
+    /**
+     * Removes the completed job from the graph and executes the jobs waiting only for it.
+     *
+     * @param node the completed job
+     */
+    private void completed(JobNode node) {
+        List<JobNode> ready = new ArrayList<JobNode>();
+        synchronized (m_tails) {
+            for (Object key : node.m_keys) {
+                if (m_tails.get(key) == node) {
+                    m_tails.remove(key);
+                }
+            }
+            for (JobNode successor : node.m_successors) {
+                if (--successor.m_pending == 0) {
+                    ready.add(successor);
+                }
+            }
+        }
+        for (JobNode successor : ready) {
+            execute(successor);
+        }
+    }
+
+    /**
+     * Hands the job to the thread pool. If the pool is shut down, the job is cancelled.
+     *
+     * @param node the job
+     */
+    private void execute(JobNode node) {
+        try {
+            m_executorService.execute(node);
+        } catch (RejectedExecutionException e) {
+            node.m_task.cancel(false);
+            m_statistic.getWaiters().remove(node.m_info);
+            completed(node);
+        }
+    }
+
+    /**
+     * A node of the job graph.
+     */
+    private final class JobNode implements Runnable {
+
+        /**
+         * The job.
+         */
+        private final FutureTask<?> m_task;
+
+        /**
+         * The job statistics.
+         */
+        private final JobInfo m_info;
+
+        /**
+         * The keys of the job.
+         */
+        private final Object[] m_keys;
+
+        /**
+         * The jobs depending on this job.
+         */
+        private final List<JobNode> m_successors = new ArrayList<JobNode>(1);
+
+        /**
+         * The number of not yet completed jobs this job depends on.
+         */
+        private int m_pending;
+
+        private JobNode(FutureTask<?> task, JobInfo info, Object[] keys) {
+            m_task = task;
+            m_info = info;
+            m_keys = (keys == null) ? new Object[0] : keys;
+        }
+
+        public void run() {
+            try {
+                m_task.run();
+            } finally {
+                completed(this);
+            }
+        }
+    }
+
+}
@@ -108,6 +108,8 @@ public class JobInfoCallable<T> implements Callable<T>, JobInfo {
             m_statistic.getCurrentsCounter().decrementAndGet();
             m_statistic.getFinishedCounter().incrementAndGet();
             endTime = System.currentTimeMillis();
+            m_statistic.getWaitTimeCounter().addAndGet(getWaitDuration());
+            m_statistic.getExecutionTimeCounter().addAndGet(getExecutionDuration());
             if (m_callback != null) {
                 m_callback.success(this, result);
             }
@@ -0,0 +1,33 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.extender.internal.queue;
+
+/**
+ * A job declaring the keys it depends on.
+ * The {@link JobGraphQueueService} starts such a job only once all the jobs previously submitted with at least one
+ * common key are completed. Jobs without common keys are executed concurrently.
+ */
+public interface OrderedJob {
+
+    /**
+     * @return the keys of this job, {@literal null} or empty if the job does not depend on any other job.
+     */
+    Object[] getOrderingKeys();
+}
@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Objects wrapping the {@link org.apache.felix.ipojo.extender.queue.QueueService} statistics.
@@ -45,6 +46,16 @@ public class Statistic {
      */
     private final AtomicInteger m_currents = new AtomicInteger(0);
 
+    /**
+     * The cumulated time (in milli) spent by completed jobs in the waiting queue.
+     */
+    private final AtomicLong m_waitTime = new AtomicLong(0);
+
+    /**
+     * The cumulated execution time (in milli) of completed jobs.
+     */
+    private final AtomicLong m_executionTime = new AtomicLong(0);
+
     /**
      * @return the number of completed jobs.
      */
@@ -66,5 +77,19 @@ public class Statistic {
         return m_currents;
     }
 
+    /**
+     * @return the cumulated time (in milli) spent by completed jobs in the waiting queue.
+     */
+    public AtomicLong getWaitTimeCounter() {
+        return m_waitTime;
+    }
+
+    /**
+     * @return the cumulated execution time (in milli) of completed jobs.
+     */
+    public AtomicLong getExecutionTimeCounter() {
+        return m_executionTime;
+    }
+
 
 }
@@ -28,6 +28,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
@@ -37,9 +38,9 @@ import java.util.Vector;
 import org.apache.felix.ipojo.ConfigurationException;
 import org.apache.felix.ipojo.ConstructorInterceptor;
 import org.apache.felix.ipojo.ConstructorInvocationContext;
-import org.apache.felix.ipojo.FieldInterceptor;
 import org.apache.felix.ipojo.FieldInvocationContext;
 import org.apache.felix.ipojo.FieldInvocationContext.Type;
+import org.apache.felix.ipojo.FieldReadInterceptor;
 import org.apache.felix.ipojo.InstanceManager;
 import org.apache.felix.ipojo.MethodInterceptor;
 import org.apache.felix.ipojo.MethodInvocationContext;
@@ -55,7 +56,7 @@ import org.osgi.framework.ServiceReference;
  * Represent a service dependency of the component instance.
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
-public class Dependency extends DependencyModel implements FieldInterceptor, MethodInterceptor,
+public class Dependency extends DependencyModel implements FieldReadInterceptor, MethodInterceptor,
     ConstructorInterceptor {
 
     /**
@@ -139,6 +140,33 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      */
     private int m_index = -1;
 
+    /**
+     * Is the snapshot injection mode enabled?
+     * In this mode, the injected objects are not computed per thread and per
+     * method flow, but published as an immutable snapshot updated on service
+     * arrivals, departures and modifications.
+     * Immutable once set.
+     */
+    private boolean m_isSnapshot;
+
+    /**
+     * The current snapshot of the injected object, <code>null</code> if it
+     * needs to be (re)computed.
+     */
+    private volatile Snapshot m_snapshot;
+
+    /**
+     * The number of snapshot invalidations, used to not publish a snapshot
+     * computed before the last invalidation.
+     * Guarded by the snapshot lock.
+     */
+    private int m_snapshotGeneration;
+
+    /**
+     * The lock guarding the snapshot generation.
+     */
+    private final Object m_snapshotLock = new Object();
+
     /**
      * Dependency constructor. After the creation the dependency is not started.
      *
@@ -231,6 +259,9 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
     public synchronized void stop() {
         m_isStarted = false;
         super.stop();
+        if (m_isSnapshot) {
+            invalidateSnapshot();
+        }
     }
 
     public DependencyHandler getHandler() {
@@ -493,7 +524,9 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
             m_isStarted = true;
         }
 
-
+        if (m_isSnapshot) {
+            updateSnapshot();
+        }
     }
 
     protected DependencyCallback[] getCallbacks() {
@@ -524,6 +557,9 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      * @see org.apache.felix.ipojo.util.DependencyModel#onServiceArrival(org.osgi.framework.ServiceReference)
      */
     public void onServiceArrival(ServiceReference reference) {
+        if (m_isSnapshot) {
+            updateSnapshot();
+        }
         callBindMethod(reference);
         //The method is only called when a new service arrives, or when the used one is replaced.
     }
@@ -534,6 +570,9 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      * @see org.apache.felix.ipojo.util.DependencyModel#onServiceModification(org.osgi.framework.ServiceReference)
      */
     public void onServiceModification(ServiceReference reference) {
+        if (m_isSnapshot) {
+            updateSnapshot();
+        }
         callModifyMethod(reference);
     }
 
@@ -543,6 +582,9 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      * @see org.apache.felix.ipojo.util.DependencyModel#onServiceDeparture(org.osgi.framework.ServiceReference)
      */
     public void onServiceDeparture(ServiceReference ref) {
+        if (m_isSnapshot) {
+            updateSnapshot();
+        }
         callUnbindMethod(ref);
     }
 
@@ -555,6 +597,9 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      * @see org.apache.felix.ipojo.util.DependencyModel#onDependencyReconfiguration(org.osgi.framework.ServiceReference[], org.osgi.framework.ServiceReference[])
      */
     public void onDependencyReconfiguration(ServiceReference[] departs, ServiceReference[] arrivals) {
+        if (m_isSnapshot) {
+            updateSnapshot();
+        }
         for (int i = 0; departs != null && i < departs.length; i++) {
             callUnbindMethod(departs[i]);
         }
@@ -568,7 +613,9 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      * Reset the thread local cache if used.
      */
     public void resetLocalCache() {
-        if (m_usage != null) {
+        if (m_isSnapshot) {
+            updateSnapshot();
+        } else if (m_usage != null) {
             Usage usage = (Usage) m_usage.get();
             if (usage.m_stack > 0) {
                 createServiceObject(usage);
@@ -601,6 +648,10 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
             throw new IllegalStateException("The dependency is not a proxied dependency");
         }
 
+        if (m_isSnapshot) {
+            return asList(copyOnRead(getSnapshot().m_object));
+        }
+
         Usage usage = (Usage) m_usage.get();
         if (usage.m_stack == 0) { // uninitialized usage.
             if (usage.m_componentStack > 0) {
@@ -675,9 +726,16 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      * @param fieldName : field
      * @param value : last value.
      * @return the service object or a nullable / default implementation if defined.
-     * @see org.apache.felix.ipojo.FieldInterceptor#onGet(java.lang.Object, java.lang.String, java.lang.Object)
+     * @see org.apache.felix.ipojo.FieldReadInterceptor#onGet(java.lang.Object, java.lang.String, java.lang.Object)
      */
     public Object onGet(Object pojo, String fieldName, Object value) {
+        if (m_isSnapshot) {
+            // A single volatile read, no thread local.
+            if (m_isProxy) {
+                return m_proxyObject;
+            }
+            return copyOnRead(getSnapshot().m_object);
+        }
 
         // Initialize the thread local object is not already touched.
         Usage usage = (Usage) m_usage.get();
@@ -711,6 +769,15 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      * @param usage : Thread Local to populate.
      */
     private void createServiceObject(Usage usage) {
+        usage.m_object = computeServiceObject();
+    }
+
+    /**
+     * Computes the object to inject from the currently used service references.
+     * @return the service object, the nullable / default-implementation object, or
+     * the array / collection of service objects for aggregate dependencies.
+     */
+    private Object computeServiceObject() {
         ServiceReference[] refs = getServiceReferences();
         if (! isAggregate()) {
             if (refs == null) {
@@ -718,16 +785,16 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
                     m_handler.warn("[" + m_handler.getInstanceManager().getInstanceName() + "] The dependency is not optional, however no service object can be injected in " + m_field + " -> " + getSpecification().getName());
                     createNullableObject();
                 }
-                usage.m_object = m_nullable; // Add null if the Nullable pattern is disable.
+                return m_nullable; // Add null if the Nullable pattern is disable.
             } else {
                 ServiceReference ref = getServiceReference();
-                usage.m_object = getService(ref);
+                return getService(ref);
             }
         } else {
             if (m_type == 0) { // Array
                 try {
                     if (refs == null) {
-                        usage.m_object = (Object[]) Array.newInstance(getSpecification(), 0); // Create an empty array.
+                        return (Object[]) Array.newInstance(getSpecification(), 0); // Create an empty array.
                     } else {
                         //  Use a reflective construction to avoid class cast exception. This method allows setting the component type.
                         Object[] objs = (Object[]) Array.newInstance(getSpecification(), refs.length);
@@ -735,7 +802,7 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
                             ServiceReference ref = refs[i];
                             objs[i] = getService(ref);
                         }
-                        usage.m_object = objs;
+                        return objs;
                     }
                 } catch (ArrayStoreException e) {
                     m_handler.error("Cannot create the array - Check that the bundle can access the service interface", e);
@@ -743,7 +810,7 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
                 }
             } else if (m_type == DependencyHandler.LIST) {
                 if (refs == null) {
-                    usage.m_object = new ArrayList(0); // Create an empty list.
+                    return new ArrayList(0); // Create an empty list.
                 } else {
                    // Use a list to store service objects
                     List objs = new ArrayList(refs.length);
@@ -751,11 +818,11 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
                         ServiceReference ref = refs[i];
                         objs.add(getService(ref));
                     }
-                    usage.m_object = objs;
+                    return objs;
                 }
             } else if (m_type == DependencyHandler.VECTOR) {
                 if (refs == null) {
-                    usage.m_object = new Vector(0); // Create an empty vector.
+                    return new Vector(0); // Create an empty vector.
                 } else {
                    // Use a vector to store service objects
                     Vector objs = new Vector(refs.length);
@@ -763,11 +830,11 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
                         ServiceReference ref = refs[i];
                         objs.add(getService(ref));
                     }
-                    usage.m_object = objs;
+                    return objs;
                 }
             } else if (m_type == DependencyHandler.SET) {
                 if (refs == null) {
-                    usage.m_object = new HashSet(0); // Create an empty vector.
+                    return new HashSet(0); // Create an empty vector.
                 } else {
                    // Use a vector to store service objects
                     Set objs = new HashSet(refs.length);
@@ -775,13 +842,18 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
                         ServiceReference ref = refs[i];
                         objs.add(getService(ref));
                     }
-                    usage.m_object = objs;
+                    return objs;
                 }
             }
         }
+        return null;
     }
 
     public Object onMethodCall(MethodInvocationContext context) throws Throwable {
+        if (m_isSnapshot) {
+            // No per method flow consistency to maintain.
+            return context.proceed();
+        }
         if (m_usage != null) {
             Usage usage = (Usage) m_usage.get();
             usage.incComponentStack(); // Increment the number of component access.
@@ -827,6 +899,108 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
         m_isProxy = proxy;
     }
 
+    public boolean isSnapshot() {
+        return m_isSnapshot;
+    }
+
+    /**
+     * Enables or disables the snapshot injection mode.
+     * This method is called during the configuration.
+     * @param snapshot <code>true</code> to inject an immutable snapshot of
+     * the service objects instead of computing them per thread and per method flow.
+     */
+    public void setSnapshot(boolean snapshot) {
+        m_isSnapshot = snapshot;
+    }
+
+    /**
+     * Gets the current snapshot, computing it if it was invalidated.
+     * @return the snapshot of the injected object.
+     */
+    private Snapshot getSnapshot() {
+        Snapshot snapshot = m_snapshot;
+        if (snapshot == null) {
+            int generation;
+            synchronized (m_snapshotLock) {
+                generation = m_snapshotGeneration;
+            }
+            snapshot = publishSnapshot(generation);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Invalidates the current snapshot and computes a new one.
+     * Called when the set of used services changes.
+     */
+    private void updateSnapshot() {
+        publishSnapshot(invalidateSnapshot());
+    }
+
+    /**
+     * Invalidates the current snapshot.
+     * @return the new snapshot generation.
+     */
+    private int invalidateSnapshot() {
+        synchronized (m_snapshotLock) {
+            m_snapshot = null;
+            return ++m_snapshotGeneration;
+        }
+    }
+
+    /**
+     * Computes a snapshot and publishes it unless it was invalidated
+     * in the meantime. The service objects are got outside of any lock.
+     * @param generation the generation the snapshot is computed for.
+     * @return the computed snapshot.
+     */
+    private Snapshot publishSnapshot(int generation) {
+        Object object = computeServiceObject();
+        // Protect shared collections, arrays and vectors cannot be wrapped
+        // and are copied on read instead.
+        if (m_type == DependencyHandler.LIST) {
+            object = Collections.unmodifiableList((List) object);
+        } else if (m_type == DependencyHandler.SET) {
+            object = Collections.unmodifiableSet((Set) object);
+        }
+        Snapshot snapshot = new Snapshot(object);
+        synchronized (m_snapshotLock) {
+            if (generation == m_snapshotGeneration) {
+                m_snapshot = snapshot;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Copies the snapshot arrays and vectors, as they cannot be made
+     * unmodifiable and are shared by all threads.
+     * @param object the injected object
+     * @return a copy of the object if it is an array or a vector,
+     * the object itself otherwise.
+     */
+    private Object copyOnRead(Object object) {
+        if (object instanceof Object[]) {
+            return ((Object[]) object).clone();
+        } else if (object instanceof Vector) {
+            return new Vector((Vector) object);
+        }
+        return object;
+    }
+
+    /**
+     * Returns the given injected object as a list for the proxies
+     * of aggregate dependencies.
+     * @param object the injected object
+     * @return the object, or a list if the object is a set.
+     */
+    private Object asList(Object object) {
+        if (isAggregate() && object instanceof Set) {
+            return new ArrayList((Set) object);
+        }
+        return object;
+    }
+
     /**
      * Set the type to inject.
      * This method set the dependency as aggregate.
@@ -837,6 +1011,21 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
         m_type = type;
     }
 
+    /**
+     * Immutable holder of the object injected in snapshot mode.
+     * The holder allows publishing <code>null</code> objects.
+     */
+    private static final class Snapshot {
+        /**
+         * The injected object.
+         */
+        final Object m_object;
+
+        Snapshot(Object object) {
+            m_object = object;
+        }
+    }
+
     /**
      * Classloader for nullable objects.
      */
@@ -1043,6 +1232,13 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
     public void onConstructorCall(ConstructorInvocationContext context)
         throws Throwable {
       // The constructor is going to be call, initialize the service usage.
+      if (m_isSnapshot) {
+          if (m_index != -1 && m_proxyObject != null) {
+              context.getParameters().set(m_index, m_proxyObject);
+          }
+          context.proceed();
+          return;
+      }
       if (m_usage != null) {
           Usage usage = (Usage) m_usage.get();
           usage.incComponentStack(); // Increment the number of component access.
@@ -57,6 +57,8 @@ public class DependencyDescription {
     
     public boolean isProxy() { return m_dependency.isProxy(); }
 
+    public boolean isSnapshot() { return m_dependency.isSnapshot(); }
+
     
     /**
      * Gets <code>true</code> if the dependency uses Nullable objects.
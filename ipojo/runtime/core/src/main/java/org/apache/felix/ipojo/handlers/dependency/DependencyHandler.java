@@ -439,6 +439,10 @@ public class DependencyHandler extends PrimitiveHandler implements DependencySta
 
             Dependency dep = new Dependency(this, field, spec, fil, optional, aggregate, nullable, isProxy, identity, context, policy, cmp, defaultImpl);
 
+            // Snapshot injection mode, for components not requiring per method flow consistency
+            String snapshot = dependencyElement.getAttribute("snapshot");
+            dep.setSnapshot(snapshot != null && snapshot.equalsIgnoreCase("true"));
+
             // Look for dependency callback :
             addCallbacksToDependency(dependencyElement, dep);
 
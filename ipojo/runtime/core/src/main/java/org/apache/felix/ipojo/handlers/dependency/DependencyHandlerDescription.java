@@ -129,6 +129,10 @@ public class DependencyHandlerDescription extends HandlerDescription {
             } else {
                 dep.addAttribute(new Attribute("Proxy", "false"));
             }
+
+            if (m_dependencies[i].isSnapshot()) {
+                dep.addAttribute(new Attribute("Snapshot", "true"));
+            }
             
             String policy = "dynamic";
             if (m_dependencies[i].getPolicy() == DependencyModel.STATIC_BINDING_POLICY) {
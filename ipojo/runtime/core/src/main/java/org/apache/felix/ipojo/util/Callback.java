@@ -31,10 +31,27 @@ import org.apache.felix.ipojo.parser.MethodMetadata;
  * implementation class. This class also supports public method from super class.
  * The {@link Method} object is computed once and this computation is delayed
  * to the first invocation.
+ * <p>
+ * Once a callback has been invoked {@link #INVOKER_THRESHOLD_PROPERTY} times
+ * (16 by default), a {@link CallbackInvoker} calling the method directly is
+ * generated and replaces reflection. Only public methods can be invoked this
+ * way, other methods are always called using reflection. A negative threshold
+ * disables the generation.
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class Callback {
 
+    /**
+     * The system property setting the number of reflective invocations of a
+     * callback before generating its invoker.
+     */
+    public static final String INVOKER_THRESHOLD_PROPERTY = "ipojo.callback.invoker.threshold";
+
+    /**
+     * The number of reflective invocations before generating the invoker.
+     */
+    private static final int INVOKER_THRESHOLD = getInvokerThreshold();
+
     /**
      * The method object.
      * Computed at the first call.
@@ -64,6 +81,22 @@ public class Callback {
      */
     private String[] m_args;
 
+    /**
+     * The generated invoker, <code>null</code> until generated.
+     */
+    private volatile CallbackInvoker m_invoker;
+
+    /**
+     * The number of reflective invocations.
+     * Not synchronized, the threshold does not need to be exact.
+     */
+    private int m_reflectiveCalls;
+
+    /**
+     * Set to <code>true</code> when no invoker can be generated for the method.
+     */
+    private volatile boolean m_invokerUnavailable;
+
     /**
      * Creates a Callback.
      * If the argument array is not null the reflection type are computed.
@@ -224,17 +257,18 @@ public class Callback {
         }
 
         if (m_isStatic) {
-            return m_methodObj.invoke(null, arg);
+            return invoke(null, arg);
         } else {
             // Two cases :
             // - if instances already exists : call on each instances
             // - if no instance exists : create an instance
-            if (m_manager.getPojoObjects() == null) {
-                return  m_methodObj.invoke(m_manager.getPojoObject(), arg);
+            Object[] pojos = m_manager.getPojoObjects();
+            if (pojos == null) {
+                return invoke(m_manager.getPojoObject(), arg);
             } else {
                 Object newObject = null;
-                for (int i = 0; i < m_manager.getPojoObjects().length; i++) {
-                    newObject = m_methodObj.invoke(m_manager.getPojoObjects()[i], arg);
+                for (int i = 0; i < pojos.length; i++) {
+                    newObject = invoke(pojos[i], arg);
                 }
                 return newObject;
             }
@@ -257,9 +291,70 @@ public class Callback {
             searchMethod();
         }
 
+        return invoke(instance, arg);
+    }
+
+    /**
+     * Invokes the method object on the given instance, using the generated
+     * invoker when available.
+     * @param instance the instance on which call the method, <code>null</code>
+     * for static methods
+     * @param arg the argument array
+     * @return the result of the invocation
+     * @throws IllegalAccessException if the callback method cannot be called
+     * @throws InvocationTargetException if an error is thrown by the called method
+     */
+    private Object invoke(Object instance, Object[] arg) throws IllegalAccessException, InvocationTargetException {
+        CallbackInvoker invoker = m_invoker;
+        if (invoker == null) {
+            invoker = inflate();
+        }
+        if (invoker != null) {
+            try {
+                return invoker.invoke(instance, arg);
+            } catch (RuntimeException e) {
+                // Thrown before calling the method (null instance, argument mismatch),
+                // let reflection report the error.
+            }
+        }
         return m_methodObj.invoke(instance, arg);
     }
 
+    /**
+     * Counts a reflective invocation and generates the invoker once the
+     * threshold is reached.
+     * @return the generated invoker, <code>null</code> if reflection must be used
+     */
+    private CallbackInvoker inflate() {
+        if (INVOKER_THRESHOLD < 0 || m_invokerUnavailable || m_reflectiveCalls++ < INVOKER_THRESHOLD) {
+            return null;
+        }
+        CallbackInvoker invoker = CallbackInvokerGenerator.getInvoker(m_methodObj);
+        if (invoker == null) {
+            m_invokerUnavailable = true;
+        } else {
+            m_invoker = invoker;
+        }
+        return invoker;
+    }
+
+    /**
+     * Reads the invoker threshold from the {@link #INVOKER_THRESHOLD_PROPERTY}
+     * system property.
+     * @return the threshold, 16 if not set or invalid
+     */
+    private static int getInvokerThreshold() {
+        String value = System.getProperty(INVOKER_THRESHOLD_PROPERTY);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                // Use the default value.
+            }
+        }
+        return 16;
+    }
+
     /**
      * Gets the method name.
      * @return the method name
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.ipojo.util;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * A direct-call stub invoking a single callback method.
+ * Implementations are generated at runtime by {@link CallbackInvokerGenerator}
+ * and are used by {@link Callback} instead of {@link java.lang.reflect.Method#invoke(Object, Object[])}.
+ * <p>
+ * Exceptions thrown by the called method are wrapped into an
+ * {@link InvocationTargetException}. Any other exception (wrong argument
+ * types, <code>null</code> primitive arguments...) is raised before the
+ * method is called, so the caller can safely retry using reflection.
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public interface CallbackInvoker {
+
+    /**
+     * Calls the method.
+     * @param target the object on which the method is called, ignored for static methods
+     * @param args the method arguments
+     * @return the returned value (boxed for primitive types), <code>null</code>
+     * for <code>void</code> methods
+     * @throws InvocationTargetException if the method throws an exception
+     */
+    Object invoke(Object target, Object[] args) throws InvocationTargetException;
+
+}
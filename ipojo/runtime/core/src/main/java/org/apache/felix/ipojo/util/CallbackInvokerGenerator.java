@@ -0,0 +1,414 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.ipojo.util;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates {@link CallbackInvoker} stubs calling a method directly instead
+ * of going through reflection.
+ * <p>
+ * The generated class is defined in its own class loader (child of the
+ * class loader of the method's declaring class), so only public methods
+ * of public classes, whose signature only uses public types, can be called.
+ * For any other method, {@link #getInvoker(Method)} returns <code>null</code>
+ * and the caller keeps using reflection.
+ * <p>
+ * Invokers are cached per method, so several callbacks targeting the same method
+ * share the same generated class.
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+final class CallbackInvokerGenerator implements Opcodes {
+
+    /**
+     * The internal name of the invoker interface.
+     */
+    private static final String INVOKER_INTERNAL_NAME = Type.getInternalName(CallbackInvoker.class);
+
+    /**
+     * The descriptor of the {@link CallbackInvoker#invoke(Object, Object[])} method.
+     */
+    private static final String INVOKE_DESC = "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
+
+    /**
+     * The internal name of the {@link java.lang.reflect.InvocationTargetException} class.
+     */
+    private static final String ITE_INTERNAL_NAME = "java/lang/reflect/InvocationTargetException";
+
+    /**
+     * Counter used to create unique class names.
+     */
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    /**
+     * The invoker class loaders, one per class loader of declaring classes.
+     * The values are weak references as the invoker class loaders reference
+     * their parent class loader. Invoker class loaders are kept alive by the
+     * generated invokers in use.
+     */
+    private static final Map<ClassLoader, WeakReference<InvokerClassLoader>> LOADERS =
+            new WeakHashMap<ClassLoader, WeakReference<InvokerClassLoader>>();
+
+    /**
+     * Utility class, no instances.
+     */
+    private CallbackInvokerGenerator() { }
+
+    /**
+     * Gets an invoker calling the given method.
+     * @param method the method
+     * @return the invoker, or <code>null</code> if the method cannot be called
+     * without reflection or if the invoker cannot be generated.
+     */
+    static CallbackInvoker getInvoker(Method method) {
+        if (!isSupported(method)) {
+            return null;
+        }
+        try {
+            return getClassLoader(method.getDeclaringClass().getClassLoader()).getInvoker(method);
+        } catch (Throwable e) { // NOPMD - LinkageError, SecurityException...
+            // Keep on using reflection.
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether the given method can be called from a generated invoker.
+     * @param method the method
+     * @return <code>true</code> if the method and all the types from its
+     * signature are accessible from any package.
+     */
+    static boolean isSupported(Method method) {
+        Class declaring = method.getDeclaringClass();
+        if (!Modifier.isPublic(method.getModifiers()) || !isAccessible(declaring)) {
+            return false;
+        }
+        if (declaring.isInterface() && Modifier.isStatic(method.getModifiers())) {
+            return false;
+        }
+        if (!isAccessible(method.getReturnType())) {
+            return false;
+        }
+        Class[] params = method.getParameterTypes();
+        for (int i = 0; i < params.length; i++) {
+            if (!isAccessible(params[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the given class is accessible from any package.
+     * @param clazz the class
+     * @return <code>true</code> if the class (and its enclosing classes) is public
+     */
+    private static boolean isAccessible(Class clazz) {
+        while (clazz.isArray()) {
+            clazz = clazz.getComponentType();
+        }
+        if (clazz.isPrimitive()) {
+            return true;
+        }
+        for (Class c = clazz; c != null; c = c.getDeclaringClass()) {
+            if (!Modifier.isPublic(c.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets (or creates) the invoker class loader attached to the given class loader.
+     * @param parent the class loader of the declaring class, <code>null</code> for the bootstrap loader
+     * @return the invoker class loader
+     */
+    private static InvokerClassLoader getClassLoader(ClassLoader parent) {
+        synchronized (LOADERS) {
+            WeakReference<InvokerClassLoader> ref = LOADERS.get(parent);
+            InvokerClassLoader loader = ref == null ? null : ref.get();
+            if (loader == null) {
+                if (parent == null) {
+                    loader = new InvokerClassLoader(CallbackInvoker.class.getClassLoader());
+                } else {
+                    loader = new InvokerClassLoader(parent);
+                }
+                LOADERS.put(parent, new WeakReference<InvokerClassLoader>(loader));
+            }
+            return loader;
+        }
+    }
+
+    /**
+     * Generates the bytecode of an invoker class.
+     * @param className the internal name of the generated class
+     * @param method the called method
+     * @return the class bytecode
+     */
+    static byte[] dumpInvoker(String className, Method method) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SYNTHETIC, className, null, "java/lang/Object",
+                new String[] {INVOKER_INTERNAL_NAME});
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        generateInvoke(cw, method);
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Generates the {@link CallbackInvoker#invoke(Object, Object[])} method.
+     * Only the call itself is protected by the exception handler wrapping
+     * exceptions into {@link java.lang.reflect.InvocationTargetException}:
+     * errors raised while preparing the call (<code>null</code> target,
+     * argument mismatch) are thrown as is, before calling the method.
+     * @param cw the class writer
+     * @param method the called method
+     */
+    private static void generateInvoke(ClassWriter cw, Method method) {
+        Class declaring = method.getDeclaringClass();
+        String owner = Type.getInternalName(declaring);
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        Class[] params = method.getParameterTypes();
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "invoke", INVOKE_DESC, null, new String[] {ITE_INTERNAL_NAME});
+        mv.visitCode();
+
+        Label start = new Label();
+        Label end = new Label();
+        Label handler = new Label();
+        mv.visitTryCatchBlock(start, end, handler, "java/lang/Throwable");
+
+        if (!isStatic) {
+            // Fails with a NullPointerException outside of the protected block.
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitInsn(DUP);
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;");
+            mv.visitInsn(POP);
+            mv.visitTypeInsn(CHECKCAST, owner);
+        }
+
+        for (int i = 0; i < params.length; i++) {
+            mv.visitVarInsn(ALOAD, 2);
+            pushInt(mv, i);
+            mv.visitInsn(AALOAD);
+            if (params[i].isPrimitive()) {
+                Type type = Type.getType(params[i]);
+                String wrapper = getWrapper(type);
+                mv.visitTypeInsn(CHECKCAST, wrapper);
+                mv.visitMethodInsn(INVOKEVIRTUAL, wrapper, type.getClassName() + "Value", "()" + type.getDescriptor());
+            } else {
+                mv.visitTypeInsn(CHECKCAST, Type.getInternalName(params[i]));
+            }
+        }
+
+        mv.visitLabel(start);
+        String desc = Type.getMethodDescriptor(method);
+        if (isStatic) {
+            mv.visitMethodInsn(INVOKESTATIC, owner, method.getName(), desc);
+        } else if (declaring.isInterface()) {
+            mv.visitMethodInsn(INVOKEINTERFACE, owner, method.getName(), desc);
+        } else {
+            mv.visitMethodInsn(INVOKEVIRTUAL, owner, method.getName(), desc);
+        }
+        mv.visitLabel(end);
+
+        Type returnType = Type.getReturnType(method);
+        if (returnType.getSort() == Type.VOID) {
+            mv.visitInsn(ACONST_NULL);
+        } else if (returnType.getSort() != Type.OBJECT && returnType.getSort() != Type.ARRAY) {
+            String wrapper = getWrapper(returnType);
+            mv.visitMethodInsn(INVOKESTATIC, wrapper, "valueOf", "(" + returnType.getDescriptor() + ")L" + wrapper + ";");
+        }
+        mv.visitInsn(ARETURN);
+
+        // Wrap the exception thrown by the called method.
+        mv.visitLabel(handler);
+        mv.visitVarInsn(ASTORE, 3);
+        mv.visitTypeInsn(NEW, ITE_INTERNAL_NAME);
+        mv.visitInsn(DUP);
+        mv.visitVarInsn(ALOAD, 3);
+        mv.visitMethodInsn(INVOKESPECIAL, ITE_INTERNAL_NAME, "<init>", "(Ljava/lang/Throwable;)V");
+        mv.visitInsn(ATHROW);
+
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Pushes an integer constant on the stack.
+     * @param mv the method visitor
+     * @param value the value
+     */
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else {
+            mv.visitIntInsn(SIPUSH, value);
+        }
+    }
+
+    /**
+     * Gets the internal name of the wrapper class of a primitive type.
+     * @param type the primitive type
+     * @return the wrapper internal name
+     */
+    private static String getWrapper(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                return "java/lang/Boolean";
+            case Type.CHAR:
+                return "java/lang/Character";
+            case Type.BYTE:
+                return "java/lang/Byte";
+            case Type.SHORT:
+                return "java/lang/Short";
+            case Type.INT:
+                return "java/lang/Integer";
+            case Type.FLOAT:
+                return "java/lang/Float";
+            case Type.LONG:
+                return "java/lang/Long";
+            case Type.DOUBLE:
+                return "java/lang/Double";
+            default:
+                throw new IllegalArgumentException("Not a primitive type : " + type);
+        }
+    }
+
+    /**
+     * Class loader defining the invokers of the methods declared by classes
+     * of a given class loader.
+     */
+    private static final class InvokerClassLoader extends ClassLoader {
+
+        /**
+         * The generated invokers [Method, Invoker].
+         */
+        private final Map<Method, CallbackInvoker> m_invokers = new HashMap<Method, CallbackInvoker>();
+
+        /**
+         * The classes used by the generated invokers [Name, Class].
+         * Those classes are returned as is, as they may not be visible
+         * (or be another version) from the parent class loader, for example
+         * for classes defined by the factory class loader.
+         */
+        private final Map<String, Class> m_classes = new HashMap<String, Class>();
+
+        /**
+         * Creates the class loader.
+         * @param parent the parent class loader
+         */
+        InvokerClassLoader(ClassLoader parent) {
+            super(parent);
+            m_classes.put(CallbackInvoker.class.getName(), CallbackInvoker.class);
+        }
+
+        /**
+         * Gets (or generates) the invoker of the given method.
+         * @param method the method
+         * @return the invoker
+         * @throws Exception if the invoker cannot be instantiated
+         */
+        synchronized CallbackInvoker getInvoker(Method method) throws Exception {
+            CallbackInvoker invoker = m_invokers.get(method);
+            if (invoker == null) {
+                register(method.getDeclaringClass());
+                register(method.getReturnType());
+                Class[] params = method.getParameterTypes();
+                for (int i = 0; i < params.length; i++) {
+                    register(params[i]);
+                }
+
+                String name = method.getDeclaringClass().getName() + "$$Invoker$" + method.getName() + "$"
+                        + COUNTER.incrementAndGet();
+                // Turn around the VM changes (FELIX-2716) about java.* classes.
+                if (name.startsWith("java.")) {
+                    name = "$" + name;
+                }
+                byte[] clazz = dumpInvoker(name.replace('.', '/'), method);
+                invoker = (CallbackInvoker) defineClass(name, clazz, 0, clazz.length).newInstance();
+                m_invokers.put(method, invoker);
+            }
+            return invoker;
+        }
+
+        /**
+         * Registers a class used by an invoker.
+         * @param clazz the class
+         * @throws IllegalStateException if another class with the same name
+         * is already used by an invoker of this class loader
+         */
+        private void register(Class clazz) {
+            while (clazz.isArray()) {
+                clazz = clazz.getComponentType();
+            }
+            if (!clazz.isPrimitive()) {
+                Class existing = m_classes.get(clazz.getName());
+                if (existing == null) {
+                    m_classes.put(clazz.getName(), clazz);
+                } else if (existing != clazz) {
+                    throw new IllegalStateException("Class " + clazz.getName()
+                            + " already loaded from another class loader");
+                }
+            }
+        }
+
+        /**
+         * Loads the given class.
+         * The classes used by the invokers are returned directly, others
+         * are loaded from the parent class loader.
+         * @param name the class name
+         * @param resolve should be the class resolve now ?
+         * @return the class object
+         * @throws ClassNotFoundException if the class cannot be found
+         * @see java.lang.ClassLoader#loadClass(java.lang.String, boolean)
+         */
+        protected synchronized Class loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            Class clazz = m_classes.get(name);
+            if (clazz != null) {
+                return clazz;
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+
+}
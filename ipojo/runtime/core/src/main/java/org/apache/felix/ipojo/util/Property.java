@@ -27,8 +27,8 @@ import org.apache.felix.ipojo.ComponentInstance;
 import org.apache.felix.ipojo.ConfigurationException;
 import org.apache.felix.ipojo.ConstructorInterceptor;
 import org.apache.felix.ipojo.ConstructorInvocationContext;
-import org.apache.felix.ipojo.FieldInterceptor;
 import org.apache.felix.ipojo.FieldInvocationContext;
+import org.apache.felix.ipojo.FieldReadInterceptor;
 import org.apache.felix.ipojo.Handler;
 import org.apache.felix.ipojo.InstanceManager;
 import org.apache.felix.ipojo.FieldInvocationContext.Type;
@@ -41,7 +41,7 @@ import org.osgi.framework.BundleContext;
  * and constructor injection.
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
-public class Property implements FieldInterceptor, ConstructorInterceptor {
+public class Property implements FieldReadInterceptor, ConstructorInterceptor {
 
     /**
      * Object used for an unvalued property.
@@ -624,7 +624,7 @@ public class Property implements FieldInterceptor, ConstructorInterceptor {
      * @param fieldName the field
      * @param value the last value
      * @return the value if the handler want to inject this value.
-     * @see org.apache.felix.ipojo.FieldInterceptor#onGet(java.lang.Object, java.lang.String, java.lang.Object)
+     * @see org.apache.felix.ipojo.FieldReadInterceptor#onGet(java.lang.Object, java.lang.String, java.lang.Object)
      */
     public synchronized Object onGet(Object pojo, String fieldName, Object value) {
         if (m_value  == NO_VALUE) {
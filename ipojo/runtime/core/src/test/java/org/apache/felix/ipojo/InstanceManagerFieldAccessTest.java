@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.ipojo;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.ipojo.FieldInvocationContext.Type;
+import org.apache.felix.ipojo.parser.FieldMetadata;
+import org.apache.felix.ipojo.util.Logger;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+/**
+ * Checks that reading a field monitored by a single {@link FieldReadInterceptor}
+ * (fast path) behaves like reading it through the interception context (slow path).
+ */
+public class InstanceManagerFieldAccessTest extends TestCase {
+
+    BundleContext context;
+    ComponentFactory factory;
+
+    public void setUp() {
+        context = (BundleContext) Mockito.mock(BundleContext.class);
+        Mockito.when(context.getProperty(Logger.IPOJO_LOG_LEVEL_PROP)).thenReturn(null);
+        Bundle bundle = (Bundle) Mockito.mock(Bundle.class);
+        Mockito.when(bundle.getHeaders()).thenReturn(new Hashtable());
+        Mockito.when(context.getBundle()).thenReturn(bundle);
+
+        factory = (ComponentFactory) Mockito.mock(ComponentFactory.class);
+    }
+
+    public void testFastPathMatchesSlowPath() throws Exception {
+        Injector fast = new Injector();
+        Injector slow = new Injector();
+        InstanceManager fastManager = createManager();
+        InstanceManager slowManager = createManager();
+        fastManager.register(new FieldMetadata("service", "java.lang.Object"), fast);
+        // Hiding the FieldReadInterceptor interface forces the interception context.
+        slowManager.register(new FieldMetadata("service", "java.lang.Object"), new ContextOnly(slow));
+
+        Pojo fastPojo = new Pojo();
+        Pojo slowPojo = new Pojo();
+        Object[] values = new Object[] {null, "a", "a", "b", null, null, "c"};
+        for (Object value : values) {
+            fast.m_current = value;
+            slow.m_current = value;
+
+            Object fastResult = fastManager.onGet(fastPojo, "service");
+            Object slowResult = slowManager.onGet(slowPojo, "service");
+
+            assertSame(value, fastResult);
+            assertSame(slowResult, fastResult);
+            assertSame(slowPojo.service, fastPojo.service);
+            assertEquals(slow.m_writes, fast.m_writes);
+        }
+
+        // Only the value changes are notified.
+        List<Object> expected = new ArrayList<Object>();
+        expected.add("a");
+        expected.add("b");
+        expected.add(null);
+        expected.add("c");
+        assertEquals(expected, fast.m_writes);
+
+        // The fast path bypassed the interception context for every read.
+        assertEquals(0, fast.m_contextReads);
+        assertEquals(values.length, slow.m_contextReads);
+    }
+
+    public void testPrimitiveFieldUsesSlowPath() throws Exception {
+        Injector injector = new Injector();
+        InstanceManager manager = createManager();
+        manager.register(new FieldMetadata("count", "int"), injector);
+
+        Pojo pojo = new Pojo();
+        injector.m_current = null;
+        assertEquals(0, manager.onGet(pojo, "count"));
+        injector.m_current = 3;
+        assertEquals(3, manager.onGet(pojo, "count"));
+        assertEquals(3, pojo.count);
+
+        assertEquals(2, injector.m_contextReads);
+    }
+
+    public void testSeveralInterceptorsUseSlowPath() throws Exception {
+        Injector first = new Injector();
+        Injector second = new Injector();
+        InstanceManager manager = createManager();
+        manager.register(1, new FieldMetadata("service", "java.lang.Object"), first);
+        manager.register(2, new FieldMetadata("service", "java.lang.Object"), second);
+
+        first.m_current = "a";
+        second.m_current = "b";
+        // The interceptor registered with the lowest priority value is called last and decides.
+        assertEquals("a", manager.onGet(new Pojo(), "service"));
+
+        assertEquals(1, first.m_contextReads);
+        assertEquals(1, second.m_contextReads);
+    }
+
+    public void testRegistrationResetsFastPath() throws Exception {
+        Injector first = new Injector();
+        Injector second = new Injector();
+        InstanceManager manager = createManager();
+        manager.register(1, new FieldMetadata("service", "java.lang.Object"), first);
+
+        Pojo pojo = new Pojo();
+        first.m_current = "a";
+        assertEquals("a", manager.onGet(pojo, "service"));
+        assertEquals(0, first.m_contextReads);
+
+        manager.register(0, new FieldMetadata("service", "java.lang.Object"), second);
+        second.m_current = "b";
+        assertEquals("b", manager.onGet(pojo, "service"));
+        assertEquals(1, first.m_contextReads);
+        assertEquals(1, second.m_contextReads);
+    }
+
+    private InstanceManager createManager() throws Exception {
+        InstanceManager manager = new InstanceManager(factory, context, new HandlerManager[0]);
+        // Avoid loading the class through the factory.
+        Field clazz = InstanceManager.class.getDeclaredField("m_clazz");
+        clazz.setAccessible(true);
+        clazz.set(manager, Pojo.class);
+        return manager;
+    }
+
+    public static class Pojo {
+        Object service;
+        int count;
+    }
+
+    /**
+     * Injects the current value, and records the values written by the container.
+     */
+    private static class Injector implements FieldReadInterceptor {
+
+        volatile Object m_current;
+        int m_contextReads;
+        final List<Object> m_writes = new ArrayList<Object>();
+
+        public Object onGet(Object pojo, String fieldName, Object value) {
+            return m_current;
+        }
+
+        public void onFieldAccess(FieldInvocationContext context, Object value) throws Throwable {
+            if (context.getType() == Type.READ) {
+                m_contextReads++;
+                context.proceed(onGet(context.getPojo(), context.getField().getName(), value));
+            } else {
+                m_writes.add(value);
+                context.proceed(value);
+            }
+        }
+    }
+
+    /**
+     * Exposes only the {@link FieldInterceptor} interface of an injector.
+     */
+    private static class ContextOnly implements FieldInterceptor {
+
+        private final Injector m_delegate;
+
+        ContextOnly(Injector delegate) {
+            m_delegate = delegate;
+        }
+
+        public void onFieldAccess(FieldInvocationContext context, Object value) throws Throwable {
+            m_delegate.onFieldAccess(context, value);
+        }
+    }
+}
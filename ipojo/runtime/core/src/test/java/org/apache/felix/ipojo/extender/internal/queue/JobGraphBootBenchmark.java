@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.extender.internal.queue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import org.apache.felix.ipojo.extender.internal.Lifecycle;
+import org.apache.felix.ipojo.extender.queue.QueueService;
+
+/**
+ * A boot benchmark comparing the single threaded executor queue, used so far by the extender, and the job graph
+ * queue. It simulates the start of an application made of many iPOJO bundles: each bundle is processed in three
+ * steps (extensions, components, configuration). The component step submits a factory creation job, which submits
+ * the creation of an instance once the factory is built.
+ * <p/>
+ * This class is not a test case, run it with {@code java ... JobGraphBootBenchmark [bundles] [threads]}.
+ */
+public class JobGraphBootBenchmark {
+
+    /**
+     * Simulated duration (in milli) of each bundle processing step.
+     */
+    private static final int STEP_TIME = 2;
+
+    /**
+     * Simulated duration (in milli) of a factory or instance creation.
+     */
+    private static final int CREATION_TIME = 1;
+
+    public static void main(String[] args) throws Exception {
+        int bundles = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        // Warm up
+        boot(new ExecutorQueueService(null, 1, Executors.defaultThreadFactory()), bundles / 10);
+        boot(new JobGraphQueueService(null, threads, Executors.defaultThreadFactory()), bundles / 10);
+
+        long executor = boot(new ExecutorQueueService(null, 1, Executors.defaultThreadFactory()), bundles);
+        long graph = boot(new JobGraphQueueService(null, threads, Executors.defaultThreadFactory()), bundles);
+
+        System.out.println("Bundles: " + bundles + ", threads: " + threads);
+        System.out.println("Executor queue (1 thread): " + executor + " ms");
+        System.out.println("Job graph queue: " + graph + " ms");
+    }
+
+    /**
+     * Simulates the processing of the given number of bundles.
+     *
+     * @return the time (in milli) until all instances are created
+     */
+    private static long boot(final QueueService queue, int bundles) throws InterruptedException {
+        final CountDownLatch instances = new CountDownLatch(bundles);
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < bundles; i++) {
+            final Object bundle = new Object();
+            final Object type = new Object();
+            queue.submit(new Step(bundle, STEP_TIME, null));
+            queue.submit(new Step(bundle, STEP_TIME, new Runnable() {
+                public void run() {
+                    // The type declaration is linked: build the factory, then the instance.
+                    queue.submit(new Step(type, CREATION_TIME, new Runnable() {
+                        public void run() {
+                            queue.submit(new Step(type, CREATION_TIME, new Runnable() {
+                                public void run() {
+                                    instances.countDown();
+                                }
+                            }));
+                        }
+                    }));
+                }
+            }));
+            queue.submit(new Step(bundle, STEP_TIME, null));
+        }
+        instances.await();
+        long duration = System.currentTimeMillis() - begin;
+        ((Lifecycle) queue).stop();
+        return duration;
+    }
+
+    /**
+     * A simulated job.
+     */
+    private static class Step implements Callable<Boolean>, OrderedJob {
+        private final Object m_key;
+        private final int m_time;
+        private final Runnable m_then;
+
+        private Step(Object key, int time, Runnable then) {
+            m_key = key;
+            m_time = time;
+            m_then = then;
+        }
+
+        public Object[] getOrderingKeys() {
+            return new Object[] {m_key};
+        }
+
+        public Boolean call() throws Exception {
+            Thread.sleep(m_time);
+            if (m_then != null) {
+                m_then.run();
+            }
+            return true;
+        }
+    }
+}
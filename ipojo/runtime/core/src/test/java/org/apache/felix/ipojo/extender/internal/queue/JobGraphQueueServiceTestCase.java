@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.extender.internal.queue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.felix.ipojo.extender.internal.queue.callable.OrderedCallable;
+import org.apache.felix.ipojo.extender.internal.queue.callable.StringCallable;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.osgi.framework.BundleContext;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the Job Graph Queue Service.
+ */
+public class JobGraphQueueServiceTestCase extends TestCase {
+
+    @Mock
+    private BundleContext m_bundleContext;
+
+    private List<String> m_trace;
+
+    private JobGraphQueueService m_queueService;
+
+    @Override
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        m_trace = Collections.synchronizedList(new ArrayList<String>());
+        m_queueService = new JobGraphQueueService(m_bundleContext, 4, Executors.defaultThreadFactory());
+        m_queueService.start();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        m_queueService.stop();
+    }
+
+    public void testJobsWithoutKeys() throws Exception {
+        Future<String> future = m_queueService.submit(new StringCallable(), "hello");
+        assertEquals("hello", future.get());
+    }
+
+    public void testJobsSharingAKeyAreOrdered() throws Exception {
+        Object bundle = new Object();
+        Future<String> one = m_queueService.submit(new OrderedCallable(50, "1", m_trace, bundle));
+        Future<String> two = m_queueService.submit(new OrderedCallable(0, "2", m_trace, bundle));
+        Future<String> three = m_queueService.submit(new OrderedCallable(0, "3", m_trace, bundle));
+
+        three.get();
+        assertTrue(one.isDone());
+        assertTrue(two.isDone());
+        assertEquals(asList("start 1", "end 1", "start 2", "end 2", "start 3", "end 3"), m_trace);
+    }
+
+    public void testIndependentJobsAreConcurrent() throws Exception {
+        Future<String> one = m_queueService.submit(new OrderedCallable(100, "1", m_trace, "a"));
+        Future<String> two = m_queueService.submit(new OrderedCallable(0, "2", m_trace, "b"));
+
+        two.get();
+        // The second job does not wait for the first one
+        assertFalse(one.isDone());
+        one.get();
+    }
+
+    public void testJobDependingOnSeveralKeys() throws Exception {
+        Future<String> one = m_queueService.submit(new OrderedCallable(50, "1", m_trace, "a"));
+        Future<String> two = m_queueService.submit(new OrderedCallable(100, "2", m_trace, "b"));
+        Future<String> three = m_queueService.submit(new OrderedCallable(0, "3", m_trace, "a", "b"));
+
+        three.get();
+        assertTrue(one.isDone());
+        assertTrue(two.isDone());
+        assertEquals("start 3", m_trace.get(4));
+    }
+
+    public void testStatistics() throws Exception {
+        Future<String> one = m_queueService.submit(new OrderedCallable(50, "1", m_trace, "a"));
+        Future<String> two = m_queueService.submit(new OrderedCallable(50, "2", m_trace, "a"));
+
+        two.get();
+        one.get();
+
+        assertEquals(2, m_queueService.getFinished());
+        assertEquals(0, m_queueService.getCurrents());
+        assertEquals(0, m_queueService.getWaiters());
+        assertTrue(m_queueService.getStatistic().getExecutionTimeCounter().get() >= 90);
+        // The second job waited for the first one
+        assertTrue(m_queueService.getStatistic().getWaitTimeCounter().get() >= 40);
+    }
+
+    private static List<String> asList(String... values) {
+        List<String> list = new ArrayList<String>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.extender.internal.queue.callable;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.felix.ipojo.extender.internal.queue.OrderedJob;
+
+/**
+* A dummy ordered job recording its start and end in a shared list.
+*/
+public class OrderedCallable implements Callable<String>, OrderedJob {
+    private final int m_time;
+    private final String m_value;
+    private final List<String> m_trace;
+    private final Object[] m_keys;
+
+    public OrderedCallable(int time, String value, List<String> trace, Object... keys) {
+        m_time = time;
+        m_value = value;
+        m_trace = trace;
+        m_keys = keys;
+    }
+
+    public Object[] getOrderingKeys() {
+        return m_keys;
+    }
+
+    public String call() throws Exception {
+        m_trace.add("start " + m_value);
+        Thread.sleep(m_time);
+        m_trace.add("end " + m_value);
+        return m_value;
+    }
+}
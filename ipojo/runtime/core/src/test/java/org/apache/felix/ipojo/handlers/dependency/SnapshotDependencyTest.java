@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.ipojo.handlers.dependency;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.felix.ipojo.ComponentFactory;
+import org.apache.felix.ipojo.InstanceManager;
+import org.apache.felix.ipojo.test.MockBundle;
+import org.apache.felix.ipojo.util.Logger;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+import java.util.List;
+
+/**
+ * Checks the snapshot injection mode of service dependencies.
+ */
+public class SnapshotDependencyTest extends TestCase {
+
+    BundleContext context;
+    DependencyHandler handler;
+    ServiceReference ref1;
+    ServiceReference ref2;
+    Runnable service1;
+    Runnable service2;
+
+    public void setUp() throws InvalidSyntaxException {
+        Bundle bundle = new MockBundle(Dependency.class.getClassLoader());
+
+        context = (BundleContext) Mockito.mock(BundleContext.class);
+        Mockito.when(context.getProperty(DependencyHandler.PROXY_TYPE_PROPERTY)).thenReturn(null);
+        Mockito.when(context.getProperty(Logger.IPOJO_LOG_LEVEL_PROP)).thenReturn(null);
+        Mockito.when(context.getBundle()).thenReturn(bundle);
+
+        ComponentFactory factory = (ComponentFactory) Mockito.mock(ComponentFactory.class);
+        Mockito.when(factory.getBundleClassLoader()).thenReturn(Dependency.class.getClassLoader());
+
+        InstanceManager im = (InstanceManager) Mockito.mock(InstanceManager.class);
+        Mockito.when(im.getContext()).thenReturn(context);
+        Mockito.when(im.getFactory()).thenReturn(factory);
+        Mockito.when(im.getClazz()).thenReturn(Pojo.class);
+
+        handler = (DependencyHandler) Mockito.mock(DependencyHandler.class);
+        Mockito.when(handler.getInstanceManager()).thenReturn(im);
+        Mockito.when(handler.getLogger()).thenReturn(new Logger(context, "test", Logger.INFO));
+
+        service1 = (Runnable) Mockito.mock(Runnable.class);
+        service2 = (Runnable) Mockito.mock(Runnable.class);
+        ref1 = createReference(1, service1);
+        ref2 = createReference(2, service2);
+        Mockito.when(context.getServiceReferences(Runnable.class.getName(), null))
+                .thenReturn(new ServiceReference[] {ref1});
+    }
+
+    /**
+     * Reads between service changes return the same object, without getting the service again.
+     */
+    public void testSnapshotStableBetweenServiceChanges() {
+        Dependency dependency = createDependency(false);
+        dependency.start();
+
+        Object first = dependency.onGet(new Object(), "a_field", null);
+        Assert.assertSame(service1, first);
+        Assert.assertSame(first, dependency.onGet(new Object(), "a_field", null));
+        Assert.assertSame(first, dependency.onGet(new Object(), "a_field", null));
+        Mockito.verify(context, Mockito.times(1)).getService(ref1);
+
+        dependency.stop();
+    }
+
+    /**
+     * A scalar dependency keeps the service it is bound to while other services
+     * come, and switches to another provider when its service leaves.
+     */
+    public void testScalarSnapshotRefreshedOnDeparture() throws InvalidSyntaxException {
+        Dependency dependency = createDependency(false);
+        dependency.start();
+        ServiceListener listener = getServiceListener();
+
+        Assert.assertSame(service1, dependency.onGet(new Object(), "a_field", null));
+
+        listener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, ref2));
+        Assert.assertSame(service1, dependency.onGet(new Object(), "a_field", null));
+
+        listener.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, ref1));
+        Assert.assertSame(service2, dependency.onGet(new Object(), "a_field", null));
+
+        dependency.stop();
+    }
+
+    /**
+     * An aggregate snapshot is refreshed on arrivals and departures, while the
+     * list obtained by a callback before the change stays the same.
+     */
+    public void testAggregateSnapshotRefreshedOnArrivalAndDeparture() throws InvalidSyntaxException {
+        Dependency dependency = createDependency(true);
+        dependency.start();
+        ServiceListener listener = getServiceListener();
+
+        List held = (List) dependency.onGet(new Object(), "a_field", null);
+        Assert.assertEquals(1, held.size());
+        Assert.assertSame(service1, held.get(0));
+
+        listener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, ref2));
+        List current = (List) dependency.onGet(new Object(), "a_field", null);
+        Assert.assertEquals(2, current.size());
+        Assert.assertTrue(current.contains(service1));
+        Assert.assertTrue(current.contains(service2));
+        Assert.assertSame(current, dependency.onGet(new Object(), "a_field", null));
+
+        listener.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, ref1));
+        current = (List) dependency.onGet(new Object(), "a_field", null);
+        Assert.assertEquals(1, current.size());
+        Assert.assertSame(service2, current.get(0));
+
+        // The list read before the changes is left untouched.
+        Assert.assertEquals(1, held.size());
+        Assert.assertSame(service1, held.get(0));
+
+        dependency.stop();
+    }
+
+    /**
+     * The injected list is shared by all threads, and so cannot be modified.
+     */
+    public void testAggregateSnapshotIsUnmodifiable() {
+        Dependency dependency = createDependency(true);
+        dependency.start();
+
+        List list = (List) dependency.onGet(new Object(), "a_field", null);
+        try {
+            list.add(service2);
+            fail("The snapshot list must not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+
+        dependency.stop();
+    }
+
+    /**
+     * Arrays and vectors cannot be made unmodifiable, so each read gets its own copy.
+     */
+    public void testAggregateSnapshotArrayIsCopied() {
+        Dependency dependency = createDependency(true);
+        dependency.setType(0);
+        dependency.start();
+
+        Object[] array = (Object[]) dependency.onGet(new Object(), "a_field", null);
+        Assert.assertEquals(1, array.length);
+        array[0] = service2;
+
+        Object[] other = (Object[]) dependency.onGet(new Object(), "a_field", null);
+        Assert.assertNotSame(array, other);
+        Assert.assertSame(service1, other[0]);
+        Mockito.verify(context, Mockito.times(1)).getService(ref1);
+
+        dependency.stop();
+    }
+
+    /**
+     * The snapshot is recomputed when the dependency restarts.
+     */
+    public void testSnapshotRecomputedOnRestart() throws InvalidSyntaxException {
+        Dependency dependency = createDependency(false);
+        dependency.start();
+        Assert.assertSame(service1, dependency.onGet(new Object(), "a_field", null));
+        dependency.stop();
+
+        Mockito.when(context.getServiceReferences(Runnable.class.getName(), null))
+                .thenReturn(new ServiceReference[] {ref2});
+        dependency.start();
+        Assert.assertSame(service2, dependency.onGet(new Object(), "a_field", null));
+        dependency.stop();
+    }
+
+    private Dependency createDependency(boolean aggregate) {
+        Dependency dependency = new Dependency(handler, "a_field", Runnable.class, null, true, aggregate, false,
+                false, "dep", context, Dependency.DYNAMIC_BINDING_POLICY, null, null);
+        if (aggregate) {
+            dependency.setType(DependencyHandler.LIST);
+        }
+        dependency.setSnapshot(true);
+        return dependency;
+    }
+
+    private ServiceListener getServiceListener() throws InvalidSyntaxException {
+        ArgumentCaptor<ServiceListener> captor = ArgumentCaptor.forClass(ServiceListener.class);
+        Mockito.verify(context).addServiceListener(captor.capture(),
+                Mockito.eq("(" + Constants.OBJECTCLASS + "=" + Runnable.class.getName() + ")"));
+        return captor.getValue();
+    }
+
+    private ServiceReference createReference(long id, Object service) {
+        ServiceReference ref = new Reference(id);
+        Mockito.when(context.getService(ref)).thenReturn(service);
+        return ref;
+    }
+
+    public static class Pojo {
+        Object a_field;
+    }
+
+    /**
+     * A service reference equal to the references wrapping it, as the
+     * dependency gets services through transformed references.
+     */
+    private static class Reference implements ServiceReference {
+
+        private final Long m_id;
+
+        Reference(long id) {
+            m_id = id;
+        }
+
+        public Object getProperty(String key) {
+            if (Constants.SERVICE_ID.equals(key)) {
+                return m_id;
+            } else if (Constants.OBJECTCLASS.equals(key)) {
+                return new String[] {Runnable.class.getName()};
+            }
+            return null;
+        }
+
+        public String[] getPropertyKeys() {
+            return new String[] {Constants.OBJECTCLASS, Constants.SERVICE_ID};
+        }
+
+        public Bundle getBundle() {
+            return null;
+        }
+
+        public Bundle[] getUsingBundles() {
+            return null;
+        }
+
+        public boolean isAssignableTo(Bundle bundle, String className) {
+            return true;
+        }
+
+        public int compareTo(Object reference) {
+            Long other = (Long) ((ServiceReference) reference).getProperty(Constants.SERVICE_ID);
+            // The lowest service id ranks first.
+            return other.compareTo(m_id);
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof ServiceReference
+                    && m_id.equals(((ServiceReference) o).getProperty(Constants.SERVICE_ID));
+        }
+
+        public int hashCode() {
+            return m_id.hashCode();
+        }
+    }
+}
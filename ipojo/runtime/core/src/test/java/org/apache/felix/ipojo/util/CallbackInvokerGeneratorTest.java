@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.ipojo.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the generated callback invokers.
+ */
+public class CallbackInvokerGeneratorTest {
+
+    @Test
+    public void invokeVoidMethod() throws Exception {
+        Target target = new Target();
+        CallbackInvoker invoker = getInvoker("start");
+        assertNull(invoker.invoke(target, new Object[0]));
+        assertEquals(1, target.m_started);
+    }
+
+    @Test
+    public void invokeWithArguments() throws Exception {
+        Target target = new Target();
+        CallbackInvoker invoker = getInvoker("bind", String.class, int.class);
+        assertEquals("foo-3", invoker.invoke(target, new Object[] {"foo", 3}));
+    }
+
+    @Test
+    public void invokeReturningPrimitive() throws Exception {
+        CallbackInvoker invoker = getInvoker("count", long.class);
+        assertEquals(Long.valueOf(4), invoker.invoke(new Target(), new Object[] {3L}));
+    }
+
+    @Test
+    public void invokeStaticMethod() throws Exception {
+        CallbackInvoker invoker = getInvoker("create");
+        assertTrue(invoker.invoke(null, new Object[0]) instanceof Target);
+    }
+
+    @Test
+    public void invokeInterfaceMethod() throws Exception {
+        CallbackInvoker invoker = CallbackInvokerGenerator.getInvoker(Runnable.class.getMethod("run"));
+        assertNotNull(invoker);
+        Target target = new Target();
+        invoker.invoke(target, new Object[0]);
+        assertEquals(1, target.m_started);
+    }
+
+    @Test
+    public void exceptionsAreWrapped() throws Exception {
+        CallbackInvoker invoker = getInvoker("fail");
+        try {
+            invoker.invoke(new Target(), new Object[0]);
+            fail("InvocationTargetException expected");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getTargetException() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void mismatchIsRaisedBeforeTheCall() throws Exception {
+        Target target = new Target();
+        CallbackInvoker invoker = getInvoker("bind", String.class, int.class);
+        try {
+            invoker.invoke(target, new Object[] {"foo", null});
+            fail("NullPointerException expected");
+        } catch (NullPointerException e) {
+            // Ok
+        }
+        try {
+            invoker.invoke(target, new Object[] {1, 3});
+            fail("ClassCastException expected");
+        } catch (ClassCastException e) {
+            // Ok
+        }
+        try {
+            getInvoker("start").invoke(null, new Object[0]);
+            fail("NullPointerException expected");
+        } catch (NullPointerException e) {
+            // Ok
+        }
+        assertEquals(0, target.m_bound);
+    }
+
+    @Test
+    public void invokersAreShared() throws Exception {
+        assertSame(getInvoker("start"), getInvoker("start"));
+    }
+
+    @Test
+    public void nonPublicMethodsAreNotSupported() throws Exception {
+        Method method = Target.class.getDeclaredMethod("stop");
+        assertNull(CallbackInvokerGenerator.getInvoker(method));
+        method = Hidden.class.getMethod("run");
+        assertNull(CallbackInvokerGenerator.getInvoker(method));
+    }
+
+    private CallbackInvoker getInvoker(String name, Class... params) throws Exception {
+        CallbackInvoker invoker = CallbackInvokerGenerator.getInvoker(Target.class.getMethod(name, params));
+        assertNotNull(invoker);
+        return invoker;
+    }
+
+    public static class Target implements Runnable {
+
+        int m_started;
+
+        int m_bound;
+
+        public static Target create() {
+            return new Target();
+        }
+
+        public void start() {
+            m_started++;
+        }
+
+        private void stop() {
+            m_started--;
+        }
+
+        public void run() {
+            start();
+        }
+
+        public String bind(String name, int rank) {
+            m_bound++;
+            return name + "-" + rank;
+        }
+
+        public long count(long value) {
+            return value + 1;
+        }
+
+        public void fail() {
+            throw new IllegalStateException("expected");
+        }
+    }
+
+    static class Hidden implements Runnable {
+        public void run() {
+            // Nothing.
+        }
+    }
+}
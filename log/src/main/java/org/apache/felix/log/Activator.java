@@ -18,6 +18,9 @@
  */
 package org.apache.felix.log;
 
+import java.io.File;
+
+import org.apache.felix.log.store.LogStoreReader;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.log.LogReaderService;
@@ -43,7 +46,38 @@ import org.osgi.service.log.LogService;
  *   <dt>org.apache.felix.log.storeDebug</dt>
  *   <dd>Determines whether or not debug messages will be stored as part of
  *       the historic log information. The default value is false.</dd>
+ *
+ *   <dt>org.apache.felix.log.listener.queueSize</dt>
+ *   <dd>Determines the maximum number of entries waiting to be delivered to
+ *       each log listener.  A value of -1 means the queue has no maximum size.
+ *       The default value is 1000.</dd>
+ *
+ *   <dt>org.apache.felix.log.listener.dropPolicy</dt>
+ *   <dd>Determines which entry is discarded when a listener queue is full:
+ *       <code>oldest</code> drops the oldest pending entry, <code>newest</code>
+ *       drops the entry being logged.  The default value is oldest.</dd>
+ *
+ *   <dt>org.apache.felix.log.store</dt>
+ *   <dd>Determines whether the log history is also written to a persistent
+ *       store, which survives restarts and is queried through the
+ *       {@link LogStoreReader} service.  The default value is false.</dd>
+ *
+ *   <dt>org.apache.felix.log.store.dir</dt>
+ *   <dd>The directory of the persistent store.  The default is the
+ *       <code>log</code> directory in the data area of the bundle.</dd>
+ *
+ *   <dt>org.apache.felix.log.store.segmentSize</dt>
+ *   <dd>The size in bytes of each memory-mapped segment file of the store.
+ *       The default value is 1048576.</dd>
+ *
+ *   <dt>org.apache.felix.log.store.segments</dt>
+ *   <dd>The number of segment files kept; older segments are deleted.
+ *       The default value is 8.</dd>
  * </dl>
+ * <p>
+ * Besides subscribing through the {@link LogReaderService}, log listeners may
+ * be registered as services, optionally declaring the entries they want
+ * (see {@link LogListenerTracker}).
  */
 public final class Activator implements BundleActivator
 {
@@ -55,8 +89,28 @@ public final class Activator implements BundleActivator
     private static final String STORE_DEBUG_PROPERTY = "org.apache.felix.log.storeDebug";
     /** The default value for the store debug property. */
     private static final boolean DEFAULT_STORE_DEBUG = false;
+    /** The name of the property that defines the maximum size of a listener queue. */
+    private static final String LISTENER_QUEUE_SIZE_PROPERTY = "org.apache.felix.log.listener.queueSize";
+    /** The default value for the listener queue size property. */
+    private static final int DEFAULT_LISTENER_QUEUE_SIZE = 1000;
+    /** The name of the property that defines the listener queue drop policy. */
+    private static final String LISTENER_DROP_POLICY_PROPERTY = "org.apache.felix.log.listener.dropPolicy";
+    /** The name of the property that enables the persistent log store. */
+    private static final String STORE_PROPERTY = "org.apache.felix.log.store";
+    /** The name of the property that defines the persistent store directory. */
+    private static final String STORE_DIR_PROPERTY = "org.apache.felix.log.store.dir";
+    /** The name of the property that defines the size of a store segment. */
+    private static final String STORE_SEGMENT_SIZE_PROPERTY = "org.apache.felix.log.store.segmentSize";
+    /** The default value for the store segment size property. */
+    private static final int DEFAULT_STORE_SEGMENT_SIZE = 1024 * 1024;
+    /** The name of the property that defines the number of store segments kept. */
+    private static final String STORE_SEGMENTS_PROPERTY = "org.apache.felix.log.store.segments";
+    /** The default value for the store segments property. */
+    private static final int DEFAULT_STORE_SEGMENTS = 8;
     /** The log. */
     private Log m_log;
+    /** The tracker for log listeners registered as services. */
+    private LogListenerTracker m_listenerTracker;
 
     /**
      * Returns the maximum size for the log.
@@ -101,6 +155,88 @@ public final class Activator implements BundleActivator
         return storeDebug;
     }
 
+    /**
+     * Returns the value of an integer framework property.
+     * @param context the bundle context (used to look up the property)
+     * @param name the name of the property
+     * @param defaultValue the value returned if the property is missing or
+     * not a number
+     * @return the property value
+     */
+    private static int getIntProperty(final BundleContext context,
+        final String name, final int defaultValue)
+    {
+        int value = defaultValue;
+
+        String propValue = context.getProperty(name);
+        if (propValue != null)
+        {
+            try
+            {
+                value = Integer.parseInt(propValue);
+            }
+            catch (NumberFormatException e)
+            {
+                // the property value is invalid - ignore
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Opens the persistent log store if it is enabled.
+     * @param context the bundle context (used to look up properties)
+     * @return the log store or <code>null</code> if it is disabled
+     * @throws Exception if the store cannot be opened
+     */
+    private static LogStore openStore(final BundleContext context) throws Exception
+    {
+        if (!Boolean.valueOf(context.getProperty(STORE_PROPERTY)).booleanValue())
+        {
+            return null;
+        }
+
+        String dir = context.getProperty(STORE_DIR_PROPERTY);
+        File directory = (dir != null) ? new File(dir) : context.getDataFile("log");
+        if (directory == null)
+        {
+            // no file system support
+            return null;
+        }
+
+        return new LogStore(context, directory,
+            getIntProperty(context, STORE_SEGMENT_SIZE_PROPERTY, DEFAULT_STORE_SEGMENT_SIZE),
+            getIntProperty(context, STORE_SEGMENTS_PROPERTY, DEFAULT_STORE_SEGMENTS));
+    }
+
+    /**
+     * Returns the maximum number of pending entries per log listener.
+     * @param context the bundle context (used to look up a property)
+     * @return the maximum size of a listener queue
+     */
+    private static int getListenerQueueSize(final BundleContext context)
+    {
+        return getIntProperty(context, LISTENER_QUEUE_SIZE_PROPERTY,
+            DEFAULT_LISTENER_QUEUE_SIZE);
+    }
+
+    /**
+     * Returns the policy applied when a log listener queue is full.
+     * @param context the bundle context (used to look up a property)
+     * @return the drop policy
+     */
+    private static int getListenerDropPolicy(final BundleContext context)
+    {
+        String dropPolicyPropValue = context.getProperty(LISTENER_DROP_POLICY_PROPERTY);
+        if ("newest".equalsIgnoreCase(dropPolicyPropValue))
+        {
+            return LogListenerThread.DROP_NEWEST;
+        }
+
+        return LogListenerThread.DROP_OLDEST;
+    }
+
     /**
      * Called by the OSGi framework when the bundle is started.
      * Used to register the service implementations with the framework.
@@ -110,7 +246,15 @@ public final class Activator implements BundleActivator
     public void start(final BundleContext context) throws Exception
     {
         // create the log instance
-        m_log = new Log(getMaxSize(context), getStoreDebug(context));
+        m_log = new Log(getMaxSize(context), getStoreDebug(context),
+            getListenerQueueSize(context), getListenerDropPolicy(context));
+
+        // open the persistent store, if enabled
+        LogStore store = openStore(context);
+        if (store != null)
+        {
+            m_log.setStore(store);
+        }
 
         // register the listeners
         context.addBundleListener(m_log);
@@ -123,6 +267,15 @@ public final class Activator implements BundleActivator
 
         context.registerService(LogReaderService.class.getName(),
             new LogReaderServiceFactory(m_log), null);
+
+        if (store != null)
+        {
+            context.registerService(LogStoreReader.class.getName(), store, null);
+        }
+
+        // subscribe log listeners registered as services
+        m_listenerTracker = new LogListenerTracker(context, m_log);
+        m_listenerTracker.open();
     }
 
     /**
@@ -132,6 +285,9 @@ public final class Activator implements BundleActivator
      */
     public void stop(final BundleContext context) throws Exception
     {
+        // unsubscribe the log listener services
+        m_listenerTracker.close();
+
         // close the log
         m_log.close();
     }
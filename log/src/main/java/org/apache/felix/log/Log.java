@@ -18,7 +18,9 @@
  */
 package org.apache.felix.log;
 
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
@@ -45,12 +47,18 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
     private LogNode m_tail;
     /** The log size. */
     private int m_size;
-    /** The log listener thread. */
-    private LogListenerThread listenerThread;
+    /** The delivery threads, one per subscribed log listener. */
+    private final List m_listenerThreads = new ArrayList();
     /** The maximum size for the log. */
     private final int m_maxSize;
     /** Whether or not to store debug messages. */
     private final boolean m_storeDebug;
+    /** The maximum number of pending entries per listener. */
+    private final int m_listenerQueueSize;
+    /** The policy applied when a listener queue is full. */
+    private final int m_listenerDropPolicy;
+    /** The persistent log store, or null if entries are only kept in memory. */
+    private LogStore m_store;
 
     /**
      * Create a new instance.
@@ -58,22 +66,53 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
      * @param storeDebug whether or not to store debug messages
      */
     Log(final int maxSize, final boolean storeDebug)
+    {
+        this(maxSize, storeDebug, -1, LogListenerThread.DROP_OLDEST);
+    }
+
+    /**
+     * Create a new instance.
+     * @param maxSize the maximum size for the log
+     * @param storeDebug whether or not to store debug messages
+     * @param listenerQueueSize the maximum number of pending entries per
+     * listener, -1 for no limit
+     * @param listenerDropPolicy the policy applied when a listener queue is full
+     */
+    Log(final int maxSize, final boolean storeDebug,
+        final int listenerQueueSize, final int listenerDropPolicy)
     {
         this.m_maxSize = maxSize;
         this.m_storeDebug = storeDebug;
+        this.m_listenerQueueSize = listenerQueueSize;
+        this.m_listenerDropPolicy = listenerDropPolicy;
+    }
+
+    /**
+     * Set the persistent store to which entries are also written.
+     * @param store the persistent log store
+     */
+    synchronized void setStore(final LogStore store)
+    {
+        m_store = store;
     }
 
     /**
      * Close the log.
      */
-    void close()
+    synchronized void close()
     {
-        if (listenerThread != null)
+        if (m_store != null)
         {
-            listenerThread.shutdown();
-            listenerThread = null;
+            m_store.close();
+            m_store = null;
         }
 
+        for (int i = 0; i < m_listenerThreads.size(); ++i)
+        {
+            ((LogListenerThread) m_listenerThreads.get(i)).shutdown();
+        }
+        m_listenerThreads.clear();
+
         m_head = null;
         m_tail = null;
         m_size = 0;
@@ -126,46 +165,96 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
             }
         }
 
-        // notify any listeners
-        if (listenerThread != null)
+        // persist the entry
+        if (m_store != null
+            && (m_storeDebug || entry.getLevel() != LogService.LOG_DEBUG))
+        {
+            m_store.append(entry);
+        }
+
+        // notify any listeners; each one filters and queues on its own
+        for (int i = 0; i < m_listenerThreads.size(); ++i)
         {
-            listenerThread.addEntry(entry);
+            ((LogListenerThread) m_listenerThreads.get(i)).addEntry(entry);
         }
     }
 
     /**
-     * Add a listener to the log.
+     * Add a listener to the log, receiving all entries.
+     * @param listener the log listener to subscribe
+     * @return the subscription, to be passed to {@link #removeListener}
+     */
+    LogListenerThread.Subscription addListener(final LogListener listener)
+    {
+        return addListener(listener, LogService.LOG_DEBUG, null);
+    }
+
+    /**
+     * Add a listener to the log.  A listener that is already subscribed keeps
+     * its delivery thread and receives each entry once, if any of its
+     * subscriptions accepts it.
      * @param listener the log listener to subscribe
+     * @param level the least severe level delivered to the listener
+     * @param bundles the symbolic names of the bundles whose entries are
+     * delivered, or <code>null</code> for all bundles
+     * @return the subscription, to be passed to {@link #removeListener}
      */
-    synchronized void addListener(final LogListener listener)
+    synchronized LogListenerThread.Subscription addListener(final LogListener listener,
+        final int level, final String[] bundles)
     {
+        LogListenerThread listenerThread = findListenerThread(listener);
         if (listenerThread == null)
         {
-            // create a new listener thread if necessary:
-            // the listener thread only runs if there are any registered listeners
-            listenerThread = new LogListenerThread();
+            // every listener gets its own delivery thread and queue, so a slow
+            // listener cannot hold up the others
+            listenerThread = new LogListenerThread(listener,
+                m_listenerQueueSize, m_listenerDropPolicy);
+            m_listenerThreads.add(listenerThread);
             listenerThread.start();
         }
-        listenerThread.addListener(listener);
+        return listenerThread.subscribe(level, bundles);
     }
 
     /**
-     * Remove a listener from the log.
-     * @param listener the log listener to unsubscribe
+     * Remove a subscription from the log.  The delivery thread of the
+     * listener is stopped when its last subscription is removed.
+     * @param subscription the subscription returned by {@link #addListener}
      */
-    synchronized void removeListener(final LogListener listener)
+    synchronized void removeListener(final LogListenerThread.Subscription subscription)
     {
-        if (listenerThread != null)
+        LogListenerThread listenerThread = subscription.getThread();
+        if (listenerThread.unsubscribe(subscription)
+            && m_listenerThreads.remove(listenerThread))
         {
-            listenerThread.removeListener(listener);
+            listenerThread.shutdown();
+        }
+    }
 
-            // shutdown the thread if there are no listeners
-            if (listenerThread.getListenerCount() == 0)
+    /**
+     * Returns the number of listeners with a delivery thread.
+     * @return the number of subscribed listeners
+     */
+    synchronized int getListenerCount()
+    {
+        return m_listenerThreads.size();
+    }
+
+    /**
+     * Returns the delivery thread of a listener.
+     * @param listener the log listener
+     * @return the delivery thread or <code>null</code> if not subscribed
+     */
+    private LogListenerThread findListenerThread(final LogListener listener)
+    {
+        for (int i = 0; i < m_listenerThreads.size(); ++i)
+        {
+            LogListenerThread listenerThread = (LogListenerThread) m_listenerThreads.get(i);
+            if (listenerThread.getListener() == listener)
             {
-                listenerThread.shutdown();
-                listenerThread = null;
+                return listenerThread;
             }
         }
+        return null;
     }
 
     /**
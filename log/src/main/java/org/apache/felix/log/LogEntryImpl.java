@@ -72,6 +72,31 @@ final class LogEntryImpl implements LogEntry
         this.m_time = System.currentTimeMillis();
     }
 
+    /**
+     * Create a new instance for an entry restored from the persistent log store.
+     * @param bundle the bundle that created the LogEntry object
+     * @param sr the service reference to associate with this LogEntry object
+     * @param level the severity level for this LogEntry object
+     * @param message the message to associate with this LogEntry object
+     * @param exception the already converted exception to associate with this
+     * LogEntry object
+     * @param time the time at which the entry was originally created
+     */
+    LogEntryImpl(final Bundle bundle,
+        final ServiceReference sr,
+        final int level,
+        final String message,
+        final Throwable exception,
+        final long time)
+    {
+        this.m_bundle = bundle;
+        this.m_exception = exception;
+        this.m_level = level;
+        this.m_message = message;
+        this.m_serviceReference = sr;
+        this.m_time = time;
+    }
+
     /**
      * Returns the bundle that created this LogEntry object.
      * @return the bundle that created this LogEntry object;<code>null</code> if no
@@ -54,6 +54,38 @@ final class LogException extends Exception
         }
     }
 
+    /**
+     * Create a new instance restored from the persistent log store.  The
+     * stack trace of the original exception is not stored.
+     * @param className the class name of the original exception
+     * @param message the message of the original exception
+     */
+    private LogException(final String className, final String message)
+    {
+        m_className = className;
+        m_message = message;
+        m_localizedMessage = message;
+        setStackTrace(new StackTraceElement[0]);
+    }
+
+    /**
+     * Returns the class name of the original exception.
+     * @return the class name of the original exception
+     */
+    String getClassName()
+    {
+        return m_className;
+    }
+
+    /**
+     * Returns the message of the original exception.
+     * @return the message of the original exception
+     */
+    String getOriginalMessage()
+    {
+        return m_message;
+    }
+
     /**
      * Returns the message associated with the exception.  The message
      * will be the class name of the original exception followed by the
@@ -76,6 +108,17 @@ final class LogException extends Exception
         return m_className + ": " + m_localizedMessage;
     }
 
+    /**
+     * Returns an exception restored from the persistent log store.
+     * @param className the class name of the original exception
+     * @param message the message of the original exception
+     * @return the exception to store in the {@link LogEntry}
+     */
+    static Throwable restore(final String className, final String message)
+    {
+        return new LogException(className, message);
+    }
+
     /** The prefix that identifies classes from the "java" namespace. */
     private static final String JAVA_PACKAGE_PREFIX = "java.";
 
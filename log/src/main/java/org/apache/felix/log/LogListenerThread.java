@@ -18,77 +18,169 @@
  */
 package org.apache.felix.log;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.LinkedList;
 
+import org.osgi.framework.Bundle;
 import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogListener;
 
 /**
  * This class is responsible for asynchronously delivering log messages to
- * any {@link LogListener} subscribers.  A subscriber can be added using the
+ * a single {@link LogListener} subscriber.  A subscriber can be added using the
  * {@link org.osgi.service.log.LogReaderService#addLogListener(LogListener)}
- * method.
+ * method or by registering it as a service.
+ * <p>
+ * Each listener has its own thread and its own bounded queue, so a slow
+ * listener only delays its own notifications.  When the queue is full either
+ * the oldest pending entry or the new entry is dropped, depending on the
+ * configured drop policy.
+ * <p>
+ * A listener subscribed more than once, for instance both as a service and
+ * through the {@link org.osgi.service.log.LogReaderService}, still gets a
+ * single thread and receives each entry once.  Every subscription has its
+ * own level and bundle filter; entries accepted by none of them are never
+ * queued.
  */
 final class LogListenerThread extends Thread
 {
-    // The list of entries waiting to be delivered to the log listeners.
-    private final List m_entriesToDeliver = new ArrayList();
-    // The list of listeners.
-    private final List m_listeners = new ArrayList();
+    /** Drop policy: discard the oldest pending entry when the queue is full. */
+    static final int DROP_OLDEST = 0;
+    /** Drop policy: discard the new entry when the queue is full. */
+    static final int DROP_NEWEST = 1;
 
-    LogListenerThread() {
+    // The list of entries waiting to be delivered to the log listener.
+    private final LinkedList m_entriesToDeliver = new LinkedList();
+    // The listener.
+    private final LogListener m_listener;
+    // The maximum number of pending entries; -1 means unbounded.
+    private final int m_maxQueueSize;
+    // The policy applied when the queue is full.
+    private final int m_dropPolicy;
+    // The subscriptions of the listener, replaced on every change.
+    private volatile Subscription[] m_subscriptions = new Subscription[0];
+    // The number of entries dropped because the queue was full.
+    private long m_dropped;
+
+    /**
+     * Create a new instance.
+     * @param listener the listener to deliver entries to
+     * @param maxQueueSize the maximum number of pending entries, -1 for no limit
+     * @param dropPolicy either {@link #DROP_OLDEST} or {@link #DROP_NEWEST}
+     */
+    LogListenerThread(final LogListener listener, final int maxQueueSize,
+        final int dropPolicy)
+    {
         super("FelixLogListener");
+        setDaemon(true);
+        m_listener = listener;
+        m_maxQueueSize = maxQueueSize;
+        m_dropPolicy = dropPolicy;
     }
 
     /**
-     * Add an entry to the list of messages to deliver.
-     * @param entry the log entry to deliver
+     * Returns the listener this thread delivers to.
+     * @return the listener
      */
-    void addEntry(final LogEntry entry)
+    LogListener getListener()
     {
-        synchronized (m_entriesToDeliver)
+        return m_listener;
+    }
+
+    /**
+     * Add a subscription of the listener.
+     * @param level the least severe level to deliver
+     * @param bundles the symbolic names of the bundles whose entries are
+     * delivered, or <code>null</code> for all bundles
+     * @return the new subscription
+     */
+    synchronized Subscription subscribe(final int level, final String[] bundles)
+    {
+        Subscription subscription = new Subscription(this, level, bundles);
+        Subscription[] subscriptions = new Subscription[m_subscriptions.length + 1];
+        System.arraycopy(m_subscriptions, 0, subscriptions, 0, m_subscriptions.length);
+        subscriptions[m_subscriptions.length] = subscription;
+        m_subscriptions = subscriptions;
+        return subscription;
+    }
+
+    /**
+     * Remove a subscription of the listener.
+     * @param subscription the subscription to remove
+     * @return <code>true</code> if no subscription is left
+     */
+    synchronized boolean unsubscribe(final Subscription subscription)
+    {
+        for (int i = 0; i < m_subscriptions.length; ++i)
         {
-            m_entriesToDeliver.add(entry);
-            m_entriesToDeliver.notifyAll();
+            if (m_subscriptions[i] == subscription)
+            {
+                Subscription[] subscriptions = new Subscription[m_subscriptions.length - 1];
+                System.arraycopy(m_subscriptions, 0, subscriptions, 0, i);
+                System.arraycopy(m_subscriptions, i + 1, subscriptions, i,
+                    subscriptions.length - i);
+                m_subscriptions = subscriptions;
+                break;
+            }
         }
+        return m_subscriptions.length == 0;
     }
 
     /**
-     * Add a listener to the list of listeners that are subscribed.
-     * @param listener the listener to add to the list of subscribed listeners
+     * Returns the number of entries dropped so far because the queue was full.
+     * @return the number of dropped entries
      */
-    void addListener(final LogListener listener)
+    long getDroppedCount()
     {
-        synchronized (m_listeners)
+        synchronized (m_entriesToDeliver)
         {
-            m_listeners.add(listener);
+            return m_dropped;
         }
     }
 
     /**
-     * Remove a listener from the list of listeners that are subscribed.
-     * @param listener the listener to remove from the list of subscribed listeners
+     * Add an entry to the list of messages to deliver, unless the listener
+     * is not interested in it.
+     * @param entry the log entry to deliver
      */
-    void removeListener(final LogListener listener)
+    void addEntry(final LogEntry entry)
     {
-        synchronized (m_listeners)
+        if (!accepts(entry))
+        {
+            return;
+        }
+
+        synchronized (m_entriesToDeliver)
         {
-            m_listeners.remove(listener);
+            if (m_maxQueueSize >= 0 && m_entriesToDeliver.size() >= m_maxQueueSize)
+            {
+                ++m_dropped;
+                if (m_dropPolicy == DROP_NEWEST || m_entriesToDeliver.isEmpty())
+                {
+                    return;
+                }
+                m_entriesToDeliver.removeFirst();
+            }
+            m_entriesToDeliver.addLast(entry);
+            m_entriesToDeliver.notifyAll();
         }
     }
 
     /**
-     * Returns the number of listeners that are currently registered.
-     * @return the number of listeners that are currently registered
+     * Determines whether the entry matches the filter of any subscription.
+     * @param entry the entry to check
+     * @return <code>true</code> if the entry should be delivered
      */
-    int getListenerCount()
+    private boolean accepts(final LogEntry entry)
     {
-        synchronized (m_listeners)
+        Subscription[] subscriptions = m_subscriptions;
+        for (int i = 0; i < subscriptions.length; ++i)
         {
-            return m_listeners.size();
+            if (subscriptions[i].accepts(entry))
+            {
+                return true;
+            }
         }
+        return false;
     }
 
     /**
@@ -104,13 +196,13 @@ final class LogListenerThread extends Thread
 
     /**
      * The main method of the thread: waits for new messages to be receieved
-     * and then delivers them to any registered log listeners.
+     * and then delivers them to the log listener.
      */
     public void run()
     {
         while (!isInterrupted())
         {
-            List entriesToDeliver = new ArrayList();
+            Object[] entriesToDeliver = null;
             synchronized (m_entriesToDeliver)
             {
                 if (m_entriesToDeliver.isEmpty())
@@ -129,42 +221,119 @@ final class LogListenerThread extends Thread
                 else 
                 {
                     // Copy all current entries and deliver them in a single go...
-                    entriesToDeliver.addAll(m_entriesToDeliver);
+                    entriesToDeliver = m_entriesToDeliver.toArray();
                     m_entriesToDeliver.clear();
                 }
             }
-            
-            if (!entriesToDeliver.isEmpty())
+
+            if (entriesToDeliver != null)
             {
-                // Take a snapshot of all current listeners and deliver all
-                // pending messages to them...
-                List listeners = new ArrayList();
-                synchronized (m_listeners) 
+                for (int i = 0; i < entriesToDeliver.length && !isInterrupted(); ++i)
                 {
-                    listeners.addAll(m_listeners);
+                    try
+                    {
+                        m_listener.logged((LogEntry) entriesToDeliver[i]);
+                    }
+                    catch (Throwable t)
+                    {
+                        // catch and discard any exceptions thrown by the listener
+                    }
                 }
+            }
+        }
+    }
+
+    /**
+     * A subscription of the listener, with the level and the bundles whose
+     * entries it wants delivered.
+     */
+    static final class Subscription
+    {
+        // The thread delivering to the listener.
+        private final LogListenerThread m_thread;
+        // The least severe level delivered to the listener.
+        private volatile int m_level;
+        // The symbolic names of the bundles of interest; null means all bundles.
+        private volatile String[] m_bundles;
+
+        /**
+         * Create a new instance.
+         * @param thread the thread delivering to the listener
+         * @param level the least severe level to deliver
+         * @param bundles the symbolic names of the bundles whose entries are
+         * delivered, or <code>null</code> for all bundles
+         */
+        Subscription(final LogListenerThread thread, final int level,
+            final String[] bundles)
+        {
+            m_thread = thread;
+            m_level = level;
+            m_bundles = bundles;
+        }
 
-                Iterator entriesIt = entriesToDeliver.iterator();
-                while (entriesIt.hasNext()) 
+        /**
+         * Returns the thread delivering to the listener.
+         * @return the thread
+         */
+        LogListenerThread getThread()
+        {
+            return m_thread;
+        }
+
+        /**
+         * Returns the subscribed listener.
+         * @return the listener
+         */
+        LogListener getListener()
+        {
+            return m_thread.getListener();
+        }
+
+        /**
+         * Set the entries this subscription is interested in.
+         * @param level the least severe level to deliver
+         * @param bundles the symbolic names of the bundles whose entries are
+         * delivered, or <code>null</code> for all bundles
+         */
+        void setFilter(final int level, final String[] bundles)
+        {
+            m_level = level;
+            m_bundles = bundles;
+        }
+
+        /**
+         * Determines whether the entry matches the level and bundle filter.
+         * @param entry the entry to check
+         * @return <code>true</code> if the entry should be delivered
+         */
+        boolean accepts(final LogEntry entry)
+        {
+            // lower values are more severe
+            if (entry.getLevel() > m_level)
+            {
+                return false;
+            }
+
+            String[] bundles = m_bundles;
+            if (bundles == null)
+            {
+                return true;
+            }
+
+            Bundle bundle = entry.getBundle();
+            String symbolicName = (bundle == null) ? null : bundle.getSymbolicName();
+            if (symbolicName == null)
+            {
+                return false;
+            }
+            for (int i = 0; i < bundles.length; ++i)
+            {
+                if (symbolicName.equals(bundles[i]))
                 {
-                    LogEntry entry = (LogEntry) entriesIt.next();
-                    
-                    Iterator listenerIt = listeners.iterator();
-                    while (listenerIt.hasNext())
-                    {
-                        LogListener listener = (LogListener) listenerIt.next();
-                        
-                        try
-                        {
-                            listener.logged(entry);
-                        }
-                        catch (Throwable t)
-                        {
-                            // catch and discard any exceptions thrown by the listener
-                        }
-                    }
+                    return true;
                 }
             }
+            return false;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogListener;
+import org.osgi.service.log.LogService;
+
+/**
+ * Subscribes {@link LogListener} objects registered as services to the log.
+ * <p>
+ * A listener registered this way may restrict the entries delivered to it
+ * with the following service properties:
+ * <dl>
+ *   <dt>org.apache.felix.log.listener.level</dt>
+ *   <dd>The least severe level delivered to the listener, either as a number
+ *       or as one of <code>ERROR</code>, <code>WARNING</code>, <code>INFO</code>
+ *       and <code>DEBUG</code>.  The default is <code>DEBUG</code>.</dd>
+ *
+ *   <dt>org.apache.felix.log.listener.bundle</dt>
+ *   <dd>The symbolic name, or an array of symbolic names, of the bundles
+ *       whose entries are delivered.  By default entries of all bundles are
+ *       delivered.</dd>
+ * </dl>
+ * The properties may be changed while the listener is registered.  A
+ * listener that is also added through the
+ * {@link org.osgi.service.log.LogReaderService} receives each entry once.
+ */
+final class LogListenerTracker implements ServiceListener
+{
+    /** The service property holding the level of a listener. */
+    static final String LEVEL_PROPERTY = "org.apache.felix.log.listener.level";
+    /** The service property holding the bundles of interest of a listener. */
+    static final String BUNDLE_PROPERTY = "org.apache.felix.log.listener.bundle";
+    /** The filter selecting log listener services. */
+    private static final String FILTER = "(objectClass=" + LogListener.class.getName() + ")";
+
+    /** The level names, indexed by level - 1. */
+    private static final String[] LEVEL_NAMES = { "ERROR", "WARNING", "INFO", "DEBUG" };
+
+    /** The bundle context. */
+    private final BundleContext m_context;
+    /** The log. */
+    private final Log m_log;
+    /**
+     * The subscriptions of the listeners keyed by their service reference.
+     * A listener whose service is being got is mapped to a placeholder.
+     */
+    private final Map m_subscriptions = new HashMap();
+
+    /**
+     * Create a new instance.
+     * @param context the bundle context used to get the listener services
+     * @param log the log to subscribe the listeners to
+     */
+    LogListenerTracker(final BundleContext context, final Log log)
+    {
+        m_context = context;
+        m_log = log;
+    }
+
+    /**
+     * Start tracking listener services, subscribing those already registered.
+     * @throws InvalidSyntaxException never, the filter is constant
+     */
+    void open() throws InvalidSyntaxException
+    {
+        m_context.addServiceListener(this, FILTER);
+
+        ServiceReference[] refs = m_context.getServiceReferences(
+            LogListener.class.getName(), null);
+        for (int i = 0; refs != null && i < refs.length; ++i)
+        {
+            addListener(refs[i]);
+        }
+    }
+
+    /**
+     * Stop tracking listener services and unsubscribe all of them.
+     */
+    void close()
+    {
+        m_context.removeServiceListener(this);
+
+        Collection refs;
+        synchronized (m_subscriptions)
+        {
+            refs = new HashMap(m_subscriptions).keySet();
+        }
+        for (Iterator it = refs.iterator(); it.hasNext();)
+        {
+            removeListener((ServiceReference) it.next());
+        }
+    }
+
+    /**
+     * Called when a log listener service is registered, modified or unregistered.
+     * @param event the event that occured
+     */
+    public void serviceChanged(final ServiceEvent event)
+    {
+        ServiceReference ref = event.getServiceReference();
+        switch (event.getType())
+        {
+            case ServiceEvent.REGISTERED:
+                addListener(ref);
+                break;
+
+            case ServiceEvent.MODIFIED:
+                Object subscription;
+                synchronized (m_subscriptions)
+                {
+                    subscription = m_subscriptions.get(ref);
+                }
+                if (subscription instanceof LogListenerThread.Subscription)
+                {
+                    ((LogListenerThread.Subscription) subscription).setFilter(
+                        getLevel(ref), getBundles(ref));
+                }
+                break;
+
+            case ServiceEvent.UNREGISTERING:
+                removeListener(ref);
+                break;
+        }
+    }
+
+    /**
+     * Get the listener service and subscribe it to the log.  The service
+     * listener is added before the registered services are enumerated, so
+     * a service may be reported twice; a placeholder is mapped to the
+     * reference while the service is got, so it is only subscribed once.
+     * The service is got outside of the lock; if it is removed meanwhile,
+     * the placeholder is gone and the service is released again.
+     * @param ref the reference of the listener service
+     */
+    private void addListener(final ServiceReference ref)
+    {
+        Object pending = new Object();
+        synchronized (m_subscriptions)
+        {
+            if (m_subscriptions.containsKey(ref))
+            {
+                return;
+            }
+            m_subscriptions.put(ref, pending);
+        }
+
+        LogListener listener = (LogListener) m_context.getService(ref);
+
+        synchronized (m_subscriptions)
+        {
+            if (m_subscriptions.get(ref) == pending)
+            {
+                if (listener == null)
+                {
+                    m_subscriptions.remove(ref);
+                }
+                else
+                {
+                    m_subscriptions.put(ref,
+                        m_log.addListener(listener, getLevel(ref), getBundles(ref)));
+                }
+                return;
+            }
+        }
+
+        // removed while the service was got
+        if (listener != null)
+        {
+            m_context.ungetService(ref);
+        }
+    }
+
+    /**
+     * Unsubscribe the listener service from the log and release it.
+     * @param ref the reference of the listener service
+     */
+    private void removeListener(final ServiceReference ref)
+    {
+        Object subscription;
+        synchronized (m_subscriptions)
+        {
+            subscription = m_subscriptions.remove(ref);
+        }
+
+        if (subscription instanceof LogListenerThread.Subscription)
+        {
+            m_log.removeListener((LogListenerThread.Subscription) subscription);
+            m_context.ungetService(ref);
+        }
+    }
+
+    /**
+     * Returns the level declared by a listener service.
+     * @param ref the reference of the listener service
+     * @return the least severe level to deliver
+     */
+    private static int getLevel(final ServiceReference ref)
+    {
+        Object value = ref.getProperty(LEVEL_PROPERTY);
+        if (value instanceof Number)
+        {
+            return ((Number) value).intValue();
+        }
+        else if (value != null)
+        {
+            String level = value.toString().trim();
+            for (int i = 0; i < LEVEL_NAMES.length; ++i)
+            {
+                if (LEVEL_NAMES[i].equalsIgnoreCase(level))
+                {
+                    return i + 1;
+                }
+            }
+            try
+            {
+                return Integer.parseInt(level);
+            }
+            catch (NumberFormatException e)
+            {
+                // the property value is invalid - ignore
+            }
+        }
+        return LogService.LOG_DEBUG;
+    }
+
+    /**
+     * Returns the bundle symbolic names declared by a listener service.
+     * @param ref the reference of the listener service
+     * @return the symbolic names or <code>null</code> for all bundles
+     */
+    private static String[] getBundles(final ServiceReference ref)
+    {
+        Object value = ref.getProperty(BUNDLE_PROPERTY);
+        if (value instanceof String[])
+        {
+            return (String[]) value;
+        }
+        else if (value instanceof Collection)
+        {
+            Collection names = (Collection) value;
+            String[] bundles = new String[names.size()];
+            Iterator it = names.iterator();
+            for (int i = 0; i < bundles.length; ++i)
+            {
+                bundles[i] = String.valueOf(it.next());
+            }
+            return bundles;
+        }
+        else if (value != null)
+        {
+            return new String[] { value.toString() };
+        }
+        return null;
+    }
+}
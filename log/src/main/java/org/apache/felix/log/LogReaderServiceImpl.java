@@ -40,8 +40,8 @@ final class LogReaderServiceImpl implements LogReaderService
 {
     /** The log implementation. */
     private final Log m_log;
-    /** The listeners associated with this service. */
-    private final List m_listeners = new Vector();
+    /** The subscriptions of the listeners added through this service. */
+    private final List m_subscriptions = new Vector();
 
     /**
      * Create a new instance.
@@ -68,8 +68,7 @@ final class LogReaderServiceImpl implements LogReaderService
      */
     public synchronized void addLogListener(final LogListener listener)
     {
-        m_listeners.add(listener);
-        m_log.addListener(listener);
+        m_subscriptions.add(m_log.addListener(listener));
     }
 
     /**
@@ -78,8 +77,17 @@ final class LogReaderServiceImpl implements LogReaderService
      */
     public synchronized void removeLogListener(final LogListener listener)
     {
-        m_listeners.remove(listener);
-        m_log.removeListener(listener);
+        for (int i = 0; i < m_subscriptions.size(); ++i)
+        {
+            LogListenerThread.Subscription subscription =
+                (LogListenerThread.Subscription) m_subscriptions.get(i);
+            if (subscription.getListener() == listener)
+            {
+                m_subscriptions.remove(i);
+                m_log.removeListener(subscription);
+                break;
+            }
+        }
     }
 
     /**
@@ -97,11 +105,11 @@ final class LogReaderServiceImpl implements LogReaderService
      */
     synchronized void removeAllLogListeners()
     {
-        Iterator listenerIt = m_listeners.iterator();
-        while (listenerIt.hasNext())
+        Iterator subscriptionIt = m_subscriptions.iterator();
+        while (subscriptionIt.hasNext())
         {
-            LogListener listener = (LogListener) listenerIt.next();
-            m_log.removeListener(listener);
+            m_log.removeListener((LogListenerThread.Subscription) subscriptionIt.next());
         }
+        m_subscriptions.clear();
     }
 }
\ No newline at end of file
@@ -0,0 +1,482 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogEntry;
+
+/**
+ * A single memory-mapped file of the persistent log store.
+ * <p>
+ * A segment starts with a header (magic number and format version) followed
+ * by the entries in the order they were logged.  Each entry is encoded as:
+ * <pre>
+ *   int    length of the remainder of the record
+ *   long   time
+ *   int    level
+ *   long   bundle id, -1 if none
+ *   long   service id, -1 if none
+ *   string bundle symbolic name
+ *   string message
+ *   string exception class name
+ *   string exception message
+ * </pre>
+ * where a string is an int byte length (-1 for <code>null</code>) followed
+ * by the UTF-8 bytes.  A record length of 0 marks the end of the data, which
+ * is what a freshly mapped (zero filled) file contains.
+ */
+final class LogSegment
+{
+    /** The magic number identifying a segment file. */
+    private static final int MAGIC = 0x464c4f47; // "FLOG"
+    /** The version of the segment format. */
+    private static final int VERSION = 1;
+    /** The size of the segment header. */
+    private static final int HEADER_SIZE = 8;
+    /** The size of the record length prefix. */
+    private static final int LENGTH_SIZE = 4;
+
+    /** The segment file. */
+    private final File m_file;
+    /** The sequence number of the segment. */
+    private final long m_sequence;
+    /**
+     * The mapped content of the file, <code>null</code> once the segment is
+     * closed or deleted.  There is no way to unmap a file explicitly; the
+     * mapping is released when the buffer and the views handed out to
+     * readers are garbage collected.
+     */
+    private volatile MappedByteBuffer m_buffer;
+    /** The position at which the next entry is written. */
+    private volatile int m_writePosition;
+    /** The earliest entry time, or Long.MAX_VALUE if empty. */
+    private volatile long m_minTime = Long.MAX_VALUE;
+    /** The latest entry time, or Long.MIN_VALUE if empty. */
+    private volatile long m_maxTime = Long.MIN_VALUE;
+
+    /**
+     * Map a segment file, creating it if necessary, and recover its write
+     * position by scanning the existing entries.
+     * @param file the segment file
+     * @param sequence the sequence number of the segment
+     * @param size the size of the segment, used if the file is new
+     * @throws IOException if the file cannot be mapped or is not a segment
+     */
+    LogSegment(final File file, final long sequence, final int size) throws IOException
+    {
+        m_file = file;
+        m_sequence = sequence;
+
+        boolean existing = file.exists() && file.length() >= HEADER_SIZE;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            long length = existing ? raf.length() : size;
+            m_buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+        finally
+        {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+
+        if (existing)
+        {
+            if (m_buffer.getInt(0) != MAGIC || m_buffer.getInt(4) != VERSION)
+            {
+                throw new IOException("Not a log segment: " + file);
+            }
+            recover();
+        }
+        else
+        {
+            m_buffer.putInt(0, MAGIC);
+            m_buffer.putInt(4, VERSION);
+            m_writePosition = HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Scan the entries to find the write position and the time range.  A
+     * truncated last record, as left by a crash, is treated as the end.
+     */
+    private void recover()
+    {
+        ByteBuffer buffer = m_buffer.duplicate();
+        int position = HEADER_SIZE;
+        while (position + LENGTH_SIZE <= buffer.capacity())
+        {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + LENGTH_SIZE + length > buffer.capacity())
+            {
+                break;
+            }
+            updateTimeRange(buffer.getLong(position + LENGTH_SIZE));
+            position += LENGTH_SIZE + length;
+        }
+        m_writePosition = position;
+    }
+
+    /**
+     * Returns the sequence number of the segment.
+     * @return the sequence number
+     */
+    long getSequence()
+    {
+        return m_sequence;
+    }
+
+    /**
+     * Returns the earliest entry time in the segment.  Entry times are wall
+     * clock times, so this is not necessarily the time of the first entry.
+     * @return the earliest entry time, Long.MAX_VALUE if empty
+     */
+    long getMinTime()
+    {
+        return m_minTime;
+    }
+
+    /**
+     * Returns the latest entry time in the segment.
+     * @return the latest entry time, Long.MIN_VALUE if empty
+     */
+    long getMaxTime()
+    {
+        return m_maxTime;
+    }
+
+    /**
+     * Widen the time range of the segment to include an entry time.
+     * @param time the time of an entry
+     */
+    private void updateTimeRange(final long time)
+    {
+        if (time < m_minTime)
+        {
+            m_minTime = time;
+        }
+        if (time > m_maxTime)
+        {
+            m_maxTime = time;
+        }
+    }
+
+    /**
+     * Returns the position following the last complete entry.
+     * @return the end of the data
+     */
+    int getWritePosition()
+    {
+        return m_writePosition;
+    }
+
+    /**
+     * Returns the position of the first entry.
+     * @return the start of the data
+     */
+    static int getDataStart()
+    {
+        return HEADER_SIZE;
+    }
+
+    /**
+     * Encode an entry into its record form, including the length prefix.
+     * @param entry the entry to encode
+     * @return the encoded record
+     */
+    static byte[] encode(final LogEntry entry)
+    {
+        Bundle bundle = entry.getBundle();
+        ServiceReference sr = entry.getServiceReference();
+        Throwable exception = entry.getException();
+
+        byte[] symbolicName = toBytes((bundle == null) ? null : bundle.getSymbolicName());
+        byte[] message = toBytes(entry.getMessage());
+        byte[] exceptionClass = null;
+        byte[] exceptionMessage = null;
+        if (exception instanceof LogException)
+        {
+            exceptionClass = toBytes(((LogException) exception).getClassName());
+            exceptionMessage = toBytes(((LogException) exception).getOriginalMessage());
+        }
+        else if (exception != null)
+        {
+            exceptionClass = toBytes(exception.getClass().getName());
+            exceptionMessage = toBytes(exception.getMessage());
+        }
+
+        int length = 8 + 4 + 8 + 8 + sizeOf(symbolicName) + sizeOf(message)
+            + sizeOf(exceptionClass) + sizeOf(exceptionMessage);
+        ByteBuffer record = ByteBuffer.allocate(LENGTH_SIZE + length);
+        record.putInt(length);
+        record.putLong(entry.getTime());
+        record.putInt(entry.getLevel());
+        record.putLong((bundle == null) ? -1 : bundle.getBundleId());
+        Object serviceId = (sr == null) ? null : sr.getProperty("service.id");
+        record.putLong((serviceId instanceof Number) ? ((Number) serviceId).longValue() : -1);
+        putBytes(record, symbolicName);
+        putBytes(record, message);
+        putBytes(record, exceptionClass);
+        putBytes(record, exceptionMessage);
+        return record.array();
+    }
+
+    /**
+     * Append an encoded record to the segment.  Must only be called by the
+     * single writer of the store.
+     * @param record the encoded record
+     * @param time the time of the entry
+     * @return <code>false</code> if the segment has no room left for the record
+     */
+    boolean append(final byte[] record, final long time)
+    {
+        MappedByteBuffer mapped = m_buffer;
+        int position = m_writePosition;
+        if (mapped == null || position + record.length > mapped.capacity())
+        {
+            return false;
+        }
+
+        // write the body first and the length last, so a concurrent reader
+        // (or a crash) never sees a partially written record as complete
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position(position + LENGTH_SIZE);
+        buffer.put(record, LENGTH_SIZE, record.length - LENGTH_SIZE);
+        mapped.putInt(position, record.length - LENGTH_SIZE);
+
+        updateTimeRange(time);
+        m_writePosition = position + record.length;
+        return true;
+    }
+
+    /**
+     * Returns an independent view of the segment content for reading.
+     * @return a read-only view of the segment or <code>null</code> if the
+     * segment is closed or deleted
+     */
+    ByteBuffer view()
+    {
+        MappedByteBuffer mapped = m_buffer;
+        return (mapped == null) ? null : mapped.asReadOnlyBuffer();
+    }
+
+    /**
+     * Flush the segment content to disk.
+     */
+    void force()
+    {
+        MappedByteBuffer mapped = m_buffer;
+        if (mapped != null)
+        {
+            mapped.force();
+        }
+    }
+
+    /**
+     * Flush the segment content to disk and drop the mapping.  Readers still
+     * holding a view of the segment can finish reading it.
+     */
+    void close()
+    {
+        force();
+        m_buffer = null;
+    }
+
+    /**
+     * Drop the mapping and delete the segment file.  Readers still holding a
+     * view of the segment can finish reading it.  On some platforms a file
+     * cannot be deleted while it is mapped, so the deletion may only succeed
+     * once the views are garbage collected.
+     * @return <code>true</code> if the file was deleted
+     */
+    boolean delete()
+    {
+        m_buffer = null;
+        return m_file.delete() || !m_file.exists();
+    }
+
+    /**
+     * Returns the segment file.
+     * @return the file
+     */
+    File getFile()
+    {
+        return m_file;
+    }
+
+    /**
+     * Returns the time stored in the record at the given position.
+     * @param buffer a view of the segment
+     * @param position the position of the record
+     * @return the time of the entry
+     */
+    static long readTime(final ByteBuffer buffer, final int position)
+    {
+        return buffer.getLong(position + LENGTH_SIZE);
+    }
+
+    /**
+     * Returns the level stored in the record at the given position.
+     * @param buffer a view of the segment
+     * @param position the position of the record
+     * @return the level of the entry
+     */
+    static int readLevel(final ByteBuffer buffer, final int position)
+    {
+        return buffer.getInt(position + LENGTH_SIZE + 8);
+    }
+
+    /**
+     * Returns the bundle id stored in the record at the given position.
+     * @param buffer a view of the segment
+     * @param position the position of the record
+     * @return the bundle id of the entry, -1 if none
+     */
+    static long readBundleId(final ByteBuffer buffer, final int position)
+    {
+        return buffer.getLong(position + LENGTH_SIZE + 12);
+    }
+
+    /**
+     * Returns the position of the record following the one at the given
+     * position, or -1 if there is no complete record at that position.
+     * @param buffer a view of the segment
+     * @param position the position of the record
+     * @param end the end of the data
+     * @return the position of the next record, or -1
+     */
+    static int next(final ByteBuffer buffer, final int position, final int end)
+    {
+        if (position + LENGTH_SIZE > end)
+        {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + LENGTH_SIZE + length > end)
+        {
+            return -1;
+        }
+        return position + LENGTH_SIZE + length;
+    }
+
+    /**
+     * Decode the record at the given position into a log entry.
+     * @param buffer a view of the segment
+     * @param position the position of the record
+     * @param bundles used to resolve the stored bundle id, may return
+     * <code>null</code> for uninstalled bundles
+     * @return the decoded entry
+     */
+    static LogEntry decode(final ByteBuffer buffer, final int position,
+        final BundleResolver bundles)
+    {
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + LENGTH_SIZE);
+        long time = record.getLong();
+        int level = record.getInt();
+        long bundleId = record.getLong();
+        record.getLong(); // the service id: references cannot be restored
+        getString(record); // the symbolic name: only used by external tools
+        String message = getString(record);
+        String exceptionClass = getString(record);
+        String exceptionMessage = getString(record);
+
+        Bundle bundle = (bundleId < 0) ? null : bundles.getBundle(bundleId);
+        Throwable exception = (exceptionClass == null) ? null
+            : LogException.restore(exceptionClass, exceptionMessage);
+        return new LogEntryImpl(bundle, null, level, message, exception, time);
+    }
+
+    /**
+     * Resolves bundle ids of stored entries to bundles.
+     */
+    interface BundleResolver
+    {
+        /**
+         * Returns the bundle with the given id.
+         * @param id the bundle id
+         * @return the bundle or <code>null</code> if not installed
+         */
+        Bundle getBundle(long id);
+    }
+
+    private static byte[] toBytes(final String value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        try
+        {
+            return value.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    private static int sizeOf(final byte[] value)
+    {
+        return 4 + ((value == null) ? 0 : value.length);
+    }
+
+    private static void putBytes(final ByteBuffer buffer, final byte[] value)
+    {
+        if (value == null)
+        {
+            buffer.putInt(-1);
+        }
+        else
+        {
+            buffer.putInt(value.length);
+            buffer.put(value);
+        }
+    }
+
+    private static String getString(final ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        if (length < 0)
+        {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        try
+        {
+            return new String(bytes, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+}
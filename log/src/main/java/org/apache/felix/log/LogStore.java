@@ -0,0 +1,460 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.felix.log.store.LogStoreReader;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogService;
+
+/**
+ * The persistent log store.  Entries are appended to a sequence of
+ * memory-mapped segment files (see {@link LogSegment}) in a directory; when
+ * the current segment is full a new one is started and the oldest segments
+ * beyond the configured number are deleted.  Entries survive framework
+ * restarts and can be queried through the {@link LogStoreReader} interface.
+ * <p>
+ * An entry whose encoded form is larger than a segment is stored with its
+ * message cut short and a note giving its original size.  Entries that
+ * cannot be stored at all are counted, see {@link #getDroppedCount()}.
+ */
+final class LogStore implements LogStoreReader, LogSegment.BundleResolver
+{
+    /** The prefix of segment file names. */
+    private static final String SEGMENT_PREFIX = "log-";
+    /** The suffix of segment file names. */
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /** The bundle context, used to resolve bundles of restored entries. */
+    private final BundleContext m_context;
+    /** The directory holding the segment files. */
+    private final File m_directory;
+    /** The size of a segment. */
+    private final int m_segmentSize;
+    /** The maximum number of segments kept. */
+    private final int m_maxSegments;
+    /**
+     * The segments, oldest first; the last one is written to.  Empty once
+     * the store is closed.
+     */
+    private final List m_segments = new ArrayList();
+    /** The files of trimmed segments which could not be deleted yet. */
+    private final List m_undeleted = new ArrayList();
+    /** The number of entries that could not be stored. */
+    private long m_dropped;
+
+    /**
+     * Create a new instance, opening the segments already in the directory.
+     * @param context the bundle context
+     * @param directory the directory holding the segment files
+     * @param segmentSize the size of a segment in bytes
+     * @param maxSegments the maximum number of segments kept
+     * @throws IOException if the store cannot be opened
+     */
+    LogStore(final BundleContext context, final File directory,
+        final int segmentSize, final int maxSegments) throws IOException
+    {
+        m_context = context;
+        m_directory = directory;
+        m_segmentSize = segmentSize;
+        m_maxSegments = Math.max(1, maxSegments);
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Cannot create log store directory " + directory);
+        }
+
+        String[] names = directory.list();
+        Arrays.sort(names);
+        for (int i = 0; i < names.length; ++i)
+        {
+            long sequence = getSequence(names[i]);
+            if (sequence >= 0)
+            {
+                try
+                {
+                    m_segments.add(new LogSegment(new File(directory, names[i]),
+                        sequence, segmentSize));
+                }
+                catch (IOException e)
+                {
+                    // not a usable segment - ignore it
+                }
+            }
+        }
+
+        if (m_segments.isEmpty())
+        {
+            roll();
+        }
+        trim();
+    }
+
+    /**
+     * Returns the sequence number encoded in a segment file name.
+     * @param name the file name
+     * @return the sequence number or -1 if the name is not a segment name
+     */
+    private static long getSequence(final String name)
+    {
+        if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+        {
+            try
+            {
+                return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_SUFFIX.length()));
+            }
+            catch (NumberFormatException e)
+            {
+                // not a segment file
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Append an entry to the store.
+     * @param entry the entry to store
+     */
+    synchronized void append(final LogEntry entry)
+    {
+        if (m_segments.isEmpty())
+        {
+            // the store is closed
+            ++m_dropped;
+            return;
+        }
+
+        int limit = m_segmentSize - LogSegment.getDataStart();
+        byte[] record = LogSegment.encode(entry);
+        if (record.length > limit)
+        {
+            record = encodeTruncated(entry, record.length, limit);
+            if (record == null)
+            {
+                ++m_dropped;
+                return;
+            }
+        }
+
+        LogSegment current = (LogSegment) m_segments.get(m_segments.size() - 1);
+        if (!current.append(record, entry.getTime()))
+        {
+            try
+            {
+                current.force();
+                roll();
+                trim();
+            }
+            catch (IOException e)
+            {
+                // the store is unusable for now - drop the entry
+                ++m_dropped;
+                return;
+            }
+            ((LogSegment) m_segments.get(m_segments.size() - 1)).append(record, entry.getTime());
+        }
+    }
+
+    /**
+     * Encode an entry too large for a segment with its message cut short
+     * and the message of its exception removed.
+     * @param entry the entry to encode
+     * @param size the size of the complete record
+     * @param limit the largest record a segment can hold
+     * @return the encoded record or <code>null</code> if even the shortened
+     * entry does not fit
+     */
+    private static byte[] encodeTruncated(final LogEntry entry, final int size,
+        final int limit)
+    {
+        String note = " [truncated, the entry took " + size + " bytes]";
+        String message = (entry.getMessage() == null) ? "" : entry.getMessage();
+        Throwable exception = entry.getException();
+        if (exception instanceof LogException)
+        {
+            exception = LogException.restore(((LogException) exception).getClassName(), null);
+        }
+        else if (exception != null)
+        {
+            exception = LogException.restore(exception.getClass().getName(), null);
+        }
+
+        for (int keep = message.length(); ; keep /= 2)
+        {
+            byte[] record = LogSegment.encode(new LogEntryImpl(entry.getBundle(),
+                entry.getServiceReference(), entry.getLevel(),
+                message.substring(0, keep) + note, exception, entry.getTime()));
+            if (record.length <= limit)
+            {
+                return record;
+            }
+            if (keep == 0)
+            {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries that could not be stored, because the
+     * store could not be written or a segment is too small for even a
+     * shortened entry.
+     * @return the number of dropped entries
+     */
+    synchronized long getDroppedCount()
+    {
+        return m_dropped;
+    }
+
+    /**
+     * Start a new segment.
+     * @throws IOException if the segment file cannot be created
+     */
+    private void roll() throws IOException
+    {
+        long sequence = m_segments.isEmpty() ? 0
+            : ((LogSegment) m_segments.get(m_segments.size() - 1)).getSequence() + 1;
+        String name = Long.toString(sequence);
+        StringBuffer padded = new StringBuffer(SEGMENT_PREFIX);
+        for (int i = name.length(); i < 19; ++i)
+        {
+            // zero padded, so that the file names sort in sequence order
+            padded.append('0');
+        }
+        padded.append(name).append(SEGMENT_SUFFIX);
+
+        m_segments.add(new LogSegment(new File(m_directory, padded.toString()),
+            sequence, m_segmentSize));
+    }
+
+    /**
+     * Delete the oldest segments beyond the maximum number of segments.  A
+     * file which cannot be deleted, for instance because a reader still maps
+     * it, is recorded in the store and deleted when the next segment is
+     * started.
+     */
+    private void trim()
+    {
+        for (Iterator it = m_undeleted.iterator(); it.hasNext();)
+        {
+            File file = (File) it.next();
+            if (file.delete() || !file.exists())
+            {
+                it.remove();
+            }
+        }
+
+        while (m_segments.size() > m_maxSegments)
+        {
+            LogSegment segment = (LogSegment) m_segments.remove(0);
+            if (!segment.delete())
+            {
+                m_undeleted.add(segment.getFile());
+                append(new LogEntryImpl(getLogBundle(), null, LogService.LOG_WARNING,
+                    "Cannot delete log segment " + segment.getFile()
+                        + ", will retry when the next segment is started",
+                    null, System.currentTimeMillis()));
+            }
+        }
+    }
+
+    /**
+     * Returns the log bundle, used for the entries of the store itself.
+     * @return the log bundle or <code>null</code> if it has been stopped
+     */
+    private Bundle getLogBundle()
+    {
+        try
+        {
+            return m_context.getBundle();
+        }
+        catch (IllegalStateException e)
+        {
+            // the log bundle has been stopped
+            return null;
+        }
+    }
+
+    /**
+     * Flush the store to disk and drop the segment mappings.  Entries
+     * appended afterwards are dropped.
+     */
+    synchronized void close()
+    {
+        for (int i = 0; i < m_segments.size(); ++i)
+        {
+            ((LogSegment) m_segments.get(i)).close();
+        }
+        m_segments.clear();
+    }
+
+    /**
+     * @see LogSegment.BundleResolver#getBundle(long)
+     */
+    public Bundle getBundle(final long id)
+    {
+        try
+        {
+            return m_context.getBundle(id);
+        }
+        catch (IllegalStateException e)
+        {
+            // the log bundle has been stopped
+            return null;
+        }
+    }
+
+    /**
+     * @see LogStoreReader#getEntries(long, long, long, int)
+     */
+    public Iterator getEntries(final long fromTime, final long toTime,
+        final long bundleId, final int level)
+    {
+        Object[] segments;
+        synchronized (this)
+        {
+            segments = m_segments.toArray();
+        }
+        return new EntryIterator(segments, fromTime, toTime, bundleId, level);
+    }
+
+    /**
+     * Iterator reading matching entries segment by segment.  Only the entry
+     * header fields are read to evaluate the criteria; matching entries are
+     * decoded when they are returned.  Entry times are wall clock times and
+     * may go backwards, so every record of a segment whose time range
+     * overlaps the query is examined.
+     */
+    private final class EntryIterator implements Iterator
+    {
+        private final Object[] m_segmentsToRead;
+        private final long m_fromTime;
+        private final long m_toTime;
+        private final long m_bundleId;
+        private final int m_level;
+
+        /** The index of the segment being read. */
+        private int m_segmentIndex = -1;
+        /** The view of the segment being read. */
+        private ByteBuffer m_buffer;
+        /** The end of the data of the segment being read. */
+        private int m_end;
+        /** The position of the next record to examine. */
+        private int m_position;
+        /** The next entry to return, if already found. */
+        private LogEntry m_next;
+
+        EntryIterator(final Object[] segments, final long fromTime,
+            final long toTime, final long bundleId, final int level)
+        {
+            m_segmentsToRead = segments;
+            m_fromTime = fromTime;
+            m_toTime = toTime;
+            m_bundleId = bundleId;
+            m_level = level;
+        }
+
+        public boolean hasNext()
+        {
+            if (m_next == null)
+            {
+                m_next = findNext();
+            }
+            return m_next != null;
+        }
+
+        public Object next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            LogEntry entry = m_next;
+            m_next = null;
+            return entry;
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        private LogEntry findNext()
+        {
+            while (true)
+            {
+                if (m_buffer == null && !nextSegment())
+                {
+                    return null;
+                }
+
+                int position = m_position;
+                int next = LogSegment.next(m_buffer, position, m_end);
+                if (next < 0)
+                {
+                    m_buffer = null;
+                    continue;
+                }
+                m_position = next;
+
+                long time = LogSegment.readTime(m_buffer, position);
+                if (time >= m_fromTime && time <= m_toTime
+                    && LogSegment.readLevel(m_buffer, position) <= m_level
+                    && (m_bundleId == ALL_BUNDLES
+                        || LogSegment.readBundleId(m_buffer, position) == m_bundleId))
+                {
+                    return LogSegment.decode(m_buffer, position, LogStore.this);
+                }
+            }
+        }
+
+        private boolean nextSegment()
+        {
+            while (++m_segmentIndex < m_segmentsToRead.length)
+            {
+                LogSegment segment = (LogSegment) m_segmentsToRead[m_segmentIndex];
+                if (segment.getMaxTime() >= m_fromTime
+                    && segment.getMinTime() <= m_toTime)
+                {
+                    m_buffer = segment.view();
+                    if (m_buffer == null)
+                    {
+                        // deleted since the query started
+                        continue;
+                    }
+                    m_end = segment.getWritePosition();
+                    m_position = LogSegment.getDataStart();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log.store;
+
+import java.util.Iterator;
+
+/**
+ * Service giving access to the persistent log history kept by the log bundle
+ * when the persistent log store is enabled.  Unlike
+ * {@link org.osgi.service.log.LogReaderService#getLog()} the history survives
+ * framework restarts and is not limited to the in-memory log size.
+ * <p>
+ * Entries are read lazily from the store while iterating, in the order they
+ * were logged; no snapshot of the whole history is ever built.  Entry times
+ * are wall clock times, so they are not necessarily ascending.  The returned
+ * iterators do not support removal.  Entries restored from a previous run
+ * have no service reference, their bundle is <code>null</code> if it is no
+ * longer installed and their exception only retains the class name and
+ * message of the original exception.
+ */
+public interface LogStoreReader
+{
+    /** Value for the bundle id argument selecting entries of all bundles. */
+    long ALL_BUNDLES = -1;
+
+    /**
+     * Returns an iterator over the stored {@link org.osgi.service.log.LogEntry}
+     * objects matching the given criteria, in the order they were logged.
+     * @param fromTime the earliest entry time to include (inclusive)
+     * @param toTime the latest entry time to include (inclusive)
+     * @param bundleId the id of the bundle whose entries are returned, or
+     * {@link #ALL_BUNDLES}
+     * @param level the least severe level to include, e.g.
+     * {@link org.osgi.service.log.LogService#LOG_WARNING} returns warnings
+     * and errors
+     * @return an iterator over the matching entries
+     */
+    Iterator getEntries(long fromTime, long toTime, long bundleId, int level);
+}
@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogListener;
+import org.osgi.service.log.LogService;
+
+/**
+ * Tests the subscription of {@link LogListener} services.
+ */
+public class LogListenerTrackerTest extends TestCase
+{
+    private Log m_log;
+    private MockContext m_context;
+
+    protected void setUp()
+    {
+        m_log = new Log(0, false);
+        m_context = new MockContext();
+    }
+
+    protected void tearDown()
+    {
+        m_log.close();
+    }
+
+    /**
+     * A listener registered while the tracker opens is reported both by the
+     * service listener and by the enumeration; it must be subscribed once.
+     */
+    public void testRegisteredWhileOpening() throws Exception
+    {
+        CollectingListener listener = new CollectingListener();
+        final ServiceReference ref = m_context.register(listener, null);
+        m_context.m_onEnumerate = new Runnable()
+        {
+            public void run()
+            {
+                m_context.fire(ServiceEvent.REGISTERED, ref);
+            }
+        };
+
+        LogListenerTracker tracker = new LogListenerTracker(m_context.getContext(), m_log);
+        tracker.open();
+
+        assertEquals(1, m_log.getListenerCount());
+        assertEquals(1, m_context.m_gets);
+
+        m_log.addEntry(entry(LogService.LOG_INFO, "one"));
+        m_log.addEntry(entry(LogService.LOG_INFO, "two"));
+        listener.await(2);
+        assertEquals(2, listener.getMessages().size());
+
+        m_context.fire(ServiceEvent.UNREGISTERING, ref);
+        assertEquals(0, m_log.getListenerCount());
+        assertEquals(1, m_context.m_ungets);
+
+        tracker.close();
+    }
+
+    /**
+     * Concurrent registration events for the same service subscribe it once.
+     */
+    public void testConcurrentRegistration() throws Exception
+    {
+        final ServiceReference ref = m_context.register(new CollectingListener(), null);
+        final LogListenerTracker tracker = new LogListenerTracker(m_context.getContext(), m_log);
+        tracker.open();
+        assertEquals(1, m_log.getListenerCount());
+
+        m_context.fire(ServiceEvent.UNREGISTERING, ref);
+        assertEquals(0, m_log.getListenerCount());
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    tracker.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, ref));
+                }
+            };
+        }
+        for (int i = 0; i < threads.length; ++i)
+        {
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; ++i)
+        {
+            threads[i].join();
+        }
+
+        assertEquals(1, m_log.getListenerCount());
+        assertEquals(2, m_context.m_gets);
+
+        tracker.close();
+        assertEquals(0, m_log.getListenerCount());
+        assertEquals(2, m_context.m_ungets);
+    }
+
+    /**
+     * A listener unregistered while its service is being got is not
+     * subscribed, and the service is released.
+     */
+    public void testUnregisteredWhileGettingService() throws Exception
+    {
+        final ServiceReference ref = m_context.register(new CollectingListener(), null);
+        m_context.m_onGet = new Runnable()
+        {
+            public void run()
+            {
+                m_context.fire(ServiceEvent.UNREGISTERING, ref);
+            }
+        };
+
+        LogListenerTracker tracker = new LogListenerTracker(m_context.getContext(), m_log);
+        tracker.open();
+
+        assertEquals(0, m_log.getListenerCount());
+        assertEquals(1, m_context.m_gets);
+        assertEquals(1, m_context.m_ungets);
+
+        tracker.close();
+        assertEquals(1, m_context.m_ungets);
+    }
+
+    /**
+     * A listener registered as a service and also added through the log
+     * reader receives every entry once, with the union of both filters.
+     */
+    public void testListenerAlsoAddedThroughReader() throws Exception
+    {
+        CollectingListener listener = new CollectingListener();
+        Map props = new HashMap();
+        props.put(LogListenerTracker.LEVEL_PROPERTY, "ERROR");
+        ServiceReference ref = m_context.register(listener, props);
+
+        LogListenerTracker tracker = new LogListenerTracker(m_context.getContext(), m_log);
+        tracker.open();
+        LogReaderServiceImpl reader = new LogReaderServiceImpl(m_log);
+        reader.addLogListener(listener);
+        assertEquals(1, m_log.getListenerCount());
+
+        m_log.addEntry(entry(LogService.LOG_ERROR, "error"));
+        m_log.addEntry(entry(LogService.LOG_INFO, "info"));
+        listener.await(2);
+        assertEquals(list("error", "info"), listener.getMessages());
+
+        // the service subscription remains, filtering on its level
+        reader.removeLogListener(listener);
+        assertEquals(1, m_log.getListenerCount());
+        m_log.addEntry(entry(LogService.LOG_INFO, "dropped"));
+        m_log.addEntry(entry(LogService.LOG_ERROR, "error2"));
+        listener.await(3);
+        assertEquals(list("error", "info", "error2"), listener.getMessages());
+
+        m_context.fire(ServiceEvent.UNREGISTERING, ref);
+        assertEquals(0, m_log.getListenerCount());
+
+        tracker.close();
+    }
+
+    private static LogEntry entry(final int level, final String message)
+    {
+        return new LogEntryImpl(null, null, level, message, null);
+    }
+
+    private static List list(final String first, final String second)
+    {
+        List list = new ArrayList();
+        list.add(first);
+        list.add(second);
+        return list;
+    }
+
+    private static List list(final String first, final String second, final String third)
+    {
+        List list = list(first, second);
+        list.add(third);
+        return list;
+    }
+
+    /**
+     * Collects the messages of the entries it receives.
+     */
+    private static final class CollectingListener implements LogListener
+    {
+        private final List m_messages = new ArrayList();
+
+        public synchronized void logged(final LogEntry entry)
+        {
+            m_messages.add(entry.getMessage());
+            notifyAll();
+        }
+
+        synchronized List getMessages()
+        {
+            // give duplicates a chance to show up
+            try
+            {
+                wait(100);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return new ArrayList(m_messages);
+        }
+
+        synchronized void await(final int count) throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + 5000;
+            while (m_messages.size() < count && System.currentTimeMillis() < end)
+            {
+                wait(end - System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * A bundle context holding a single listener service.
+     */
+    private static final class MockContext implements InvocationHandler
+    {
+        private final List m_serviceListeners = new ArrayList();
+        private Object m_service;
+        private ServiceReference m_ref;
+        Runnable m_onEnumerate;
+        Runnable m_onGet;
+        int m_gets;
+        int m_ungets;
+
+        BundleContext getContext()
+        {
+            return (BundleContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { BundleContext.class }, this);
+        }
+
+        ServiceReference register(final Object service, final Map props)
+        {
+            m_service = service;
+            m_ref = (ServiceReference) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { ServiceReference.class }, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if (method.getName().equals("getProperty"))
+                        {
+                            return (props == null) ? null : props.get(args[0]);
+                        }
+                        else if (method.getName().equals("equals"))
+                        {
+                            return Boolean.valueOf(proxy == args[0]);
+                        }
+                        else if (method.getName().equals("hashCode"))
+                        {
+                            return new Integer(System.identityHashCode(proxy));
+                        }
+                        return null;
+                    }
+                });
+            return m_ref;
+        }
+
+        void fire(final int type, final ServiceReference ref)
+        {
+            Object[] listeners;
+            synchronized (this)
+            {
+                listeners = m_serviceListeners.toArray();
+            }
+            for (int i = 0; i < listeners.length; ++i)
+            {
+                ((ServiceListener) listeners[i]).serviceChanged(new ServiceEvent(type, ref));
+            }
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+            if (name.equals("addServiceListener"))
+            {
+                synchronized (this)
+                {
+                    m_serviceListeners.add(args[0]);
+                }
+            }
+            else if (name.equals("removeServiceListener"))
+            {
+                synchronized (this)
+                {
+                    m_serviceListeners.remove(args[0]);
+                }
+            }
+            else if (name.equals("getServiceReferences"))
+            {
+                if (m_onEnumerate != null)
+                {
+                    m_onEnumerate.run();
+                }
+                return (m_ref == null) ? null : new ServiceReference[] { m_ref };
+            }
+            else if (name.equals("getService"))
+            {
+                synchronized (this)
+                {
+                    ++m_gets;
+                }
+                if (m_onGet != null)
+                {
+                    m_onGet.run();
+                }
+                return m_service;
+            }
+            else if (name.equals("ungetService"))
+            {
+                synchronized (this)
+                {
+                    ++m_ungets;
+                }
+                return Boolean.TRUE;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.log.store.LogStoreReader;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogService;
+
+/**
+ * Tests the segmented {@link LogStore}.
+ */
+public class LogStoreTest extends TestCase
+{
+    private static final int SEGMENT_SIZE = 256;
+
+    private File m_directory;
+    private BundleContext m_context;
+    private LogStore m_store;
+
+    protected void setUp() throws IOException
+    {
+        m_directory = File.createTempFile("logstore", "");
+        m_directory.delete();
+        m_context = (BundleContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] { BundleContext.class }, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    return null;
+                }
+            });
+        m_store = new LogStore(m_context, m_directory, SEGMENT_SIZE, 3);
+    }
+
+    protected void tearDown()
+    {
+        m_store.close();
+        File[] files = m_directory.listFiles();
+        for (int i = 0; files != null && i < files.length; ++i)
+        {
+            files[i].delete();
+        }
+        m_directory.delete();
+    }
+
+    /**
+     * A time range query returns every entry within the range, even when an
+     * entry out of range was logged before it because the clock went back.
+     */
+    public void testRangeWithNonMonotonicTimes()
+    {
+        m_store.append(entry(100, "a"));
+        m_store.append(entry(300, "b"));
+        m_store.append(entry(200, "c"));
+        m_store.append(entry(150, "d"));
+        m_store.append(entry(400, "e"));
+
+        assertEquals("a,b,c,d,e", messages(0, Long.MAX_VALUE));
+        assertEquals("c,d", messages(150, 250));
+        assertEquals("b,c", messages(200, 300));
+        assertEquals("", messages(250, 290));
+        assertEquals("e", messages(350, 500));
+    }
+
+    /**
+     * A segment whose first entry is later than the range may still hold
+     * entries within it.
+     */
+    public void testRangeAcrossSegments()
+    {
+        for (int i = 0; i < 5; ++i)
+        {
+            m_store.append(entry(1000 + i, "late" + i));
+        }
+        m_store.append(entry(10, "early"));
+
+        assertEquals("early", messages(0, 100));
+        assertEquals("late1,late2,late3", messages(1001, 1003));
+    }
+
+    /**
+     * Full segments are rolled and the oldest ones deleted beyond the
+     * maximum; the remaining entries survive reopening the store.
+     */
+    public void testSegmentRollover() throws IOException
+    {
+        for (int i = 0; i < 40; ++i)
+        {
+            m_store.append(entry(i, "m" + (i < 10 ? "0" : "") + i));
+        }
+
+        String[] names = m_directory.list();
+        assertEquals(3, names.length);
+
+        String all = messages(0, Long.MAX_VALUE);
+        assertTrue(all, all.endsWith(",m39"));
+        assertFalse(all, all.startsWith("m00"));
+        int stored = all.split(",").length;
+        assertTrue(all, stored > 3 && stored < 40);
+
+        m_store.close();
+        m_store = new LogStore(m_context, m_directory, SEGMENT_SIZE, 3);
+        assertEquals(all, messages(0, Long.MAX_VALUE));
+
+        // appending continues in the last segment, or rolls over it
+        m_store.append(entry(40, "m40"));
+        all = messages(0, Long.MAX_VALUE);
+        assertTrue(all, all.endsWith(",m38,m39,m40"));
+        assertEquals(3, m_directory.list().length);
+        assertEquals(0, m_store.getDroppedCount());
+    }
+
+    /**
+     * A query started before segments are trimmed skips the deleted segments,
+     * and a closed store drops its segments and the entries appended to it.
+     */
+    public void testTrimAndCloseDropSegments()
+    {
+        m_store.append(entry(0, "first"));
+        Iterator entries = m_store.getEntries(0, Long.MAX_VALUE,
+            LogStoreReader.ALL_BUNDLES, LogService.LOG_DEBUG);
+        for (int i = 1; i < 40; ++i)
+        {
+            m_store.append(entry(i, "m" + i));
+        }
+        assertEquals(3, m_directory.list().length);
+        assertFalse(entries.hasNext());
+
+        m_store.close();
+        m_store.append(entry(40, "m40"));
+        assertEquals(1, m_store.getDroppedCount());
+        assertEquals("", messages(0, Long.MAX_VALUE));
+    }
+
+    /**
+     * An entry larger than a segment is stored with a shortened message and
+     * the class of its exception.
+     */
+    public void testOversizedEntry()
+    {
+        StringBuffer message = new StringBuffer();
+        for (int i = 0; i < SEGMENT_SIZE; ++i)
+        {
+            message.append('x');
+        }
+        m_store.append(new LogEntryImpl(null, null, LogService.LOG_ERROR,
+            message.toString(), new IllegalStateException(message.toString()), 5));
+
+        Iterator entries = m_store.getEntries(0, Long.MAX_VALUE,
+            LogStoreReader.ALL_BUNDLES, LogService.LOG_DEBUG);
+        assertTrue(entries.hasNext());
+        LogEntry entry = (LogEntry) entries.next();
+        assertFalse(entries.hasNext());
+        assertTrue(entry.getMessage(), entry.getMessage().startsWith("xxx"));
+        assertTrue(entry.getMessage(), entry.getMessage().indexOf("[truncated") > 0);
+        assertEquals(IllegalStateException.class.getName(),
+            ((LogException) entry.getException()).getClassName());
+        assertEquals(5, entry.getTime());
+        assertEquals(0, m_store.getDroppedCount());
+    }
+
+    private String messages(final long fromTime, final long toTime)
+    {
+        StringBuffer buffer = new StringBuffer();
+        Iterator entries = m_store.getEntries(fromTime, toTime,
+            LogStoreReader.ALL_BUNDLES, LogService.LOG_DEBUG);
+        while (entries.hasNext())
+        {
+            if (buffer.length() > 0)
+            {
+                buffer.append(',');
+            }
+            buffer.append(((LogEntry) entries.next()).getMessage());
+        }
+        return buffer.toString();
+    }
+
+    private static LogEntry entry(final long time, final String message)
+    {
+        return new LogEntryImpl(null, null, LogService.LOG_INFO, message, null, time);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr;
+
+
+/**
+ * The <code>ActivationGraph</code> interface provides a snapshot of the
+ * dependencies between the components managed by the Service Component
+ * Runtime together with the time spent activating them. It helps finding
+ * the components delaying the system startup and circular references.
+ * <p>
+ * Component <i>A</i> depends on component <i>B</i> if <i>A</i> has a
+ * reference to a service bound to or provided by <i>B</i>. Components are
+ * identified by name, that is all configurations of a component are
+ * represented by a single node.
+ * <p>
+ * Times are expressed in microseconds.
+ *
+ * @since 1.9 (Apache Felix Declarative Services 1.7.0)
+ */
+public interface ActivationGraph
+{
+
+    /**
+     * Returns all components ordered by name.
+     */
+    ActivationNode[] getNodes();
+
+
+    /**
+     * Returns the chain of components connected by mandatory references with
+     * the longest total activation time, ordered from the component activated
+     * first (having no mandatory dependencies) to the component activated
+     * last. Returns an empty array if there are no components.
+     */
+    ActivationNode[] getCriticalPath();
+
+
+    /**
+     * Returns the total activation time of the components of the
+     * {@link #getCriticalPath() critical path}.
+     */
+    long getCriticalPathTime();
+
+
+    /**
+     * Returns the groups of components depending on each other directly or
+     * indirectly. Each group is a cycle of references which SCR can only
+     * resolve if at least one of the references is optional. Returns an empty
+     * array if there are no circular references.
+     */
+    ActivationNode[][] getCycles();
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr;
+
+
+/**
+ * The <code>ActivationNode</code> interface describes a component in the
+ * {@link ActivationGraph}.
+ * <p>
+ * The times are those of the last activation of any configuration of the
+ * component, expressed in microseconds, or zero if the component has not
+ * been activated yet.
+ *
+ * @since 1.9 (Apache Felix Declarative Services 1.7.0)
+ */
+public interface ActivationNode
+{
+
+    /**
+     * Returns the name of the component.
+     */
+    String getName();
+
+
+    /**
+     * Returns the id of the bundle declaring the component. Component names
+     * are only unique within a bundle.
+     */
+    long getBundleId();
+
+
+    /**
+     * Returns the components this component depends on through any of its
+     * references.
+     */
+    ActivationNode[] getDependencies();
+
+
+    /**
+     * Returns the components this component depends on through its
+     * mandatory references, that is the components which must be active
+     * before this component can be activated.
+     */
+    ActivationNode[] getMandatoryDependencies();
+
+
+    /**
+     * Returns the duration of the call to the bind methods during activation.
+     */
+    long getBindTime();
+
+
+    /**
+     * Returns the duration of the call to the activate method.
+     */
+    long getActivateTime();
+
+
+    /**
+     * Returns the duration of the registration of the component services.
+     */
+    long getRegistrationTime();
+
+
+    /**
+     * Returns the sum of the bind, activate and registration times.
+     */
+    long getTotalTime();
+
+}
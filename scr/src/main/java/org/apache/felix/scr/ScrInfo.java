@@ -51,4 +51,20 @@ public interface ScrInfo
      */
     void config(PrintWriter out);
 
+    /**
+     * List in text the component actor metrics and the slowest component
+     * activations
+     * @param out PrintStream for output.
+     * @since 1.9
+     */
+    void stats(PrintWriter out);
+
+    /**
+     * List in text the component dependencies with their activation times,
+     * the critical activation path and the circular references
+     * @param out PrintStream for output.
+     * @since 1.9
+     */
+    void graph(PrintWriter out);
+
 }
\ No newline at end of file
@@ -86,4 +86,23 @@ public interface ScrService
      */
     Component[] getComponents( Bundle bundle );
 
+
+    /**
+     * Returns the runtime metrics of this SCR instance.
+     *
+     * @return The statistics, never <code>null</code>.
+     * @since 1.9
+     */
+    ScrStatistics getStatistics();
+
+
+    /**
+     * Returns a snapshot of the dependencies between the components managed
+     * by this SCR instance and of their activation times.
+     *
+     * @return The activation graph, never <code>null</code>.
+     * @since 1.9
+     */
+    ActivationGraph getActivationGraph();
+
 }
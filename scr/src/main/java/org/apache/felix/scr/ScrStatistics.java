@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr;
+
+
+import java.util.Map;
+
+
+/**
+ * The <code>ScrStatistics</code> interface provides runtime metrics of the
+ * Service Component Runtime: the queue of asynchronous component tasks
+ * (enabling, activation, late binding) and the slowest component activate
+ * methods.
+ * <p>
+ * Times are expressed in microseconds.
+ *
+ * @since 1.9 (Apache Felix Declarative Services 1.7.0)
+ */
+public interface ScrStatistics
+{
+
+    /**
+     * Returns the number of threads running the asynchronous component tasks.
+     */
+    int getActorThreadCount();
+
+
+    /**
+     * Returns the number of asynchronous component tasks waiting to be run.
+     */
+    int getQueueLength();
+
+
+    /**
+     * Returns the largest number of asynchronous component tasks which have
+     * been waiting to be run at the same time.
+     */
+    int getMaxQueueLength();
+
+
+    /**
+     * Returns the number of asynchronous component tasks which have been run.
+     */
+    long getTaskCount();
+
+
+    /**
+     * Returns the average time asynchronous component tasks have been
+     * waiting in the queue before being run.
+     */
+    long getAverageTaskWaitTime();
+
+
+    /**
+     * Returns the longest time an asynchronous component task has been
+     * waiting in the queue before being run.
+     */
+    long getMaxTaskWaitTime();
+
+
+    /**
+     * Returns the average duration of the asynchronous component tasks.
+     */
+    long getAverageTaskExecutionTime();
+
+
+    /**
+     * Returns the longest duration of an asynchronous component task.
+     */
+    long getMaxTaskExecutionTime();
+
+
+    /**
+     * Returns the slowest activate method calls. The keys of the map are
+     * the component names prefixed with the id of the declaring bundle in
+     * brackets, as in <code>[12] org.example.Component</code>, and the
+     * values the <code>Long</code> duration of the slowest successful call
+     * of the activate method of this component. The map is ordered from
+     * the slowest to the fastest call and is limited to a few components.
+     */
+    Map getSlowestActivations();
+
+}
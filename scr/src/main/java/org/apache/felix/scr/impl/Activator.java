@@ -66,7 +66,7 @@ public class Activator implements BundleActivator, SynchronousBundleListener
     // registry of managed component
     private ComponentRegistry m_componentRegistry;
 
-    //  thread acting upon configurations
+    //  threads acting upon configurations
     private ComponentActorThread m_componentActor;
 
     /**
@@ -96,10 +96,9 @@ public class Activator implements BundleActivator, SynchronousBundleListener
             + context.getBundle().getHeaders().get( Constants.BUNDLE_VERSION ), null );
 
         // create and start the component actor
-        m_componentActor = new ComponentActorThread();
-        Thread t = new Thread(m_componentActor, "SCR Component Actor");
-        t.setDaemon( true );
-        t.start();
+        m_componentActor = new ComponentActorThread( m_configuration.actorThreads(),
+            m_componentRegistry.getStatistics() );
+        m_componentActor.start();
 
         // register for bundle updates
         context.addBundleListener( this );
@@ -19,7 +19,9 @@
 package org.apache.felix.scr.impl;
 
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -35,8 +37,10 @@ import org.apache.felix.scr.impl.config.ScrConfiguration;
 import org.apache.felix.scr.impl.helper.Logger;
 import org.apache.felix.scr.impl.manager.AbstractComponentManager;
 import org.apache.felix.scr.impl.manager.DependencyManager;
+import org.apache.felix.scr.impl.manager.ServiceListenerIndex;
 import org.apache.felix.scr.impl.metadata.ComponentMetadata;
 import org.apache.felix.scr.impl.metadata.XmlHandler;
+import org.apache.felix.scr.impl.parser.BinaryDescriptorParser;
 import org.apache.felix.scr.impl.parser.KXml2SAXParser;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -231,13 +235,28 @@ public class BundleComponentActivator implements Logger
         {
             stream = descriptorURL.openStream();
 
-            BufferedReader in = new BufferedReader( new InputStreamReader( stream, "UTF-8" ) );
-            XmlHandler handler = new XmlHandler( m_context.getBundle(), this );
-            KXml2SAXParser parser;
+            InputStream xmlStream = stream;
+            XmlHandler handler = null;
+            final URL binaryURL = m_context.getBundle().getEntry(
+                BinaryDescriptorParser.getBinaryPath( descriptorURL.getPath() ) );
+            if ( binaryURL != null )
+            {
+                // the XML descriptor is required to detect stale binary descriptors
+                final byte[] xml = BinaryDescriptorParser.readFully( stream );
+                handler = loadBinaryDescriptor( binaryURL, xml );
+                xmlStream = new ByteArrayInputStream( xml );
+            }
 
-            parser = new KXml2SAXParser( in );
+            if ( handler == null )
+            {
+                BufferedReader in = new BufferedReader( new InputStreamReader( xmlStream, "UTF-8" ) );
+                handler = new XmlHandler( m_context.getBundle(), this );
+                KXml2SAXParser parser;
 
-            parser.parseXML( handler );
+                parser = new KXml2SAXParser( in );
+
+                parser.parseXML( handler );
+            }
 
             // 112.4.2 Component descriptors may contain a single, root component element
             // or one or more component elements embedded in a larger document
@@ -310,6 +329,55 @@ public class BundleComponentActivator implements Logger
     }
 
 
+    /**
+     * Loads the component metadata from the precompiled binary form of a
+     * descriptor.
+     *
+     * @param binaryURL The URL of the binary descriptor
+     * @param xml The contents of the XML descriptor
+     * @return The handler filled with the component metadata or
+     *      <code>null</code> if the binary descriptor is stale or cannot be
+     *      read and the XML descriptor must be parsed
+     */
+    private XmlHandler loadBinaryDescriptor( final URL binaryURL, final byte[] xml )
+    {
+        InputStream stream = null;
+        try
+        {
+            stream = binaryURL.openStream();
+            final XmlHandler handler = new XmlHandler( m_context.getBundle(), this );
+            if ( new BinaryDescriptorParser( new BufferedInputStream( stream ) ).parse( xml, handler ) )
+            {
+                log( LogService.LOG_DEBUG, "BundleComponentActivator : Bundle [{0}] loaded binary descriptor {1}",
+                        new Object[] {m_context.getBundle().getBundleId(), binaryURL.getPath()}, null, null, null );
+                return handler;
+            }
+
+            log( LogService.LOG_DEBUG, "BundleComponentActivator : Bundle [{0}] ignoring stale binary descriptor {1}",
+                    new Object[] {m_context.getBundle().getBundleId(), binaryURL.getPath()}, null, null, null );
+        }
+        catch ( Exception ex )
+        {
+            log( LogService.LOG_WARNING, "Cannot read binary descriptor entry ''{0}'', using XML descriptor", new Object[]
+                { binaryURL.getPath() }, null, null, ex );
+        }
+        finally
+        {
+            if ( stream != null )
+            {
+                try
+                {
+                    stream.close();
+                }
+                catch ( IOException ignore )
+                {
+                }
+            }
+        }
+        return null;
+    }
+
+
     /**
     * Dispose of this component activator instance and all the component
     * managers.
@@ -510,13 +578,29 @@ public class BundleComponentActivator implements Logger
      * @param task The component task to execute
      */
     public void schedule( Runnable task )
+    {
+        schedule( null, task );
+    }
+
+
+    /**
+     * Schedules the given <code>task</code> for asynchrounous execution after
+     * all tasks scheduled before with the same <code>key</code>. Tasks with
+     * different keys may be executed concurrently. A <code>null</code> key
+     * orders the task with respect to all other tasks. Otherwise this method
+     * behaves like {@link #schedule(Runnable)}.
+     *
+     * @param key The key, usually the component manager, of the task
+     * @param task The component task to execute
+     */
+    public void schedule( Object key, Runnable task )
     {
         if ( isActive() )
         {
             ComponentActorThread cat = m_componentActor;
             if ( cat != null )
             {
-                cat.schedule( task );
+                cat.schedule( key, task );
             }
             else
             {
@@ -542,6 +626,27 @@ public class BundleComponentActivator implements Logger
     }
 
 
+    /**
+     * Returns the metrics collector of the component actor tasks and
+     * activations.
+     */
+    public ComponentStatistics getStatistics()
+    {
+        return m_componentRegistry.getStatistics();
+    }
+
+
+    /**
+     * Returns the service listener shared by the dependency managers or
+     * <code>null</code> if each dependency manager registers its own service
+     * listener.
+     */
+    public ServiceListenerIndex getServiceListenerIndex()
+    {
+        return m_componentRegistry.getServiceListenerIndex();
+    }
+
+
     /**
      * Returns <code>true</code> if logging for the given level is enabled.
      */
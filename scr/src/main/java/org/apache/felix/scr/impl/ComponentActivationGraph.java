@@ -0,0 +1,463 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.scr.ActivationGraph;
+import org.apache.felix.scr.ActivationNode;
+import org.apache.felix.scr.Component;
+import org.apache.felix.scr.Reference;
+import org.apache.felix.scr.impl.config.ComponentHolder;
+import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.apache.felix.scr.impl.metadata.ServiceMetadata;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.ComponentConstants;
+
+
+/**
+ * The <code>ComponentActivationGraph</code> is the snapshot of the component
+ * dependencies and activation times returned by
+ * {@link ComponentRegistry#getActivationGraph()}.
+ * <p>
+ * The dependencies of a reference are the components whose services are
+ * currently bound to the reference. If no service is bound, they are the
+ * components declaring to provide the service interface of the reference.
+ * <p>
+ * The critical path is computed on the graph of the strongly connected
+ * components: the components of a cycle are activated one after the other
+ * and so count as a single node whose time is the sum of their times.
+ */
+class ComponentActivationGraph implements ActivationGraph
+{
+
+    private static final Node[] NO_NODES = new Node[0];
+
+    // orders the nodes by bundle id and component name
+    private static final Comparator<Node> NODE_COMPARATOR = new Comparator<Node>()
+    {
+        public int compare( final Node n1, final Node n2 )
+        {
+            if ( n1.m_bundleId != n2.m_bundleId )
+            {
+                return ( n1.m_bundleId < n2.m_bundleId ) ? -1 : 1;
+            }
+            return n1.m_name.compareTo( n2.m_name );
+        }
+    };
+
+    private final Node[] m_nodes;
+
+    private final Node[] m_criticalPath;
+
+    private final long m_criticalPathTime;
+
+    private final Node[][] m_cycles;
+
+
+    ComponentActivationGraph( final Map<ComponentRegistryKey, ComponentHolder> holders,
+        final ComponentStatistics statistics )
+    {
+        // one node per component, component names are unique per bundle
+        final Map<ComponentRegistryKey, Node> nodes = new HashMap<ComponentRegistryKey, Node>();
+        final Map<String, List<Node>> providers = new HashMap<String, List<Node>>();
+        for ( Map.Entry<ComponentRegistryKey, ComponentHolder> entry : holders.entrySet() )
+        {
+            final ComponentHolder holder = entry.getValue();
+            if ( holder == null )
+            {
+                // component being registered
+                continue;
+            }
+
+            final ComponentRegistryKey key = entry.getKey();
+            final Node node = new Node( key.getBundleId(), holder, statistics.getTimings( key.getBundleId(),
+                key.getComponentName() ) );
+            nodes.put( key, node );
+
+            final ServiceMetadata serviceMetadata = holder.getComponentMetadata().getServiceMetadata();
+            if ( serviceMetadata != null && serviceMetadata.getProvides() != null )
+            {
+                for ( String provided : serviceMetadata.getProvides() )
+                {
+                    List<Node> list = providers.get( provided );
+                    if ( list == null )
+                    {
+                        list = new ArrayList<Node>();
+                        providers.put( provided, list );
+                    }
+                    list.add( node );
+                }
+            }
+        }
+
+        for ( Node node : nodes.values() )
+        {
+            node.resolve( nodes, providers );
+        }
+
+        m_nodes = nodes.values().toArray( new Node[nodes.size()] );
+        Arrays.sort( m_nodes, NODE_COMPARATOR );
+
+        final List<Node[]> components = findStronglyConnectedComponents( m_nodes );
+        final List<Node[]> cycles = new ArrayList<Node[]>();
+        for ( Node[] component : components )
+        {
+            if ( component.length > 1 )
+            {
+                cycles.add( component );
+            }
+        }
+        m_cycles = cycles.toArray( new Node[cycles.size()][] );
+
+        // critical path along the mandatory dependencies. The strongly
+        // connected components are found after the components they depend
+        // on, so the path times of the dependencies are always known
+        final long[] pathTimes = new long[components.size()];
+        final int[] next = new int[components.size()];
+        int start = -1;
+        long startTime = -1;
+        for ( int i = 0; i < pathTimes.length; i++ )
+        {
+            int longest = -1;
+            long time = 0;
+            for ( Node member : components.get( i ) )
+            {
+                for ( Node dependency : member.m_mandatoryDependencies )
+                {
+                    final int c = dependency.m_component;
+                    if ( c != i && ( longest < 0 || pathTimes[c] > pathTimes[longest] ) )
+                    {
+                        longest = c;
+                    }
+                }
+                time += member.getTotalTime();
+            }
+            if ( longest >= 0 )
+            {
+                time += pathTimes[longest];
+            }
+            pathTimes[i] = time;
+            next[i] = longest;
+            if ( time > startTime )
+            {
+                start = i;
+                startTime = time;
+            }
+        }
+
+        final List<Node> path = new ArrayList<Node>();
+        for ( int c = start; c >= 0; c = next[c] )
+        {
+            path.addAll( Arrays.asList( components.get( c ) ) );
+        }
+        Collections.reverse( path );
+        m_criticalPath = path.toArray( new Node[path.size()] );
+        m_criticalPathTime = Math.max( 0, startTime );
+    }
+
+
+    public ActivationNode[] getNodes()
+    {
+        return m_nodes.clone();
+    }
+
+
+    public ActivationNode[] getCriticalPath()
+    {
+        return m_criticalPath.clone();
+    }
+
+
+    public long getCriticalPathTime()
+    {
+        return m_criticalPathTime;
+    }
+
+
+    public ActivationNode[][] getCycles()
+    {
+        final ActivationNode[][] cycles = new ActivationNode[m_cycles.length][];
+        for ( int i = 0; i < cycles.length; i++ )
+        {
+            cycles[i] = m_cycles[i].clone();
+        }
+        return cycles;
+    }
+
+
+    // Tarjan's algorithm without recursion to not overflow the stack on
+    // long dependency chains. Returns the strongly connected components, each
+    // one after the components it depends on, and records the position of
+    // the component of each node
+    private static List<Node[]> findStronglyConnectedComponents( final Node[] nodes )
+    {
+        final Map<Node, Integer> index = new IdentityHashMap<Node, Integer>();
+        final Map<Node, Integer> lowLink = new IdentityHashMap<Node, Integer>();
+        final List<Node> stack = new ArrayList<Node>();
+        final Map<Node, Boolean> onStack = new IdentityHashMap<Node, Boolean>();
+        final List<Node[]> components = new ArrayList<Node[]>();
+
+        // the nodes being visited and the position of the next dependency
+        // to visit for each of them
+        final List<Node> visiting = new ArrayList<Node>();
+        final List<Integer> positions = new ArrayList<Integer>();
+
+        for ( Node root : nodes )
+        {
+            if ( index.containsKey( root ) )
+            {
+                continue;
+            }
+
+            Node node = root;
+            int position = 0;
+            push( node, index, lowLink, stack, onStack );
+
+            while ( node != null )
+            {
+                if ( position < node.m_dependencies.length )
+                {
+                    final Node dependency = node.m_dependencies[position++];
+                    if ( !index.containsKey( dependency ) )
+                    {
+                        // visit the dependency, coming back to the node later
+                        visiting.add( node );
+                        positions.add( position );
+                        node = dependency;
+                        position = 0;
+                        push( node, index, lowLink, stack, onStack );
+                    }
+                    else if ( onStack.containsKey( dependency ) )
+                    {
+                        lowLink.put( node, Math.min( lowLink.get( node ), index.get( dependency ) ) );
+                    }
+                    continue;
+                }
+
+                // all dependencies visited
+                if ( lowLink.get( node ).intValue() == index.get( node ).intValue() )
+                {
+                    final List<Node> component = new ArrayList<Node>();
+                    Node member;
+                    do
+                    {
+                        member = stack.remove( stack.size() - 1 );
+                        onStack.remove( member );
+                        member.m_component = components.size();
+                        component.add( member );
+                    }
+                    while ( member != node );
+                    Collections.reverse( component );
+                    components.add( component.toArray( new Node[component.size()] ) );
+                }
+
+                final Node visited = node;
+                if ( visiting.isEmpty() )
+                {
+                    node = null;
+                }
+                else
+                {
+                    node = visiting.remove( visiting.size() - 1 );
+                    position = positions.remove( positions.size() - 1 );
+                    lowLink.put( node, Math.min( lowLink.get( node ), lowLink.get( visited ) ) );
+                }
+            }
+        }
+        return components;
+    }
+
+
+    private static void push( final Node node, final Map<Node, Integer> index, final Map<Node, Integer> lowLink,
+        final List<Node> stack, final Map<Node, Boolean> onStack )
+    {
+        final Integer position = index.size();
+        index.put( node, position );
+        lowLink.put( node, position );
+        stack.add( node );
+        onStack.put( node, Boolean.TRUE );
+    }
+
+    private static class Node implements ActivationNode
+    {
+        private final ComponentHolder m_holder;
+
+        private final long m_bundleId;
+
+        private final String m_name;
+
+        private final long m_bindTime;
+
+        private final long m_activateTime;
+
+        private final long m_registrationTime;
+
+        Node[] m_dependencies = NO_NODES;
+
+        Node[] m_mandatoryDependencies = NO_NODES;
+
+        // position of the strongly connected component of this node
+        int m_component;
+
+
+        Node( final long bundleId, final ComponentHolder holder, final long[] timings )
+        {
+            m_holder = holder;
+            m_bundleId = bundleId;
+            m_name = holder.getComponentMetadata().getName();
+            m_bindTime = ( timings == null ) ? 0 : timings[0];
+            m_activateTime = ( timings == null ) ? 0 : timings[1];
+            m_registrationTime = ( timings == null ) ? 0 : timings[2];
+        }
+
+
+        void resolve( final Map<ComponentRegistryKey, Node> nodes, final Map<String, List<Node>> providers )
+        {
+            final Set<Node> dependencies = new LinkedHashSet<Node>();
+            final Set<Node> mandatoryDependencies = new LinkedHashSet<Node>();
+            final Component[] components = m_holder.getComponents();
+            for ( ReferenceMetadata reference : m_holder.getComponentMetadata().getDependencies() )
+            {
+                final Set<Node> referenced = new LinkedHashSet<Node>();
+                if ( components != null )
+                {
+                    for ( Component component : components )
+                    {
+                        addBound( component, reference.getName(), nodes, referenced );
+                    }
+                }
+                if ( referenced.isEmpty() && providers.containsKey( reference.getInterface() ) )
+                {
+                    referenced.addAll( providers.get( reference.getInterface() ) );
+                }
+                referenced.remove( this );
+
+                dependencies.addAll( referenced );
+                if ( !reference.isOptional() )
+                {
+                    mandatoryDependencies.addAll( referenced );
+                }
+            }
+            m_dependencies = dependencies.toArray( new Node[dependencies.size()] );
+            m_mandatoryDependencies = mandatoryDependencies.toArray( new Node[mandatoryDependencies.size()] );
+        }
+
+
+        private static void addBound( final Component component, final String referenceName,
+            final Map<ComponentRegistryKey, Node> nodes, final Set<Node> referenced )
+        {
+            final Reference[] references = component.getReferences();
+            if ( references == null )
+            {
+                return;
+            }
+            for ( Reference reference : references )
+            {
+                if ( referenceName.equals( reference.getName() ) )
+                {
+                    final ServiceReference[] bound = reference.getServiceReferences();
+                    if ( bound != null )
+                    {
+                        for ( ServiceReference ref : bound )
+                        {
+                            // the services are registered by the bundle declaring the component
+                            final Bundle bundle = ref.getBundle();
+                            final Object name = ref.getProperty( ComponentConstants.COMPONENT_NAME );
+                            if ( bundle == null || !( name instanceof String ) )
+                            {
+                                continue;
+                            }
+                            final Node provider = nodes.get( new ComponentRegistryKey( bundle, ( String ) name ) );
+                            if ( provider != null )
+                            {
+                                referenced.add( provider );
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+
+        public long getBundleId()
+        {
+            return m_bundleId;
+        }
+
+
+        public String getName()
+        {
+            return m_name;
+        }
+
+
+        public ActivationNode[] getDependencies()
+        {
+            return m_dependencies.clone();
+        }
+
+
+        public ActivationNode[] getMandatoryDependencies()
+        {
+            return m_mandatoryDependencies.clone();
+        }
+
+
+        public long getBindTime()
+        {
+            return m_bindTime;
+        }
+
+
+        public long getActivateTime()
+        {
+            return m_activateTime;
+        }
+
+
+        public long getRegistrationTime()
+        {
+            return m_registrationTime;
+        }
+
+
+        public long getTotalTime()
+        {
+            return m_bindTime + m_activateTime + m_registrationTime;
+        }
+
+
+        public String toString()
+        {
+            return ComponentStatistics.getKey( m_bundleId, m_name );
+        }
+    }
+}
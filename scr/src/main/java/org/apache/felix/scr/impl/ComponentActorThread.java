@@ -19,19 +19,32 @@
 package org.apache.felix.scr.impl;
 
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 import org.osgi.service.log.LogService;
 
 
 /**
- * The <code>ComponentActorThread</code> is the thread used to act upon registered
- * components of the service component runtime.
+ * The <code>ComponentActorThread</code> runs the asynchronous tasks acting
+ * upon registered components of the service component runtime.
+ * <p>
+ * The tasks are run by a pool of threads. Tasks scheduled with the same key
+ * (the component manager) are run in the order they have been scheduled,
+ * tasks with different keys may be run in parallel. Tasks scheduled without
+ * key act as barriers: they only start once all earlier tasks have finished
+ * and no later task starts before they have finished. With a single thread
+ * all tasks are run in the order they have been scheduled.
  */
 class ComponentActorThread implements Runnable
 {
 
-    // sentinel task to terminate this thread
+    // sentinel task to terminate the threads, left in the queue such that
+    // all threads see it
     private static final Runnable TERMINATION_TASK = new Runnable()
     {
         public void run()
@@ -45,20 +58,85 @@ class ComponentActorThread implements Runnable
         }
     };
 
-    // the queue of Runnable instances  to be run
-    private LinkedList tasks;
+    private final int m_threadCount;
+
+    private final ComponentStatistics m_statistics;
+
+    // the queued tasks starting with the first task without key, which
+    // blocks all later tasks (also the lock guarding the queues)
+    private final LinkedList<Task> tasks;
+
+    // the queued tasks before the first task without key, per key in the
+    // order they have been scheduled (guarded by tasks)
+    private final Map<Object, LinkedList<Task>> m_waitingTasks;
+
+    // the number of tasks in m_waitingTasks (guarded by tasks)
+    private int m_waitingCount;
+
+    // the first waiting task of each key not running, in the order they
+    // have been scheduled (guarded by tasks)
+    private final PriorityQueue<Task> m_readyTasks;
+
+    // the number of tasks scheduled, used to order the ready tasks
+    // (guarded by tasks)
+    private long m_sequence;
+
+    // the keys of the tasks currently running (guarded by tasks)
+    private final Set<Object> m_runningKeys;
+
+    // the number of tasks currently running (guarded by tasks)
+    private int m_runningTasks;
+
+    // whether a task without key is currently running (guarded by tasks)
+    private boolean m_barrierRunning;
+
+    // the largest number of queued tasks (guarded by tasks)
+    private int m_maxQueueLength;
+
+    private Thread[] m_threads;
 
 
     ComponentActorThread()
     {
-        tasks = new LinkedList();
+        this( 1, new ComponentStatistics() );
+    }
+
+
+    ComponentActorThread( final int threadCount, final ComponentStatistics statistics )
+    {
+        m_threadCount = Math.max( 1, threadCount );
+        m_statistics = statistics;
+        tasks = new LinkedList<Task>();
+        m_waitingTasks = new HashMap<Object, LinkedList<Task>>();
+        m_readyTasks = new PriorityQueue<Task>();
+        m_runningKeys = new HashSet<Object>();
+        statistics.setComponentActor( this );
+    }
+
+
+    /**
+     * Starts the actor threads.
+     */
+    synchronized void start()
+    {
+        if ( m_threads == null )
+        {
+            m_threads = new Thread[m_threadCount];
+            for ( int i = 0; i < m_threads.length; i++ )
+            {
+                final String name = ( m_threadCount == 1 ) ? "SCR Component Actor" : "SCR Component Actor #" + ( i + 1 );
+                m_threads[i] = new Thread( this, name );
+                m_threads[i].setDaemon( true );
+                m_threads[i].start();
+            }
+        }
     }
 
 
     // waits on Runnable instances coming into the queue. As instances come
     // in, this method calls the Runnable.run method, logs any exception
     // happening and keeps on waiting for the next Runnable. If the Runnable
-    // taken from the queue is this thread instance itself, the thread
+    // taken from the queue is the termination task, the thread
     // terminates.
     public void run()
     {
@@ -66,10 +144,10 @@ class ComponentActorThread implements Runnable
 
         for ( ;; )
         {
-            final Runnable task;
+            Task task;
             synchronized ( tasks )
             {
-                while ( tasks.isEmpty() )
+                while ( ( task = nextTask() ) == null )
                 {
                     try
                     {
@@ -81,31 +159,51 @@ class ComponentActorThread implements Runnable
                         // don't care
                     }
                 }
+            }
 
-                task = ( Runnable ) tasks.removeFirst();
+            // return if the task is the termination task
+            if ( task.m_runnable == TERMINATION_TASK )
+            {
+                Activator.log( LogService.LOG_DEBUG, null, "Shutting down ComponentActorThread", null );
+                return;
             }
 
+            final long start = System.nanoTime();
             try
             {
-                // return if the task is this thread itself
-                if ( task == TERMINATION_TASK )
-                {
-                    Activator.log( LogService.LOG_DEBUG, null, "Shutting down ComponentActorThread", null );
-                    return;
-                }
-
-                // otherwise execute the task, log any issues
-                Activator.log( LogService.LOG_DEBUG, null, "Running task: " + task, null );
-                task.run();
+                // execute the task, log any issues
+                Activator.log( LogService.LOG_DEBUG, null, "Running task: " + task.m_runnable, null );
+                task.m_runnable.run();
             }
             catch ( Throwable t )
             {
-                Activator.log( LogService.LOG_ERROR, null, "Unexpected problem executing task " + task, t );
+                Activator.log( LogService.LOG_ERROR, null, "Unexpected problem executing task " + task.m_runnable, t );
             }
             finally
             {
+                final long end = System.nanoTime();
+                m_statistics.taskDone( start - task.m_scheduled, end - start );
                 synchronized ( tasks )
                 {
+                    m_runningTasks--;
+                    if ( task.m_key != null )
+                    {
+                        m_runningKeys.remove( task.m_key );
+                        final LinkedList<Task> keyTasks = m_waitingTasks.get( task.m_key );
+                        if ( keyTasks != null )
+                        {
+                            m_readyTasks.add( keyTasks.getFirst() );
+                        }
+                    }
+                    else
+                    {
+                        m_barrierRunning = false;
+                        // release the tasks up to the next task without key
+                        while ( !tasks.isEmpty() && tasks.getFirst().m_key != null )
+                        {
+                            addWaiting( tasks.removeFirst() );
+                        }
+                    }
                     tasks.notifyAll();
                 }
             }
@@ -113,42 +211,194 @@ class ComponentActorThread implements Runnable
     }
 
 
-    // cause this thread to terminate by adding this thread to the end
-    // of the queue
+    // returns the next task which may be run, removing it from the queue, or
+    // null if no task can be run yet. The termination task is not removed.
+    // Keyed tasks are indexed by key, so this does not scan the tasks
+    // blocked by a running task with the same key.
+    // Must be called with the tasks lock held
+    private Task nextTask()
+    {
+        if ( m_barrierRunning )
+        {
+            return null;
+        }
+
+        final Task task = m_readyTasks.poll();
+        if ( task != null )
+        {
+            final LinkedList<Task> keyTasks = m_waitingTasks.get( task.m_key );
+            keyTasks.removeFirst();
+            if ( keyTasks.isEmpty() )
+            {
+                m_waitingTasks.remove( task.m_key );
+            }
+            m_waitingCount--;
+            m_runningTasks++;
+            m_runningKeys.add( task.m_key );
+            return task;
+        }
+
+        // barrier: only runs once all earlier tasks have finished
+        if ( m_waitingCount == 0 && m_runningTasks == 0 && !tasks.isEmpty() )
+        {
+            final Task barrier = tasks.getFirst();
+            if ( barrier.m_runnable != TERMINATION_TASK )
+            {
+                tasks.removeFirst();
+                m_runningTasks++;
+                m_barrierRunning = true;
+            }
+            return barrier;
+        }
+        return null;
+    }
+
+
+    // adds a keyed task not blocked by a task without key to the waiting
+    // tasks, making it ready if it is the first one of a key not running.
+    // Must be called with the tasks lock held
+    private void addWaiting( final Task task )
+    {
+        LinkedList<Task> keyTasks = m_waitingTasks.get( task.m_key );
+        if ( keyTasks == null )
+        {
+            keyTasks = new LinkedList<Task>();
+            m_waitingTasks.put( task.m_key, keyTasks );
+        }
+        keyTasks.add( task );
+        m_waitingCount++;
+        if ( keyTasks.size() == 1 && !m_runningKeys.contains( task.m_key ) )
+        {
+            m_readyTasks.add( task );
+        }
+    }
+
+
+    // cause the threads to terminate once all queued tasks have been run
     void terminate()
     {
+        final Thread[] threads;
+        synchronized ( this )
+        {
+            threads = m_threads;
+            m_threads = null;
+        }
+
         schedule( TERMINATION_TASK );
-        synchronized ( tasks )
+        if ( threads != null )
         {
-            while ( !tasks.isEmpty() )
+            for ( int i = 0; i < threads.length; i++ )
             {
+                if ( threads[i] == Thread.currentThread() )
+                {
+                    continue;
+                }
                 try
                 {
-                    tasks.wait();
+                    threads[i].join();
                 }
                 catch ( InterruptedException e )
                 {
                     Thread.currentThread().interrupt();
                     Activator.log( LogService.LOG_ERROR, null, "Interrupted exception waiting for queue to empty", e );
+                    break;
                 }
             }
         }
+
+        synchronized ( tasks )
+        {
+            tasks.clear();
+            m_waitingTasks.clear();
+            m_readyTasks.clear();
+            m_waitingCount = 0;
+        }
     }
 
 
-    // queue the given runnable to be run as soon as possible
+    // queue the given runnable to be run as soon as possible, after all
+    // tasks scheduled before
     void schedule( Runnable task )
+    {
+        schedule( null, task );
+    }
+
+
+    // queue the given runnable to be run as soon as possible, after the
+    // tasks scheduled before with the same key
+    void schedule( Object key, Runnable task )
     {
         synchronized ( tasks )
         {
-            // append to the task queue
-            tasks.add( task );
+            // append to the task queue, keyed tasks not blocked by a task
+            // without key are indexed by key
+            final Task queued = new Task( key, task, m_sequence++ );
+            if ( key == null || !tasks.isEmpty() )
+            {
+                tasks.add( queued );
+            }
+            else
+            {
+                addWaiting( queued );
+            }
+            final int queueLength = m_waitingCount + tasks.size();
+            m_maxQueueLength = Math.max( m_maxQueueLength, queueLength );
 
-            Activator.log( LogService.LOG_DEBUG, null, "Adding task [" + task + "] as #" + tasks.size()
+            Activator.log( LogService.LOG_DEBUG, null, "Adding task [" + task + "] as #" + queueLength
                 + " in the queue", null );
 
-            // notify the waiting thread
+            // notify the waiting threads
             tasks.notifyAll();
         }
     }
+
+
+    int getThreadCount()
+    {
+        return m_threadCount;
+    }
+
+
+    int getQueueLength()
+    {
+        synchronized ( tasks )
+        {
+            return m_waitingCount + tasks.size();
+        }
+    }
+
+
+    int getMaxQueueLength()
+    {
+        synchronized ( tasks )
+        {
+            return m_maxQueueLength;
+        }
+    }
+
+    private static class Task implements Comparable<Task>
+    {
+        final Object m_key;
+
+        final Runnable m_runnable;
+
+        final long m_scheduled;
+
+        final long m_sequence;
+
+
+        Task( final Object key, final Runnable runnable, final long sequence )
+        {
+            m_key = key;
+            m_runnable = runnable;
+            m_scheduled = System.nanoTime();
+            m_sequence = sequence;
+        }
+
+
+        public int compareTo( final Task other )
+        {
+            return ( m_sequence < other.m_sequence ) ? -1 : ( ( m_sequence == other.m_sequence ) ? 0 : 1 );
+        }
+    }
 }
@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.felix.scr.ActivationGraph;
 import org.apache.felix.scr.Component;
 import org.apache.felix.scr.ScrService;
 import org.apache.felix.scr.impl.config.ComponentHolder;
@@ -40,6 +41,7 @@ import org.apache.felix.scr.impl.manager.AbstractComponentManager;
 import org.apache.felix.scr.impl.manager.ComponentFactoryImpl;
 import org.apache.felix.scr.impl.manager.ConfigurationComponentFactoryImpl;
 import org.apache.felix.scr.impl.manager.DependencyManager;
+import org.apache.felix.scr.impl.manager.ServiceListenerIndex;
 import org.apache.felix.scr.impl.metadata.ComponentMetadata;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -133,6 +135,12 @@ public class ComponentRegistry implements ScrService, ServiceListener
 
     private final Map<ServiceReference<?>, List<Entry>> m_missingDependencies = new HashMap<ServiceReference<?>, List<Entry>>( );
 
+    // metrics of the component actor tasks and activations
+    private final ComponentStatistics m_statistics = new ComponentStatistics();
+
+    // shared service listener of the dependency managers, null if not supported
+    private ServiceListenerIndex m_serviceListenerIndex;
+
     protected ComponentRegistry( BundleContext context )
     {
         m_bundleContext = context;
@@ -140,6 +148,12 @@ public class ComponentRegistry implements ScrService, ServiceListener
         m_componentHoldersByPid = new HashMap<String, Set<ComponentHolder>>();
         m_componentsById = new HashMap<Long, AbstractComponentManager<?>>();
 
+        // dispatch service events to the dependency managers
+        if ( ServiceListenerIndex.isSupported() )
+        {
+            m_serviceListenerIndex = new ServiceListenerIndex( context );
+        }
+
         // keep me informed on ConfigurationAdmin state changes
         try
         {
@@ -170,6 +184,12 @@ public class ComponentRegistry implements ScrService, ServiceListener
     {
         m_bundleContext.removeServiceListener(this);
 
+        if ( m_serviceListenerIndex != null )
+        {
+            m_serviceListenerIndex.dispose();
+            m_serviceListenerIndex = null;
+        }
+
         if (configurationSupport != null)
         {
             configurationSupport.dispose();
@@ -269,6 +289,34 @@ public class ComponentRegistry implements ScrService, ServiceListener
     }
 
 
+    public ComponentStatistics getStatistics()
+    {
+        return m_statistics;
+    }
+
+
+    public ActivationGraph getActivationGraph()
+    {
+        final Map<ComponentRegistryKey, ComponentHolder> holders;
+        synchronized ( m_componentHoldersByName )
+        {
+            holders = new HashMap<ComponentRegistryKey, ComponentHolder>( m_componentHoldersByName );
+        }
+        return new ComponentActivationGraph( holders, m_statistics );
+    }
+
+
+    /**
+     * Returns the service listener shared by the dependency managers or
+     * <code>null</code> if each dependency manager must register its own
+     * service listener.
+     */
+    public ServiceListenerIndex getServiceListenerIndex()
+    {
+        return m_serviceListenerIndex;
+    }
+
+
     //---------- ComponentManager registration by component Id
 
     /**
@@ -43,6 +43,18 @@ final class ComponentRegistryKey
     }
 
 
+    long getBundleId()
+    {
+        return this.bundleId;
+    }
+
+
+    String getComponentName()
+    {
+        return this.componentName;
+    }
+
+
     public int hashCode()
     {
         int code = ( int ) this.bundleId;
@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.felix.scr.ScrStatistics;
+
+
+/**
+ * The <code>ComponentStatistics</code> collects the metrics of the
+ * {@link ComponentActorThread} tasks and of the component activate method
+ * calls.
+ */
+public class ComponentStatistics implements ScrStatistics
+{
+
+    // the number of slowest activations kept
+    static final int SLOWEST_ACTIVATIONS = 10;
+
+    private volatile ComponentActorThread m_componentActor;
+
+    // task metrics in nanoseconds, guarded by this
+    private long m_taskCount;
+
+    private long m_totalWaitTime;
+
+    private long m_maxWaitTime;
+
+    private long m_totalExecutionTime;
+
+    private long m_maxExecutionTime;
+
+    // slowest activations, ordered from the slowest, guarded by m_activationNames
+    private final String[] m_activationNames = new String[SLOWEST_ACTIVATIONS];
+
+    private final long[] m_activationTimes = new long[SLOWEST_ACTIVATIONS];
+
+    // the fastest activation time in the list, read without lock to
+    // quickly ignore fast activations once the list is full
+    private volatile long m_activationThreshold;
+
+    // last bind, activate and registration times per component key
+    private final ConcurrentHashMap<String, long[]> m_timings = new ConcurrentHashMap<String, long[]>();
+
+    private static final int BIND = 0;
+
+    private static final int ACTIVATE = 1;
+
+    private static final int REGISTRATION = 2;
+
+
+    void setComponentActor( final ComponentActorThread componentActor )
+    {
+        m_componentActor = componentActor;
+    }
+
+
+    /**
+     * Records the execution of a component actor task.
+     *
+     * @param waitTime The time spent in the queue in nanoseconds
+     * @param executionTime The duration of the task in nanoseconds
+     */
+    synchronized void taskDone( final long waitTime, final long executionTime )
+    {
+        m_taskCount++;
+        m_totalWaitTime += waitTime;
+        m_maxWaitTime = Math.max( m_maxWaitTime, waitTime );
+        m_totalExecutionTime += executionTime;
+        m_maxExecutionTime = Math.max( m_maxExecutionTime, executionTime );
+    }
+
+
+    /**
+     * Records the duration of the successful call to the activate method
+     * of a component.
+     *
+     * @param bundleId The id of the bundle declaring the component
+     * @param componentName The name of the component
+     * @param time The duration of the call in nanoseconds
+     */
+    public void activated( final long bundleId, final String componentName, final long time )
+    {
+        final String key = getKey( bundleId, componentName );
+        setTiming( key, ACTIVATE, time );
+
+        if ( time <= m_activationThreshold )
+        {
+            return;
+        }
+
+        synchronized ( m_activationNames )
+        {
+            // remove an existing (faster) entry for the component
+            int last = SLOWEST_ACTIVATIONS - 1;
+            for ( int i = 0; i < SLOWEST_ACTIVATIONS; i++ )
+            {
+                if ( key.equals( m_activationNames[i] ) )
+                {
+                    if ( m_activationTimes[i] >= time )
+                    {
+                        return;
+                    }
+                    last = i;
+                    break;
+                }
+            }
+
+            // insert, shifting the faster entries down to the removed or last slot
+            int pos = 0;
+            while ( pos < last && m_activationNames[pos] != null && m_activationTimes[pos] >= time )
+            {
+                pos++;
+            }
+            if ( pos == last && m_activationNames[pos] != null && m_activationTimes[pos] >= time )
+            {
+                return;
+            }
+            System.arraycopy( m_activationNames, pos, m_activationNames, pos + 1, last - pos );
+            System.arraycopy( m_activationTimes, pos, m_activationTimes, pos + 1, last - pos );
+            m_activationNames[pos] = key;
+            m_activationTimes[pos] = time;
+
+            if ( m_activationNames[SLOWEST_ACTIVATIONS - 1] != null )
+            {
+                m_activationThreshold = m_activationTimes[SLOWEST_ACTIVATIONS - 1];
+            }
+        }
+    }
+
+
+    /**
+     * Records the duration of the calls to the bind methods when activating
+     * a component.
+     *
+     * @param bundleId The id of the bundle declaring the component
+     * @param componentName The name of the component
+     * @param time The duration of the calls in nanoseconds
+     */
+    public void bound( final long bundleId, final String componentName, final long time )
+    {
+        setTiming( getKey( bundleId, componentName ), BIND, time );
+    }
+
+
+    /**
+     * Records the duration of the registration of the services of a
+     * component.
+     *
+     * @param bundleId The id of the bundle declaring the component
+     * @param componentName The name of the component
+     * @param time The duration of the registration in nanoseconds
+     */
+    public void registered( final long bundleId, final String componentName, final long time )
+    {
+        setTiming( getKey( bundleId, componentName ), REGISTRATION, time );
+    }
+
+
+    /**
+     * Returns the last bind, activate and registration times in microseconds
+     * of the component or <code>null</code> if none has been recorded.
+     */
+    long[] getTimings( final long bundleId, final String componentName )
+    {
+        final long[] timings = m_timings.get( getKey( bundleId, componentName ) );
+        if ( timings == null )
+        {
+            return null;
+        }
+        synchronized ( timings )
+        {
+            return new long[]
+                { timings[BIND] / 1000, timings[ACTIVATE] / 1000, timings[REGISTRATION] / 1000 };
+        }
+    }
+
+
+    /**
+     * Returns the key of a component in the statistics. Component names are
+     * only unique within a bundle, so the key is the name prefixed with the
+     * bundle id in brackets, as in <code>[12] org.example.Component</code>.
+     */
+    static String getKey( final long bundleId, final String componentName )
+    {
+        return "[" + bundleId + "] " + componentName;
+    }
+
+
+    private void setTiming( final String key, final int index, final long time )
+    {
+        long[] timings = m_timings.get( key );
+        if ( timings == null )
+        {
+            timings = new long[3];
+            final long[] existing = m_timings.putIfAbsent( key, timings );
+            if ( existing != null )
+            {
+                timings = existing;
+            }
+        }
+        synchronized ( timings )
+        {
+            timings[index] = time;
+        }
+    }
+
+
+    //---------- ScrStatistics interface
+
+    public int getActorThreadCount()
+    {
+        final ComponentActorThread componentActor = m_componentActor;
+        return ( componentActor == null ) ? 0 : componentActor.getThreadCount();
+    }
+
+
+    public int getQueueLength()
+    {
+        final ComponentActorThread componentActor = m_componentActor;
+        return ( componentActor == null ) ? 0 : componentActor.getQueueLength();
+    }
+
+
+    public int getMaxQueueLength()
+    {
+        final ComponentActorThread componentActor = m_componentActor;
+        return ( componentActor == null ) ? 0 : componentActor.getMaxQueueLength();
+    }
+
+
+    public synchronized long getTaskCount()
+    {
+        return m_taskCount;
+    }
+
+
+    public synchronized long getAverageTaskWaitTime()
+    {
+        return ( m_taskCount == 0 ) ? 0 : m_totalWaitTime / m_taskCount / 1000;
+    }
+
+
+    public synchronized long getMaxTaskWaitTime()
+    {
+        return m_maxWaitTime / 1000;
+    }
+
+
+    public synchronized long getAverageTaskExecutionTime()
+    {
+        return ( m_taskCount == 0 ) ? 0 : m_totalExecutionTime / m_taskCount / 1000;
+    }
+
+
+    public synchronized long getMaxTaskExecutionTime()
+    {
+        return m_maxExecutionTime / 1000;
+    }
+
+
+    public Map getSlowestActivations()
+    {
+        final Map<String, Long> result = new LinkedHashMap<String, Long>();
+        synchronized ( m_activationNames )
+        {
+            for ( int i = 0; i < SLOWEST_ACTIVATIONS && m_activationNames[i] != null; i++ )
+            {
+                result.put( m_activationNames[i], m_activationTimes[i] / 1000 );
+            }
+        }
+        return result;
+    }
+}
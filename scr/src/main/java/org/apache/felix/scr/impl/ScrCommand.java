@@ -28,13 +28,18 @@ import java.util.Comparator;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
 
+import org.apache.felix.scr.ActivationGraph;
+import org.apache.felix.scr.ActivationNode;
 import org.apache.felix.scr.Component;
 import org.apache.felix.scr.Reference;
 import org.apache.felix.scr.ScrInfo;
 import org.apache.felix.scr.ScrService;
+import org.apache.felix.scr.ScrStatistics;
 import org.apache.felix.scr.impl.config.ScrConfiguration;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -80,7 +85,7 @@ public class ScrCommand implements ScrInfo
             final Hashtable props = new Hashtable();
             props.put("osgi.command.scope", "scr");
             props.put("osgi.command.function", new String[]
-                { "config", "disable", "enable", "info", "list" });
+                { "config", "disable", "enable", "graph", "info", "list", "stats" });
             props.put(Constants.SERVICE_DESCRIPTION, "SCR Gogo Shell Support");
             props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
             bundleContext.registerService(scrGogoCommandClassName, gogoCmd, props);
@@ -461,6 +466,124 @@ public class ScrCommand implements ScrInfo
         out.println(scrConfiguration.lockTimeout());
         out.print("Info Service registered: ");
         out.println(scrConfiguration.infoAsService() ? "Supported" : "Unsupported");
+        out.print("Component actor threads: ");
+        out.println(scrConfiguration.actorThreads());
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.felix.scr.ScrInfo#stats(java.io.PrintWriter)
+     */
+    public void stats(PrintWriter out)
+    {
+        final ScrStatistics stats = scrService.getStatistics();
+        out.print("Actor threads: ");
+        out.println(stats.getActorThreadCount());
+        out.print("Queue length: ");
+        out.print(stats.getQueueLength());
+        out.print(" (max ");
+        out.print(stats.getMaxQueueLength());
+        out.println(")");
+        out.print("Tasks run: ");
+        out.println(stats.getTaskCount());
+        out.print("Task wait time: ");
+        out.print(stats.getAverageTaskWaitTime());
+        out.print("us average, ");
+        out.print(stats.getMaxTaskWaitTime());
+        out.println("us max");
+        out.print("Task execution time: ");
+        out.print(stats.getAverageTaskExecutionTime());
+        out.print("us average, ");
+        out.print(stats.getMaxTaskExecutionTime());
+        out.println("us max");
+
+        final Map slowest = stats.getSlowestActivations();
+        if (!slowest.isEmpty())
+        {
+            out.println("Slowest activate methods:");
+            for (Iterator ei = slowest.entrySet().iterator(); ei.hasNext();)
+            {
+                final Map.Entry entry = (Map.Entry) ei.next();
+                out.print("    ");
+                out.print(entry.getValue());
+                out.print("us ");
+                out.println(entry.getKey());
+            }
+        }
+        out.flush();
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.felix.scr.ScrInfo#graph(java.io.PrintWriter)
+     */
+    public void graph(PrintWriter out)
+    {
+        final ActivationGraph graph = scrService.getActivationGraph();
+        final ActivationNode[] nodes = graph.getNodes();
+        if (nodes.length == 0)
+        {
+            out.println("No components registered");
+            out.flush();
+            return;
+        }
+
+        out.println("Components (bind/activate/registration us):");
+        for (ActivationNode node : nodes)
+        {
+            out.print("    ");
+            out.print(toNodeString(node));
+            out.print(" (");
+            out.print(node.getBindTime());
+            out.print("/");
+            out.print(node.getActivateTime());
+            out.print("/");
+            out.print(node.getRegistrationTime());
+            out.println(")");
+
+            final List<ActivationNode> mandatory = Arrays.asList(node.getMandatoryDependencies());
+            for (ActivationNode dependency : node.getDependencies())
+            {
+                out.print("        -> ");
+                out.print(toNodeString(dependency));
+                out.println(mandatory.contains(dependency) ? "" : " (optional)");
+            }
+        }
+
+        out.print("Critical path (");
+        out.print(graph.getCriticalPathTime());
+        out.print("us): ");
+        final ActivationNode[] path = graph.getCriticalPath();
+        for (int i = 0; i < path.length; i++)
+        {
+            if (i > 0)
+            {
+                out.print(" -> ");
+            }
+            out.print(toNodeString(path[i]));
+        }
+        out.println();
+
+        final ActivationNode[][] cycles = graph.getCycles();
+        if (cycles.length > 0)
+        {
+            out.println("Circular references:");
+            for (ActivationNode[] cycle : cycles)
+            {
+                out.print("    ");
+                for (int i = 0; i < cycle.length; i++)
+                {
+                    out.print(toNodeString(cycle[i]));
+                    out.print(" -> ");
+                }
+                out.println(toNodeString(cycle[0]));
+            }
+        }
+        out.flush();
+    }
+
+    // component names are only unique within a bundle
+    private static String toNodeString(ActivationNode node)
+    {
+        return "[" + node.getBundleId() + "] " + node.getName();
     }
 
     private String toStateString(int state)
@@ -37,6 +37,10 @@ import org.apache.felix.service.command.Descriptor;
  * <dd>Disable a component</dd>
  * <dt><code>scr:config</code></dt>
  * <dd>Print configuration of the Apache Felix Declarative Services bundle</dd>
+ * <dt><code>scr:graph</code></dt>
+ * <dd>Print the component dependencies, activation times and circular references</dd>
+ * <dt><code>scr:stats</code></dt>
+ * <dd>Print the component actor metrics and the slowest activate methods</dd>
  * </dl>
  * <p>
  * This class uses Java 5 annotations to provide descriptions for the commands
@@ -127,4 +131,16 @@ class ScrGogoCommand
         scrCommand.config(new PrintWriter(System.out));
     }
 
+    @Descriptor("Show the component dependencies, activation times, critical path and circular references")
+    public void graph()
+    {
+        scrCommand.graph(new PrintWriter(System.out));
+    }
+
+    @Descriptor("Show the component actor metrics and the slowest activate methods")
+    public void stats()
+    {
+        scrCommand.stats(new PrintWriter(System.out));
+    }
+
 }
@@ -37,6 +37,8 @@ class ScrShellCommand implements Command
     private static final String ENABLE_CMD = "enable";
     private static final String DISABLE_CMD = "disable";
     private static final String CONFIG_CMD = "config";
+    private static final String STATS_CMD = "stats";
+    private static final String GRAPH_CMD = "graph";
 
     private final ScrCommand scrCommand;
 
@@ -99,6 +101,14 @@ class ScrShellCommand implements Command
                 {
                     scrCommand.config(pw);
                 }
+                else if (command.equals(STATS_CMD))
+                {
+                    scrCommand.stats(pw);
+                }
+                else if (command.equals(GRAPH_CMD))
+                {
+                    scrCommand.graph(pw);
+                }
                 else
                 {
                     err.println("Unknown command: " + command);
@@ -155,6 +165,25 @@ class ScrShellCommand implements Command
             out.println("This command lists the current SCR configuration.");
             out.println("");
         }
+        else if (command.equals(STATS_CMD))
+        {
+            out.println("");
+            out.println("scr " + STATS_CMD);
+            out.println("");
+            out.println("This command lists the component actor queue and task\n"
+                + "metrics and the slowest component activate methods.");
+            out.println("");
+        }
+        else if (command.equals(GRAPH_CMD))
+        {
+            out.println("");
+            out.println("scr " + GRAPH_CMD);
+            out.println("");
+            out.println("This command lists the component dependencies with their\n"
+                + "bind, activate and service registration times, the critical\n"
+                + "activation path and the circular references.");
+            out.println("");
+        }
         else
         {
             out.println("scr " + HELP_CMD + " [" + LIST_CMD + "]");
@@ -163,6 +192,8 @@ class ScrShellCommand implements Command
             out.println("scr " + ENABLE_CMD + " <componentId>");
             out.println("scr " + DISABLE_CMD + " <componentId>");
             out.println("scr " + CONFIG_CMD);
+            out.println("scr " + STATS_CMD);
+            out.println("scr " + GRAPH_CMD);
         }
     }
 }
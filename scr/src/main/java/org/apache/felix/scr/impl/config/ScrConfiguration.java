@@ -70,6 +70,8 @@ public class ScrConfiguration
     
     public static final String PROP_LOGLEVEL = "ds.loglevel";
 
+    public static final String PROP_ACTOR_THREADS = "ds.actor.threads";
+
     private static final String LOG_LEVEL_DEBUG = "debug";
 
     private static final String LOG_LEVEL_INFO = "info";
@@ -92,6 +94,8 @@ public class ScrConfiguration
     
     private long lockTimeout = DEFAULT_LOCK_TIMEOUT_MILLISECONDS;
 
+    private int actorThreads = 1;
+
     private BundleContext bundleContext;
 
     private ServiceRegistration managedService;
@@ -107,6 +111,9 @@ public class ScrConfiguration
     public void start(final BundleContext bundleContext){
         this.bundleContext = bundleContext;
 
+        // the number of actor threads is only read on startup
+        actorThreads = getDefaultActorThreads();
+
         // reconfigure from bundle context properties
         configure( null );
 
@@ -202,6 +209,16 @@ public class ScrConfiguration
         return lockTimeout;
     }
 
+    /**
+     * Returns the number of threads running the asynchronous component
+     * tasks. This defaults to one thread running the tasks in the order
+     * they are scheduled.
+     */
+    public int actorThreads()
+    {
+        return actorThreads;
+    }
+
     private boolean getDefaultFactoryEnabled()
     {
         return VALUE_TRUE.equals( bundleContext.getProperty( PROP_FACTORY_ENABLED ) );
@@ -234,6 +251,27 @@ public class ScrConfiguration
         return Long.parseLong( val );
     }
 
+    private int getDefaultActorThreads()
+    {
+        String val = bundleContext.getProperty( PROP_ACTOR_THREADS );
+        if ( val != null )
+        {
+            try
+            {
+                int threads = Integer.parseInt( val.trim() );
+                if ( threads > 0 )
+                {
+                    return threads;
+                }
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // ignore and use the default
+            }
+        }
+        return 1;
+    }
+
 
     private int getLogLevel( final Object levelObject )
     {
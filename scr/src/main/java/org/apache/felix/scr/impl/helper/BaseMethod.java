@@ -46,6 +46,15 @@ abstract class BaseMethod
     protected static final Class MAP_CLASS = Map.class;
     protected static final Class INTEGER_CLASS = Integer.class;
 
+    /**
+     * The name of the system property defining the number of reflective
+     * calls of a method before a {@link MethodInvoker} is generated for it.
+     * A negative value disables invoker generation.
+     */
+    static final String INVOKER_THRESHOLD_PROPERTY = "ds.invoker.threshold";
+
+    private static final int INVOKER_THRESHOLD = getInvokerThreshold();
+
     private final boolean isDS11;
     private final boolean isDS12Felix;
 
@@ -58,6 +67,14 @@ abstract class BaseMethod
 
     private volatile State m_state;
 
+    // generated invoker, null until generated or if it cannot be generated
+    private volatile MethodInvoker m_invoker;
+
+    // number of reflective calls, not synchronized as precision is not required
+    private int m_reflectiveCalls;
+
+    private volatile boolean m_invokerUnavailable;
+
     protected BaseMethod( final String methodName,
             final Class componentClass, final boolean ds11, final boolean ds12Felix )
     {
@@ -114,6 +131,7 @@ abstract class BaseMethod
     void setMethod( Method method, SimpleLogger logger )
     {
         this.m_method = method;
+        this.m_invoker = null;
 
         if ( method != null )
         {
@@ -221,16 +239,23 @@ abstract class BaseMethod
     private MethodResult invokeMethod( final Object componentInstance, final Object rawParameter, SimpleLogger logger )
         throws InvocationTargetException
     {
-        logger.log( LogService.LOG_DEBUG, "invoking {0}: {1}", new Object[]
-            { getMethodNamePrefix(), getMethodName() }, null );
+        final boolean debug = logger.isLogEnabled( LogService.LOG_DEBUG );
+        if ( debug )
+        {
+            logger.log( LogService.LOG_DEBUG, "invoking {0}: {1}", new Object[]
+                { getMethodNamePrefix(), getMethodName() }, null );
+        }
         try
         {
             if ( componentInstance != null )
             {
                 final Object[] params = getParameters(m_method, rawParameter);
-                Object result = m_method.invoke(componentInstance, params);
-                logger.log( LogService.LOG_DEBUG, "invoked {0}: {1}: parameters {2}", new Object[]
-                    { getMethodNamePrefix(), getMethodName(), Arrays.asList( params ) }, null );
+                Object result = invoke( componentInstance, params );
+                if ( debug )
+                {
+                    logger.log( LogService.LOG_DEBUG, "invoked {0}: {1}: parameters {2}", new Object[]
+                        { getMethodNamePrefix(), getMethodName(), Arrays.asList( params ) }, null );
+                }
                 return new MethodResult((m_method.getReturnType() != Void.TYPE), (Map) result);
             }
             else
@@ -266,6 +291,61 @@ abstract class BaseMethod
         return MethodResult.VOID; // TODO: or null ??
     }
 
+    /**
+     * Calls the method using the generated {@link MethodInvoker} if
+     * available and reflection otherwise. The invoker is generated once
+     * the method has been called {@link #INVOKER_THRESHOLD_PROPERTY} times
+     * (16 by default) through reflection.
+     */
+    private Object invoke( final Object componentInstance, final Object[] params ) throws IllegalAccessException,
+        InvocationTargetException
+    {
+        MethodInvoker invoker = m_invoker;
+        if ( invoker == null && INVOKER_THRESHOLD >= 0 && !m_invokerUnavailable
+            && m_reflectiveCalls++ >= INVOKER_THRESHOLD )
+        {
+            invoker = MethodInvokerGenerator.getInvoker( m_method );
+            if ( invoker == null )
+            {
+                m_invokerUnavailable = true;
+            }
+            m_invoker = invoker;
+        }
+
+        if ( invoker != null )
+        {
+            try
+            {
+                return invoker.invoke( componentInstance, params );
+            }
+            catch ( RuntimeException re )
+            {
+                // thrown before actually calling the method (argument
+                // mismatch), let reflection report the problem
+            }
+        }
+
+        return m_method.invoke( componentInstance, params );
+    }
+
+
+    private static int getInvokerThreshold()
+    {
+        final String value = System.getProperty( INVOKER_THRESHOLD_PROPERTY );
+        if ( value != null )
+        {
+            try
+            {
+                return Integer.parseInt( value.trim() );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // use default
+            }
+        }
+        return 16;
+    }
+
     protected boolean returnValue()
     {
         // allow returning Map if declared as DS 1.2-Felix or newer
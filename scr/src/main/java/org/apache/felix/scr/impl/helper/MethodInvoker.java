@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.helper;
+
+
+import java.lang.reflect.InvocationTargetException;
+
+
+/**
+ * The <code>MethodInvoker</code> is a generated stub directly calling a
+ * component method. Invokers are created by the {@link MethodInvokerGenerator}
+ * and used by {@link BaseMethod} instead of reflection.
+ * <p>
+ * Exceptions thrown by the called method are wrapped into an
+ * <code>InvocationTargetException</code>. Any other exception is thrown
+ * before the method is called (<code>null</code> target or argument
+ * mismatch) and the call may then be safely retried using reflection.
+ * <p>
+ * This interface must be public as it is implemented by classes defined
+ * in other class loaders.
+ */
+public interface MethodInvoker
+{
+
+    /**
+     * Calls the method on the given target.
+     *
+     * @param target The object on which the method is called
+     * @param args The method arguments
+     * @return The value returned by the method, <code>null</code> for
+     *      <code>void</code> methods
+     * @throws InvocationTargetException If the method throws an exception
+     */
+    Object invoke( Object target, Object[] args ) throws InvocationTargetException;
+
+}
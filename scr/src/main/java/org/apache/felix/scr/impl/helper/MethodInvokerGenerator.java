@@ -0,0 +1,362 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.helper;
+
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+
+/**
+ * The <code>MethodInvokerGenerator</code> generates {@link MethodInvoker}
+ * classes calling component methods without reflection.
+ * <p>
+ * The generated classes are defined by a class loader whose parent is the
+ * class loader of the component class. They are not part of the component
+ * package, hence only public methods of public classes using public types
+ * in their signature are supported. Other methods are called through
+ * reflection.
+ * <p>
+ * Invokers are cached per method and shared by all components using the
+ * same method.
+ */
+class MethodInvokerGenerator implements Opcodes
+{
+
+    private static final String INVOKER_INTERNAL_NAME = Type.getInternalName( MethodInvoker.class );
+
+    private static final String INVOKE_DESC = "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
+
+    private static final String ITE_INTERNAL_NAME = "java/lang/reflect/InvocationTargetException";
+
+    // the invoker class loaders per component class loader, the values are
+    // weak references as an invoker class loader references its parent
+    private static final Map/*<ClassLoader, WeakReference<InvokerClassLoader>>*/ m_loaders = new WeakHashMap();
+
+    private static int m_counter;
+
+
+    private MethodInvokerGenerator()
+    {
+    }
+
+
+    /**
+     * Returns an invoker for the given method or <code>null</code> if the
+     * method cannot be called without reflection or if the invoker cannot
+     * be generated.
+     */
+    static MethodInvoker getInvoker( final Method method )
+    {
+        if ( !isSupported( method ) )
+        {
+            return null;
+        }
+
+        try
+        {
+            return getClassLoader( method.getDeclaringClass().getClassLoader() ).getInvoker( method );
+        }
+        catch ( Throwable t )
+        {
+            // LinkageError, SecurityException, ... : keep using reflection
+            return null;
+        }
+    }
+
+
+    /**
+     * Returns <code>true</code> if the method is a public instance method of
+     * a public class whose signature only uses public types.
+     */
+    static boolean isSupported( final Method method )
+    {
+        final int mod = method.getModifiers();
+        if ( !Modifier.isPublic( mod ) || Modifier.isStatic( mod ) || !isAccessible( method.getDeclaringClass() )
+            || !isAccessible( method.getReturnType() ) )
+        {
+            return false;
+        }
+
+        final Class[] params = method.getParameterTypes();
+        for ( int i = 0; i < params.length; i++ )
+        {
+            if ( !isAccessible( params[i] ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static boolean isAccessible( Class clazz )
+    {
+        while ( clazz.isArray() )
+        {
+            clazz = clazz.getComponentType();
+        }
+
+        for ( Class c = clazz; c != null && !c.isPrimitive(); c = c.getDeclaringClass() )
+        {
+            if ( !Modifier.isPublic( c.getModifiers() ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static InvokerClassLoader getClassLoader( final ClassLoader parent )
+    {
+        synchronized ( m_loaders )
+        {
+            final WeakReference ref = ( WeakReference ) m_loaders.get( parent );
+            InvokerClassLoader loader = ( ref == null ) ? null : ( InvokerClassLoader ) ref.get();
+            if ( loader == null )
+            {
+                loader = new InvokerClassLoader( ( parent == null ) ? MethodInvoker.class.getClassLoader() : parent );
+                m_loaders.put( parent, new WeakReference( loader ) );
+            }
+            return loader;
+        }
+    }
+
+
+    private static synchronized String newClassName( final Method method )
+    {
+        String name = method.getDeclaringClass().getName() + "$$Invoker$" + method.getName() + "$" + ( ++m_counter );
+        if ( name.startsWith( "java." ) )
+        {
+            name = "$" + name;
+        }
+        return name;
+    }
+
+
+    /**
+     * Generates the class implementing {@link MethodInvoker} for the method.
+     * Only the actual call is covered by the exception handler wrapping
+     * exceptions into an <code>InvocationTargetException</code>.
+     *
+     * @param className The internal name of the generated class
+     * @param method The method to call
+     * @return The class bytes
+     */
+    static byte[] dumpInvoker( final String className, final Method method )
+    {
+        final ClassWriter cw = new ClassWriter( ClassWriter.COMPUTE_MAXS );
+        cw.visit( V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SYNTHETIC, className, null, "java/lang/Object", new String[]
+            { INVOKER_INTERNAL_NAME } );
+
+        MethodVisitor mv = cw.visitMethod( ACC_PUBLIC, "<init>", "()V", null, null );
+        mv.visitCode();
+        mv.visitVarInsn( ALOAD, 0 );
+        mv.visitMethodInsn( INVOKESPECIAL, "java/lang/Object", "<init>", "()V" );
+        mv.visitInsn( RETURN );
+        mv.visitMaxs( 0, 0 );
+        mv.visitEnd();
+
+        final Class declaringClass = method.getDeclaringClass();
+        final String owner = Type.getInternalName( declaringClass );
+        final Class[] params = method.getParameterTypes();
+
+        mv = cw.visitMethod( ACC_PUBLIC, "invoke", INVOKE_DESC, null, new String[]
+            { ITE_INTERNAL_NAME } );
+        mv.visitCode();
+
+        final Label start = new Label();
+        final Label end = new Label();
+        final Label handler = new Label();
+        mv.visitTryCatchBlock( start, end, handler, "java/lang/Throwable" );
+
+        // target.getClass() throws the NullPointerException outside of the try block
+        mv.visitVarInsn( ALOAD, 1 );
+        mv.visitInsn( DUP );
+        mv.visitMethodInsn( INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;" );
+        mv.visitInsn( POP );
+        mv.visitTypeInsn( CHECKCAST, owner );
+
+        for ( int i = 0; i < params.length; i++ )
+        {
+            mv.visitVarInsn( ALOAD, 2 );
+            mv.visitLdcInsn( new Integer( i ) );
+            mv.visitInsn( AALOAD );
+            if ( params[i].isPrimitive() )
+            {
+                final Type type = Type.getType( params[i] );
+                final String wrapper = getWrapper( type );
+                mv.visitTypeInsn( CHECKCAST, wrapper );
+                mv.visitMethodInsn( INVOKEVIRTUAL, wrapper, type.getClassName() + "Value", "()"
+                    + type.getDescriptor() );
+            }
+            else
+            {
+                mv.visitTypeInsn( CHECKCAST, Type.getInternalName( params[i] ) );
+            }
+        }
+
+        mv.visitLabel( start );
+        mv.visitMethodInsn( declaringClass.isInterface() ? INVOKEINTERFACE : INVOKEVIRTUAL, owner, method.getName(),
+            Type.getMethodDescriptor( method ) );
+        mv.visitLabel( end );
+
+        final Type returnType = Type.getReturnType( method );
+        if ( returnType.getSort() == Type.VOID )
+        {
+            mv.visitInsn( ACONST_NULL );
+        }
+        else if ( returnType.getSort() != Type.OBJECT && returnType.getSort() != Type.ARRAY )
+        {
+            final String wrapper = getWrapper( returnType );
+            mv.visitMethodInsn( INVOKESTATIC, wrapper, "valueOf", "(" + returnType.getDescriptor() + ")L" + wrapper
+                + ";" );
+        }
+        mv.visitInsn( ARETURN );
+
+        mv.visitLabel( handler );
+        mv.visitVarInsn( ASTORE, 3 );
+        mv.visitTypeInsn( NEW, ITE_INTERNAL_NAME );
+        mv.visitInsn( DUP );
+        mv.visitVarInsn( ALOAD, 3 );
+        mv.visitMethodInsn( INVOKESPECIAL, ITE_INTERNAL_NAME, "<init>", "(Ljava/lang/Throwable;)V" );
+        mv.visitInsn( ATHROW );
+
+        mv.visitMaxs( 0, 0 );
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+
+    private static String getWrapper( final Type type )
+    {
+        switch ( type.getSort() )
+        {
+            case Type.BOOLEAN:
+                return "java/lang/Boolean";
+            case Type.CHAR:
+                return "java/lang/Character";
+            case Type.BYTE:
+                return "java/lang/Byte";
+            case Type.SHORT:
+                return "java/lang/Short";
+            case Type.INT:
+                return "java/lang/Integer";
+            case Type.FLOAT:
+                return "java/lang/Float";
+            case Type.LONG:
+                return "java/lang/Long";
+            case Type.DOUBLE:
+                return "java/lang/Double";
+            default:
+                throw new IllegalArgumentException( "Not a primitive type: " + type );
+        }
+    }
+
+    /**
+     * The class loader defining the invokers for methods of classes of a
+     * single class loader. The classes referenced by the invokers are
+     * resolved to the exact classes of the called method and not through the
+     * parent class loader, which may not see them or see other versions.
+     */
+    private static class InvokerClassLoader extends ClassLoader
+    {
+
+        private final Map/*<Method, MethodInvoker>*/ m_invokers = new HashMap();
+
+        private final Map/*<String, Class>*/ m_classes = new HashMap();
+
+
+        InvokerClassLoader( final ClassLoader parent )
+        {
+            super( parent );
+            m_classes.put( MethodInvoker.class.getName(), MethodInvoker.class );
+        }
+
+
+        synchronized MethodInvoker getInvoker( final Method method ) throws Exception
+        {
+            MethodInvoker invoker = ( MethodInvoker ) m_invokers.get( method );
+            if ( invoker == null )
+            {
+                register( method.getDeclaringClass() );
+                register( method.getReturnType() );
+                final Class[] params = method.getParameterTypes();
+                for ( int i = 0; i < params.length; i++ )
+                {
+                    register( params[i] );
+                }
+
+                final String name = newClassName( method );
+                final byte[] clazz = dumpInvoker( name.replace( '.', '/' ), method );
+                invoker = ( MethodInvoker ) defineClass( name, clazz, 0, clazz.length ).newInstance();
+                m_invokers.put( method, invoker );
+            }
+            return invoker;
+        }
+
+
+        private void register( Class clazz )
+        {
+            while ( clazz.isArray() )
+            {
+                clazz = clazz.getComponentType();
+            }
+
+            if ( !clazz.isPrimitive() )
+            {
+                final Class existing = ( Class ) m_classes.get( clazz.getName() );
+                if ( existing == null )
+                {
+                    m_classes.put( clazz.getName(), clazz );
+                }
+                else if ( existing != clazz )
+                {
+                    throw new IllegalStateException( "Class " + clazz.getName()
+                        + " is already used from another class loader" );
+                }
+            }
+        }
+
+
+        protected synchronized Class loadClass( final String name, final boolean resolve )
+            throws ClassNotFoundException
+        {
+            final Class clazz = ( Class ) m_classes.get( name );
+            if ( clazz != null )
+            {
+                return clazz;
+            }
+            return super.loadClass( name, resolve );
+        }
+    }
+}
@@ -399,7 +399,7 @@ public abstract class AbstractComponentManager<S> implements Component, SimpleLo
 
         if ( async )
         {
-            m_activator.schedule( new Runnable()
+            m_activator.schedule( this, new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
@@ -473,7 +473,7 @@ public abstract class AbstractComponentManager<S> implements Component, SimpleLo
 
         if ( async )
         {
-            m_activator.schedule( new Runnable()
+            m_activator.schedule( this, new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
@@ -916,8 +916,15 @@ public abstract class AbstractComponentManager<S> implements Component, SimpleLo
                 return null;
             }
             final Dictionary<String, Object> serviceProperties = getServiceProperties();
+            final long start = System.nanoTime();
             ServiceRegistration<S> serviceRegistration = ( ServiceRegistration<S> ) bundleContext
                     .registerService( services, getService(), serviceProperties );
+            final BundleComponentActivator activator = getActivator();
+            if ( activator != null )
+            {
+                activator.getStatistics().registered( bundleContext.getBundle().getBundleId(),
+                    getComponentMetadata().getName(), System.nanoTime() - start );
+            }
             return serviceRegistration;
         }
 
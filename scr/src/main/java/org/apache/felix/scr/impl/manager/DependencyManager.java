@@ -1967,7 +1967,10 @@ public class DependencyManager<S, T> implements Reference
         boolean initialActive = oldTracker != null && oldTracker.isActive();
         m_componentManager.log( LogService.LOG_INFO, "New service tracker for {0}, initial active: {1}", new Object[]
                 {getName(), initialActive}, null );
-        ServiceTracker<T, RefPair<T>> tracker = new ServiceTracker<T, RefPair<T>>( bundleContext, m_targetFilter, customizer, initialActive );
+        final BundleComponentActivator activator = m_componentManager.getActivator();
+        final ServiceListenerIndex listenerIndex = ( activator != null ) ? activator.getServiceListenerIndex() : null;
+        ServiceTracker<T, RefPair<T>> tracker = new ServiceTracker<T, RefPair<T>>( bundleContext, m_targetFilter, customizer, initialActive,
+            listenerIndex, m_dependencyMetadata.getInterface() );
         customizer.setTracker( tracker );
         registered = true;
         tracker.open( m_componentManager.getTrackingCount() );
@@ -258,6 +258,7 @@ public class ImmediateComponentManager<S> extends AbstractComponentManager<S> im
 
         // 4. Bind the target services
 
+        final long bindStart = System.nanoTime();
         for ( DependencyManager<S, ?> dm: getDependencyManagers())
         {
             // if a dependency turned unresolved since the validation check,
@@ -282,8 +283,22 @@ public class ImmediateComponentManager<S> extends AbstractComponentManager<S> im
         }
 
         // 5. Call the activate method, if present
+        final long activateStart = System.nanoTime();
         final MethodResult result = getComponentMethods().getActivateMethod().invoke( implementationObject, new ActivatorParameter(
                 componentContext, 1 ), null, this );
+        final long activateEnd = System.nanoTime();
+        final BundleComponentActivator activator = getActivator();
+        if ( activator != null )
+        {
+            final long bundleId = activator.getBundleContext().getBundle().getBundleId();
+            activator.getStatistics().bound( bundleId, getComponentMetadata().getName(), activateStart - bindStart );
+            if ( result != null )
+            {
+                // a failed activation does not count as an activation time
+                activator.getStatistics().activated( bundleId, getComponentMetadata().getName(),
+                    activateEnd - activateStart );
+            }
+        }
         if ( result == null )
         {
             // 112.5.8 If the activate method throws an exception, SCR must log an error message
@@ -0,0 +1,440 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.AllServiceListener;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+
+/**
+ * The <code>ServiceListenerIndex</code> is a single service listener shared
+ * by the service trackers of the dependency managers. Instead of each tracker
+ * registering its own listener with the framework, which evaluates every
+ * target filter for every service event, the trackers are indexed by the
+ * service interface they track and by their target filter. For each service
+ * event only the filters registered for the interfaces of the service are
+ * evaluated and each distinct filter is evaluated only once, the result being
+ * forwarded to all trackers sharing the filter.
+ * <p>
+ * The framework sends <code>MODIFIED_ENDMATCH</code> events based on the
+ * properties of the service before the modification. The index emulates this
+ * by remembering, for each filter, the services matching it at the last
+ * event and those matching when the filter was first added.
+ * <p>
+ * Event listener hooks see the listener of the index as registered by the SCR
+ * bundle and can therefore not filter the events per component bundle. While
+ * such hooks are registered, see {@link #isUsable()}, the service trackers
+ * register their own service listener with the framework. Trackers opened
+ * before the first hook was registered keep receiving their events through
+ * the index until they are reopened.
+ * <p>
+ * Since the framework does not check the <code>ServicePermission</code> of
+ * the component bundles for events dispatched through this index, the index
+ * must not be used when a security manager is installed.
+ */
+public class ServiceListenerIndex implements AllServiceListener
+{
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    // hooks filtering the service events per listener bundle
+    private static final String[] HOOK_CLASSES =
+        { "org.osgi.framework.hooks.service.EventListenerHook", "org.osgi.framework.hooks.service.EventHook" };
+
+    private final BundleContext m_context;
+
+    // filter entries per service interface, the arrays are copied on write
+    // while holding the lock on this instance
+    private final Map<String, Entry[]> m_entries = new ConcurrentHashMap<String, Entry[]>();
+
+    // service ids of the registered event hooks
+    private final Map<Long, Long> m_hooks = new ConcurrentHashMap<Long, Long>();
+
+
+    public ServiceListenerIndex( final BundleContext context )
+    {
+        m_context = context;
+        context.addServiceListener( this );
+
+        // hooks registered from now on are reported to serviceChanged
+        for ( int i = 0; i < HOOK_CLASSES.length; i++ )
+        {
+            final ServiceReference<?>[] refs = getAllServiceReferences( HOOK_CLASSES[i], null );
+            for ( int j = 0; refs != null && j < refs.length; j++ )
+            {
+                final Long id = getServiceId( refs[j] );
+                m_hooks.put( id, id );
+            }
+        }
+    }
+
+
+    public void dispose()
+    {
+        try
+        {
+            m_context.removeServiceListener( this );
+        }
+        catch ( IllegalStateException ise )
+        {
+            // the SCR bundle context is not valid any more
+        }
+        m_entries.clear();
+    }
+
+
+    /**
+     * Returns <code>true</code> if the index may be used in this environment,
+     * that is if no security manager is installed.
+     */
+    public static boolean isSupported()
+    {
+        return System.getSecurityManager() == null;
+    }
+
+
+    /**
+     * Returns <code>true</code> if service trackers opening now may register
+     * with the index, that is if no event listener hooks are registered.
+     */
+    public boolean isUsable()
+    {
+        return m_hooks.isEmpty();
+    }
+
+
+    /**
+     * Adds a listener for the services registered under the given interface
+     * and matching the given filter. The filter must include the
+     * <code>objectClass</code> condition for the interface.
+     *
+     * @param className The service interface
+     * @param filterString The string representation of the filter
+     * @param filter The (target) filter
+     * @param listener The listener to inform
+     * @param bundle The bundle on whose behalf the listener is registered. If
+     *      <code>allServices</code> is <code>false</code> only services whose
+     *      classes are assignable to this bundle are forwarded.
+     * @param allServices Whether to forward all services regardless of class
+     *      space compatibility like an <code>AllServiceListener</code>.
+     */
+    synchronized void addServiceListener( final String className, final String filterString, final Filter filter,
+        final Listener listener, final Bundle bundle, final boolean allServices )
+    {
+        final Registration registration = new Registration( listener, bundle, allServices );
+
+        final Entry[] entries = getEntries( className );
+        for ( int i = 0; i < entries.length; i++ )
+        {
+            if ( entries[i].m_filterString.equals( filterString ) )
+            {
+                entries[i].add( registration );
+                return;
+            }
+        }
+
+        final Entry[] newEntries = new Entry[entries.length + 1];
+        System.arraycopy( entries, 0, newEntries, 0, entries.length );
+        final Entry entry = new Entry( filterString, filter, registration );
+        newEntries[entries.length] = entry;
+
+        // the services matching so far end their match when modified
+        final ServiceReference<?>[] refs = getAllServiceReferences( className, filterString );
+        for ( int i = 0; refs != null && i < refs.length; i++ )
+        {
+            final Long id = getServiceId( refs[i] );
+            entry.m_matching.put( id, id );
+        }
+        m_entries.put( className, newEntries );
+    }
+
+
+    /**
+     * Removes a listener added with
+     * {@link #addServiceListener(String, String, Filter, Listener, Bundle, boolean)}.
+     * Removing a listener not registered has no effect.
+     */
+    synchronized void removeServiceListener( final String className, final Listener listener )
+    {
+        final Entry[] entries = getEntries( className );
+        for ( int i = 0; i < entries.length; i++ )
+        {
+            if ( entries[i].remove( listener ) )
+            {
+                if ( entries[i].isEmpty() )
+                {
+                    if ( entries.length == 1 )
+                    {
+                        m_entries.remove( className );
+                    }
+                    else
+                    {
+                        final Entry[] newEntries = new Entry[entries.length - 1];
+                        System.arraycopy( entries, 0, newEntries, 0, i );
+                        System.arraycopy( entries, i + 1, newEntries, i, newEntries.length - i );
+                        m_entries.put( className, newEntries );
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+
+    public void serviceChanged( final ServiceEvent event )
+    {
+        final ServiceReference<?> ref = event.getServiceReference();
+        final String[] classNames = ( String[] ) ref.getProperty( Constants.OBJECTCLASS );
+        if ( classNames == null )
+        {
+            return;
+        }
+
+        final Long id = getServiceId( ref );
+        final int type = event.getType();
+        ServiceEvent endMatch = null;
+        Bundle assignableBundle = null;
+        boolean assignable = false;
+        for ( int c = 0; c < classNames.length; c++ )
+        {
+            updateHooks( classNames[c], id, type );
+
+            final Entry[] entries = m_entries.get( classNames[c] );
+            if ( entries == null )
+            {
+                continue;
+            }
+
+            for ( int e = 0; e < entries.length; e++ )
+            {
+                final Entry entry = entries[e];
+                final boolean match = entry.m_filter.match( ref );
+
+                // the framework checks the properties before the modification
+                // to decide whether the match ends
+                ServiceEvent entryEvent = null;
+                if ( type == ServiceEvent.UNREGISTERING )
+                {
+                    entry.m_matching.remove( id );
+                    if ( match )
+                    {
+                        entryEvent = event;
+                    }
+                }
+                else if ( match )
+                {
+                    entry.m_matching.put( id, id );
+                    entryEvent = event;
+                }
+                else if ( entry.m_matching.remove( id ) != null && type == ServiceEvent.MODIFIED )
+                {
+                    if ( endMatch == null )
+                    {
+                        endMatch = new ServiceEvent( ServiceEvent.MODIFIED_ENDMATCH, ref );
+                    }
+                    entryEvent = endMatch;
+                }
+                if ( entryEvent == null )
+                {
+                    continue;
+                }
+
+                final Registration[] registrations = entry.m_registrations;
+                for ( int r = 0; r < registrations.length; r++ )
+                {
+                    final Registration registration = registrations[r];
+
+                    // the framework only sends events for services whose
+                    // classes are visible to the bundle of a ServiceListener
+                    if ( !registration.m_allServices )
+                    {
+                        if ( registration.m_bundle != assignableBundle )
+                        {
+                            assignableBundle = registration.m_bundle;
+                            assignable = isAssignable( ref, assignableBundle, classNames );
+                        }
+                        if ( !assignable )
+                        {
+                            continue;
+                        }
+                    }
+
+                    registration.m_listener.serviceChanged( entryEvent );
+                }
+            }
+        }
+    }
+
+
+    private void updateHooks( final String className, final Long id, final int type )
+    {
+        for ( int i = 0; i < HOOK_CLASSES.length; i++ )
+        {
+            if ( HOOK_CLASSES[i].equals( className ) )
+            {
+                if ( type == ServiceEvent.REGISTERED )
+                {
+                    m_hooks.put( id, id );
+                }
+                else if ( type == ServiceEvent.UNREGISTERING )
+                {
+                    m_hooks.remove( id );
+                }
+            }
+        }
+    }
+
+
+    private ServiceReference<?>[] getAllServiceReferences( final String className, final String filterString )
+    {
+        try
+        {
+            return m_context.getAllServiceReferences( className, filterString );
+        }
+        catch ( InvalidSyntaxException ise )
+        {
+            // the filter has already been parsed
+            return null;
+        }
+    }
+
+
+    private static Long getServiceId( final ServiceReference<?> ref )
+    {
+        return ( Long ) ref.getProperty( Constants.SERVICE_ID );
+    }
+
+
+    private Entry[] getEntries( final String className )
+    {
+        final Entry[] entries = m_entries.get( className );
+        return ( entries == null ) ? NO_ENTRIES : entries;
+    }
+
+
+    private static boolean isAssignable( final ServiceReference<?> ref, final Bundle bundle, final String[] classNames )
+    {
+        if ( bundle == null )
+        {
+            return false;
+        }
+        for ( int i = 0; i < classNames.length; i++ )
+        {
+            if ( !ref.isAssignableTo( bundle, classNames[i] ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The <code>Listener</code> interface is implemented by the service
+     * tracker listeners registered with the index.
+     */
+    interface Listener
+    {
+
+        void serviceChanged( ServiceEvent event );
+    }
+
+    private static class Registration
+    {
+        final Listener m_listener;
+
+        final Bundle m_bundle;
+
+        final boolean m_allServices;
+
+
+        Registration( final Listener listener, final Bundle bundle, final boolean allServices )
+        {
+            m_listener = listener;
+            m_bundle = bundle;
+            m_allServices = allServices;
+        }
+    }
+
+    // the listeners sharing the same filter for an interface. The
+    // registrations array is copied on write while holding the index lock
+    private static class Entry
+    {
+        final String m_filterString;
+
+        final Filter m_filter;
+
+        // service ids matching the filter at their last event
+        final Map<Long, Long> m_matching = new ConcurrentHashMap<Long, Long>();
+
+        volatile Registration[] m_registrations;
+
+
+        Entry( final String filterString, final Filter filter, final Registration registration )
+        {
+            m_filterString = filterString;
+            m_filter = filter;
+            m_registrations = new Registration[]
+                { registration };
+        }
+
+
+        void add( final Registration registration )
+        {
+            final Registration[] registrations = m_registrations;
+            final Registration[] newRegistrations = new Registration[registrations.length + 1];
+            System.arraycopy( registrations, 0, newRegistrations, 0, registrations.length );
+            newRegistrations[registrations.length] = registration;
+            m_registrations = newRegistrations;
+        }
+
+
+        boolean remove( final Listener listener )
+        {
+            final Registration[] registrations = m_registrations;
+            for ( int i = 0; i < registrations.length; i++ )
+            {
+                if ( registrations[i].m_listener == listener )
+                {
+                    final Registration[] newRegistrations = new Registration[registrations.length - 1];
+                    System.arraycopy( registrations, 0, newRegistrations, 0, i );
+                    System.arraycopy( registrations, i + 1, newRegistrations, i, newRegistrations.length - i );
+                    m_registrations = newRegistrations;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+
+        boolean isEmpty()
+        {
+            return m_registrations.length == 0;
+        }
+    }
+}
@@ -111,6 +111,23 @@ public class ServiceTracker<S, T> {
 	 * {@code ServiceListener} object
 	 */
 	private volatile Tracked				tracked;
+	/**
+	 * Shared listener index to register with instead of adding a service
+	 * listener to the framework, or {@code null}.
+	 */
+	private final ServiceListenerIndex		listenerIndex;
+	/**
+	 * Service interface under which the tracker is registered with the
+	 * listener index.
+	 */
+	private final String					indexClass;
+	/**
+	 * Whether the current {@code Tracked} is registered with the listener
+	 * index rather than with the framework.
+	 * 
+	 * @GuardedBy this
+	 */
+	private boolean							indexed;
 
 
     /**
@@ -165,6 +182,8 @@ public class ServiceTracker<S, T> {
 		this.context = context;
 		this.trackReference = reference;
 		this.trackClass = null;
+		this.listenerIndex = null;
+		this.indexClass = null;
 		this.customizer = customizer;
 		this.listenerFilter = "(" + Constants.SERVICE_ID + "=" + reference.getProperty(Constants.SERVICE_ID).toString() + ")";
 		try {
@@ -201,6 +220,8 @@ public class ServiceTracker<S, T> {
 		this.context = context;
 		this.trackReference = null;
 		this.trackClass = clazz;
+		this.listenerIndex = null;
+		this.indexClass = null;
 		this.customizer = customizer;
 		// we call clazz.toString to verify clazz is non-null!
 		this.listenerFilter = "(" + Constants.OBJECTCLASS + "=" + clazz + ")";
@@ -236,6 +257,29 @@ public class ServiceTracker<S, T> {
 	 * @since 1.1
 	 */
 	public ServiceTracker(final BundleContext context, final Filter filter, final ServiceTrackerCustomizer<S, T> customizer, boolean initialActive) {
+		this(context, filter, customizer, initialActive, null, null);
+	}
+
+	/**
+	 * Create a {@code ServiceTracker} on the specified {@code Filter} object
+	 * receiving the service events through the shared
+	 * {@link ServiceListenerIndex} instead of its own service listener.
+	 * 
+	 * @param context The {@code BundleContext} against which the tracking is
+	 *        done.
+	 * @param filter The {@code Filter} to select the services to be tracked.
+	 *        This filter must only match services registered under the
+	 *        {@code className} interface.
+	 * @param customizer The customizer object to call when services are added,
+	 *        modified, or removed in this {@code ServiceTracker}.
+	 * @param initialActive Initial active state of the tracker.
+	 * @param listenerIndex The shared listener index or {@code null} to
+	 *        register a service listener with the framework. A service
+	 *        listener is registered with the framework as well if event
+	 *        listener hooks are registered when the tracker is opened.
+	 * @param className The service interface of the tracked services.
+	 */
+	public ServiceTracker(final BundleContext context, final Filter filter, final ServiceTrackerCustomizer<S, T> customizer, boolean initialActive, final ServiceListenerIndex listenerIndex, final String className) {
 		this.context = context;
 		this.trackReference = null;
 		this.trackClass = null;
@@ -243,6 +287,8 @@ public class ServiceTracker<S, T> {
 		this.filter = filter;
 		this.customizer = customizer;
 		this.active = initialActive;
+		this.listenerIndex = listenerIndex;
+		this.indexClass = className;
 		if ((context == null)) {
 			/*
 			 * we throw a NPE here to be consistent with the other constructors
@@ -320,7 +366,16 @@ public class ServiceTracker<S, T> {
 			t = trackAllServices ? new AllTracked( trackingCount ) : new Tracked( trackingCount );
 			synchronized (t) {
 				try {
-					context.addServiceListener(t, listenerFilter);
+					/*
+					 * Event listener hooks filter the events per listener
+					 * bundle, so they must see a listener of our bundle.
+					 */
+					indexed = listenerIndex != null && listenerIndex.isUsable();
+					if (indexed) {
+						listenerIndex.addServiceListener(indexClass, listenerFilter, filter, t, context.getBundle(), trackAllServices);
+					} else {
+						context.addServiceListener(t, listenerFilter);
+					}
 					ServiceReference<S>[] references = null;
 					if (trackClass != null) {
 						references = getInitialReferences(trackAllServices, trackClass, null);
@@ -396,10 +451,14 @@ public class ServiceTracker<S, T> {
             }
 //			references = getServiceReferences();
 //			tracked = null;
-			try {
-				context.removeServiceListener(outgoing);
-			} catch (IllegalStateException e) {
-				/* In case the context was stopped. */
+			if (indexed) {
+				listenerIndex.removeServiceListener(indexClass, outgoing);
+			} else {
+				try {
+					context.removeServiceListener(outgoing);
+				} catch (IllegalStateException e) {
+					/* In case the context was stopped. */
+				}
 			}
 		}
 		modified(); /* clear the cache */
@@ -1395,7 +1454,7 @@ public class ServiceTracker<S, T> {
 	 * 
 	 * @ThreadSafe
 	 */
-	private class Tracked extends AbstractTracked<ServiceReference<S>, T, ServiceEvent> implements ServiceListener {
+	private class Tracked extends AbstractTracked<ServiceReference<S>, T, ServiceEvent> implements ServiceListener, ServiceListenerIndex.Listener {
 		/**
 		 * Tracked constructor.
          * @param trackingCount
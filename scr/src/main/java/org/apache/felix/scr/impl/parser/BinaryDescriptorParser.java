@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.parser;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+
+/**
+ * The <code>BinaryDescriptorParser</code> replays a precompiled component
+ * descriptor into a {@link KXml2SAXHandler}, avoiding the XML parsing of
+ * the descriptor on each bundle start.
+ * <p>
+ * Binary descriptors are generated at build time by the SCR plugins from the
+ * XML descriptors and are stored in the bundle at
+ * <code>OSGI-OPT/scr/&lt;descriptor path&gt;.bin</code>. The binary form
+ * records the length and CRC-32 checksum of the XML descriptor it has been
+ * generated from and is ignored if they do not match the XML descriptor.
+ * <p>
+ * Format (all numbers big endian, <i>varint</i> are unsigned LEB128):
+ * <pre>
+ * int      magic ("SCRB")
+ * int      format version (1)
+ * int      XML descriptor length
+ * long     XML descriptor CRC-32
+ * varint   string count, followed by the strings (modified UTF-8)
+ * events   each starting with the event type byte, followed by the
+ *          varint line and column numbers:
+ *          1 start element: uri, name, attribute count, (name, value)*
+ *          2 end element: uri, name
+ *          3 text: text
+ *          0 end of document
+ * </pre>
+ * Strings in events are varint indexes in the string table.
+ */
+public class BinaryDescriptorParser
+{
+
+    /**
+     * The folder in which binary descriptors are stored.
+     */
+    public static final String BINARY_FOLDER = "OSGI-OPT/scr";
+
+    /**
+     * The extension of binary descriptors.
+     */
+    public static final String BINARY_EXTENSION = ".bin";
+
+    static final int MAGIC = 0x53435242;
+
+    static final int VERSION = 1;
+
+    static final int END_DOCUMENT = 0;
+
+    static final int START_ELEMENT = 1;
+
+    static final int END_ELEMENT = 2;
+
+    static final int TEXT = 3;
+
+    private final DataInputStream m_in;
+
+
+    /**
+     * Creates a parser reading the binary descriptor from the given stream.
+     */
+    public BinaryDescriptorParser( final InputStream in )
+    {
+        m_in = new DataInputStream( in );
+    }
+
+
+    /**
+     * Returns the bundle entry path of the binary descriptor generated for
+     * the XML descriptor at the given bundle entry path.
+     */
+    public static String getBinaryPath( final String descriptorPath )
+    {
+        final String path = descriptorPath.startsWith( "/" ) ? descriptorPath : "/" + descriptorPath;
+        return BINARY_FOLDER + path + BINARY_EXTENSION;
+    }
+
+
+    /**
+     * Reads the XML descriptor contents.
+     */
+    public static byte[] readFully( final InputStream in ) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int l;
+        while ( ( l = in.read( buffer ) ) >= 0 )
+        {
+            out.write( buffer, 0, l );
+        }
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Replays the binary descriptor into the handler if it has been
+     * generated from the given XML descriptor.
+     *
+     * @param xml The contents of the XML descriptor
+     * @param handler The handler receiving the events
+     * @return <code>false</code> if the binary descriptor is not usable
+     *      (unknown format or generated from another version of the XML
+     *      descriptor). In this case no event has been sent to the handler.
+     * @throws IOException If the binary descriptor cannot be read or is
+     *      corrupted
+     * @throws Exception thrown by the handler
+     */
+    public boolean parse( final byte[] xml, final KXml2SAXHandler handler ) throws Exception
+    {
+        if ( m_in.readInt() != MAGIC || m_in.readInt() != VERSION )
+        {
+            return false;
+        }
+
+        final int length = m_in.readInt();
+        final long checksum = m_in.readLong();
+        if ( length != xml.length )
+        {
+            return false;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update( xml, 0, xml.length );
+        if ( checksum != crc.getValue() )
+        {
+            return false;
+        }
+
+        final String[] strings = new String[readVarInt()];
+        for ( int i = 0; i < strings.length; i++ )
+        {
+            strings[i] = m_in.readUTF();
+        }
+
+        int depth = 0;
+        while ( true )
+        {
+            final int type = m_in.readUnsignedByte();
+            if ( type == END_DOCUMENT )
+            {
+                break;
+            }
+
+            handler.setLineNumber( readVarInt() );
+            handler.setColumnNumber( readVarInt() );
+            switch ( type )
+            {
+                case START_ELEMENT:
+                    final String uri = strings[readVarInt()];
+                    final String name = strings[readVarInt()];
+                    final Properties props = new Properties();
+                    for ( int i = readVarInt(); i > 0; i-- )
+                    {
+                        final String attrName = strings[readVarInt()];
+                        props.put( attrName, strings[readVarInt()] );
+                    }
+                    depth++;
+                    handler.startElement( uri, name, props );
+                    break;
+
+                case END_ELEMENT:
+                    if ( --depth < 0 )
+                    {
+                        throw new IOException( "Unexpected end element in binary descriptor" );
+                    }
+                    handler.endElement( strings[readVarInt()], strings[readVarInt()] );
+                    break;
+
+                case TEXT:
+                    handler.characters( strings[readVarInt()] );
+                    break;
+
+                default:
+                    throw new IOException( "Unknown event " + type + " in binary descriptor" );
+            }
+        }
+
+        if ( depth != 0 )
+        {
+            throw new IOException( "Unclosed elements in binary descriptor" );
+        }
+        return true;
+    }
+
+
+    private int readVarInt() throws IOException
+    {
+        int value = 0;
+        for ( int shift = 0; shift < 32; shift += 7 )
+        {
+            final int b = m_in.readUnsignedByte();
+            value |= ( b & 0x7f ) << shift;
+            if ( ( b & 0x80 ) == 0 )
+            {
+                return value;
+            }
+        }
+        throw new IOException( "Malformed varint in binary descriptor" );
+    }
+}
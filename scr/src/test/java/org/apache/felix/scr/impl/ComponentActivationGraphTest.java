@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.scr.ActivationGraph;
+import org.apache.felix.scr.ActivationNode;
+import org.apache.felix.scr.Component;
+import org.apache.felix.scr.Reference;
+import org.apache.felix.scr.impl.config.ComponentHolder;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.apache.felix.scr.impl.metadata.ServiceMetadata;
+import org.apache.felix.scr.impl.metadata.XmlHandler;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.ComponentConstants;
+
+
+public class ComponentActivationGraphTest extends TestCase
+{
+
+    private ComponentStatistics statistics;
+
+    private Map<ComponentRegistryKey, ComponentHolder> holders;
+
+    // the component configurations of the holders
+    private Map<ComponentHolder, List<Component>> components;
+
+
+    @Override
+    protected void setUp()
+    {
+        statistics = new ComponentStatistics();
+        holders = new HashMap<ComponentRegistryKey, ComponentHolder>();
+        components = new HashMap<ComponentHolder, List<Component>>();
+    }
+
+
+    public void test_critical_path()
+    {
+        // a -> b -> d (mandatory), a -> c (mandatory)
+        holder( 1, "a", null, new String[]
+            { "B", "C" }, new boolean[]
+            { false, false } );
+        holder( 1, "b", "B", new String[]
+            { "D" }, new boolean[]
+            { false } );
+        holder( 1, "c", "C", new String[0], new boolean[0] );
+        holder( 1, "d", "D", new String[0], new boolean[0] );
+
+        statistics.activated( 1, "a", 1000000 );
+        statistics.activated( 1, "b", 2000000 );
+        statistics.bound( 1, "b", 1000000 );
+        statistics.activated( 1, "c", 5000000 );
+        statistics.registered( 1, "d", 3000000 );
+
+        final ActivationGraph graph = new ComponentActivationGraph( holders, statistics );
+
+        assertEquals( 4, graph.getNodes().length );
+        assertEquals( "a", graph.getNodes()[0].getName() );
+        assertEquals( 1, graph.getNodes()[0].getBundleId() );
+        assertEquals( 2, graph.getNodes()[0].getDependencies().length );
+        assertEquals( 3000, graph.getNodes()[1].getTotalTime() );
+
+        // d + b + a = 3000 + 3000 + 1000 > c + a = 5000 + 1000
+        final ActivationNode[] path = graph.getCriticalPath();
+        assertEquals( 3, path.length );
+        assertEquals( "d", path[0].getName() );
+        assertEquals( "b", path[1].getName() );
+        assertEquals( "a", path[2].getName() );
+        assertEquals( 7000, graph.getCriticalPathTime() );
+
+        assertEquals( 0, graph.getCycles().length );
+    }
+
+
+    public void test_cycle()
+    {
+        // a -> b (mandatory), b -> a (optional)
+        holder( 1, "a", "A", new String[]
+            { "B" }, new boolean[]
+            { false } );
+        holder( 1, "b", "B", new String[]
+            { "A" }, new boolean[]
+            { true } );
+
+        final ActivationGraph graph = new ComponentActivationGraph( holders, statistics );
+
+        assertEquals( 1, graph.getNodes()[0].getMandatoryDependencies().length );
+        assertEquals( 0, graph.getNodes()[1].getMandatoryDependencies().length );
+        assertEquals( 1, graph.getNodes()[1].getDependencies().length );
+
+        final ActivationNode[][] cycles = graph.getCycles();
+        assertEquals( 1, cycles.length );
+        assertEquals( 2, cycles[0].length );
+    }
+
+
+    public void test_cycle_on_critical_path()
+    {
+        // c -> a (mandatory), a -> b (mandatory), b -> a (optional)
+        holder( 1, "a", "A", new String[]
+            { "B" }, new boolean[]
+            { false } );
+        holder( 1, "b", "B", new String[]
+            { "A" }, new boolean[]
+            { true } );
+        holder( 1, "c", null, new String[]
+            { "A" }, new boolean[]
+            { false } );
+
+        statistics.activated( 1, "a", 1000000 );
+        statistics.activated( 1, "b", 2000000 );
+        statistics.activated( 1, "c", 500000 );
+
+        final ActivationGraph graph = new ComponentActivationGraph( holders, statistics );
+
+        // the cycle counts as a whole, whatever node the path is entered at
+        final ActivationNode[] path = graph.getCriticalPath();
+        assertEquals( 3, path.length );
+        assertEquals( "c", path[2].getName() );
+        assertEquals( 3500, graph.getCriticalPathTime() );
+    }
+
+
+    public void test_same_name_in_two_bundles()
+    {
+        // a in bundle 1 is bound to the service of b in bundle 2
+        final ComponentHolder a = holder( 1, "a", null, new String[]
+            { "B" }, new boolean[]
+            { false } );
+        holder( 1, "b", "B", new String[0], new boolean[0] );
+        holder( 2, "b", "B", new String[0], new boolean[0] );
+        bind( a, "ref0", 2, "b" );
+
+        statistics.activated( 1, "b", 1000000 );
+        statistics.activated( 2, "b", 2000000 );
+
+        final ActivationGraph graph = new ComponentActivationGraph( holders, statistics );
+
+        final ActivationNode[] nodes = graph.getNodes();
+        assertEquals( 3, nodes.length );
+        assertEquals( 1, nodes[1].getBundleId() );
+        assertEquals( "b", nodes[1].getName() );
+        assertEquals( 1000, nodes[1].getActivateTime() );
+        assertEquals( 2, nodes[2].getBundleId() );
+        assertEquals( "b", nodes[2].getName() );
+        assertEquals( 2000, nodes[2].getActivateTime() );
+
+        assertEquals( 1, nodes[0].getDependencies().length );
+        assertSame( nodes[2], nodes[0].getDependencies()[0] );
+    }
+
+
+    public void test_long_chain()
+    {
+        // c0 -> c1 -> ... -> c19999 (mandatory), deeper than the call stack
+        final int length = 20000;
+        for ( int i = 0; i < length; i++ )
+        {
+            final String[] references = ( i < length - 1 ) ? new String[]
+                { "C" + ( i + 1 ) } : new String[0];
+            holder( 1, "c" + i, "C" + i, references, new boolean[references.length] );
+            statistics.activated( 1, "c" + i, 1000 );
+        }
+
+        final ActivationGraph graph = new ComponentActivationGraph( holders, statistics );
+
+        assertEquals( length, graph.getCriticalPath().length );
+        assertEquals( length, graph.getCriticalPathTime() );
+        assertEquals( 0, graph.getCycles().length );
+    }
+
+
+    private ComponentHolder holder( final long bundleId, final String name, final String provides,
+        final String[] references, final boolean[] optional )
+    {
+        final ComponentMetadata metadata = new ComponentMetadata( XmlHandler.DS_VERSION_1_1 );
+        metadata.setName( name );
+        if ( provides != null )
+        {
+            final ServiceMetadata service = new ServiceMetadata();
+            service.addProvide( provides );
+            metadata.setService( service );
+        }
+        for ( int i = 0; i < references.length; i++ )
+        {
+            final ReferenceMetadata reference = new ReferenceMetadata();
+            reference.setName( "ref" + i );
+            reference.setInterface( references[i] );
+            reference.setCardinality( optional[i] ? "0..1" : "1..1" );
+            metadata.addDependency( reference );
+        }
+
+        final ComponentHolder holder = EasyMock.createNiceMock( ComponentHolder.class );
+        EasyMock.expect( holder.getComponentMetadata() ).andReturn( metadata ).anyTimes();
+        EasyMock.expect( holder.getComponents() ).andAnswer( new IAnswer<Component[]>()
+        {
+            public Component[] answer()
+            {
+                final List<Component> list = components.get( holder );
+                return ( list == null ) ? new Component[0] : list.toArray( new Component[list.size()] );
+            }
+        } ).anyTimes();
+        EasyMock.replay( new Object[]
+            { holder } );
+        holders.put( new ComponentRegistryKey( bundle( bundleId ), name ), holder );
+        return holder;
+    }
+
+
+    // binds the reference of the holder to the service of a component
+    private void bind( final ComponentHolder holder, final String referenceName, final long bundleId,
+        final String componentName )
+    {
+        final ServiceReference serviceReference = EasyMock.createNiceMock( ServiceReference.class );
+        EasyMock.expect( serviceReference.getBundle() ).andReturn( bundle( bundleId ) ).anyTimes();
+        EasyMock.expect( serviceReference.getProperty( ComponentConstants.COMPONENT_NAME ) ).andReturn(
+            componentName ).anyTimes();
+
+        final Reference reference = EasyMock.createNiceMock( Reference.class );
+        EasyMock.expect( reference.getName() ).andReturn( referenceName ).anyTimes();
+        EasyMock.expect( reference.getServiceReferences() ).andReturn( new ServiceReference[]
+            { serviceReference } ).anyTimes();
+
+        final Component component = EasyMock.createNiceMock( Component.class );
+        EasyMock.expect( component.getReferences() ).andReturn( new Reference[]
+            { reference } ).anyTimes();
+        EasyMock.replay( new Object[]
+            { serviceReference, reference, component } );
+
+        List<Component> list = components.get( holder );
+        if ( list == null )
+        {
+            list = new ArrayList<Component>();
+            components.put( holder, list );
+        }
+        list.add( component );
+    }
+
+
+    private Bundle bundle( final long bundleId )
+    {
+        final Bundle bundle = EasyMock.createNiceMock( Bundle.class );
+        EasyMock.expect( bundle.getBundleId() ).andReturn( bundleId ).anyTimes();
+        EasyMock.replay( new Object[]
+            { bundle } );
+        return bundle;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+
+public class ComponentActorThreadTest extends TestCase
+{
+
+    private ComponentStatistics statistics;
+
+    private ComponentActorThread actor;
+
+
+    @Override
+    protected void setUp()
+    {
+        statistics = new ComponentStatistics();
+        actor = new ComponentActorThread( 4, statistics );
+        actor.start();
+    }
+
+
+    @Override
+    protected void tearDown()
+    {
+        actor.terminate();
+    }
+
+
+    public void test_same_key_ordered() throws Exception
+    {
+        final Object key = new Object();
+        final List<Integer> runs = Collections.synchronizedList( new ArrayList<Integer>() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            final Integer n = i;
+            actor.schedule( key, new Runnable()
+            {
+                public void run()
+                {
+                    runs.add( n );
+                }
+            } );
+        }
+        awaitQueue();
+
+        assertEquals( 100, runs.size() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( i, runs.get( i ).intValue() );
+        }
+    }
+
+
+    public void test_different_keys_parallel() throws Exception
+    {
+        // both tasks only complete if they run at the same time
+        final CountDownLatch latch = new CountDownLatch( 2 );
+        final boolean[] done = new boolean[2];
+        for ( int i = 0; i < 2; i++ )
+        {
+            final int n = i;
+            actor.schedule( new Object(), new Runnable()
+            {
+                public void run()
+                {
+                    latch.countDown();
+                    try
+                    {
+                        done[n] = latch.await( 5, TimeUnit.SECONDS );
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } );
+        }
+        awaitQueue();
+
+        assertTrue( done[0] );
+        assertTrue( done[1] );
+    }
+
+
+    public void test_barrier() throws Exception
+    {
+        final List<String> runs = Collections.synchronizedList( new ArrayList<String>() );
+        actor.schedule( "a", new Runnable()
+        {
+            public void run()
+            {
+                sleep( 100 );
+                runs.add( "a" );
+            }
+        } );
+        actor.schedule( new Runnable()
+        {
+            public void run()
+            {
+                runs.add( "barrier" );
+            }
+        } );
+        actor.schedule( "b", new Runnable()
+        {
+            public void run()
+            {
+                runs.add( "b" );
+            }
+        } );
+        awaitQueue();
+
+        assertEquals( "a", runs.get( 0 ) );
+        assertEquals( "barrier", runs.get( 1 ) );
+        assertEquals( "b", runs.get( 2 ) );
+        assertTrue( statistics.getTaskCount() >= 3 );
+        assertTrue( statistics.getMaxQueueLength() >= 1 );
+    }
+
+
+    public void test_key_behind_blocked_key() throws Exception
+    {
+        // the tasks of a running key do not hold back the tasks of other keys
+        final CountDownLatch release = new CountDownLatch( 1 );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            actor.schedule( "a", new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        release.await( 5, TimeUnit.SECONDS );
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } );
+        }
+        final CountDownLatch ranB = new CountDownLatch( 1 );
+        actor.schedule( "b", new Runnable()
+        {
+            public void run()
+            {
+                ranB.countDown();
+            }
+        } );
+
+        assertTrue( ranB.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 999, actor.getQueueLength() );
+        release.countDown();
+        awaitQueue();
+        assertEquals( 0, actor.getQueueLength() );
+    }
+
+
+    public void test_slowest_activations()
+    {
+        for ( int i = 0; i < ComponentStatistics.SLOWEST_ACTIVATIONS + 5; i++ )
+        {
+            statistics.activated( 1, "c" + i, i * 1000L );
+        }
+
+        // a slower activation of an existing entry replaces it
+        statistics.activated( 1, "c10", 100000L );
+
+        // a component of the same name in another bundle is another entry
+        statistics.activated( 2, "c10", 50000L );
+
+        final Map slowest = statistics.getSlowestActivations();
+        assertEquals( ComponentStatistics.SLOWEST_ACTIVATIONS, slowest.size() );
+
+        final Iterator ki = slowest.keySet().iterator();
+        assertEquals( "[1] c10", ki.next() );
+        assertEquals( "[2] c10", ki.next() );
+        assertEquals( "[1] c14", ki.next() );
+        assertEquals( "[1] c13", ki.next() );
+        assertEquals( Long.valueOf( 100 ), slowest.get( "[1] c10" ) );
+        assertEquals( Long.valueOf( 50 ), slowest.get( "[2] c10" ) );
+        assertFalse( slowest.containsKey( "[1] c5" ) );
+        assertFalse( slowest.containsKey( "[1] c4" ) );
+    }
+
+
+    private void awaitQueue() throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch( 1 );
+        actor.schedule( new Runnable()
+        {
+            public void run()
+            {
+                latch.countDown();
+            }
+        } );
+        assertTrue( latch.await( 10, TimeUnit.SECONDS ) );
+    }
+
+
+    private static void sleep( final long millis )
+    {
+        try
+        {
+            Thread.sleep( millis );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.helper;
+
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+
+public class MethodInvokerGeneratorTest extends TestCase
+{
+
+    public void test_invoke_void() throws Exception
+    {
+        final Target target = new Target();
+        assertNull( getInvoker( "activate", new Class[0] ).invoke( target, new Object[0] ) );
+        assertEquals( 1, target.m_calls );
+    }
+
+
+    public void test_invoke_primitive_argument() throws Exception
+    {
+        final Target target = new Target();
+        getInvoker( "deactivate", new Class[]
+            { Integer.TYPE } ).invoke( target, new Object[]
+            { new Integer( 5 ) } );
+        assertEquals( 5, target.m_reason );
+    }
+
+
+    public void test_invoke_returning_map() throws Exception
+    {
+        final Map map = Collections.singletonMap( "key", "value" );
+        final Object result = getInvoker( "bind", new Class[]
+            { Map.class } ).invoke( new Target(), new Object[]
+            { map } );
+        assertSame( map, result );
+    }
+
+
+    public void test_exception_wrapped() throws Exception
+    {
+        try
+        {
+            getInvoker( "fail", new Class[0] ).invoke( new Target(), new Object[0] );
+            fail( "Expected InvocationTargetException" );
+        }
+        catch ( InvocationTargetException ite )
+        {
+            assertTrue( ite.getTargetException() instanceof IllegalStateException );
+        }
+    }
+
+
+    public void test_mismatch_before_call() throws Exception
+    {
+        final Target target = new Target();
+        final MethodInvoker invoker = getInvoker( "deactivate", new Class[]
+            { Integer.TYPE } );
+        try
+        {
+            invoker.invoke( target, new Object[]
+                { "5" } );
+            fail( "Expected ClassCastException" );
+        }
+        catch ( ClassCastException cce )
+        {
+            // expected
+        }
+        try
+        {
+            invoker.invoke( null, new Object[]
+                { new Integer( 5 ) } );
+            fail( "Expected NullPointerException" );
+        }
+        catch ( NullPointerException npe )
+        {
+            // expected
+        }
+        assertEquals( 0, target.m_reason );
+    }
+
+
+    public void test_shared_invoker() throws Exception
+    {
+        assertSame( getInvoker( "activate", new Class[0] ), getInvoker( "activate", new Class[0] ) );
+    }
+
+
+    public void test_unsupported() throws Exception
+    {
+        final Method method = Target.class.getDeclaredMethod( "modified", new Class[0] );
+        assertFalse( MethodInvokerGenerator.isSupported( method ) );
+        assertNull( MethodInvokerGenerator.getInvoker( method ) );
+    }
+
+
+    private MethodInvoker getInvoker( final String name, final Class[] params ) throws Exception
+    {
+        final MethodInvoker invoker = MethodInvokerGenerator.getInvoker( Target.class.getMethod( name, params ) );
+        assertNotNull( invoker );
+        return invoker;
+    }
+
+    public static class Target
+    {
+        int m_calls;
+
+        int m_reason;
+
+
+        public void activate()
+        {
+            m_calls++;
+        }
+
+
+        public void deactivate( int reason )
+        {
+            m_reason = reason;
+        }
+
+
+        protected void modified()
+        {
+            m_calls++;
+        }
+
+
+        public Map bind( Map properties )
+        {
+            return properties;
+        }
+
+
+        public void fail()
+        {
+            throw new IllegalStateException( "expected" );
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+
+public class ServiceListenerIndexTest extends TestCase
+{
+
+    private static final String FOO = "org.example.Foo";
+
+    private static final String BAR = "org.example.Bar";
+
+    private static final String FOO_FILTER = "(objectClass=" + FOO + ")";
+
+    private static final String FOO_TARGET_FILTER = "(&(objectClass=" + FOO + ")(a=b))";
+
+    private static final String EVENT_LISTENER_HOOK = "org.osgi.framework.hooks.service.EventListenerHook";
+
+    private long serviceId;
+
+    private Bundle bundle;
+
+    private ServiceListenerIndex index;
+
+
+    @Override
+    protected void setUp()
+    {
+        bundle = EasyMock.createNiceMock( Bundle.class );
+        final BundleContext context = EasyMock.createNiceMock( BundleContext.class );
+        EasyMock.replay( new Object[]
+            { bundle, context } );
+        index = new ServiceListenerIndex( context );
+    }
+
+
+    public void test_shared_filter_evaluated_once()
+    {
+        final ServiceReference ref = reference( FOO, true );
+        final Filter filter = filter();
+        EasyMock.expect( Boolean.valueOf( filter.match( ref ) ) ).andReturn( Boolean.TRUE ).times( 1 );
+        EasyMock.replay( new Object[]
+            { filter } );
+
+        final TestListener l1 = new TestListener();
+        final TestListener l2 = new TestListener();
+        index.addServiceListener( FOO, FOO_FILTER, filter, l1, bundle, false );
+        index.addServiceListener( FOO, FOO_FILTER, filter, l2, bundle, false );
+
+        index.serviceChanged( new ServiceEvent( ServiceEvent.REGISTERED, ref ) );
+
+        assertEquals( 1, l1.events.size() );
+        assertEquals( 1, l2.events.size() );
+        EasyMock.verify( new Object[]
+            { filter } );
+    }
+
+
+    public void test_other_interfaces_not_evaluated()
+    {
+        final ServiceReference ref = reference( BAR, true );
+        final Filter filter = filter();
+        EasyMock.replay( new Object[]
+            { filter } );
+
+        final TestListener l1 = new TestListener();
+        index.addServiceListener( FOO, FOO_FILTER, filter, l1, bundle, false );
+
+        index.serviceChanged( new ServiceEvent( ServiceEvent.REGISTERED, ref ) );
+
+        assertTrue( l1.events.isEmpty() );
+        EasyMock.verify( new Object[]
+            { filter } );
+    }
+
+
+    public void test_modified_endmatch()
+    {
+        final ServiceReference ref = reference( FOO, true );
+        final Filter filter = filter();
+        EasyMock.expect( Boolean.valueOf( filter.match( ref ) ) ).andReturn( Boolean.TRUE ).times( 1 );
+        EasyMock.expect( Boolean.valueOf( filter.match( ref ) ) ).andReturn( Boolean.FALSE ).times( 2 );
+        EasyMock.replay( new Object[]
+            { filter } );
+
+        final TestListener l1 = new TestListener();
+        index.addServiceListener( FOO, FOO_TARGET_FILTER, filter, l1, bundle, false );
+
+        index.serviceChanged( new ServiceEvent( ServiceEvent.REGISTERED, ref ) );
+        index.serviceChanged( new ServiceEvent( ServiceEvent.MODIFIED, ref ) );
+        index.serviceChanged( new ServiceEvent( ServiceEvent.MODIFIED, ref ) );
+
+        // the second modification does not end a match
+        assertEquals( 2, l1.events.size() );
+        assertEquals( ServiceEvent.REGISTERED, l1.events.get( 0 ).getType() );
+        assertEquals( ServiceEvent.MODIFIED_ENDMATCH, l1.events.get( 1 ).getType() );
+    }
+
+
+    public void test_modified_endmatch_not_sent_if_not_matching()
+    {
+        final ServiceReference ref = reference( FOO, true );
+        final Filter filter = filter();
+        EasyMock.expect( Boolean.valueOf( filter.match( ref ) ) ).andReturn( Boolean.FALSE ).anyTimes();
+        EasyMock.replay( new Object[]
+            { filter } );
+
+        final TestListener l1 = new TestListener();
+        index.addServiceListener( FOO, FOO_TARGET_FILTER, filter, l1, bundle, false );
+
+        index.serviceChanged( new ServiceEvent( ServiceEvent.REGISTERED, ref ) );
+        index.serviceChanged( new ServiceEvent( ServiceEvent.MODIFIED, ref ) );
+
+        assertTrue( l1.events.isEmpty() );
+    }
+
+
+    public void test_modified_endmatch_matching_before_added() throws InvalidSyntaxException
+    {
+        final ServiceReference ref = reference( FOO, true );
+        final BundleContext context = EasyMock.createNiceMock( BundleContext.class );
+        EasyMock.expect( context.getAllServiceReferences( FOO, FOO_TARGET_FILTER ) ).andReturn( new ServiceReference[]
+            { ref } );
+        final Filter filter = filter();
+        EasyMock.expect( Boolean.valueOf( filter.match( ref ) ) ).andReturn( Boolean.FALSE ).anyTimes();
+        EasyMock.replay( new Object[]
+            { context, filter } );
+        index = new ServiceListenerIndex( context );
+
+        final TestListener l1 = new TestListener();
+        index.addServiceListener( FOO, FOO_TARGET_FILTER, filter, l1, bundle, false );
+
+        index.serviceChanged( new ServiceEvent( ServiceEvent.MODIFIED, ref ) );
+
+        assertEquals( 1, l1.events.size() );
+        assertEquals( ServiceEvent.MODIFIED_ENDMATCH, l1.events.get( 0 ).getType() );
+    }
+
+
+    public void test_event_listener_hooks() throws InvalidSyntaxException
+    {
+        assertTrue( index.isUsable() );
+
+        final ServiceReference hook = reference( EVENT_LISTENER_HOOK, true );
+        index.serviceChanged( new ServiceEvent( ServiceEvent.REGISTERED, hook ) );
+        assertFalse( index.isUsable() );
+
+        index.serviceChanged( new ServiceEvent( ServiceEvent.UNREGISTERING, hook ) );
+        assertTrue( index.isUsable() );
+
+        // hooks registered before the index
+        final BundleContext context = EasyMock.createNiceMock( BundleContext.class );
+        EasyMock.expect( context.getAllServiceReferences( EVENT_LISTENER_HOOK, null ) ).andReturn(
+            new ServiceReference[]
+                { hook } );
+        EasyMock.replay( new Object[]
+            { context } );
+        assertFalse( new ServiceListenerIndex( context ).isUsable() );
+    }
+
+
+    public void test_tracker_registers_own_listener_with_hooks() throws InvalidSyntaxException
+    {
+        final Filter filter = filter();
+        EasyMock.replay( new Object[]
+            { filter } );
+        final String filterString = filter.toString();
+
+        final ServiceReference hook = reference( EVENT_LISTENER_HOOK, true );
+        index.serviceChanged( new ServiceEvent( ServiceEvent.REGISTERED, hook ) );
+
+        // the framework sees a listener of the component bundle
+        final BundleContext context = EasyMock.createNiceMock( BundleContext.class );
+        context.addServiceListener( ( ServiceListener ) EasyMock.isA( ServiceListener.class ), EasyMock
+            .eq( filterString ) );
+        EasyMock.expectLastCall().times( 1 );
+        context.removeServiceListener( ( ServiceListener ) EasyMock.isA( ServiceListener.class ) );
+        EasyMock.expectLastCall().times( 1 );
+        EasyMock.replay( new Object[]
+            { context } );
+
+        final ServiceTracker<Object, Object> tracker = new ServiceTracker<Object, Object>( context, filter, null,
+            true, index, FOO );
+        tracker.open( new AtomicInteger() );
+
+        // hooks going away do not change the listener of an open tracker
+        index.serviceChanged( new ServiceEvent( ServiceEvent.UNREGISTERING, hook ) );
+        tracker.close( new AtomicInteger() );
+
+        EasyMock.verify( new Object[]
+            { context } );
+    }
+
+
+    public void test_not_assignable()
+    {
+        final ServiceReference ref = reference( FOO, false );
+        final Filter filter = filter();
+        EasyMock.expect( Boolean.valueOf( filter.match( ref ) ) ).andReturn( Boolean.TRUE ).anyTimes();
+        EasyMock.replay( new Object[]
+            { filter } );
+
+        final TestListener l1 = new TestListener();
+        final TestListener all = new TestListener();
+        index.addServiceListener( FOO, FOO_FILTER, filter, l1, bundle, false );
+        index.addServiceListener( FOO, FOO_FILTER, filter, all, bundle, true );
+
+        index.serviceChanged( new ServiceEvent( ServiceEvent.REGISTERED, ref ) );
+
+        assertTrue( l1.events.isEmpty() );
+        assertEquals( 1, all.events.size() );
+    }
+
+
+    public void test_remove()
+    {
+        final ServiceReference ref = reference( FOO, true );
+        final Filter f1 = filter();
+        final Filter f2 = filter();
+        EasyMock.expect( Boolean.valueOf( f2.match( ref ) ) ).andReturn( Boolean.TRUE ).anyTimes();
+        EasyMock.replay( new Object[]
+            { f1, f2 } );
+
+        final TestListener l1 = new TestListener();
+        final TestListener l2 = new TestListener();
+        index.addServiceListener( FOO, FOO_FILTER, f1, l1, bundle, false );
+        index.addServiceListener( FOO, FOO_TARGET_FILTER, f2, l2, bundle, false );
+        index.removeServiceListener( FOO, l1 );
+
+        index.serviceChanged( new ServiceEvent( ServiceEvent.REGISTERED, ref ) );
+
+        // f1 is not evaluated any more
+        assertTrue( l1.events.isEmpty() );
+        assertEquals( 1, l2.events.size() );
+        EasyMock.verify( new Object[]
+            { f1 } );
+    }
+
+
+    private ServiceReference reference( final String className, final boolean assignable )
+    {
+        final ServiceReference ref = EasyMock.createNiceMock( ServiceReference.class );
+        EasyMock.expect( ref.getProperty( Constants.OBJECTCLASS ) ).andReturn( new String[]
+            { className } ).anyTimes();
+        EasyMock.expect( ref.getProperty( Constants.SERVICE_ID ) ).andReturn( new Long( ++serviceId ) ).anyTimes();
+        EasyMock.expect( Boolean.valueOf( ref.isAssignableTo( bundle, className ) ) ).andReturn(
+            Boolean.valueOf( assignable ) ).anyTimes();
+        EasyMock.replay( new Object[]
+            { ref } );
+        return ref;
+    }
+
+
+    private Filter filter()
+    {
+        return EasyMock.createMock( Filter.class );
+    }
+
+    private static class TestListener implements ServiceListenerIndex.Listener
+    {
+
+        final List<ServiceEvent> events = new ArrayList<ServiceEvent>();
+
+
+        public void serviceChanged( final ServiceEvent event )
+        {
+            events.add( event );
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.parser;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.scr.impl.MockBundle;
+import org.apache.felix.scr.impl.MockLogger;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.XmlHandler;
+
+
+public class BinaryDescriptorParserTest extends TestCase
+{
+
+    private static final String NS = "http://www.osgi.org/xmlns/scr/v1.1.0";
+
+    private static final byte[] XML = "<scr:component xmlns:scr='http://www.osgi.org/xmlns/scr/v1.1.0' name='c'/>"
+        .getBytes();
+
+
+    public void test_getBinaryPath()
+    {
+        assertEquals( "OSGI-OPT/scr/OSGI-INF/c.xml.bin", BinaryDescriptorParser.getBinaryPath( "/OSGI-INF/c.xml" ) );
+        assertEquals( "OSGI-OPT/scr/OSGI-INF/c.xml.bin", BinaryDescriptorParser.getBinaryPath( "OSGI-INF/c.xml" ) );
+    }
+
+
+    public void test_parse() throws Exception
+    {
+        final XmlHandler handler = new XmlHandler( new MockBundle(), new MockLogger() );
+        assertTrue( new BinaryDescriptorParser( new ByteArrayInputStream( binary( XML, BinaryDescriptorParser.VERSION ) ) )
+            .parse( XML, handler ) );
+
+        final List metadata = handler.getComponentMetadataList();
+        assertEquals( 1, metadata.size() );
+        final ComponentMetadata cm = ( ComponentMetadata ) metadata.get( 0 );
+        assertEquals( "c", cm.getName() );
+        assertEquals( "org.example.C", cm.getImplementationClassName() );
+    }
+
+
+    public void test_stale() throws Exception
+    {
+        final byte[] changed = ( byte[] ) XML.clone();
+        changed[changed.length - 4] = 'd';
+
+        final XmlHandler handler = new XmlHandler( new MockBundle(), new MockLogger() );
+        assertFalse( new BinaryDescriptorParser( new ByteArrayInputStream( binary( XML, BinaryDescriptorParser.VERSION ) ) )
+            .parse( changed, handler ) );
+        assertTrue( handler.getComponentMetadataList().isEmpty() );
+    }
+
+
+    public void test_unknown_version() throws Exception
+    {
+        final XmlHandler handler = new XmlHandler( new MockBundle(), new MockLogger() );
+        assertFalse( new BinaryDescriptorParser( new ByteArrayInputStream( binary( XML, 99 ) ) ).parse( XML, handler ) );
+        assertTrue( handler.getComponentMetadataList().isEmpty() );
+    }
+
+
+    public void test_truncated() throws Exception
+    {
+        final byte[] binary = binary( XML, BinaryDescriptorParser.VERSION );
+        final byte[] truncated = new byte[binary.length - 3];
+        System.arraycopy( binary, 0, truncated, 0, truncated.length );
+        try
+        {
+            new BinaryDescriptorParser( new ByteArrayInputStream( truncated ) ).parse( XML,
+                new XmlHandler( new MockBundle(), new MockLogger() ) );
+            fail( "Expected IOException" );
+        }
+        catch ( IOException ioe )
+        {
+            // expected
+        }
+    }
+
+
+    // binary form of <scr:component name="c"><implementation class="org.example.C"/></scr:component>
+    private static byte[] binary( final byte[] xml, final int version ) throws IOException
+    {
+        final CRC32 crc = new CRC32();
+        crc.update( xml, 0, xml.length );
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( BinaryDescriptorParser.MAGIC );
+        out.writeInt( version );
+        out.writeInt( xml.length );
+        out.writeLong( crc.getValue() );
+
+        final String[] strings =
+            { NS, "component", "name", "c", "", "implementation", "class", "org.example.C" };
+        out.write( strings.length );
+        for ( int i = 0; i < strings.length; i++ )
+        {
+            out.writeUTF( strings[i] );
+        }
+
+        out.write( new byte[]
+            { BinaryDescriptorParser.START_ELEMENT, 1, 1, 0, 1, 1, 2, 3 } );
+        out.write( new byte[]
+            { BinaryDescriptorParser.START_ELEMENT, 1, 2, 4, 5, 1, 6, 7 } );
+        out.write( new byte[]
+            { BinaryDescriptorParser.END_ELEMENT, 1, 3, 4, 5 } );
+        out.write( new byte[]
+            { BinaryDescriptorParser.END_ELEMENT, 1, 4, 0, 1 } );
+        out.write( BinaryDescriptorParser.END_DOCUMENT );
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -37,6 +37,7 @@ import org.apache.felix.scrplugin.Result;
 import org.apache.felix.scrplugin.SCRDescriptorGenerator;
 import org.apache.felix.scrplugin.Source;
 import org.apache.felix.scrplugin.SpecVersion;
+import org.apache.felix.scrplugin.xml.BinaryDescriptorIO;
 
 import aQute.bnd.osgi.Analyzer;
 import aQute.bnd.osgi.Clazz;
@@ -92,6 +93,12 @@ public class SCRDescriptorBndPlugin implements AnalyzerPlugin, Plugin {
 	 */
 	private static final String GENSEPDESC = "genSeparateDescs";
 
+	/**
+	 * "genBinaryDescs" parameter, optionally provided in the "-plugin"
+	 * directive.
+	 */
+	private static final String GENBINDESC = "genBinaryDescs";
+
 	/**
 	 * "log" parameter, which may be provided in the "-plugin" directive.
 	 */
@@ -138,6 +145,11 @@ public class SCRDescriptorBndPlugin implements AnalyzerPlugin, Plugin {
 	 */
 	private boolean generateSeparateDescriptors = true;
 
+	/**
+	 * Do we must generate precompiled binary descriptors
+	 */
+	private boolean generateBinaryDescriptors = false;
+
 	/**
 	 * Bnd plugin properties.
 	 */
@@ -192,6 +204,7 @@ public class SCRDescriptorBndPlugin implements AnalyzerPlugin, Plugin {
 			options.setProperties(new HashMap<String, String>());
 			options.setSpecVersion(specVersion);
 			options.setGenerateSeparateDescriptors(generateSeparateDescriptors);
+			options.setGenerateBinaryDescriptors(generateBinaryDescriptors);
 
 			final SCRDescriptorGenerator generator = new SCRDescriptorGenerator(
 					log);
@@ -211,6 +224,9 @@ public class SCRDescriptorBndPlugin implements AnalyzerPlugin, Plugin {
 					sb.append(scrFile);
 					sb.append(",");
 					putResource(analyzer, scrFile);
+					if (generateBinaryDescriptors) {
+						putResource(analyzer, BinaryDescriptorIO.getBinaryLocation(scrFile));
+					}
 				}
 				sb.setLength(sb.length() - 1);
 				analyzer.setProperty("Service-Component", sb.toString());
@@ -257,6 +273,8 @@ public class SCRDescriptorBndPlugin implements AnalyzerPlugin, Plugin {
 		}
 		generateSeparateDescriptors = parseOption(properties, GENSEPDESC,
 				generateSeparateDescriptors);
+		generateBinaryDescriptors = parseOption(properties, GENBINDESC,
+				generateBinaryDescriptors);
 
 		if (log.isInfoEnabled()) {
 			log.info("Initialized Bnd ScrPlugin: destDir=" + destDir
@@ -264,7 +282,9 @@ public class SCRDescriptorBndPlugin implements AnalyzerPlugin, Plugin {
 					+ metaTypeName + ", strictMode=" + strictMode
 					+ ", specVersion=" + specVersion
 					+ ", generateSeparateDescriptors="
-					+ generateSeparateDescriptors);
+					+ generateSeparateDescriptors
+					+ ", generateBinaryDescriptors="
+					+ generateBinaryDescriptors);
 		}
 	}
 
@@ -52,6 +52,9 @@ public class Options {
     /** Flag for generating separate descriptor files. */
     private boolean generateSeparateDescriptors = false;
 
+    /** Flag for generating binary descriptor files. */
+    private boolean generateBinaryDescriptors = false;
+
     /**
      * @see #setGenerateAccessors(boolean)
      * @return Whether accessor methods should be generated.
@@ -206,6 +209,23 @@ public class Options {
         this.generateSeparateDescriptors = generateSeparateDescriptors;
     }
 
+    /**
+     * Should precompiled binary descriptors be generated in addition
+     * to the xml descriptors?
+     */
+    public boolean isGenerateBinaryDescriptors() {
+        return generateBinaryDescriptors;
+    }
+
+    /**
+     * Set whether precompiled binary descriptors should be generated.
+     * The SCR runtime loads those instead of parsing the xml descriptors.
+     * @param generateBinaryDescriptors
+     */
+    public void setGenerateBinaryDescriptors(boolean generateBinaryDescriptors) {
+        this.generateBinaryDescriptors = generateBinaryDescriptors;
+    }
+
     private static final String PARENT_NAME = "OSGI-INF";
 
     /**
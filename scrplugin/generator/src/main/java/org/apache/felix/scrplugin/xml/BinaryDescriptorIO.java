@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scrplugin.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * <code>BinaryDescriptorIO</code>
+ *
+ * writes the precompiled binary form of a component descriptor which
+ * is loaded by the SCR runtime instead of parsing the XML descriptor.
+ *
+ * The binary descriptor is a replay of the parsing events of the XML
+ * descriptor and contains the length and CRC-32 checksum of the XML
+ * descriptor, the runtime ignores it if the XML descriptor has been
+ * changed. The format is documented in the runtime
+ * (<code>org.apache.felix.scr.impl.parser.BinaryDescriptorParser</code>).
+ */
+public class BinaryDescriptorIO {
+
+    /** The folder containing the binary descriptors, relative to the output directory. */
+    public static final String BINARY_FOLDER = "OSGI-OPT/scr";
+
+    /** The extension of binary descriptors. */
+    public static final String BINARY_EXTENSION = ".bin";
+
+    private static final int MAGIC = 0x53435242;
+
+    private static final int VERSION = 1;
+
+    private static final int END_DOCUMENT = 0;
+
+    private static final int START_ELEMENT = 1;
+
+    private static final int END_ELEMENT = 2;
+
+    private static final int TEXT = 3;
+
+    /**
+     * Get the location of the binary descriptor of an xml descriptor.
+     * @param descriptorLocation The location of the xml descriptor relative to the output directory.
+     * @return The location of the binary descriptor relative to the output directory.
+     */
+    public static String getBinaryLocation(final String descriptorLocation) {
+        final String path = descriptorLocation.startsWith("/") ? descriptorLocation : "/" + descriptorLocation;
+        return BINARY_FOLDER + path + BINARY_EXTENSION;
+    }
+
+    /**
+     * Generate the binary descriptor for an xml descriptor.
+     * @param descriptorFile The xml descriptor
+     * @param binaryFile The binary descriptor to write
+     */
+    public static void generateBinary(final File descriptorFile, final File binaryFile)
+    throws IOException, SAXException {
+        final byte[] xml = readFully(descriptorFile);
+
+        final Recorder recorder = new Recorder();
+        try {
+            final SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.newSAXParser().parse(new ByteArrayInputStream(xml), recorder);
+        } catch (final ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+
+        binaryFile.getParentFile().mkdirs();
+        final OutputStream out = new FileOutputStream(binaryFile);
+        try {
+            recorder.write(xml, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] readFully(final File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int l;
+            while ((l = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, l);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Records the parsing events and the string table.
+     * Consecutive character events are merged into a single text event
+     * and processing instructions are skipped, as done by the runtime
+     * xml parser.
+     */
+    private static final class Recorder extends DefaultHandler {
+
+        private final List<String> strings = new ArrayList<String>();
+
+        private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+
+        private final ByteArrayOutputStream events = new ByteArrayOutputStream();
+
+        private final StringBuilder text = new StringBuilder();
+
+        private int textLine;
+
+        private int textColumn;
+
+        private Locator locator;
+
+        @Override
+        public void setDocumentLocator(final Locator locator) {
+            this.locator = locator;
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName, final Attributes attributes) {
+            this.flushText();
+            this.event(START_ELEMENT, this.getLine(), this.getColumn());
+            this.string(uri);
+            this.string(localName);
+            this.varInt(attributes.getLength());
+            for (int i = 0; i < attributes.getLength(); i++) {
+                final String name = attributes.getLocalName(i);
+                this.string(name == null || name.length() == 0 ? attributes.getQName(i) : name);
+                this.string(attributes.getValue(i));
+            }
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) {
+            this.flushText();
+            this.event(END_ELEMENT, this.getLine(), this.getColumn());
+            this.string(uri);
+            this.string(localName);
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) {
+            if (this.text.length() == 0) {
+                this.textLine = this.getLine();
+                this.textColumn = this.getColumn();
+            }
+            this.text.append(ch, start, length);
+        }
+
+        @Override
+        public void ignorableWhitespace(final char[] ch, final int start, final int length) {
+            this.characters(ch, start, length);
+        }
+
+        @Override
+        public void endDocument() {
+            this.flushText();
+            this.events.write(END_DOCUMENT);
+        }
+
+        /**
+         * Write the binary descriptor.
+         * @param xml The xml descriptor the events have been recorded from
+         * @param out The output stream
+         */
+        public void write(final byte[] xml, final OutputStream out) throws IOException {
+            final CRC32 crc = new CRC32();
+            crc.update(xml, 0, xml.length);
+
+            final DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(xml.length);
+            data.writeLong(crc.getValue());
+            writeVarInt(data, this.strings.size());
+            for (final String s : this.strings) {
+                data.writeUTF(s);
+            }
+            this.events.writeTo(data);
+            data.flush();
+        }
+
+        private void flushText() {
+            if (this.text.length() > 0) {
+                this.event(TEXT, this.textLine, this.textColumn);
+                this.string(this.text.toString());
+                this.text.setLength(0);
+            }
+        }
+
+        private void event(final int type, final int line, final int column) {
+            this.events.write(type);
+            this.varInt(line);
+            this.varInt(column);
+        }
+
+        private void string(final String value) {
+            Integer index = this.stringIndexes.get(value);
+            if (index == null) {
+                index = this.strings.size();
+                this.strings.add(value);
+                this.stringIndexes.put(value, index);
+            }
+            this.varInt(index);
+        }
+
+        private void varInt(final int value) {
+            try {
+                writeVarInt(this.events, value);
+            } catch (final IOException e) {
+                // not thrown by a byte array output stream
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private int getLine() {
+            return this.locator == null ? 0 : Math.max(0, this.locator.getLineNumber());
+        }
+
+        private int getColumn() {
+            return this.locator == null ? 0 : Math.max(0, this.locator.getColumnNumber());
+        }
+    }
+
+    private static void writeVarInt(final OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
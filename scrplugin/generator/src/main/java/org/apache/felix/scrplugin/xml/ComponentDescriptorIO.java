@@ -787,6 +787,12 @@ public class ComponentDescriptorIO {
             }
             try {
                 ComponentDescriptorIO.generateXML(module, ccc.components, useFile, logger);
+                if ( options.isGenerateBinaryDescriptors() ) {
+                    final File binaryFile = new File(options.getOutputDirectory(),
+                            BinaryDescriptorIO.getBinaryLocation(PARENT_NAME + '/' + useFile.getName()));
+                    logger.debug("Writing binary descriptor " + binaryFile);
+                    BinaryDescriptorIO.generateBinary(useFile, binaryFile);
+                }
             } catch (final IOException e) {
                 throw new SCRDescriptorException("Unable to generate xml", descriptorFile.toString(), e);
             } catch (final TransformerException e) {
@@ -140,6 +140,15 @@ public class SCRDescriptorMojo extends AbstractMojo {
      */
     private boolean generateSeparateDescriptors;
 
+    /**
+     * If set to true, a precompiled binary form of each descriptor is
+     * generated into OSGI-OPT/scr. The SCR runtime loads it instead of
+     * parsing the xml descriptor.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean generateBinaryDescriptors;
+
     /**
      * The comma separated list of tokens to include when processing sources.
      *
@@ -226,6 +235,7 @@ public class SCRDescriptorMojo extends AbstractMojo {
         options.setProperties(properties);
         options.setSpecVersion(SpecVersion.fromName(specVersion));
         options.setGenerateSeparateDescriptors(this.generateSeparateDescriptors);
+        options.setGenerateBinaryDescriptors(this.generateBinaryDescriptors);
 
         if ( specVersion != null && options.getSpecVersion() == null ) {
             throw new MojoExecutionException("Unknown spec version specified: " + specVersion);
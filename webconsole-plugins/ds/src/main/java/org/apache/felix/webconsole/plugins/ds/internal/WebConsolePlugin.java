@@ -22,12 +22,15 @@ import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Dictionary;
 import java.util.Iterator;
+import java.util.List;
 import java.util.TreeSet;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.felix.scr.ActivationGraph;
+import org.apache.felix.scr.ActivationNode;
 import org.apache.felix.scr.Component;
 import org.apache.felix.scr.Reference;
 import org.apache.felix.scr.ScrService;
@@ -228,6 +231,12 @@ class WebConsolePlugin extends SimpleWebConsolePlugin
                         }
                     }
                     jw.endArray();
+
+                    // activation graph of all components
+                    if (component == null)
+                    {
+                        activationGraph(jw, scrService);
+                    }
                 }
             }
 
@@ -239,6 +248,94 @@ class WebConsolePlugin extends SimpleWebConsolePlugin
         }
     }
 
+    private void activationGraph(JSONWriter jw, ScrService scrService)
+        throws JSONException
+    {
+        final ActivationGraph graph;
+        try
+        {
+            graph = scrService.getActivationGraph();
+        }
+        catch (Throwable t)
+        {
+            // missing implementation of said method in the actually bound API
+            // ignore this and just don't display the information
+            return;
+        }
+
+        jw.key("criticalPathTime"); //$NON-NLS-1$
+        jw.value(graph.getCriticalPathTime());
+        jw.key("criticalPath"); //$NON-NLS-1$
+        jw.array();
+        final ActivationNode[] path = graph.getCriticalPath();
+        for (int i = 0; i < path.length; i++)
+        {
+            jw.value(path[i].getName());
+        }
+        jw.endArray();
+
+        jw.key("cycles"); //$NON-NLS-1$
+        jw.array();
+        final ActivationNode[][] cycles = graph.getCycles();
+        for (int i = 0; i < cycles.length; i++)
+        {
+            jw.array();
+            for (int j = 0; j < cycles[i].length; j++)
+            {
+                jw.value(cycles[i][j].getName());
+            }
+            jw.endArray();
+        }
+        jw.endArray();
+    }
+
+    private void listActivation(JSONWriter jw, Component component)
+    {
+        final ActivationNode[] nodes;
+        try
+        {
+            final ScrService scrService = getScrService();
+            if (scrService == null)
+            {
+                return;
+            }
+            nodes = scrService.getActivationGraph().getNodes();
+        }
+        catch (Throwable t)
+        {
+            // missing implementation of said method in the actually bound API
+            // ignore this and just don't display the information
+            return;
+        }
+
+        for (int i = 0; i < nodes.length; i++)
+        {
+            if (nodes[i].getName().equals(component.getName())
+                && nodes[i].getBundleId() == component.getBundle().getBundleId())
+            {
+                JSONArray buf = new JSONArray();
+                buf.put("Bind: " + nodes[i].getBindTime() + "us");
+                buf.put("Activate: " + nodes[i].getActivateTime() + "us");
+                buf.put("Service Registration: " + nodes[i].getRegistrationTime() + "us");
+                keyVal(jw, "Activation Time", buf);
+
+                final ActivationNode[] dependencies = nodes[i].getDependencies();
+                if (dependencies.length > 0)
+                {
+                    final List mandatory = Arrays.asList(nodes[i].getMandatoryDependencies());
+                    buf = new JSONArray();
+                    for (int j = 0; j < dependencies.length; j++)
+                    {
+                        buf.put(dependencies[j].getName()
+                            + (mandatory.contains(dependencies[j]) ? "" : " (optional)"));
+                    }
+                    keyVal(jw, "Depends On", buf);
+                }
+                return;
+            }
+        }
+    }
+
     private void sortComponents(Component[] components)
     {
         Arrays.sort(components, Util.COMPONENT_COMPARATOR);
@@ -315,6 +412,7 @@ class WebConsolePlugin extends SimpleWebConsolePlugin
 
         listServices(jw, component);
         listReferences(jw, component);
+        listActivation(jw, component);
         listProperties(jw, component);
 
         jw.endArray();
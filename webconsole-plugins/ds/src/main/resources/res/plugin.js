@@ -27,6 +27,7 @@ function renderData( eventData )  {
 		default:
 			$('.statline').html(i18n.stat_ok.msgFormat(eventData.status));
 			$('#scr').removeClass('ui-helper-hidden');
+			renderGraph(eventData);
 
 			tableBody.empty();
 			for ( var idx in eventData.data ) {
@@ -37,6 +38,20 @@ function renderData( eventData )  {
 	}
 }
 
+function renderGraph( eventData ) {
+	var txt = '';
+	if ( eventData.criticalPath && eventData.criticalPath.length > 0 ) {
+		txt = i18n.graph_critical.msgFormat(eventData.criticalPathTime) + ' ' + eventData.criticalPath.join(' &rarr; ');
+	}
+	if ( eventData.cycles ) {
+		for ( var idx in eventData.cycles ) {
+			var cycle = eventData.cycles[idx];
+			txt = txt + '<br/><span style="color: red;">' + i18n.graph_cycle + ' ' + cycle.join(' &rarr; ') + ' &rarr; ' + cycle[0] + '</span>';
+		}
+	}
+	$('.graphline').html(txt ? txt : '&nbsp;');
+}
+
 function getEntryId(/* Object */ dataEntry) {
     var id = dataEntry.id;
     if (id < 0) {